@@ -0,0 +1,323 @@
+package fr.utbm.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Generates synthetic STL and 3DS files of a given size for the benchmarks.
+ *
+ * <p>
+ * The fixtures are a square height field made of cells of two triangles, so their content is deterministic and
+ * welding finds the shared points of a real mesh. 3DS files hold the field in tiles of {@value #TILE_CELLS} by
+ * {@value #TILE_CELLS} cells, 3DS objects being limited to 65535 points.
+ * </p>
+ */
+public final class FixtureGenerator {
+
+    /**
+     * Binary STL fixture format.
+     */
+    public static final String STL = "stl";
+
+    /**
+     * ASCII STL fixture format.
+     */
+    public static final String ASCII_STL = "stl-ascii";
+
+    /**
+     * 3DS fixture format.
+     */
+    public static final String TDS = "3ds";
+
+    private static final int TILE_CELLS = 128;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final int CHUNK_HEADER = 6;
+    private static final int MAIN_CHUNK = 0x4D4D;
+    private static final int VERSION_CHUNK = 0x0002;
+    private static final int EDITOR_CHUNK = 0x3D3D;
+    private static final int MESH_VERSION_CHUNK = 0x3D3E;
+    private static final int OBJECT_CHUNK = 0x4000;
+    private static final int TRIANGLE_MESH_CHUNK = 0x4100;
+    private static final int POINTS_CHUNK = 0x4110;
+    private static final int FACES_CHUNK = 0x4120;
+    private static final int SMOOTHING_GROUPS_CHUNK = 0x4150;
+
+    private FixtureGenerator() {
+    }
+
+    /**
+     * Generates a fixture file, reusing a previously generated one.
+     *
+     * <p>
+     * Usage: {@code FixtureGenerator <stl|stl-ascii|3ds> <triangles> [directory]}
+     * </p>
+     *
+     * @param args the format, the number of triangles and the optional output directory
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length < 2) {
+            System.err.println("Usage: FixtureGenerator <stl|stl-ascii|3ds> <triangles> [directory]");
+            System.exit(1);
+        }
+        final File directory = args.length > 2 ? new File(args[2]) : getDefaultDirectory();
+        System.out.println(generate(args[0], Integer.parseInt(args[1]), directory));
+    }
+
+    /**
+     * Gets the directory fixtures are generated in by default, {@code fr.utbm.benchmark.fixtures} if set or a
+     * directory of the temporary directory.
+     *
+     * @return the default fixture directory
+     */
+    public static File getDefaultDirectory() {
+
+        final String directory = System.getProperty("fr.utbm.benchmark.fixtures");
+        return directory != null ? new File(directory)
+                : new File(System.getProperty("java.io.tmpdir"), "javafx3dimporter-fixtures");
+    }
+
+    /**
+     * Generates a fixture file unless it already exists.
+     *
+     * @param format the format of the file, {@link #STL}, {@link #ASCII_STL} or {@link #TDS}
+     * @param triangles the minimum number of triangles of the file
+     * @param directory the directory of the file
+     * @return the fixture file
+     * @throws IOException if the file cannot be written
+     */
+    public static File generate(final String format, final int triangles, final File directory) throws IOException {
+
+        final int cells = (int) Math.ceil(Math.sqrt(triangles / 2.0));
+        final String extension = TDS.equals(format) ? "3ds" : "stl";
+        final File file = new File(directory, "fixture-" + format + "-" + triangles + "." + extension);
+        if (file.isFile()) {
+            return file;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create fixture directory [" + directory + "]");
+        }
+
+        // written aside then renamed, so an interrupted generation does not leave a truncated fixture
+        final File temp = new File(directory, file.getName() + ".tmp");
+        switch (format) {
+        case STL:
+            writeBinaryStl(temp, cells);
+            break;
+        case ASCII_STL:
+            writeAsciiStl(temp, cells);
+            break;
+        case TDS:
+            write3ds(temp, cells);
+            break;
+        default:
+            throw new IOException("Unknown fixture format [" + format + "]");
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot rename fixture [" + temp + "]");
+        }
+        return file;
+    }
+
+    private static float height(final int x, final int y) {
+        return (float) (Math.sin(x * 0.1) * Math.cos(y * 0.13) * 5);
+    }
+
+    /**
+     * Gets the point coordinates of the corners of a triangle of the field.
+     *
+     * @param x the column of the cell
+     * @param y the row of the cell
+     * @param second {@code false} for the first triangle of the cell, {@code true} for the second
+     * @param corners the array receiving the nine coordinates
+     */
+    private static void triangle(final int x, final int y, final boolean second, final float[] corners) {
+
+        final int[] cornerX = second ? new int[] { x + 1, x + 1, x } : new int[] { x, x + 1, x };
+        final int[] cornerY = second ? new int[] { y, y + 1, y + 1 } : new int[] { y, y, y + 1 };
+        for (int i = 0; i < 3; i++) {
+            corners[i * 3] = cornerX[i];
+            corners[i * 3 + 1] = cornerY[i];
+            corners[i * 3 + 2] = height(cornerX[i], cornerY[i]);
+        }
+    }
+
+    private static void writeBinaryStl(final File file, final int cells) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(new byte[80]);
+            buffer.putInt(cells * cells * 2);
+
+            final float[] corners = new float[9];
+            for (int y = 0; y < cells; y++) {
+                for (int x = 0; x < cells; x++) {
+                    for (int t = 0; t < 2; t++) {
+                        ensureRemaining(channel, buffer, 50);
+                        triangle(x, y, t == 1, corners);
+                        // normals are left null, as readers recompute them
+                        buffer.putFloat(0).putFloat(0).putFloat(0);
+                        for (float corner : corners) {
+                            buffer.putFloat(corner);
+                        }
+                        buffer.putShort((short) 0);
+                    }
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void writeAsciiStl(final File file, final int cells) throws IOException {
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+                StandardCharsets.US_ASCII), BUFFER_SIZE)) {
+            writer.write("solid fixture\n");
+            final float[] corners = new float[9];
+            for (int y = 0; y < cells; y++) {
+                for (int x = 0; x < cells; x++) {
+                    for (int t = 0; t < 2; t++) {
+                        triangle(x, y, t == 1, corners);
+                        writer.write("  facet normal 0 0 0\n    outer loop\n");
+                        for (int i = 0; i < 9; i += 3) {
+                            writer.write(String.format(Locale.ROOT, "      vertex %e %e %e\n", corners[i],
+                                    corners[i + 1], corners[i + 2]));
+                        }
+                        writer.write("    endloop\n  endfacet\n");
+                    }
+                }
+            }
+            writer.write("endsolid fixture\n");
+        }
+    }
+
+    private static void write3ds(final File file, final int cells) throws IOException {
+
+        final int tiles = (cells + TILE_CELLS - 1) / TILE_CELLS;
+        long editorLength = CHUNK_HEADER + CHUNK_HEADER + 4;
+        for (int tileY = 0; tileY < tiles; tileY++) {
+            for (int tileX = 0; tileX < tiles; tileX++) {
+                editorLength += objectLength(tileName(tileX, tileY), tileCells(cells, tileX), tileCells(cells, tileY));
+            }
+        }
+        final long mainLength = CHUNK_HEADER + CHUNK_HEADER + 4 + editorLength;
+        if (mainLength > Integer.MAX_VALUE) {
+            throw new IOException("Fixture too large for the 3DS format [" + cells + " cells]");
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            putChunkHeader(buffer, MAIN_CHUNK, mainLength);
+            putChunkHeader(buffer, VERSION_CHUNK, CHUNK_HEADER + 4);
+            buffer.putInt(3);
+            putChunkHeader(buffer, EDITOR_CHUNK, editorLength);
+            putChunkHeader(buffer, MESH_VERSION_CHUNK, CHUNK_HEADER + 4);
+            buffer.putInt(3);
+
+            for (int tileY = 0; tileY < tiles; tileY++) {
+                for (int tileX = 0; tileX < tiles; tileX++) {
+                    writeTile(channel, buffer, tileX, tileY, tileCells(cells, tileX), tileCells(cells, tileY));
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static int tileCells(final int cells, final int tile) {
+        return Math.min(TILE_CELLS, cells - tile * TILE_CELLS);
+    }
+
+    private static String tileName(final int tileX, final int tileY) {
+        return "t" + tileX + "_" + tileY;
+    }
+
+    private static long objectLength(final String name, final int cellsX, final int cellsY) {
+
+        final long pointCount = (cellsX + 1L) * (cellsY + 1L);
+        final long faceCount = cellsX * cellsY * 2L;
+        final long pointsLength = CHUNK_HEADER + 2 + pointCount * 12;
+        final long facesLength = CHUNK_HEADER + 2 + faceCount * 8 + CHUNK_HEADER + faceCount * 4;
+        return CHUNK_HEADER + name.length() + 1 + CHUNK_HEADER + pointsLength + facesLength;
+    }
+
+    private static void writeTile(final FileChannel channel, final ByteBuffer buffer, final int tileX,
+            final int tileY, final int cellsX, final int cellsY) throws IOException {
+
+        final String name = tileName(tileX, tileY);
+        final int pointCount = (cellsX + 1) * (cellsY + 1);
+        final int faceCount = cellsX * cellsY * 2;
+        final long objectLength = objectLength(name, cellsX, cellsY);
+
+        ensureRemaining(channel, buffer, 4 * CHUNK_HEADER + name.length() + 3);
+        putChunkHeader(buffer, OBJECT_CHUNK, objectLength);
+        buffer.put(name.getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+        putChunkHeader(buffer, TRIANGLE_MESH_CHUNK, objectLength - CHUNK_HEADER - name.length() - 1);
+
+        putChunkHeader(buffer, POINTS_CHUNK, CHUNK_HEADER + 2 + pointCount * 12L);
+        buffer.putShort((short) pointCount);
+        final int originX = tileX * TILE_CELLS;
+        final int originY = tileY * TILE_CELLS;
+        for (int y = 0; y <= cellsY; y++) {
+            for (int x = 0; x <= cellsX; x++) {
+                ensureRemaining(channel, buffer, 12);
+                buffer.putFloat(originX + x).putFloat(originY + y).putFloat(height(originX + x, originY + y));
+            }
+        }
+
+        ensureRemaining(channel, buffer, CHUNK_HEADER + 2);
+        putChunkHeader(buffer, FACES_CHUNK, CHUNK_HEADER + 2 + faceCount * 8L + CHUNK_HEADER + faceCount * 4L);
+        buffer.putShort((short) faceCount);
+        final int rowLength = cellsX + 1;
+        for (int y = 0; y < cellsY; y++) {
+            for (int x = 0; x < cellsX; x++) {
+                ensureRemaining(channel, buffer, 16);
+                final int corner = y * rowLength + x;
+                buffer.putShort((short) corner).putShort((short) (corner + 1))
+                        .putShort((short) (corner + rowLength)).putShort((short) 0);
+                buffer.putShort((short) (corner + 1)).putShort((short) (corner + rowLength + 1))
+                        .putShort((short) (corner + rowLength)).putShort((short) 0);
+            }
+        }
+        ensureRemaining(channel, buffer, CHUNK_HEADER);
+        putChunkHeader(buffer, SMOOTHING_GROUPS_CHUNK, CHUNK_HEADER + faceCount * 4L);
+        for (int face = 0; face < faceCount; face++) {
+            ensureRemaining(channel, buffer, 4);
+            buffer.putInt(1);
+        }
+    }
+
+    private static void putChunkHeader(final ByteBuffer buffer, final int id, final long length) {
+        buffer.putShort((short) id).putInt((int) length);
+    }
+
+    private static void ensureRemaining(final FileChannel channel, final ByteBuffer buffer, final int length)
+            throws IOException {
+
+        if (buffer.remaining() < length) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
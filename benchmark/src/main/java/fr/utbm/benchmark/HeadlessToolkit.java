@@ -0,0 +1,44 @@
+package fr.utbm.benchmark;
+
+import com.sun.javafx.application.PlatformImpl;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Starts the JavaFX toolkit once per benchmark JVM, on the headless Monocle platform unless another glass platform
+ * is configured, so scene graph benchmarks run on machines without a display.
+ */
+final class HeadlessToolkit {
+
+    private static boolean started;
+
+    private HeadlessToolkit() {
+    }
+
+    /**
+     * Starts the JavaFX toolkit if it is not started yet.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting for the toolkit
+     */
+    static synchronized void start() throws InterruptedException {
+
+        if (started) {
+            return;
+        }
+        if (System.getProperty("glass.platform") == null) {
+            System.setProperty("glass.platform", "Monocle");
+            System.setProperty("monocle.platform", "Headless");
+            System.setProperty("prism.order", "sw");
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        PlatformImpl.startup(new Runnable() {
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+        started = true;
+    }
+}
@@ -0,0 +1,62 @@
+package fr.utbm.benchmark;
+
+import fr.utbm.ImportOptions;
+import fr.utbm.Importer3D;
+import javafx.scene.Group;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end-to-end import of files with {@link Importer3D#load(String, ImportOptions)}.
+ *
+ * <p>
+ * The model cache and the generation of levels of detail are disabled so each invocation parses the file, the other
+ * options keep their defaults and can be changed with their system properties in {@code -jvmArgsAppend}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ImportBenchmark {
+
+    @Param({ FixtureGenerator.STL, FixtureGenerator.ASCII_STL, FixtureGenerator.TDS })
+    public String format;
+
+    @Param({ "100000", "1000000" })
+    public int triangles;
+
+    private String fileUrl;
+    private ImportOptions options;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+
+        HeadlessToolkit.start();
+        final File file = FixtureGenerator.generate(format, triangles, FixtureGenerator.getDefaultDirectory());
+        fileUrl = file.toURI().toURL().toString();
+        options = new ImportOptions();
+        options.setCache(null);
+        options.setLevelsOfDetail(false);
+    }
+
+    @Benchmark
+    public Group load() throws IOException {
+        return Importer3D.load(fileUrl, options);
+    }
+}
@@ -0,0 +1,134 @@
+package fr.utbm.benchmark;
+
+import fr.utbm.Importer3D;
+import fr.utbm.LevelOfDetail;
+import fr.utbm.MeshData;
+import fr.utbm.StlImporter;
+import fr.utbm.VertexWelder;
+import fr.utbm.ViewerModel;
+import javafx.geometry.BoundingBox;
+import javafx.scene.Group;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stages of an STL import separately: parsing, welding of the points, generation of the levels of
+ * detail, population of the {@link TriangleMesh} and framing of the content by {@link ViewerModel}.
+ *
+ * <p>
+ * Stages modifying their input get a fresh copy before each invocation, outside of the measured time.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StageBenchmark {
+
+    @Param({ "1000000" })
+    public int triangles;
+
+    /**
+     * Parallelism of the parsing, 0 for the common fork-join pool.
+     */
+    @Param({ "1", "0" })
+    public int parallelism;
+
+    private File file;
+    private MeshData soup;
+    private MeshData welded;
+    private MeshData weldInput;
+    private ViewerModel model;
+    private Group content;
+    private Group importedContent;
+    private BoundingBox bounds;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+
+        HeadlessToolkit.start();
+        file = FixtureGenerator.generate(FixtureGenerator.STL, triangles, FixtureGenerator.getDefaultDirectory());
+        soup = StlImporter.read(file, parallelism);
+        welded = VertexWelder.weld(copy(soup), 0).getMesh();
+        model = new ViewerModel();
+        final float[] b = welded.computeBounds();
+        bounds = new BoundingBox(b[0], b[1], b[2], b[3] - b[0], b[4] - b[1], b[5] - b[2]);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+
+        weldInput = copy(soup);
+        model.setContent(null);
+        content = new Group(new MeshView(welded.toTriangleMesh()));
+        final MeshView imported = new MeshView(welded.toTriangleMesh());
+        imported.getProperties().put(Importer3D.BOUNDS_PROPERTY, bounds);
+        importedContent = new Group(imported);
+    }
+
+    @Benchmark
+    public MeshData parse() throws IOException {
+        return StlImporter.read(file, parallelism);
+    }
+
+    @Benchmark
+    public VertexWelder.Result weld() {
+        return VertexWelder.weld(weldInput, 0);
+    }
+
+    @Benchmark
+    public LevelOfDetail generateLevelsOfDetail() throws IOException {
+        return LevelOfDetail.create(welded, null);
+    }
+
+    @Benchmark
+    public TriangleMesh populateTriangleMesh() {
+        return welded.toTriangleMesh();
+    }
+
+    /**
+     * Sets the content of the viewer, which frames it with {@link ViewerModel#adjustForSize()} from the bounds
+     * computed by the import.
+     */
+    @Benchmark
+    public ViewerModel adjustForSize() {
+
+        model.setContent(importedContent);
+        return model;
+    }
+
+    /**
+     * Sets content without bounds from the import, which {@link ViewerModel#adjustForSize()} frames from the layout
+     * bounds of the mesh computed for the first time by JavaFX.
+     */
+    @Benchmark
+    public ViewerModel adjustForSizeFromLayoutBounds() {
+
+        model.setContent(content);
+        return model;
+    }
+
+    private static MeshData copy(final MeshData mesh) {
+
+        return new MeshData(mesh.getPoints().clone(), mesh.getTexCoords().clone(), mesh.getFaces().clone(),
+                mesh.getFaceSmoothingGroups() != null ? mesh.getFaceSmoothingGroups().clone() : null);
+    }
+}
@@ -0,0 +1,244 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command line entry point importing files and directories of 3D files without display, e.g. for nightly asset jobs.
+ *
+ * <p>
+ * Each file goes through the same {@link Importer3D} pipeline as in the viewer, so its decoded meshes are written to
+ * the model cache and open without parsing in the viewer afterwards. Its meshes are checked by
+ * {@link MeshValidator}, and a line per file reports the result and the throughput of the import. The JavaFX toolkit
+ * is never started: the scene graph nodes built by the import are only created, never displayed.
+ * </p>
+ *
+ * <p>
+ * Files are imported in parallel, largest first so the longest imports do not end up alone at the end of the run.
+ * The number of files imported at once is given by the {@value #THREADS_PROPERTY} system property, all the cores by
+ * default; the other import options are read from the usual system properties, see {@link ImportOptions}. Levels of
+ * detail are never generated, as they are only used for display and not cached.
+ * </p>
+ *
+ * <p>
+ * The exit status is 0 if all the files were imported, 1 if some failed and 2 for a usage error. Defects found by the
+ * validation are reported but do not fail the run.
+ * </p>
+ */
+public final class BatchImporter {
+
+    /**
+     * Name of the system property setting the number of files imported at once.
+     */
+    public static final String THREADS_PROPERTY = "fr.utbm.batch.threads";
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private BatchImporter() {
+    }
+
+    /**
+     * Imports the files given as arguments, and the supported files found in the directories given as arguments.
+     *
+     * @param args the files and directories to import
+     */
+    public static void main(final String[] args) {
+
+        if (args.length == 0) {
+            System.err.println("Usage: java " + BatchImporter.class.getName() + " <file or directory>...");
+            System.exit(2);
+        }
+        final List<File> files = new ArrayList<>();
+        try {
+            for (String arg : args) {
+                collectFiles(new File(arg), files);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot list files: " + e.getMessage());
+            System.exit(2);
+        }
+
+        final ImportOptions options = new ImportOptions();
+        options.setLevelsOfDetail(false);
+        final int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        final boolean failed = run(files, options, Math.max(threads, 1), System.out);
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Imports files and prints their report.
+     *
+     * @param files the files to import
+     * @param options the options of the imports
+     * @param threads the number of files imported at once
+     * @param out the stream receiving the report, a line per file as soon as it is imported then a summary
+     * @return {@code true} if some files failed to import
+     */
+    public static boolean run(final List<File> files, final ImportOptions options, final int threads,
+            final PrintStream out) {
+
+        final List<File> sorted = new ArrayList<>(files);
+        Collections.sort(sorted, new Comparator<File>() {
+
+            @Override
+            public int compare(final File a, final File b) {
+                return Long.compare(b.length(), a.length());
+            }
+        });
+
+        final long start = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CompletionService<Report> completion = new ExecutorCompletionService<>(executor);
+        for (final File file : sorted) {
+            completion.submit(new Callable<Report>() {
+
+                @Override
+                public Report call() {
+                    return importFile(file, options);
+                }
+            });
+        }
+
+        int failures = 0;
+        int invalid = 0;
+        long bytes = 0;
+        long faces = 0;
+        try {
+            for (int i = 0; i < sorted.size(); i++) {
+                final Report report = completion.take().get();
+                out.println(report);
+                if (report.error != null) {
+                    failures++;
+                } else {
+                    bytes += report.bytes;
+                    faces += report.faces;
+                    invalid += report.validation.isValid() ? 0 : 1;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            return true;
+        } catch (ExecutionException e) {
+            // reports catch everything but errors
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        out.println(String.format(Locale.ROOT,
+                "%d files, %d failed, %d with defects: %.1f MB, %d triangles in %.1f s, %.1f MB/s, %.2f Mtriangles/s"
+                        + " on %d threads",
+                sorted.size(), failures, invalid, bytes / MEGABYTE, faces, seconds, bytes / MEGABYTE / seconds,
+                faces / 1e6 / seconds, threads));
+        return failures > 0;
+    }
+
+    /**
+     * Imports and validates a file.
+     *
+     * @param file the file to import
+     * @param options the options of the import
+     * @return the report of the import
+     */
+    private static Report importFile(final File file, final ImportOptions options) {
+
+        final long start = System.nanoTime();
+        try {
+            final Group content = Importer3D.load(file.toURI().toString(), options);
+            final long nanos = System.nanoTime() - start;
+            final LoadMetrics metrics = (LoadMetrics) content.getProperties().get(Importer3D.METRICS_PROPERTY);
+            return new Report(file, file.length(), metrics.getFaceCount(), nanos,
+                    content.getProperties().containsKey(Importer3D.CACHE_HIT_PROPERTY), MeshValidator.validate(content),
+                    null);
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            return new Report(file, file.length(), 0, System.nanoTime() - start, false, null, e);
+        }
+    }
+
+    /**
+     * Adds a file, or the supported files found in a directory and its sub-directories, to a list.
+     *
+     * @param file the file or directory
+     * @param files the list receiving the files
+     * @throws IOException if a directory cannot be listed
+     */
+    static void collectFiles(final File file, final List<File> files) throws IOException {
+
+        if (!file.isDirectory()) {
+            files.add(file);
+            return;
+        }
+        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path path, final BasicFileAttributes attributes) {
+
+                if (attributes.isRegularFile()
+                        && ImporterRegistry.getDefault().isSupported(path.getFileName().toString())) {
+                    files.add(path.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * The result of the import of a file.
+     */
+    private static final class Report {
+
+        private final File file;
+        private final long bytes;
+        private final long faces;
+        private final long nanos;
+        private final boolean cacheHit;
+        private final MeshValidator.Result validation;
+        private final Throwable error;
+
+        Report(final File file, final long bytes, final long faces, final long nanos, final boolean cacheHit,
+                final MeshValidator.Result validation, final Throwable error) {
+
+            this.file = file;
+            this.bytes = bytes;
+            this.faces = faces;
+            this.nanos = nanos;
+            this.cacheHit = cacheHit;
+            this.validation = validation;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+
+            if (error != null) {
+                return String.format(Locale.ROOT, "FAILED  %s: %s", file, error);
+            }
+            final double seconds = nanos / 1e9;
+            return String.format(Locale.ROOT,
+                    "%-7s %s: %.1f MB, %d triangles in %.0f ms, %.1f MB/s, %.2f Mtriangles/s%s, %s",
+                    validation.isValid() ? "OK" : "DEFECTS", file, bytes / MEGABYTE, faces, nanos / 1e6,
+                    bytes / MEGABYTE / seconds, faces / 1e6 / seconds, cacheHit ? " from cache" : "", validation);
+        }
+    }
+}
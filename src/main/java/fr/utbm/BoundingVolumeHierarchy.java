@@ -0,0 +1,841 @@
+package fr.utbm;
+
+import javafx.collections.ObservableFloatArray;
+import javafx.collections.ObservableIntegerArray;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Point3D;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+import javafx.scene.transform.Affine;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounding volume hierarchy over the shapes of loaded content, used to hide the shapes outside the view frustum and to
+ * pick the shape under the mouse without testing every shape.
+ *
+ * <p>
+ * The hierarchy is built off the JavaFX application thread by the import, in the coordinates of the loaded content,
+ * and stored in its properties. Boxes are split at the median of their shapes along their longest axis. Large meshes
+ * get a second hierarchy over their triangles, built the first time they are picked. Culling and picking run on the
+ * JavaFX application thread.
+ * </p>
+ */
+public final class BoundingVolumeHierarchy {
+
+    /**
+     * Key of the hierarchy in the properties of the content it was built for.
+     */
+    public static final String PROPERTY = "fr.utbm.boundingVolumeHierarchy";
+
+    /**
+     * Meshes with fewer faces are picked by testing all their triangles.
+     */
+    static final int MIN_TRIANGLE_HIERARCHY_FACES = 2048;
+
+    private static final int OBJECTS_PER_LEAF = 2;
+    private static final int TRIANGLES_PER_LEAF = 8;
+
+    private static final int OUTSIDE = 0;
+    private static final int INSIDE = 1;
+    private static final int INTERSECTING = 2;
+
+    private final MeshView[] meshViews;
+    private final Transform[] transforms;
+    private final float[] objectBounds;
+    private final Tree tree;
+    private final Map<TriangleMesh, TriangleTree> triangleTrees = new IdentityHashMap<>();
+
+    private BoundingVolumeHierarchy(final List<MeshView> meshViewList, final List<Transform> transformList,
+            final float[] objectBounds) {
+
+        meshViews = meshViewList.toArray(new MeshView[meshViewList.size()]);
+        transforms = transformList.toArray(new Transform[transformList.size()]);
+        this.objectBounds = objectBounds;
+        tree = new ObjectTree(objectBounds, meshViews.length);
+    }
+
+    /**
+     * Builds the hierarchy over the shapes of content and stores it in its properties.
+     *
+     * <p>
+     * Shapes are located by their transforms relative to the content, so the content itself can be moved freely;
+     * the hierarchy must be built again if shapes are added or moved inside it.
+     * </p>
+     *
+     * @param content the content, whose own transforms are ignored
+     * @return the hierarchy
+     */
+    public static BoundingVolumeHierarchy build(final Group content) {
+
+        final BoundingVolumeHierarchy hierarchy = create(content.getChildren());
+        attach(content, hierarchy);
+        return hierarchy;
+    }
+
+    /**
+     * Creates the hierarchy over the shapes of the parts of content, which may not be assembled yet.
+     *
+     * <p>
+     * Shapes displaying levels of detail are bounded by their full detail mesh.
+     * </p>
+     *
+     * @param parts the children of the content
+     * @return the hierarchy, in the coordinates of the group holding the parts
+     */
+    public static BoundingVolumeHierarchy create(final List<? extends Node> parts) {
+
+        final List<MeshView> meshViewList = new ArrayList<>();
+        final List<Transform> transformList = new ArrayList<>();
+        for (Node part : parts) {
+            collectMeshViews(part, null, meshViewList, transformList);
+        }
+
+        final float[] objectBounds = new float[meshViewList.size() * 6];
+        int count = 0;
+        for (int i = 0; i < meshViewList.size(); i++) {
+            final ObservableFloatArray points = LevelOfDetail.getFullMesh(meshViewList.get(i)).getPoints();
+            if (points.size() < 3) {
+                continue;
+            }
+            final float[] bounds = PointBounds.compute(points);
+            transformBounds(bounds, transformList.get(i), objectBounds, count * 6);
+            meshViewList.set(count, meshViewList.get(i));
+            transformList.set(count, transformList.get(i));
+            count++;
+        }
+        return new BoundingVolumeHierarchy(meshViewList.subList(0, count), transformList.subList(0, count),
+                Arrays.copyOf(objectBounds, count * 6));
+    }
+
+    /**
+     * Creates the hierarchy over mesh views whose bounds are already known, e.g. parts handed to the scene graph as
+     * they were loaded, whose nodes may only be read on the JavaFX application thread.
+     *
+     * @param meshViews the children of the content, without transforms
+     * @param bounds the bounds of the full detail mesh of each mesh view, minimum x, y, z then maximum x, y, z
+     * @return the hierarchy, in the coordinates of the group holding the mesh views
+     */
+    public static BoundingVolumeHierarchy create(final List<MeshView> meshViews, final List<float[]> bounds) {
+
+        final List<MeshView> meshViewList = new ArrayList<>(meshViews.size());
+        final List<Transform> transformList = new ArrayList<>(meshViews.size());
+        final float[] objectBounds = new float[meshViews.size() * 6];
+        for (int i = 0; i < meshViews.size(); i++) {
+            System.arraycopy(bounds.get(i), 0, objectBounds, i * 6, 6);
+            meshViewList.add(meshViews.get(i));
+            transformList.add(new Affine());
+        }
+        return new BoundingVolumeHierarchy(meshViewList, transformList, objectBounds);
+    }
+
+    /**
+     * Stores a hierarchy in the properties of the content it describes.
+     *
+     * @param content the group holding the shapes of the hierarchy
+     * @param hierarchy the hierarchy, or {@code null} to do nothing
+     */
+    public static void attach(final Node content, final BoundingVolumeHierarchy hierarchy) {
+
+        if (hierarchy != null) {
+            content.getProperties().put(PROPERTY, hierarchy);
+        }
+    }
+
+    /**
+     * Gets the hierarchy built for content.
+     *
+     * @param content the content
+     * @return the hierarchy, or {@code null} if the content has none
+     */
+    public static BoundingVolumeHierarchy get(final Node content) {
+
+        if (!content.hasProperties()) {
+            return null;
+        }
+        final Object hierarchy = content.getProperties().get(PROPERTY);
+        return hierarchy instanceof BoundingVolumeHierarchy ? (BoundingVolumeHierarchy) hierarchy : null;
+    }
+
+    /**
+     * Gets the number of shapes of the hierarchy.
+     *
+     * @return the number of mesh views
+     */
+    public int getMeshViewCount() {
+        return meshViews.length;
+    }
+
+    /**
+     * Gets the bounds of the shapes, computed with the hierarchy.
+     *
+     * <p>
+     * Unlike the bounds of JavaFX nodes, they are available off the JavaFX application thread and do not depend on the
+     * shapes hidden by culling or on the level of detail displayed.
+     * </p>
+     *
+     * @return the bounds in the coordinates of the content, empty if there are no shapes
+     */
+    public Bounds getBounds() {
+
+        if (meshViews.length == 0) {
+            return new BoundingBox(0, 0, 0, -1, -1, -1);
+        }
+        final float[] bounds = tree.bounds;
+        return new BoundingBox(bounds[0], bounds[1], bounds[2], bounds[3] - bounds[0], bounds[4] - bounds[1],
+                bounds[5] - bounds[2]);
+    }
+
+    /**
+     * Shows the shapes intersecting a view frustum and hides the others.
+     *
+     * <p>
+     * The corners are given in the coordinates of the content: the four corners of the near plane, then the four
+     * corners of the far plane in the same order, going around the plane.
+     * </p>
+     *
+     * @param corners the eight corners of the view frustum
+     * @return the number of shapes shown
+     */
+    public int cull(final Point3D[] corners) {
+
+        if (meshViews.length == 0) {
+            return 0;
+        }
+        final double[] planes = new double[24];
+        double centerX = 0;
+        double centerY = 0;
+        double centerZ = 0;
+        for (Point3D corner : corners) {
+            centerX += corner.getX() / 8;
+            centerY += corner.getY() / 8;
+            centerZ += corner.getZ() / 8;
+        }
+        final int[][] planeCorners = { { 0, 1, 2 }, { 4, 5, 6 }, { 0, 3, 7 }, { 1, 2, 6 }, { 0, 1, 5 }, { 2, 3, 7 } };
+        for (int p = 0; p < planeCorners.length; p++) {
+            setPlane(planes, p * 4, corners[planeCorners[p][0]], corners[planeCorners[p][1]],
+                    corners[planeCorners[p][2]], centerX, centerY, centerZ);
+        }
+        return cull(0, planes);
+    }
+
+    /**
+     * Shows all the shapes of the hierarchy, when culling is disabled.
+     */
+    public void showAll() {
+
+        for (MeshView meshView : meshViews) {
+            meshView.setVisible(true);
+        }
+    }
+
+    /**
+     * Finds the nearest shape hit by a ray.
+     *
+     * <p>
+     * Both faces of triangles are hit. The distance of hits is measured in multiples of the direction, so hits in
+     * several contents can be compared if their rays come from the same ray in scene coordinates.
+     * </p>
+     *
+     * @param origin the origin of the ray, in the coordinates of the content
+     * @param direction the direction of the ray, in the coordinates of the content
+     * @return the nearest hit, or {@code null} if no shape is hit
+     */
+    public Hit pick(final Point3D origin, final Point3D direction) {
+
+        final ObjectRay ray = new ObjectRay(origin, direction);
+        tree.intersect(ray);
+        return ray.hitObject >= 0 ? new Hit(meshViews[ray.hitObject], ray.hitFace, ray.tMax) : null;
+    }
+
+    private int cull(final int node, final double[] planes) {
+
+        final int classification = classify(tree.bounds, node * 6, planes);
+        final int from = tree.ranges[node * 2];
+        final int to = tree.ranges[node * 2 + 1];
+        if (classification != INTERSECTING) {
+            for (int i = from; i < to; i++) {
+                setVisible(meshViews[tree.order[i]], classification == INSIDE);
+            }
+            return classification == INSIDE ? to - from : 0;
+        }
+        if (tree.secondChild[node] >= 0) {
+            return cull(node + 1, planes) + cull(tree.secondChild[node], planes);
+        }
+        int visible = 0;
+        for (int i = from; i < to; i++) {
+            final int object = tree.order[i];
+            final boolean inside = classify(objectBounds, object * 6, planes) != OUTSIDE;
+            setVisible(meshViews[object], inside);
+            if (inside) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+
+    private static void setVisible(final MeshView meshView, final boolean visible) {
+
+        if (meshView.isVisible() != visible) {
+            meshView.setVisible(visible);
+        }
+    }
+
+    /**
+     * Sets a plane through three points, oriented so that the given center is on its positive side.
+     */
+    private static void setPlane(final double[] planes, final int offset, final Point3D a, final Point3D b,
+            final Point3D c, final double centerX, final double centerY, final double centerZ) {
+
+        final Point3D normal = b.subtract(a).crossProduct(c.subtract(a));
+        double d = -normal.dotProduct(a);
+        double sign = 1;
+        if (normal.getX() * centerX + normal.getY() * centerY + normal.getZ() * centerZ + d < 0) {
+            sign = -1;
+        }
+        planes[offset] = sign * normal.getX();
+        planes[offset + 1] = sign * normal.getY();
+        planes[offset + 2] = sign * normal.getZ();
+        planes[offset + 3] = sign * d;
+    }
+
+    /**
+     * Classifies a box against the planes of a frustum.
+     */
+    private static int classify(final float[] bounds, final int offset, final double[] planes) {
+
+        int result = INSIDE;
+        for (int p = 0; p < planes.length; p += 4) {
+            final double a = planes[p];
+            final double b = planes[p + 1];
+            final double c = planes[p + 2];
+            // corners of the box farthest along and against the normal of the plane
+            final double farthest = a * bounds[offset + (a > 0 ? 3 : 0)] + b * bounds[offset + (b > 0 ? 4 : 1)]
+                    + c * bounds[offset + (c > 0 ? 5 : 2)] + planes[p + 3];
+            if (farthest < 0) {
+                return OUTSIDE;
+            }
+            final double nearest = a * bounds[offset + (a > 0 ? 0 : 3)] + b * bounds[offset + (b > 0 ? 1 : 4)]
+                    + c * bounds[offset + (c > 0 ? 2 : 5)] + planes[p + 3];
+            if (nearest < 0) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+
+    private static void collectMeshViews(final Node node, final Transform parentTransform,
+            final List<MeshView> meshViews, final List<Transform> transforms) {
+
+        final Transform transform = parentTransform == null ? node.getLocalToParentTransform()
+                : parentTransform.createConcatenation(node.getLocalToParentTransform());
+
+        if (node instanceof MeshView) {
+            if (((MeshView) node).getMesh() instanceof TriangleMesh) {
+                meshViews.add((MeshView) node);
+                transforms.add(transform);
+            }
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                collectMeshViews(child, transform, meshViews, transforms);
+            }
+        }
+    }
+
+    /**
+     * Computes the bounds of transformed bounds, from their eight corners.
+     */
+    private static void transformBounds(final float[] bounds, final Transform transform, final float[] result,
+            final int offset) {
+
+        Arrays.fill(result, offset, offset + 3, Float.POSITIVE_INFINITY);
+        Arrays.fill(result, offset + 3, offset + 6, Float.NEGATIVE_INFINITY);
+        for (int corner = 0; corner < 8; corner++) {
+            final Point3D point = transform.transform(bounds[(corner & 1) * 3], bounds[1 + (corner >> 1 & 1) * 3],
+                    bounds[2 + (corner >> 2 & 1) * 3]);
+            final double[] coordinates = { point.getX(), point.getY(), point.getZ() };
+            for (int axis = 0; axis < 3; axis++) {
+                result[offset + axis] = Math.min(result[offset + axis], (float) coordinates[axis]);
+                result[offset + axis + 3] = Math.max(result[offset + axis + 3], (float) coordinates[axis]);
+            }
+        }
+    }
+
+    /**
+     * Intersects a ray with a triangle, both faces included.
+     *
+     * @return the distance of the hit in multiples of the direction, infinite if the triangle is missed
+     */
+    private static double intersectTriangle(final ObservableFloatArray points, final int p0, final int p1,
+            final int p2, final double[] origin, final double[] direction) {
+
+        final double x0 = points.get(p0 * 3);
+        final double y0 = points.get(p0 * 3 + 1);
+        final double z0 = points.get(p0 * 3 + 2);
+        final double e1x = points.get(p1 * 3) - x0;
+        final double e1y = points.get(p1 * 3 + 1) - y0;
+        final double e1z = points.get(p1 * 3 + 2) - z0;
+        final double e2x = points.get(p2 * 3) - x0;
+        final double e2y = points.get(p2 * 3 + 1) - y0;
+        final double e2z = points.get(p2 * 3 + 2) - z0;
+
+        final double px = direction[1] * e2z - direction[2] * e2y;
+        final double py = direction[2] * e2x - direction[0] * e2z;
+        final double pz = direction[0] * e2y - direction[1] * e2x;
+        final double determinant = e1x * px + e1y * py + e1z * pz;
+        if (determinant == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final double inverse = 1 / determinant;
+        final double tx = origin[0] - x0;
+        final double ty = origin[1] - y0;
+        final double tz = origin[2] - z0;
+        final double u = (tx * px + ty * py + tz * pz) * inverse;
+        if (u < 0 || u > 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final double qx = ty * e1z - tz * e1y;
+        final double qy = tz * e1x - tx * e1z;
+        final double qz = tx * e1y - ty * e1x;
+        final double v = (direction[0] * qx + direction[1] * qy + direction[2] * qz) * inverse;
+        if (v < 0 || u + v > 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final double t = (e2x * qx + e2y * qy + e2z * qz) * inverse;
+        return t >= 0 ? t : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Nearest shape hit by a ray.
+     */
+    public static final class Hit {
+
+        private final MeshView meshView;
+        private final int face;
+        private final double distance;
+
+        Hit(final MeshView meshView, final int face, final double distance) {
+            this.meshView = meshView;
+            this.face = face;
+            this.distance = distance;
+        }
+
+        /**
+         * Gets the shape hit.
+         *
+         * @return the mesh view hit
+         */
+        public MeshView getMeshView() {
+            return meshView;
+        }
+
+        /**
+         * Gets the face hit, in the full detail mesh of the shape.
+         *
+         * @return the index of the face hit
+         */
+        public int getFace() {
+            return face;
+        }
+
+        /**
+         * Gets the distance of the hit from the origin of the ray.
+         *
+         * @return the distance in multiples of the direction of the ray
+         */
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * Ray tested against the primitives of a tree, keeping the distance of the nearest hit.
+     */
+    private abstract static class Ray {
+
+        final double[] origin;
+        final double[] direction;
+        final double[] inverseDirection = new double[3];
+        double tMax = Double.POSITIVE_INFINITY;
+
+        Ray(final double[] origin, final double[] direction) {
+
+            this.origin = origin;
+            this.direction = direction;
+            for (int axis = 0; axis < 3; axis++) {
+                inverseDirection[axis] = 1 / direction[axis];
+            }
+        }
+
+        /**
+         * Tests the ray against a primitive, lowering {@link #tMax} on hits.
+         */
+        abstract void intersect(int primitive);
+
+        /**
+         * Gets the distance at which the ray enters a box.
+         *
+         * @return the entry distance, infinite if the box is missed or farther than the nearest hit
+         */
+        final double entry(final float[] bounds, final int offset) {
+
+            double near = 0;
+            double far = tMax;
+            for (int axis = 0; axis < 3; axis++) {
+                final double min = bounds[offset + axis];
+                final double max = bounds[offset + axis + 3];
+                if (direction[axis] == 0) {
+                    if (origin[axis] < min || origin[axis] > max) {
+                        return Double.POSITIVE_INFINITY;
+                    }
+                    continue;
+                }
+                double t1 = (min - origin[axis]) * inverseDirection[axis];
+                double t2 = (max - origin[axis]) * inverseDirection[axis];
+                if (t1 > t2) {
+                    final double t = t1;
+                    t1 = t2;
+                    t2 = t;
+                }
+                near = Math.max(near, t1);
+                far = Math.min(far, t2);
+                if (near > far) {
+                    return Double.POSITIVE_INFINITY;
+                }
+            }
+            return near;
+        }
+    }
+
+    /**
+     * Ray in the coordinates of the content, tested against its shapes.
+     */
+    private final class ObjectRay extends Ray {
+
+        private int hitObject = -1;
+        private int hitFace = -1;
+
+        ObjectRay(final Point3D origin, final Point3D direction) {
+            super(new double[] { origin.getX(), origin.getY(), origin.getZ() },
+                    new double[] { direction.getX(), direction.getY(), direction.getZ() });
+        }
+
+        @Override
+        void intersect(final int object) {
+
+            final Point3D localOrigin;
+            final Point3D localDirection;
+            try {
+                localOrigin = transforms[object].inverseTransform(origin[0], origin[1], origin[2]);
+                localDirection = transforms[object].inverseDeltaTransform(direction[0], direction[1], direction[2]);
+            } catch (NonInvertibleTransformException e) {
+                return;
+            }
+            final TriangleMesh mesh = LevelOfDetail.getFullMesh(meshViews[object]);
+            final MeshRay ray = new MeshRay(mesh, localOrigin, localDirection, tMax);
+            if (mesh.getFaces().size() / mesh.getFaceElementSize() >= MIN_TRIANGLE_HIERARCHY_FACES) {
+                TriangleTree triangleTree = triangleTrees.get(mesh);
+                if (triangleTree == null) {
+                    triangleTree = new TriangleTree(mesh);
+                    triangleTrees.put(mesh, triangleTree);
+                }
+                triangleTree.intersect(ray);
+            } else {
+                final int faceCount = mesh.getFaces().size() / mesh.getFaceElementSize();
+                for (int face = 0; face < faceCount; face++) {
+                    ray.intersect(face);
+                }
+            }
+            if (ray.hitFace >= 0) {
+                tMax = ray.tMax;
+                hitObject = object;
+                hitFace = ray.hitFace;
+            }
+        }
+    }
+
+    /**
+     * Ray in the coordinates of a mesh, tested against its triangles.
+     */
+    private static final class MeshRay extends Ray {
+
+        private final ObservableFloatArray points;
+        private final ObservableIntegerArray faces;
+        private final int faceSize;
+        private final int vertexSize;
+        private int hitFace = -1;
+
+        MeshRay(final TriangleMesh mesh, final Point3D origin, final Point3D direction, final double tMax) {
+
+            super(new double[] { origin.getX(), origin.getY(), origin.getZ() },
+                    new double[] { direction.getX(), direction.getY(), direction.getZ() });
+            this.tMax = tMax;
+            points = mesh.getPoints();
+            faces = mesh.getFaces();
+            faceSize = mesh.getFaceElementSize();
+            vertexSize = faceSize / 3;
+        }
+
+        @Override
+        void intersect(final int face) {
+
+            final int offset = face * faceSize;
+            final double t = intersectTriangle(points, faces.get(offset), faces.get(offset + vertexSize),
+                    faces.get(offset + 2 * vertexSize), origin, direction);
+            if (t < tMax) {
+                tMax = t;
+                hitFace = face;
+            }
+        }
+    }
+
+    /**
+     * Flattened binary tree of boxes over primitives, each node covering a range of the primitive order.
+     */
+    private abstract static class Tree {
+
+        int[] order;
+        float[] bounds = new float[0];
+        int[] ranges = new int[0];
+        int[] secondChild = new int[0];
+        private int nodeCount;
+
+        /**
+         * Adds the bounds of a primitive to a box.
+         */
+        abstract void addBounds(int primitive, float[] box);
+
+        /**
+         * Builds the tree, the first child of each inner node following it.
+         *
+         * @param count the number of primitives
+         * @param centroids the centers of the primitives, 3 coordinates each
+         * @param leafSize the maximum number of primitives of leaves
+         */
+        final void build(final int count, final float[] centroids, final int leafSize) {
+
+            order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            build(0, count, centroids, leafSize);
+            bounds = Arrays.copyOf(bounds, nodeCount * 6);
+            ranges = Arrays.copyOf(ranges, nodeCount * 2);
+            secondChild = Arrays.copyOf(secondChild, nodeCount);
+        }
+
+        private int build(final int from, final int to, final float[] centroids, final int leafSize) {
+
+            final int node = nodeCount++;
+            if (secondChild.length < nodeCount) {
+                final int capacity = Math.max(16, nodeCount * 2);
+                bounds = Arrays.copyOf(bounds, capacity * 6);
+                ranges = Arrays.copyOf(ranges, capacity * 2);
+                secondChild = Arrays.copyOf(secondChild, capacity);
+            }
+            ranges[node * 2] = from;
+            ranges[node * 2 + 1] = to;
+
+            final float[] centroidBounds = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                    Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                    Float.NEGATIVE_INFINITY };
+            for (int i = from; i < to; i++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    final float value = centroids[order[i] * 3 + axis];
+                    centroidBounds[axis] = Math.min(centroidBounds[axis], value);
+                    centroidBounds[axis + 3] = Math.max(centroidBounds[axis + 3], value);
+                }
+            }
+            int axis = 0;
+            for (int a = 1; a < 3; a++) {
+                if (centroidBounds[a + 3] - centroidBounds[a] > centroidBounds[axis + 3] - centroidBounds[axis]) {
+                    axis = a;
+                }
+            }
+
+            final float[] box = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                    Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+            if (to - from <= leafSize || !(centroidBounds[axis + 3] > centroidBounds[axis])) {
+                secondChild[node] = -1;
+                for (int i = from; i < to; i++) {
+                    addBounds(order[i], box);
+                }
+            } else {
+                final int middle = (from + to) >>> 1;
+                select(from, to, middle, centroids, axis);
+                build(from, middle, centroids, leafSize);
+                // the arrays may have grown during the build of the children
+                final int second = build(middle, to, centroids, leafSize);
+                secondChild[node] = second;
+                for (int i = 0; i < 3; i++) {
+                    box[i] = Math.min(bounds[(node + 1) * 6 + i], bounds[second * 6 + i]);
+                    box[i + 3] = Math.max(bounds[(node + 1) * 6 + i + 3], bounds[second * 6 + i + 3]);
+                }
+            }
+            System.arraycopy(box, 0, bounds, node * 6, 6);
+            return node;
+        }
+
+        /**
+         * Partially sorts a range of the order so that the primitive at the given index has the median centroid.
+         */
+        private void select(final int from, final int to, final int nth, final float[] centroids, final int axis) {
+
+            int left = from;
+            int right = to - 1;
+            while (left < right) {
+                final float pivot = centroids[order[(left + right) >>> 1] * 3 + axis];
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (centroids[order[i] * 3 + axis] < pivot) {
+                        i++;
+                    }
+                    while (centroids[order[j] * 3 + axis] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        final int swapped = order[i];
+                        order[i] = order[j];
+                        order[j] = swapped;
+                        i++;
+                        j--;
+                    }
+                }
+                if (nth <= j) {
+                    right = j;
+                } else if (nth >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Tests a ray against the primitives of the tree, nearest boxes first.
+         */
+        final void intersect(final Ray ray) {
+
+            if (order.length == 0) {
+                return;
+            }
+            final int[] stack = new int[128];
+            final double[] entries = new double[128];
+            int size = 0;
+            final double rootEntry = ray.entry(bounds, 0);
+            if (rootEntry == Double.POSITIVE_INFINITY) {
+                return;
+            }
+            stack[size] = 0;
+            entries[size++] = rootEntry;
+            while (size > 0) {
+                final int node = stack[--size];
+                if (entries[size] > ray.tMax) {
+                    continue;
+                }
+                final int second = secondChild[node];
+                if (second < 0) {
+                    for (int i = ranges[node * 2]; i < ranges[node * 2 + 1]; i++) {
+                        ray.intersect(order[i]);
+                    }
+                    continue;
+                }
+                final double firstEntry = ray.entry(bounds, (node + 1) * 6);
+                final double secondEntry = ray.entry(bounds, second * 6);
+                final boolean firstNearer = firstEntry <= secondEntry;
+                final double nearEntry = firstNearer ? firstEntry : secondEntry;
+                final double farEntry = firstNearer ? secondEntry : firstEntry;
+                if (farEntry != Double.POSITIVE_INFINITY) {
+                    stack[size] = firstNearer ? second : node + 1;
+                    entries[size++] = farEntry;
+                }
+                if (nearEntry != Double.POSITIVE_INFINITY) {
+                    stack[size] = firstNearer ? node + 1 : second;
+                    entries[size++] = nearEntry;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tree over the bounds of shapes.
+     */
+    private static final class ObjectTree extends Tree {
+
+        private final float[] objectBounds;
+
+        ObjectTree(final float[] objectBounds, final int count) {
+
+            this.objectBounds = objectBounds;
+            final float[] centroids = new float[count * 3];
+            for (int i = 0; i < count * 3; i++) {
+                final int object = i / 3;
+                final int axis = i % 3;
+                centroids[i] = (objectBounds[object * 6 + axis] + objectBounds[object * 6 + axis + 3]) / 2;
+            }
+            build(count, centroids, OBJECTS_PER_LEAF);
+        }
+
+        @Override
+        void addBounds(final int object, final float[] box) {
+
+            for (int axis = 0; axis < 3; axis++) {
+                box[axis] = Math.min(box[axis], objectBounds[object * 6 + axis]);
+                box[axis + 3] = Math.max(box[axis + 3], objectBounds[object * 6 + axis + 3]);
+            }
+        }
+    }
+
+    /**
+     * Tree over the triangles of a mesh, in the coordinates of the mesh.
+     */
+    private static final class TriangleTree extends Tree {
+
+        private final ObservableFloatArray points;
+        private final ObservableIntegerArray faces;
+        private final int faceSize;
+        private final int vertexSize;
+
+        TriangleTree(final TriangleMesh mesh) {
+
+            points = mesh.getPoints();
+            faces = mesh.getFaces();
+            faceSize = mesh.getFaceElementSize();
+            vertexSize = faceSize / 3;
+            final int faceCount = faces.size() / faceSize;
+            final float[] centroids = new float[faceCount * 3];
+            for (int face = 0; face < faceCount; face++) {
+                for (int vertex = 0; vertex < 3; vertex++) {
+                    final int point = faces.get(face * faceSize + vertex * vertexSize) * 3;
+                    for (int axis = 0; axis < 3; axis++) {
+                        centroids[face * 3 + axis] += points.get(point + axis) / 3;
+                    }
+                }
+            }
+            build(faceCount, centroids, TRIANGLES_PER_LEAF);
+        }
+
+        @Override
+        void addBounds(final int face, final float[] box) {
+
+            for (int vertex = 0; vertex < 3; vertex++) {
+                final int point = faces.get(face * faceSize + vertex * vertexSize) * 3;
+                for (int axis = 0; axis < 3; axis++) {
+                    final float value = points.get(point + axis);
+                    box[axis] = Math.min(box[axis], value);
+                    box[axis + 3] = Math.max(box[axis + 3], value);
+                }
+            }
+        }
+    }
+}
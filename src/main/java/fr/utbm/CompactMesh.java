@@ -0,0 +1,155 @@
+package fr.utbm;
+
+import javafx.scene.shape.TriangleMesh;
+
+/**
+ * Immutable triangle mesh stored with quantized positions, for geometry kept off the scene graph.
+ *
+ * <p>
+ * Point coordinates are stored as unsigned 16-bit steps across the bounds of the mesh, so the error on each
+ * coordinate is at most half a step, 1/131070 of the extent of the mesh. Faces keep their point indices, and their
+ * texture coordinate indices only if the mesh has several texture coordinates. A mesh takes about half the memory of a
+ * {@link MeshData} or {@link TriangleMesh} of the same geometry; it is converted to a {@link TriangleMesh} when
+ * displayed. Being immutable, it can be shared between threads.
+ * </p>
+ */
+public final class CompactMesh {
+
+    private static final int STEPS = 0xFFFF;
+
+    private final float[] bounds;
+    private final short[] positions;
+    private final float[] texCoords;
+    private final int[] pointIndices;
+    private final int[] texCoordIndices;
+    private final int[] faceSmoothingGroups;
+
+    private CompactMesh(final float[] bounds, final short[] positions, final float[] texCoords,
+            final int[] pointIndices, final int[] texCoordIndices, final int[] faceSmoothingGroups) {
+
+        this.bounds = bounds;
+        this.positions = positions;
+        this.texCoords = texCoords;
+        this.pointIndices = pointIndices;
+        this.texCoordIndices = texCoordIndices;
+        this.faceSmoothingGroups = faceSmoothingGroups;
+    }
+
+    /**
+     * Creates the compact form of mesh data.
+     *
+     * @param mesh the mesh data, which is left unchanged
+     * @return the compact mesh
+     */
+    public static CompactMesh fromMeshData(final MeshData mesh) {
+
+        final float[] points = mesh.getPoints();
+        final float[] bounds = PointBounds.compute(points);
+        final short[] positions = new short[points.length];
+        for (int axis = 0; axis < 3; axis++) {
+            final double extent = bounds[axis + 3] - bounds[axis];
+            final double scale = extent > 0 ? STEPS / extent : 0;
+            for (int p = axis; p < points.length; p += 3) {
+                positions[p] = (short) Math.round((points[p] - bounds[axis]) * scale);
+            }
+        }
+
+        final int[] faces = mesh.getFaces();
+        final int faceCount = mesh.getFaceCount();
+        final int[] pointIndices = new int[faceCount * 3];
+        for (int i = 0; i < pointIndices.length; i++) {
+            pointIndices[i] = faces[i * 2];
+        }
+        // meshes without texture, such as STL meshes, have a single texture coordinate used by all faces
+        int[] texCoordIndices = null;
+        if (mesh.getTexCoords().length > 2) {
+            texCoordIndices = new int[faceCount * 3];
+            for (int i = 0; i < texCoordIndices.length; i++) {
+                texCoordIndices[i] = faces[i * 2 + 1];
+            }
+        }
+        return new CompactMesh(bounds, positions, mesh.getTexCoords().clone(), pointIndices, texCoordIndices,
+                mesh.getFaceSmoothingGroups() != null ? mesh.getFaceSmoothingGroups().clone() : null);
+    }
+
+    /**
+     * Creates a copy of this mesh with other smoothing groups.
+     *
+     * @param newFaceSmoothingGroups the smoothing group of each face
+     * @return the new compact mesh, sharing the geometry of this one
+     */
+    CompactMesh withFaceSmoothingGroups(final int[] newFaceSmoothingGroups) {
+        return new CompactMesh(bounds, positions, texCoords, pointIndices, texCoordIndices, newFaceSmoothingGroups);
+    }
+
+    /**
+     * Gets the bounds of the points, computed when the mesh was created.
+     *
+     * @return the minimum x, y, z then maximum x, y, z coordinates
+     */
+    public float[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Gets the number of points of the mesh.
+     *
+     * @return the number of points
+     */
+    public int getPointCount() {
+        return positions.length / 3;
+    }
+
+    /**
+     * Gets the number of faces of the mesh.
+     *
+     * @return the number of faces
+     */
+    public int getFaceCount() {
+        return pointIndices.length / 3;
+    }
+
+    /**
+     * Estimates the memory used by the geometry of the mesh.
+     *
+     * @return the size of the arrays of the mesh, in bytes
+     */
+    public long getMemorySize() {
+
+        return positions.length * 2L + texCoords.length * 4L + pointIndices.length * 4L
+                + (texCoordIndices != null ? texCoordIndices.length * 4L : 0)
+                + (faceSmoothingGroups != null ? faceSmoothingGroups.length * 4L : 0);
+    }
+
+    /**
+     * Restores the mesh data, with coordinates rounded to the quantization steps.
+     *
+     * @return new mesh data
+     */
+    public MeshData toMeshData() {
+
+        final float[] points = new float[positions.length];
+        for (int axis = 0; axis < 3; axis++) {
+            final double step = (bounds[axis + 3] - bounds[axis]) / STEPS;
+            for (int p = axis; p < points.length; p += 3) {
+                points[p] = (float) (bounds[axis] + (positions[p] & 0xFFFF) * step);
+            }
+        }
+        final int[] faces = new int[pointIndices.length * 2];
+        for (int i = 0; i < pointIndices.length; i++) {
+            faces[i * 2] = pointIndices[i];
+            faces[i * 2 + 1] = texCoordIndices != null ? texCoordIndices[i] : 0;
+        }
+        return new MeshData(points, texCoords.clone(), faces,
+                faceSmoothingGroups != null ? faceSmoothingGroups.clone() : null);
+    }
+
+    /**
+     * Creates a {@link TriangleMesh} displaying the mesh.
+     *
+     * @return a new triangle mesh
+     */
+    public TriangleMesh toTriangleMesh() {
+        return toMeshData().toTriangleMesh();
+    }
+}
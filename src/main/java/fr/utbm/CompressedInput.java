@@ -0,0 +1,221 @@
+package fr.utbm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A model file read out of a compressed file, decompressed on a thread of its own through a
+ * {@link PipelinedInputStream} while the importer parses it.
+ *
+ * <p>
+ * The codecs of the JDK are supported: gzip ({@code .gz}, {@code .gzip}), zlib ({@code .zz}, {@code .deflate}) and zip
+ * archives. A gzip or zlib file holds a single model, whose format is given by the extension before the codec one,
+ * e.g. {@code .stl.gz}. A zip archive is read up to its first entry readable by a {@link StreamFormatImporter}, the
+ * entries before it being skipped; the other resources of the model, such as 3DS textures, are looked up next to the
+ * archive, not in it.
+ * </p>
+ */
+public final class CompressedInput implements Closeable {
+
+    private static final String[] STREAM_EXTENSIONS = { "gz", "gzip", "zz", "deflate" };
+    private static final String ARCHIVE_EXTENSION = "zip";
+    private static final int SOURCE_BUFFER_SIZE = 1 << 16;
+
+    // ratio assumed when the compressed file does not record the size of its content
+    private static final int TYPICAL_COMPRESSION_RATIO = 4;
+
+    private final String name;
+    private final long size;
+    private final PipelinedInputStream stream;
+
+    private CompressedInput(final String name, final long size, final InputStream source, final LoadMetrics metrics) {
+        this.name = name;
+        this.size = size;
+        stream = new PipelinedInputStream(source, name, metrics);
+    }
+
+    /**
+     * Whether a file is compressed with a supported codec.
+     *
+     * @param fileName the name or url of the file
+     * @return {@code true} if the file is a compressed file or an archive
+     */
+    public static boolean isCompressed(final String fileName) {
+        return isArchive(fileName) || getStreamExtension(fileName) != null;
+    }
+
+    /**
+     * Whether a file is an archive, which may hold models of any format.
+     *
+     * @param fileName the name or url of the file
+     * @return {@code true} if the file is a zip archive
+     */
+    public static boolean isArchive(final String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith("." + ARCHIVE_EXTENSION);
+    }
+
+    /**
+     * Gets the name of the model held by a compressed file which is not an archive.
+     *
+     * @param fileName the name or url of the compressed file
+     * @return the name without the codec extension, e.g. {@code model.stl} for {@code model.stl.gz}, or {@code null}
+     *         if the file is not compressed or is an archive
+     */
+    public static String getUncompressedName(final String fileName) {
+
+        final String extension = getStreamExtension(fileName);
+        return extension != null ? fileName.substring(0, fileName.length() - extension.length() - 1) : null;
+    }
+
+    /**
+     * Gets the extensions of the supported codecs.
+     *
+     * @param archives {@code true} to get the extensions of the archives, {@code false} to get the extensions appended
+     *            to the name of a single compressed file
+     * @return the lower case extensions, without the dot
+     */
+    public static String[] getExtensions(final boolean archives) {
+        return archives ? new String[] { ARCHIVE_EXTENSION } : STREAM_EXTENSIONS.clone();
+    }
+
+    /**
+     * Estimates the size of the model held by a compressed file without decompressing it, from the size recorded by
+     * gzip files or from a typical compression ratio.
+     *
+     * @param file the compressed file
+     * @return the estimated uncompressed size, in bytes
+     * @throws IOException if the file cannot be read
+     */
+    static long estimateUncompressedSize(final File file) throws IOException {
+
+        final long length = file.length();
+        final String extension = getStreamExtension(file.getName());
+        if (extension != null && extension.startsWith("gz")) {
+            final long size = readGzipSize(file);
+            // a recorded size smaller than the file is the size modulo 4 GB of a larger model
+            if (size >= length) {
+                return size;
+            }
+        }
+        return length * TYPICAL_COMPRESSION_RATIO;
+    }
+
+    /**
+     * Opens a compressed file and starts decompressing it.
+     *
+     * @param fileUrl the url of the compressed file
+     * @param file the local file of the url, or {@code null} if it is not a local file
+     * @param metrics the metrics receiving the decompression time, or {@code null}
+     * @return the input, to be closed by the caller
+     * @throws IOException if the file cannot be read, or if it is an archive holding no supported model
+     */
+    public static CompressedInput open(final String fileUrl, final File file, final LoadMetrics metrics)
+            throws IOException {
+
+        final InputStream source = file != null ? new FileInputStream(file) : new URL(fileUrl).openStream();
+        try {
+            final String fileName = fileUrl.substring(fileUrl.lastIndexOf('/') + 1);
+            if (isArchive(fileName)) {
+                final ZipInputStream zip = new ZipInputStream(source);
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    final String entryName = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+                    if (!entry.isDirectory() && ImporterRegistry.getDefault()
+                            .getImporterForName(entryName) instanceof StreamFormatImporter) {
+                        return new CompressedInput(entryName, entry.getSize(), zip, metrics);
+                    }
+                }
+                throw new IOException("No supported 3D file in archive [" + fileUrl + "]");
+            }
+            final String extension = getStreamExtension(fileName);
+            if (extension == null) {
+                throw new IOException("Unsupported compression [" + fileUrl + "]");
+            }
+            final String name = getUncompressedName(fileName);
+            if (extension.equals("gz") || extension.equals("gzip")) {
+                return new CompressedInput(name, file != null ? readGzipSize(file) : -1,
+                        new GZIPInputStream(source, SOURCE_BUFFER_SIZE), metrics);
+            }
+            return new CompressedInput(name, -1, new InflaterInputStream(source), metrics);
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the name of the model, without the codec extension or the directory of the archive entry.
+     *
+     * @return the name of the model
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the uncompressed size of the model, as recorded by the compressed file. The size recorded by gzip files is
+     * only right for files smaller than 4 GB, so it must be used as a hint.
+     *
+     * @return the size in bytes, or -1 if it is unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the stream of the uncompressed model, fed by the decompression thread.
+     *
+     * @return the stream of the model
+     */
+    public InputStream getStream() {
+        return stream;
+    }
+
+    /**
+     * Stops the decompression and closes the compressed file.
+     */
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    private static String getStreamExtension(final String fileName) {
+
+        final String lowerCaseName = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : STREAM_EXTENSIONS) {
+            if (lowerCaseName.endsWith("." + extension)) {
+                return extension;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the uncompressed size stored at the end of a gzip file. It is the size modulo 4 GB of the last member of
+     * the file, so it is only a hint: importers use it to size their buffers or to confirm a guess.
+     *
+     * @param file the gzip file
+     * @return the uncompressed size, or -1 if the file is too short to be a gzip file
+     */
+    private static long readGzipSize(final File file) throws IOException {
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            final long length = input.length();
+            if (length < 18) {
+                return -1;
+            }
+            input.seek(length - 4);
+            return input.read() | input.read() << 8 | input.read() << 16 | (long) input.read() << 24;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reader of a 3D file format, found by {@link ImporterRegistry} through the {@link java.util.ServiceLoader} mechanism.
+ *
+ * <p>
+ * Implementations are listed in a {@code META-INF/services/fr.utbm.FormatImporter} file of their jar and need a public
+ * no-argument constructor. An importer only decodes the file and builds its shapes: {@link Importer3D} then caches the
+ * content, shares its meshes, generates its levels of detail and builds its bounding volume hierarchy, whatever its
+ * format.
+ * </p>
+ *
+ * <p>
+ * Importers are called from loading threads, several files being possibly loaded at once, so they must be thread-safe.
+ * The content they return is not attached to a scene yet, so it can be built off the JavaFX application thread.
+ * </p>
+ */
+public interface FormatImporter {
+
+    /**
+     * Gets the extensions of the files read by this importer.
+     *
+     * @return the lower case extensions, without the dot
+     */
+    String[] getExtensions();
+
+    /**
+     * Gets the name of the format, as displayed in file choosers.
+     *
+     * @return the name of the format
+     */
+    String getDescription();
+
+    /**
+     * Loads a 3D file.
+     *
+     * <p>
+     * Importers record their decoding in the {@link LoadMetrics.Stage#DECODE} stage of the metrics, and the creation of
+     * the shapes in the {@link LoadMetrics.Stage#MESH_BUILD} stage. Long imports should stop with an
+     * {@link java.io.InterruptedIOException} when their thread is interrupted.
+     * </p>
+     *
+     * @param fileUrl the url of the file to load
+     * @param file the local file of the url, or {@code null} if it is not a local file
+     * @param options the options of the import
+     * @param metrics the metrics of the import
+     * @return the group holding the shapes of the file
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    Group load(String fileUrl, File file, ImportOptions options, LoadMetrics metrics) throws IOException;
+}
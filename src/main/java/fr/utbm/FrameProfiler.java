@@ -0,0 +1,412 @@
+package fr.utbm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records the duration of every frame of the viewer in log-linear histograms, and the long frames with what the viewer
+ * was doing at the time.
+ *
+ * <p>
+ * Like an HDR histogram, each power of two of frame durations is divided into {@value #SUB_BUCKETS} buckets, so a
+ * duration is known within about 3% from 1 microsecond to over a minute, in a fixed array of counts. Recording a frame
+ * only increments counts: nothing is allocated, except for long frames. The histogram of all the frames since the
+ * start, or the last {@link #reset()}, can be exported to CSV or JSON to compare builds and hardware; a second
+ * histogram of the recent frames feeds the overlay and is restarted by its owner.
+ * </p>
+ *
+ * <p>
+ * Frames are recorded from the pulses of the JavaFX application thread, which is the only thread using a profiler,
+ * except for the synchronized export methods.
+ * </p>
+ */
+public final class FrameProfiler {
+
+    /**
+     * Activity: a file is being loaded.
+     */
+    public static final int LOADING = 1;
+
+    /**
+     * Activity: content was attached to the scene.
+     */
+    public static final int ATTACH = 1 << 1;
+
+    /**
+     * Activity: the user moves the camera.
+     */
+    public static final int INTERACTION = 1 << 2;
+
+    /**
+     * Activity: the content rotates.
+     */
+    public static final int ROTATION = 1 << 3;
+
+    private static final String[] ACTIVITY_NAMES = { "loading", "attach", "interaction", "rotation" };
+
+    // frames are recorded in microseconds, in SUB_BUCKETS buckets per power of two over the first 2 * SUB_BUCKETS
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 26;
+    private static final long MAX_MICROS = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private static final int MAX_LONG_FRAMES = 100;
+
+    private final long longFrameNanos;
+    private final Histogram total = new Histogram();
+    private final Histogram recent = new Histogram();
+    private final ArrayDeque<LongFrame> longFrames = new ArrayDeque<>();
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * Creates a profiler.
+     *
+     * @param longFrameMillis the duration over which a frame is logged as long
+     */
+    public FrameProfiler(final double longFrameMillis) {
+        longFrameNanos = (long) (longFrameMillis * 1e6);
+    }
+
+    /**
+     * Records a frame.
+     *
+     * @param nanos the duration of the frame, since the previous pulse
+     * @param activities the activities of the viewer during the frame, as a combination of {@link #LOADING},
+     *            {@link #ATTACH}, {@link #INTERACTION} and {@link #ROTATION}
+     */
+    public void recordFrame(final long nanos, final int activities) {
+
+        final long micros = nanos / 1000;
+        synchronized (total) {
+            total.record(micros);
+        }
+        recent.record(micros);
+        if (nanos >= longFrameNanos) {
+            final LongFrame longFrame = new LongFrame(System.currentTimeMillis(), nanos, activities);
+            synchronized (longFrames) {
+                if (longFrames.size() == MAX_LONG_FRAMES) {
+                    longFrames.removeFirst();
+                }
+                longFrames.addLast(longFrame);
+            }
+            System.err.println(longFrame);
+        }
+    }
+
+    /**
+     * Gets the histogram of the recent frames, for display.
+     *
+     * @return the histogram of the frames recorded since its last {@link Histogram#reset()}
+     */
+    public Histogram getRecent() {
+        return recent;
+    }
+
+    /**
+     * Gets a copy of the histogram of all the frames.
+     *
+     * @return the histogram of the frames recorded since the start or the last {@link #reset()}
+     */
+    public Histogram getTotal() {
+
+        synchronized (total) {
+            return total.copy();
+        }
+    }
+
+    /**
+     * Gets the last long frames, up to {@value #MAX_LONG_FRAMES}.
+     *
+     * @return the long frames, oldest first
+     */
+    public List<LongFrame> getLongFrames() {
+
+        synchronized (longFrames) {
+            return new ArrayList<>(longFrames);
+        }
+    }
+
+    /**
+     * Forgets all the recorded frames.
+     */
+    public void reset() {
+
+        synchronized (total) {
+            total.reset();
+        }
+        synchronized (longFrames) {
+            longFrames.clear();
+        }
+        recent.reset();
+    }
+
+    /**
+     * Exports the histogram of all the frames, in JSON if the name of the file ends with {@code .json}, in CSV
+     * otherwise.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void export(final File file) throws IOException {
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".json")) {
+                writeJson(writer);
+            } else {
+                writeCsv(writer);
+            }
+        }
+    }
+
+    /**
+     * Writes the histogram of all the frames as CSV: one line per non-empty bucket with its bounds in milliseconds,
+     * its count and the share of the frames up to its upper bound.
+     *
+     * @param writer the writer receiving the CSV
+     */
+    public void writeCsv(final Writer writer) {
+
+        final Histogram histogram = getTotal();
+        final PrintWriter out = new PrintWriter(writer);
+        out.println("lower_ms,upper_ms,count,cumulative_percent");
+        long cumulative = 0;
+        for (int index = 0; index < histogram.counts.length; index++) {
+            final long count = histogram.counts[index];
+            if (count > 0) {
+                cumulative += count;
+                out.printf(Locale.ROOT, "%.3f,%.3f,%d,%.4f%n", lowerMicros(index) / 1e3,
+                        (upperMicros(index) + 1) / 1e3, count, cumulative * 100.0 / histogram.count);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the histogram of all the frames as JSON, with the environment, summary statistics, percentiles, the
+     * non-empty buckets and the last long frames.
+     *
+     * @param writer the writer receiving the JSON
+     */
+    public void writeJson(final Writer writer) {
+
+        final Histogram histogram = getTotal();
+        final PrintWriter out = new PrintWriter(writer);
+        out.println("{");
+        out.printf(Locale.ROOT, "  \"environment\": {\"java\": %s, \"javafx\": %s, \"os\": %s, \"arch\": %s, "
+                + "\"cores\": %d},%n", quote(System.getProperty("java.version")),
+                quote(System.getProperty("javafx.runtime.version")), quote(System.getProperty("os.name")),
+                quote(System.getProperty("os.arch")), Runtime.getRuntime().availableProcessors());
+        out.printf(Locale.ROOT, "  \"startMillis\": %d,%n", startMillis);
+        out.printf(Locale.ROOT, "  \"count\": %d,%n", histogram.getCount());
+        out.printf(Locale.ROOT, "  \"meanMillis\": %.3f,%n", histogram.getMeanMillis());
+        out.printf(Locale.ROOT, "  \"maxMillis\": %.3f,%n", histogram.getMaxMillis());
+        out.printf(Locale.ROOT, "  \"percentilesMillis\": {\"50\": %.3f, \"90\": %.3f, \"95\": %.3f, \"99\": %.3f, "
+                + "\"99.9\": %.3f},%n", histogram.getPercentileMillis(50), histogram.getPercentileMillis(90),
+                histogram.getPercentileMillis(95), histogram.getPercentileMillis(99),
+                histogram.getPercentileMillis(99.9));
+        out.println("  \"buckets\": [");
+        String separator = "";
+        for (int index = 0; index < histogram.counts.length; index++) {
+            if (histogram.counts[index] > 0) {
+                out.printf(Locale.ROOT, "%s    {\"lowerMillis\": %.3f, \"upperMillis\": %.3f, \"count\": %d}",
+                        separator, lowerMicros(index) / 1e3, (upperMicros(index) + 1) / 1e3,
+                        histogram.counts[index]);
+                separator = ",\n";
+            }
+        }
+        out.println();
+        out.println("  ],");
+        out.println("  \"longFrames\": [");
+        separator = "";
+        for (LongFrame longFrame : getLongFrames()) {
+            out.printf(Locale.ROOT, "%s    {\"timeMillis\": %d, \"durationMillis\": %.3f, \"activities\": %s}",
+                    separator, longFrame.timeMillis, longFrame.nanos / 1e6, quote(longFrame.describeActivities()));
+            separator = ",\n";
+        }
+        out.println();
+        out.println("  ]");
+        out.println("}");
+        out.flush();
+    }
+
+    private static String quote(final String value) {
+        return value != null ? '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"' : "null";
+    }
+
+    private static int index(final long micros) {
+
+        final long value = Math.min(Math.max(micros, 0), MAX_MICROS);
+        final int magnitude = Math.max(63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS, 0);
+        return (magnitude << SUB_BUCKET_BITS) + (int) (value >>> magnitude);
+    }
+
+    private static long lowerMicros(final int index) {
+
+        final int magnitude = Math.max((index >> SUB_BUCKET_BITS) - 1, 0);
+        return (long) (index - (magnitude << SUB_BUCKET_BITS)) << magnitude;
+    }
+
+    private static long upperMicros(final int index) {
+
+        final int magnitude = Math.max((index >> SUB_BUCKET_BITS) - 1, 0);
+        return lowerMicros(index) + (1L << magnitude) - 1;
+    }
+
+    /**
+     * Log-linear histogram of frame durations.
+     */
+    public static final class Histogram {
+
+        private final long[] counts = new long[index(MAX_MICROS) + 1];
+        private long count;
+        private long totalMicros;
+        private long maxMicros;
+
+        private void record(final long micros) {
+
+            counts[index(micros)]++;
+            count++;
+            totalMicros += micros;
+            maxMicros = Math.max(maxMicros, micros);
+        }
+
+        private Histogram copy() {
+
+            final Histogram copy = new Histogram();
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            copy.count = count;
+            copy.totalMicros = totalMicros;
+            copy.maxMicros = maxMicros;
+            return copy;
+        }
+
+        /**
+         * Forgets the recorded frames.
+         */
+        public void reset() {
+
+            Arrays.fill(counts, 0);
+            count = 0;
+            totalMicros = 0;
+            maxMicros = 0;
+        }
+
+        /**
+         * Gets the number of recorded frames.
+         *
+         * @return the number of frames
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the mean duration of the recorded frames.
+         *
+         * @return the mean frame duration in milliseconds, 0 if no frame was recorded
+         */
+        public double getMeanMillis() {
+            return count > 0 ? totalMicros / 1e3 / count : 0;
+        }
+
+        /**
+         * Gets the longest recorded frame.
+         *
+         * @return the longest frame duration in milliseconds
+         */
+        public double getMaxMillis() {
+            return maxMicros / 1e3;
+        }
+
+        /**
+         * Gets a percentile of the frame durations, as the middle of the bucket holding it.
+         *
+         * @param percentile the percentile, from 0 to 100
+         * @return the frame duration in milliseconds, 0 if no frame was recorded
+         */
+        public double getPercentileMillis(final double percentile) {
+
+            // nearest rank
+            final long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+            long cumulative = 0;
+            for (int index = 0; index < counts.length; index++) {
+                cumulative += counts[index];
+                if (cumulative >= rank) {
+                    return Math.min((lowerMicros(index) + upperMicros(index)) / 2.0, maxMicros) / 1e3;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * A frame longer than the threshold of the profiler.
+     */
+    public static final class LongFrame {
+
+        private final long timeMillis;
+        private final long nanos;
+        private final int activities;
+
+        LongFrame(final long timeMillis, final long nanos, final int activities) {
+
+            this.timeMillis = timeMillis;
+            this.nanos = nanos;
+            this.activities = activities;
+        }
+
+        /**
+         * Gets the end time of the frame.
+         *
+         * @return the time of the frame in milliseconds since the epoch
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /**
+         * Gets the duration of the frame.
+         *
+         * @return the duration in milliseconds
+         */
+        public double getDurationMillis() {
+            return nanos / 1e6;
+        }
+
+        /**
+         * Gets the activities of the viewer during the frame.
+         *
+         * @return a combination of {@link FrameProfiler#LOADING}, {@link FrameProfiler#ATTACH},
+         *         {@link FrameProfiler#INTERACTION} and {@link FrameProfiler#ROTATION}
+         */
+        public int getActivities() {
+            return activities;
+        }
+
+        private String describeActivities() {
+
+            final StringBuilder description = new StringBuilder();
+            for (int i = 0; i < ACTIVITY_NAMES.length; i++) {
+                if ((activities & 1 << i) != 0) {
+                    description.append(description.length() > 0 ? ", " : "").append(ACTIVITY_NAMES[i]);
+                }
+            }
+            return description.length() > 0 ? description.toString() : "no activity";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Long frame: %.1f ms (%s)", nanos / 1e6, describeActivities());
+        }
+    }
+}
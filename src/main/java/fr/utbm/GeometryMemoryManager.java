@@ -0,0 +1,486 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the geometry of the displayed models within a memory budget.
+ *
+ * <p>
+ * Before a file is parsed, its footprint is estimated from the counts declared by its header (binary STL, PLY and 3DS
+ * files) or from its size, and compared with the part of the budget the displayed meshes leave free. A model which
+ * does not fit is imported without levels of detail, then decimated, and refused if even its parsing would not fit:
+ * the import then fails at once with a {@link BudgetExceededException}, instead of running out of memory halfway.
+ * </p>
+ *
+ * <p>
+ * The {@link TriangleMesh}es of the content handed to the {@link ViewerModel} are accounted until the content is
+ * released, which detaches them from their mesh views: references still held to the discarded nodes, such as the last
+ * value of the load service, then no longer keep the geometry alive. Meshes are held weakly, so a mesh collected
+ * without being released stops being accounted too. The manager is thread safe.
+ * </p>
+ */
+public final class GeometryMemoryManager {
+
+    /**
+     * System property giving the geometry memory budget in megabytes, 60% of the maximum heap size by default.
+     */
+    public static final String BUDGET_PROPERTY = "fr.utbm.memory.budget";
+
+    private static final double DEFAULT_BUDGET_RATIO = 0.6;
+    private static final long MEGABYTE = 1 << 20;
+
+    // bytes of a point and of a face of a TriangleMesh or MeshData, smoothing group included
+    private static final int POINT_BYTES = 12;
+    private static final int FACE_BYTES = 28;
+
+    // the decimated levels take about a third of the full mesh once displayed
+    private static final double LEVELS_OF_DETAIL_RATIO = 0.35;
+
+    // memory used by the decimation beside its input and output, relative to its input
+    private static final double DECIMATION_RATIO = 0.25;
+
+    // models decimated further would not be recognizable
+    private static final int MIN_DECIMATED_FACES = 10000;
+
+    // data size of a face, points included, for files whose header gives no counts
+    private static final int OBJ_BYTES_PER_FACE = 50;
+    private static final int BINARY_STL_BYTES_PER_FACE = 50;
+    private static final int BINARY_BYTES_PER_FACE = 20;
+
+    private final long budget;
+    private final Map<TriangleMesh, Entry> meshes = new WeakHashMap<>();
+
+    /**
+     * Creates a manager with the budget given by the {@link #BUDGET_PROPERTY} system property.
+     */
+    public GeometryMemoryManager() {
+        this(Long.getLong(BUDGET_PROPERTY, 0) > 0 ? Long.getLong(BUDGET_PROPERTY) * MEGABYTE
+                : (long) (Runtime.getRuntime().maxMemory() * DEFAULT_BUDGET_RATIO));
+    }
+
+    /**
+     * Creates a manager.
+     *
+     * @param budget the memory budget of the geometry, in bytes
+     */
+    public GeometryMemoryManager(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the memory budget of the geometry.
+     *
+     * @return the budget in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets the memory used by the accounted meshes.
+     *
+     * @return the size of the meshes and of their levels of detail, in bytes
+     */
+    public synchronized long getUsedBytes() {
+
+        long used = 0;
+        for (Entry entry : meshes.values()) {
+            used += entry.bytes;
+        }
+        return used;
+    }
+
+    /**
+     * Gets the part of the budget not used by the accounted meshes.
+     *
+     * @return the free memory of the budget, in bytes
+     */
+    public long getFreeBytes() {
+        return Math.max(budget - getUsedBytes(), 0);
+    }
+
+    /**
+     * Estimates the geometry of a file before parsing it.
+     *
+     * @param file the file, possibly compressed
+     * @param options the options of the import
+     * @return the estimated geometry of the file
+     * @throws IOException if the header of the file cannot be read
+     */
+    public Estimate estimate(final File file, final ImportOptions options) throws IOException {
+
+        String name = file.getName();
+        long size = file.length();
+        final boolean compressed = CompressedInput.isCompressed(name);
+        if (compressed) {
+            // the model of an archive is only known once the archive is read
+            name = CompressedInput.isArchive(name) ? "" : CompressedInput.getUncompressedName(name);
+            size = CompressedInput.estimateUncompressedSize(file);
+        }
+        final String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+
+        long points = -1;
+        long faces = -1;
+        boolean soup = false;
+        switch (extension) {
+        case "stl":
+            soup = true;
+            if (!compressed) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    final long triangleCount = StlImporter.readBinaryTriangleCount(channel, size);
+                    faces = triangleCount >= 0 ? triangleCount : size / StlImporter.ASCII_BYTES_PER_TRIANGLE;
+                }
+            } else {
+                faces = size / BINARY_STL_BYTES_PER_FACE;
+            }
+            break;
+        case "ply":
+            if (!compressed) {
+                final long[] counts = PlyImporter.readElementCounts(file);
+                points = counts[0];
+                faces = counts[1];
+            }
+            break;
+        case "3ds":
+            if (!compressed) {
+                try (TdsImporter.Index index = TdsImporter.open(file)) {
+                    final long[] counts = index.countGeometry();
+                    points = counts[0];
+                    faces = counts[1];
+                }
+            }
+            break;
+        case "obj":
+            faces = size / OBJ_BYTES_PER_FACE;
+            break;
+        default:
+            break;
+        }
+        if (faces < 0) {
+            faces = size / BINARY_BYTES_PER_FACE;
+        }
+        if (points < 0) {
+            // closed triangle meshes have about half as many points as faces
+            points = faces / 2;
+        }
+        final long decodedPoints = soup ? faces * 3 : points;
+        return new Estimate(soup && !options.isWeldVertices() ? decodedPoints : points, faces, decodedPoints,
+                soup && options.isWeldVertices());
+    }
+
+    /**
+     * Plans the import of a file within the budget.
+     *
+     * <p>
+     * If the model does not fit with its levels of detail, it is imported without them; if it still does not fit, it
+     * is decimated to the number of faces fitting the free memory, unless that number is too small to be worth
+     * displaying.
+     * </p>
+     *
+     * @param file the file to import
+     * @param options the options of the import
+     * @return the plan of the import, whose options are the given ones if the model fits as is
+     * @throws BudgetExceededException if the model does not fit in the budget, even decimated
+     * @throws IOException if the header of the file cannot be read
+     */
+    public Plan plan(final File file, final ImportOptions options) throws IOException {
+
+        final Estimate estimate = estimate(file, options);
+        final long free = getFreeBytes();
+        if (estimate.getPeakBytes(options.isLevelsOfDetail()) <= free) {
+            return new Plan(options, estimate, null);
+        }
+        if (options.isLevelsOfDetail() && estimate.getPeakBytes(false) <= free) {
+            final ImportOptions reduced = new ImportOptions(options);
+            reduced.setLevelsOfDetail(false);
+            return new Plan(reduced, estimate, "without levels of detail to fit the memory budget");
+        }
+
+        final long decimationBytes = estimate.getDecodeBytes() + (estimate.welded ? estimate.getMeshBytes() : 0)
+                + (long) (estimate.getMeshBytes() * DECIMATION_RATIO);
+        final long maxFaces = estimate.faces > 0 && free > decimationBytes
+                ? (long) ((double) (free - decimationBytes) / estimate.getMeshBytes() * estimate.faces) : 0;
+        if (maxFaces < MIN_DECIMATED_FACES) {
+            throw new BudgetExceededException(String.format(Locale.ROOT,
+                    "Not enough memory to load %s: it needs about %d MB, %d MB of the %d MB geometry budget are free",
+                    file.getName(), estimate.getPeakBytes(false) / MEGABYTE, free / MEGABYTE, budget / MEGABYTE));
+        }
+        final ImportOptions reduced = new ImportOptions(options);
+        reduced.setLevelsOfDetail(false);
+        reduced.setMaxFaces((int) Math.min(maxFaces, options.getMaxFaces() > 0 ? options.getMaxFaces()
+                : Integer.MAX_VALUE));
+        return new Plan(reduced, estimate,
+                "decimated to " + reduced.getMaxFaces() + " faces to fit the memory budget");
+    }
+
+    /**
+     * Accounts the meshes of content being displayed.
+     *
+     * @param content the content, or a part of it
+     */
+    public synchronized void register(final Node content) {
+
+        if (content instanceof MeshView && ((MeshView) content).getMesh() instanceof TriangleMesh) {
+            final MeshView meshView = (MeshView) content;
+            final TriangleMesh mesh = LevelOfDetail.getFullMesh(meshView);
+            Entry entry = meshes.get(mesh);
+            if (entry == null) {
+                entry = new Entry(sizeOf(mesh, LevelOfDetail.get(meshView)));
+                meshes.put(mesh, entry);
+            }
+            entry.views++;
+        } else if (content instanceof Group) {
+            for (Node child : ((Group) content).getChildren()) {
+                register(child);
+            }
+        }
+    }
+
+    /**
+     * Releases the meshes of discarded content: they stop being accounted and their mesh views drop them and their
+     * levels of detail. Meshes shared with content still displayed stay accounted.
+     *
+     * @param content the discarded content, no longer displayed
+     */
+    public synchronized void release(final Node content) {
+        unregister(content, true);
+    }
+
+    /**
+     * Stops accounting the meshes of content handed over to another owner, which registers it again, e.g. prefetched
+     * content handed to the {@link ViewerModel}. The meshes are left as they are.
+     *
+     * @param content the content, or a part of it
+     */
+    public synchronized void unregister(final Node content) {
+        unregister(content, false);
+    }
+
+    /**
+     * Computes the memory used by the meshes of content, as accounted once registered.
+     *
+     * @param content the content, or a part of it
+     * @return the size of the meshes and of their levels of detail, meshes shared by several views counted once
+     */
+    public static long sizeOf(final Node content) {
+        return sizeOf(content, Collections.newSetFromMap(new IdentityHashMap<TriangleMesh, Boolean>()));
+    }
+
+    private void unregister(final Node content, final boolean detach) {
+
+        if (content instanceof MeshView) {
+            final MeshView meshView = (MeshView) content;
+            if (meshView.getMesh() instanceof TriangleMesh) {
+                final TriangleMesh mesh = LevelOfDetail.getFullMesh(meshView);
+                final Entry entry = meshes.get(mesh);
+                if (entry != null && --entry.views <= 0) {
+                    meshes.remove(mesh);
+                }
+            }
+            if (detach) {
+                meshView.setMesh(null);
+                meshView.getProperties().remove(LevelOfDetail.PROPERTY);
+            }
+        } else if (content instanceof Group) {
+            for (Node child : ((Group) content).getChildren()) {
+                unregister(child, detach);
+            }
+        }
+    }
+
+    private static long sizeOf(final Node content, final Set<TriangleMesh> counted) {
+
+        long size = 0;
+        if (content instanceof MeshView && ((MeshView) content).getMesh() instanceof TriangleMesh) {
+            final MeshView meshView = (MeshView) content;
+            final TriangleMesh mesh = LevelOfDetail.getFullMesh(meshView);
+            if (counted.add(mesh)) {
+                size += sizeOf(mesh, LevelOfDetail.get(meshView));
+            }
+        } else if (content instanceof Group) {
+            for (Node child : ((Group) content).getChildren()) {
+                size += sizeOf(child, counted);
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOf(final TriangleMesh mesh, final LevelOfDetail levelOfDetail) {
+
+        final int faceCount = mesh.getFaces().size() / 6;
+        // smoothing groups are computed once the mesh is displayed, see MeshSmoother
+        long size = (mesh.getPoints().size() + mesh.getTexCoords().size() + mesh.getFaces().size() + faceCount) * 4L;
+        if (levelOfDetail != null) {
+            // levels are accounted in their compact form, the few displayed at a time also exist as triangle meshes
+            for (int level = 1; level < levelOfDetail.getLevelCount(); level++) {
+                size += levelOfDetail.getCompactMesh(level).getMemorySize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Accounted memory of a mesh, and number of mesh views displaying it.
+     */
+    private static final class Entry {
+
+        private final long bytes;
+        private int views;
+
+        Entry(final long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Geometry of a file estimated before parsing it.
+     */
+    public static final class Estimate {
+
+        private final long points;
+        private final long faces;
+        private final long decodedPoints;
+        private final boolean welded;
+
+        Estimate(final long points, final long faces, final long decodedPoints, final boolean welded) {
+            this.points = points;
+            this.faces = faces;
+            this.decodedPoints = decodedPoints;
+            this.welded = welded;
+        }
+
+        /**
+         * Gets the estimated number of points of the loaded model.
+         *
+         * @return the number of points, after welding
+         */
+        public long getPoints() {
+            return points;
+        }
+
+        /**
+         * Gets the estimated number of faces of the model.
+         *
+         * @return the number of triangles
+         */
+        public long getFaces() {
+            return faces;
+        }
+
+        /**
+         * Gets the memory of the mesh decoded by the parser, before welding.
+         *
+         * @return the size of the decoded mesh, in bytes
+         */
+        public long getDecodeBytes() {
+            return decodedPoints * POINT_BYTES + faces * FACE_BYTES;
+        }
+
+        /**
+         * Gets the memory of the mesh of the model, as displayed.
+         *
+         * @return the size of the mesh, in bytes
+         */
+        public long getMeshBytes() {
+            return points * POINT_BYTES + faces * FACE_BYTES;
+        }
+
+        /**
+         * Gets the peak memory of the import: the decoded mesh, the welded mesh and the displayed mesh are alive at
+         * once while the shapes are built.
+         *
+         * @param levelsOfDetail whether levels of detail are generated
+         * @return the peak memory of the import, in bytes
+         */
+        public long getPeakBytes(final boolean levelsOfDetail) {
+
+            return getDecodeBytes() + (welded ? getMeshBytes() : 0)
+                    + (long) (getMeshBytes() * (1 + (levelsOfDetail ? LEVELS_OF_DETAIL_RATIO : 0)));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d points, %d faces, %.1f MB at peak", points, faces,
+                    getPeakBytes(true) / (double) MEGABYTE);
+        }
+    }
+
+    /**
+     * Options of an import fitting the budget.
+     */
+    public static final class Plan {
+
+        private final ImportOptions options;
+        private final Estimate estimate;
+        private final String reduction;
+
+        Plan(final ImportOptions options, final Estimate estimate, final String reduction) {
+            this.options = options;
+            this.estimate = estimate;
+            this.reduction = reduction;
+        }
+
+        /**
+         * Gets the options of the import.
+         *
+         * @return the options to import the file with
+         */
+        public ImportOptions getOptions() {
+            return options;
+        }
+
+        /**
+         * Gets the estimate the plan is based on.
+         *
+         * @return the estimated geometry of the file
+         */
+        public Estimate getEstimate() {
+            return estimate;
+        }
+
+        /**
+         * Whether the import is reduced to fit the budget.
+         *
+         * @return {@code true} if the model is imported without levels of detail or decimated
+         */
+        public boolean isReduced() {
+            return reduction != null;
+        }
+
+        /**
+         * Describes the reduction of the import, for display.
+         *
+         * @return the description of the reduction, or {@code "full"} if the import is not reduced
+         */
+        @Override
+        public String toString() {
+            return reduction != null ? reduction : "full";
+        }
+    }
+
+    /**
+     * Thrown before parsing a file whose model does not fit in the geometry memory budget.
+     */
+    public static final class BudgetExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package fr.utbm;
+
+import javafx.scene.Node;
+
+/**
+ * Listener of a progressive import, see {@link Importer3D#load(String, ImportOptions, ImportListener)}.
+ *
+ * <p>
+ * The methods are called from the loading thread, so implementations touching the scene graph must hand the work
+ * over to the JavaFX application thread.
+ * </p>
+ */
+public interface ImportListener {
+
+    /**
+     * Called when part of the file has been read.
+     *
+     * @param bytesRead the number of bytes read so far
+     * @param totalBytes the size of the file in bytes
+     */
+    void progress(long bytesRead, long totalBytes);
+
+    /**
+     * Called when a part of the content is decoded and can be displayed.
+     *
+     * @param part the decoded part, which has no parent
+     */
+    void partLoaded(Node part);
+}
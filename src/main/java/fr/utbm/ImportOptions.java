@@ -0,0 +1,417 @@
+package fr.utbm;
+
+import java.io.File;
+
+/**
+ * Options controlling how {@link Importer3D} loads a 3D file.
+ *
+ * <p>
+ * The defaults can be overridden with system properties, so different import paths can be compared on the same
+ * files without rebuilding the viewer.
+ * </p>
+ */
+public class ImportOptions {
+
+    /**
+     * System property selecting the STL reader, {@code true} for {@link StlImporter} and {@code false} for the
+     * InteractiveMesh importer.
+     */
+    public static final String NATIVE_STL_PROPERTY = "fr.utbm.stl.native";
+
+    /**
+     * System property selecting the 3DS reader, {@code true} for {@link TdsImporter} and {@code false} for the
+     * InteractiveMesh importer.
+     */
+    public static final String NATIVE_3DS_PROPERTY = "fr.utbm.3ds.native";
+
+    /**
+     * System property enabling the welding of STL points, see {@link VertexWelder}.
+     */
+    public static final String WELD_PROPERTY = "fr.utbm.weld";
+
+    /**
+     * System property giving the welding tolerance, 0 to merge only identical points.
+     */
+    public static final String WELD_TOLERANCE_PROPERTY = "fr.utbm.weld.tolerance";
+
+    /**
+     * System property giving the number of threads decoding a file, 1 to force single-threaded decoding and 0 to use
+     * all cores.
+     */
+    public static final String PARALLELISM_PROPERTY = "fr.utbm.import.parallelism";
+
+    /**
+     * System property enabling the on-disk cache of decoded models, see {@link MeshCache}.
+     */
+    public static final String CACHE_PROPERTY = "fr.utbm.cache";
+
+    /**
+     * System property giving the directory of the cache.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY = "fr.utbm.cache.dir";
+
+    /**
+     * System property giving the size cap of the cache in megabytes.
+     */
+    public static final String CACHE_MAX_SIZE_PROPERTY = "fr.utbm.cache.maxSize";
+
+    /**
+     * System property enabling progressive loading, where the parts of a file are displayed as soon as they are
+     * decoded.
+     */
+    public static final String PROGRESSIVE_PROPERTY = "fr.utbm.import.progressive";
+
+    /**
+     * System property enabling the generation of decimated levels of detail for large meshes.
+     */
+    public static final String LEVEL_OF_DETAIL_PROPERTY = "fr.utbm.lod";
+
+    /**
+     * System property enabling the sharing of identical meshes and materials, see {@link MeshInstancer}.
+     */
+    public static final String INSTANCING_PROPERTY = "fr.utbm.instancing";
+
+    /**
+     * System property giving the maximum number of faces of a shape, larger meshes being split by
+     * {@link MeshSplitter}, 0 to keep meshes whole.
+     */
+    public static final String MAX_CHUNK_FACES_PROPERTY = "fr.utbm.split.maxFaces";
+
+    /**
+     * System property giving the crease angle in degrees of the smooth shading computed for flat meshes, see
+     * {@link MeshSmoother}, 0 to keep them flat.
+     */
+    public static final String CREASE_ANGLE_PROPERTY = "fr.utbm.smoothing.creaseAngle";
+
+    /**
+     * System property giving the maximum number of faces of a loaded model, larger models being decimated by
+     * {@link MeshDecimator}, 0 to keep every face.
+     */
+    public static final String MAX_FACES_PROPERTY = "fr.utbm.import.maxFaces";
+
+    private static final String DEFAULT_CACHE_DIRECTORY = System.getProperty("user.home") + File.separator
+            + ".javafx3dimporter" + File.separator + "cache";
+    private static final long DEFAULT_CACHE_MAX_SIZE = 2048;
+    private static final int DEFAULT_MAX_CHUNK_FACES = 1 << 18;
+    private static final String DEFAULT_CREASE_ANGLE = "40";
+
+    private boolean nativeStlImporter = Boolean.parseBoolean(System.getProperty(NATIVE_STL_PROPERTY, "true"));
+    private boolean native3dsImporter = Boolean.parseBoolean(System.getProperty(NATIVE_3DS_PROPERTY, "true"));
+    private boolean weldVertices = Boolean.parseBoolean(System.getProperty(WELD_PROPERTY, "true"));
+    private float weldTolerance = Float.parseFloat(System.getProperty(WELD_TOLERANCE_PROPERTY, "0"));
+    private int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, 0);
+    private MeshCache cache = createDefaultCache();
+    private boolean progressive = Boolean.parseBoolean(System.getProperty(PROGRESSIVE_PROPERTY, "true"));
+    private boolean levelsOfDetail = Boolean.parseBoolean(System.getProperty(LEVEL_OF_DETAIL_PROPERTY, "true"));
+    private boolean instancing = Boolean.parseBoolean(System.getProperty(INSTANCING_PROPERTY, "true"));
+    private MeshInstancer instancer;
+    private int maxChunkFaces = Integer.getInteger(MAX_CHUNK_FACES_PROPERTY, DEFAULT_MAX_CHUNK_FACES);
+    private double creaseAngle = Double.parseDouble(System.getProperty(CREASE_ANGLE_PROPERTY, DEFAULT_CREASE_ANGLE));
+    private int maxFaces = Integer.getInteger(MAX_FACES_PROPERTY, 0);
+    private GeometryMemoryManager memoryManager;
+
+    /**
+     * Creates options with the defaults given by the system properties.
+     */
+    public ImportOptions() {
+    }
+
+    /**
+     * Creates a copy of options, e.g. to change them for a single import.
+     *
+     * @param options the options to copy
+     */
+    public ImportOptions(final ImportOptions options) {
+
+        nativeStlImporter = options.nativeStlImporter;
+        native3dsImporter = options.native3dsImporter;
+        weldVertices = options.weldVertices;
+        weldTolerance = options.weldTolerance;
+        parallelism = options.parallelism;
+        cache = options.cache;
+        progressive = options.progressive;
+        levelsOfDetail = options.levelsOfDetail;
+        instancing = options.instancing;
+        instancer = options.instancer;
+        maxChunkFaces = options.maxChunkFaces;
+        creaseAngle = options.creaseAngle;
+        maxFaces = options.maxFaces;
+        memoryManager = options.memoryManager;
+    }
+
+    /**
+     * Whether STL files are read with the built-in {@link StlImporter}.
+     *
+     * @return {@code true} if the built-in STL reader is used
+     */
+    public boolean isNativeStlImporter() {
+        return nativeStlImporter;
+    }
+
+    /**
+     * Selects the STL reader.
+     *
+     * @param nativeStlImporter {@code true} to use the built-in {@link StlImporter}, {@code false} to use the
+     *            InteractiveMesh importer
+     */
+    public void setNativeStlImporter(final boolean nativeStlImporter) {
+        this.nativeStlImporter = nativeStlImporter;
+    }
+
+    /**
+     * Whether 3DS files are read with the built-in {@link TdsImporter}.
+     *
+     * @return {@code true} if the built-in 3DS reader is used
+     */
+    public boolean isNative3dsImporter() {
+        return native3dsImporter;
+    }
+
+    /**
+     * Selects the 3DS reader.
+     *
+     * @param native3dsImporter {@code true} to use the built-in {@link TdsImporter}, {@code false} to use the
+     *            InteractiveMesh importer
+     */
+    public void setNative3dsImporter(final boolean native3dsImporter) {
+        this.native3dsImporter = native3dsImporter;
+    }
+
+    /**
+     * Whether coincident points of STL meshes are merged.
+     *
+     * @return {@code true} if STL meshes are welded
+     */
+    public boolean isWeldVertices() {
+        return weldVertices;
+    }
+
+    /**
+     * Enables or disables the welding of coincident points of STL meshes.
+     *
+     * @param weldVertices {@code true} to weld STL meshes
+     */
+    public void setWeldVertices(final boolean weldVertices) {
+        this.weldVertices = weldVertices;
+    }
+
+    /**
+     * Gets the welding tolerance.
+     *
+     * @return the size of the grid cells points are snapped to, 0 if only identical points are merged
+     */
+    public float getWeldTolerance() {
+        return weldTolerance;
+    }
+
+    /**
+     * Sets the welding tolerance.
+     *
+     * @param weldTolerance the size of the grid cells points are snapped to, or 0 to merge only identical points
+     */
+    public void setWeldTolerance(final float weldTolerance) {
+        this.weldTolerance = weldTolerance;
+    }
+
+    /**
+     * Gets the number of threads decoding a file.
+     *
+     * @return the number of decoding threads, 1 for single-threaded decoding, 0 for all cores
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads decoding a file.
+     *
+     * @param parallelism the number of decoding threads, 1 to force single-threaded decoding, 0 to use all cores
+     */
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Gets the cache of decoded models.
+     *
+     * @return the cache, or {@code null} if models are always parsed
+     */
+    public MeshCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of decoded models.
+     *
+     * @param cache the cache, or {@code null} to always parse models
+     */
+    public void setCache(final MeshCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Whether files are displayed progressively, part by part as they are decoded.
+     *
+     * @return {@code true} if files are loaded progressively
+     */
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * Enables or disables progressive loading.
+     *
+     * @param progressive {@code true} to display the parts of a file as soon as they are decoded
+     */
+    public void setProgressive(final boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    /**
+     * Whether large meshes get decimated levels of detail, displayed when they are small on screen.
+     *
+     * @return {@code true} if levels of detail are generated
+     */
+    public boolean isLevelsOfDetail() {
+        return levelsOfDetail;
+    }
+
+    /**
+     * Enables or disables the generation of levels of detail.
+     *
+     * @param levelsOfDetail {@code true} to generate levels of detail for large meshes
+     */
+    public void setLevelsOfDetail(final boolean levelsOfDetail) {
+        this.levelsOfDetail = levelsOfDetail;
+    }
+
+    /**
+     * Whether identical meshes and materials of imports are shared.
+     *
+     * @return {@code true} if meshes and materials are shared
+     */
+    public boolean isInstancing() {
+        return instancing;
+    }
+
+    /**
+     * Enables or disables the sharing of identical meshes and materials.
+     *
+     * @param instancing {@code true} to share identical meshes and materials
+     */
+    public void setInstancing(final boolean instancing) {
+        this.instancing = instancing;
+    }
+
+    /**
+     * Gets the instancer shared by the imports.
+     *
+     * @return the instancer shared by the imports, or {@code null} if each import only shares meshes within itself
+     */
+    public MeshInstancer getInstancer() {
+        return instancer;
+    }
+
+    /**
+     * Sets the instancer shared by the imports, so the models of a scene share their meshes.
+     *
+     * @param instancer the instancer shared by the imports, or {@code null} to only share meshes within each import
+     */
+    public void setInstancer(final MeshInstancer instancer) {
+        this.instancer = instancer;
+    }
+
+    /**
+     * Gets the maximum number of faces of a shape, larger meshes being split into several shapes.
+     *
+     * @return the maximum number of faces of a shape, 0 if meshes are kept whole
+     */
+    public int getMaxChunkFaces() {
+        return maxChunkFaces;
+    }
+
+    /**
+     * Sets the maximum number of faces of a shape.
+     *
+     * @param maxChunkFaces the maximum number of faces of a shape, 0 to keep meshes whole
+     */
+    public void setMaxChunkFaces(final int maxChunkFaces) {
+        this.maxChunkFaces = maxChunkFaces;
+    }
+
+    /**
+     * Gets the crease angle of the smooth shading computed for flat meshes once displayed.
+     *
+     * @return the largest angle in degrees between faces shaded smoothly, 0 if flat meshes stay flat
+     */
+    public double getCreaseAngle() {
+        return creaseAngle;
+    }
+
+    /**
+     * Sets the crease angle of the smooth shading computed for flat meshes once displayed.
+     *
+     * @param creaseAngle the largest angle in degrees between faces shaded smoothly, 0 to keep flat meshes flat
+     */
+    public void setCreaseAngle(final double creaseAngle) {
+        this.creaseAngle = creaseAngle;
+    }
+
+    /**
+     * Gets the maximum number of faces of a loaded model. Only the meshes decoded by the built-in importers are
+     * decimated.
+     *
+     * @return the maximum number of faces of a model, 0 if every face is kept
+     */
+    public int getMaxFaces() {
+        return maxFaces;
+    }
+
+    /**
+     * Sets the maximum number of faces of a loaded model, larger models being decimated.
+     *
+     * @param maxFaces the maximum number of faces of a model, 0 to keep every face
+     */
+    public void setMaxFaces(final int maxFaces) {
+        this.maxFaces = maxFaces;
+    }
+
+    /**
+     * Gets the manager checking imports against the geometry memory budget.
+     *
+     * @return the memory manager, or {@code null} if imports are not checked
+     */
+    public GeometryMemoryManager getMemoryManager() {
+        return memoryManager;
+    }
+
+    /**
+     * Sets the manager checking imports against the geometry memory budget, which may reduce or refuse them.
+     *
+     * @param memoryManager the memory manager, or {@code null} to import files whatever their size
+     */
+    public void setMemoryManager(final GeometryMemoryManager memoryManager) {
+        this.memoryManager = memoryManager;
+    }
+
+    /**
+     * Describes the options changing the content of an import, so cached content matches the options it was loaded
+     * with.
+     *
+     * @return the description of the options
+     */
+    String getCacheVariant() {
+        return "nativeStl=" + nativeStlImporter + ",native3ds=" + native3dsImporter + ",weld=" + weldVertices
+                + ",tolerance=" + weldTolerance + ",maxChunkFaces=" + maxChunkFaces + ",maxFaces=" + maxFaces;
+    }
+
+    private static MeshCache createDefaultCache() {
+
+        if (!Boolean.parseBoolean(System.getProperty(CACHE_PROPERTY, "true"))) {
+            return null;
+        }
+        final File directory = new File(System.getProperty(CACHE_DIRECTORY_PROPERTY, DEFAULT_CACHE_DIRECTORY));
+        final long maxSize = Long.getLong(CACHE_MAX_SIZE_PROPERTY, DEFAULT_CACHE_MAX_SIZE);
+        return new MeshCache(directory, maxSize * 1024 * 1024);
+    }
+}
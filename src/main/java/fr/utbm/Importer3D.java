@@ -3,27 +3,72 @@ package fr.utbm;
 import com.interactivemesh.jfx.importer.ModelImporter;
 import com.interactivemesh.jfx.importer.stl.StlMeshImporter;
 import com.interactivemesh.jfx.importer.tds.TdsModelImporter;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.PhongMaterial;
 import javafx.scene.shape.MeshView;
 import javafx.scene.shape.TriangleMesh;
+import javafx.scene.transform.Affine;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Base Importer for all supported 3D file formats.
+ * Base Importer for all supported 3D file formats, read by the importers of the {@link ImporterRegistry}.
  */
 public final class Importer3D {
 
+    /**
+     * Key of the {@link VertexWelder.Result} in the properties of a loaded group whose mesh was welded.
+     */
+    public static final String WELD_RESULT_PROPERTY = "fr.utbm.weldResult";
+
+    /**
+     * Key of a {@link Boolean#TRUE} value in the properties of a loaded group read from the {@link MeshCache}.
+     */
+    public static final String CACHE_HIT_PROPERTY = "fr.utbm.cacheHit";
+
+    /**
+     * Key of the {@link LoadMetrics} in the properties of a loaded group.
+     */
+    public static final String METRICS_PROPERTY = "fr.utbm.loadMetrics";
+
+    /**
+     * Key of the {@link MeshInstancer.Result} in the properties of a loaded group whose meshes were shared.
+     */
+    public static final String INSTANCING_RESULT_PROPERTY = "fr.utbm.instancingResult";
+
+    /**
+     * Key of the {@link GeometryMemoryManager.Plan} in the properties of a loaded group whose import was reduced to fit
+     * the memory budget.
+     */
+    public static final String MEMORY_PLAN_PROPERTY = "fr.utbm.memoryPlan";
+
+    /**
+     * Key of the bounds of a part handed over to an {@link ImportListener} in its properties, a
+     * {@link javafx.geometry.Bounds} in the coordinates of the part computed by the import.
+     */
+    public static final String BOUNDS_PROPERTY = "fr.utbm.bounds";
+
+    private static final int FIRST_BATCH_TRIANGLES = 1 << 16;
+    private static final int BATCH_TRIANGLES = 1 << 19;
+
     /**
      * Get array of extension filters for supported file formats.
      * 
      * @return array of extension filters for supported file formats
      */
     public static String[] getSupportedFormatExtensionFilters() {
-        return new String[] { "*.3ds", "*.stl"};
+        return ImporterRegistry.getDefault().getExtensionFilters();
     }
 
     /**
@@ -34,37 +79,624 @@ public final class Importer3D {
      * @throws IOException if there is a problem loading the file
      */
     public static Group load(final String fileUrl) throws IOException {
+        return load(fileUrl, new ImportOptions());
+    }
+
+    /**
+     * Load a 3D file with the given options, always loaded as TriangleMesh.
+     * 
+     * @param fileUrl the url of the 3D file to load
+     * @param options the options of the import
+     * @return the loaded Node which could be a MeshView or a Group
+     * @throws IOException if there is a problem loading the file
+     */
+    public static Group load(final String fileUrl, final ImportOptions options) throws IOException {
+        return load(fileUrl, options, null);
+    }
+
+    /**
+     * Load a 3D file with the given options, handing its parts to a listener as soon as they are decoded.
+     * 
+     * @param fileUrl the url of the 3D file to load
+     * @param options the options of the import
+     * @param listener the listener receiving the parts and the progress of the import, or {@code null} to return
+     *            the whole content in the group
+     * @return the loaded Node which could be a MeshView or a Group
+     * @throws IOException if there is a problem loading the file
+     * @see #load(String, ImportOptions, ImportListener, LoadMetrics)
+     */
+    public static Group load(final String fileUrl, final ImportOptions options, final ImportListener listener)
+            throws IOException {
+        return load(fileUrl, options, listener, null);
+    }
+
+    /**
+     * Load a 3D file with the given options, handing its parts to a listener as soon as they are decoded, and
+     * recording the timings of the import.
+     * 
+     * <p>
+     * With a listener, the returned group has no children: each part of the content is given to the listener, which
+     * is responsible for displaying it. The properties of the returned group still describe the import. Binary and
+     * ASCII STL files read by {@link StlImporter} are decoded and handed over batch by batch, other files in one
+     * part once fully loaded.
+     * </p>
+     * 
+     * <p>
+     * Compressed files and archives, see {@link CompressedInput}, are decompressed on a thread of their own while the
+     * importer of the model they hold parses it, which must be a {@link StreamFormatImporter}. They are cached like
+     * other local files, under the path of the compressed file.
+     * </p>
+     * 
+     * <p>
+     * With a {@link ImportOptions#getMemoryManager() memory manager}, local files are checked against the geometry
+     * memory budget before being parsed, and imported with reduced options or refused if they do not fit.
+     * </p>
+     * 
+     * @param fileUrl the url of the 3D file to load
+     * @param options the options of the import
+     * @param listener the listener receiving the parts and the progress of the import, or {@code null} to return
+     *            the whole content in the group
+     * @param metrics the metrics recording the import, or {@code null} to create new ones; they are stored in the
+     *            properties of the returned group with the {@link #METRICS_PROPERTY} key
+     * @return the loaded Node which could be a MeshView or a Group
+     * @throws IOException if there is a problem loading the file
+     */
+    public static Group load(final String fileUrl, final ImportOptions options, final ImportListener listener,
+            final LoadMetrics metrics) throws IOException {
 
         final int dot = fileUrl.lastIndexOf('.');
         if (dot <= 0) {
             throw new IOException("Unknown 3D file format, url missing extension [" + fileUrl + "]");
         }
         final String extension = fileUrl.substring(dot + 1, fileUrl.length()).toLowerCase();
+        final boolean compressed = CompressedInput.isCompressed(fileUrl);
+        final FormatImporter importer = compressed ? null : ImporterRegistry.getDefault().getImporter(extension);
+        if (compressed ? !ImporterRegistry.getDefault().isSupported(fileUrl) : importer == null) {
+            throw new IOException("Unsupported 3D file format [" + extension + "]");
+        }
+
+        final File file = toFile(fileUrl);
+        final LoadMetrics loadMetrics = metrics != null ? metrics : new LoadMetrics(file);
+        if (file != null) {
+            loadMetrics.setBytes(file.length());
+        }
+
+        // cached models take as much memory as parsed ones, so the budget is checked first
+        final GeometryMemoryManager memoryManager = file != null ? options.getMemoryManager() : null;
+        final GeometryMemoryManager.Plan plan = memoryManager != null ? memoryManager.plan(file, options) : null;
+        final ImportOptions importOptions = plan != null ? plan.getOptions() : options;
+
+        final MeshCache cache = file != null ? importOptions.getCache() : null;
+        if (cache != null) {
+            final long start = System.nanoTime();
+            final Group cached = cache.get(file, importOptions.getCacheVariant());
+            loadMetrics.endStage(LoadMetrics.Stage.CACHE_READ, start);
+            if (cached != null) {
+                cached.getProperties().put(CACHE_HIT_PROPERTY, Boolean.TRUE);
+                putPlan(cached, plan);
+                return complete(cached, file, importOptions, listener, null, loadMetrics);
+            }
+        }
+
+        // decimation needs the whole mesh
+        if (listener != null && importer instanceof StlFormat && importOptions.isNativeStlImporter() && file != null
+                && importOptions.getMaxFaces() == 0) {
+            return putPlan(loadStlProgressively(file, importOptions, listener, cache, loadMetrics), plan);
+        }
+
+        final Group content = compressed ? loadCompressed(fileUrl, file, importOptions, loadMetrics)
+                : importer.load(fileUrl, file, importOptions, loadMetrics);
+        checkInterrupted();
+        putPlan(content, plan);
+        return complete(content, file, importOptions, listener, cache, loadMetrics);
+    }
+
+    /**
+     * Records the plan of an import in the properties of the loaded group if the import was reduced.
+     * 
+     * @param content the loaded group
+     * @param plan the plan of the import, or {@code null} if the import was not checked against the memory budget
+     * @return the loaded group
+     */
+    private static Group putPlan(final Group content, final GeometryMemoryManager.Plan plan) {
+
+        if (plan != null && plan.isReduced()) {
+            content.getProperties().put(MEMORY_PLAN_PROPERTY, plan);
+        }
+        return content;
+    }
+
+    /**
+     * Loads the model held by a compressed file, parsed from the stream of its decompression.
+     * 
+     * @param fileUrl the url of the compressed file
+     * @param file the local compressed file, or {@code null} if it is not a local file
+     * @param options the options of the import
+     * @param metrics the metrics of the import
+     * @return the loaded content
+     * @throws IOException if the file cannot be decompressed or the model it holds cannot be read
+     */
+    private static Group loadCompressed(final String fileUrl, final File file, final ImportOptions options,
+            final LoadMetrics metrics) throws IOException {
+
+        try (CompressedInput input = CompressedInput.open(fileUrl, file, metrics)) {
+            final FormatImporter importer = ImporterRegistry.getDefault().getImporterForName(input.getName());
+            if (!(importer instanceof StreamFormatImporter)) {
+                throw new IOException("Unsupported compressed 3D file format [" + input.getName() + "]");
+            }
+            return ((StreamFormatImporter) importer).load(input.getStream(), input.getName(), input.getSize(), file,
+                    options, metrics);
+        }
+    }
+
+    /**
+     * Completes the import of content loaded at once: shares its meshes, caches it, generates its levels of detail,
+     * builds its bounding volume hierarchy and hands it over.
+     * 
+     * @param content the loaded content
+     * @param file the loaded file, or {@code null} if it is not a local file
+     * @param options the options of the import
+     * @param listener the listener of the import, or {@code null} to leave the content as is
+     * @param cache the cache receiving the content, or {@code null}
+     * @param metrics the metrics of the import
+     * @return the content, empty with a listener
+     * @throws IOException if the import is interrupted
+     */
+    private static Group complete(final Group content, final File file, final ImportOptions options,
+            final ImportListener listener, final MeshCache cache, final LoadMetrics metrics) throws IOException {
+
+        long start = System.nanoTime();
+        if (options.isInstancing()) {
+            final MeshInstancer instancer = options.getInstancer() != null ? options.getInstancer()
+                    : new MeshInstancer();
+            content.getProperties().put(INSTANCING_RESULT_PROPERTY, instancer.instance(content));
+            start = metrics.endStage(LoadMetrics.Stage.MESH_BUILD, start);
+        }
+        if (cache != null) {
+            cache.put(file, options.getCacheVariant(), content);
+            start = metrics.endStage(LoadMetrics.Stage.CACHE_WRITE, start);
+        }
+        if (options.isLevelsOfDetail()) {
+            LevelOfDetail.generate(content);
+            start = metrics.endStage(LoadMetrics.Stage.LEVELS_OF_DETAIL, start);
+        }
+        // parts handed over to a listener keep their transforms, so the hierarchy holds for the group assembling them
+        BoundingVolumeHierarchy.build(content);
+        metrics.endStage(LoadMetrics.Stage.BOUNDING_VOLUMES, start);
+        addGeometry(content, metrics);
+        content.getProperties().put(METRICS_PROPERTY, metrics);
+        metrics.loadEnded();
+        handOver(content, file, listener);
+        return content;
+    }
+
+    /**
+     * Moves the children of loaded content to a listener.
+     * 
+     * @param content the loaded content
+     * @param file the loaded file, or {@code null} if it is not a local file
+     * @param listener the listener of the import, or {@code null} to leave the content as is
+     */
+    private static void handOver(final Group content, final File file, final ImportListener listener) {
+
+        if (listener == null) {
+            return;
+        }
+        final List<Node> parts = new ArrayList<>(content.getChildren());
+        content.getChildren().clear();
+        for (Node part : parts) {
+            if (part instanceof MeshView && ((MeshView) part).getMesh() instanceof TriangleMesh) {
+                final TriangleMesh mesh = LevelOfDetail.getFullMesh((MeshView) part);
+                part.getProperties().put(BOUNDS_PROPERTY, toBounds(PointBounds.compute(mesh.getPoints())));
+            }
+            listener.partLoaded(part);
+        }
+        final long size = file != null ? file.length() : 1;
+        listener.progress(size, size);
+    }
+
+    /**
+     * Loads an STL file batch by batch with {@link StlImporter}, handing each batch to the listener.
+     * 
+     * @param file the STL file
+     * @param options the options of the import
+     * @param listener the listener of the import
+     * @param cache the cache receiving the whole content, or {@code null}
+     * @param metrics the metrics of the import
+     * @return an empty group whose properties describe the import
+     * @throws IOException if there is a problem loading the file
+     */
+    private static Group loadStlProgressively(final File file, final ImportOptions options,
+            final ImportListener listener, final MeshCache cache, final LoadMetrics metrics) throws IOException {
+
+        // the parts belong to the scene graph once handed over, so the cache entry and the bounding volume hierarchy
+        // are built from what is known of them before
+        final Group content = new Group();
+        final List<MeshView> parts = new ArrayList<>();
+        final List<float[]> partBounds = new ArrayList<>();
+        final List<MeshCache.Part> cacheParts = new ArrayList<>();
+        VertexWelder.Result weldResult = null;
+
+        try (StlImporter.Reader reader = StlImporter.open(file)) {
+            listener.progress(0, reader.getSize());
+
+            // a small first batch keeps the time to the first displayed triangles short
+            int batchTriangles = FIRST_BATCH_TRIANGLES;
+            MeshData batch;
+            long start = System.nanoTime();
+            while ((batch = reader.readBatch(batchTriangles, options.getParallelism())) != null) {
+                start = metrics.endStage(LoadMetrics.Stage.DECODE, start);
+                checkInterrupted();
+                if (options.isWeldVertices()) {
+                    final VertexWelder.Result batchResult = VertexWelder.weld(batch, options.getWeldTolerance());
+                    batch = batchResult.getMesh();
+                    weldResult = weldResult == null ? batchResult.getStatistics() : weldResult.combine(batchResult);
+                    start = metrics.endStage(LoadMetrics.Stage.WELD, start);
+                }
+                for (MeshData chunk : MeshSplitter.split(batch, options.getMaxChunkFaces())) {
+                    final TriangleMesh mesh = chunk.toTriangleMesh();
+                    final MeshView part = createMeshView(mesh);
+                    final float[] bounds = chunk.computeBounds();
+                    part.getProperties().put(BOUNDS_PROPERTY, toBounds(bounds));
+                    start = metrics.endStage(LoadMetrics.Stage.MESH_BUILD, start);
+                    if (options.isLevelsOfDetail()) {
+                        LevelOfDetail.attach(part, LevelOfDetail.create(chunk, mesh));
+                        start = metrics.endStage(LoadMetrics.Stage.LEVELS_OF_DETAIL, start);
+                    }
+                    metrics.addGeometry(chunk.getPointCount(), chunk.getFaceCount());
+                    parts.add(part);
+                    partBounds.add(bounds);
+                    if (cache != null) {
+                        cacheParts.add(new MeshCache.Part(part, chunk, new Affine()));
+                    }
+                    listener.partLoaded(part);
+                }
+                listener.progress(reader.getBytesRead(), reader.getSize());
+                batchTriangles = BATCH_TRIANGLES;
+                start = System.nanoTime();
+            }
+        }
+
+        if (weldResult != null) {
+            content.getProperties().put(WELD_RESULT_PROPERTY, weldResult);
+        }
+        if (cache != null) {
+            final long start = System.nanoTime();
+            cache.put(file, options.getCacheVariant(), cacheParts.toArray(new MeshCache.Part[cacheParts.size()]));
+            metrics.endStage(LoadMetrics.Stage.CACHE_WRITE, start);
+        }
+        final long start = System.nanoTime();
+        BoundingVolumeHierarchy.attach(content, BoundingVolumeHierarchy.create(parts, partBounds));
+        metrics.endStage(LoadMetrics.Stage.BOUNDING_VOLUMES, start);
+        content.getProperties().put(METRICS_PROPERTY, metrics);
+        metrics.loadEnded();
+        return content;
+    }
+
+    /**
+     * Creates the content of an STL file, welding its points if requested.
+     * 
+     * @param mesh the decoded STL mesh
+     * @param options the options of the import
+     * @param metrics the metrics of the import
+     * @return the group holding the mesh views of the STL mesh, split in chunks if it is large
+     * @throws InterruptedIOException if the import is interrupted
+     */
+    private static Group createStlGroup(final MeshData mesh, final ImportOptions options,
+            final LoadMetrics metrics) throws InterruptedIOException {
+
+        MeshData stlMesh = mesh;
+        VertexWelder.Result weldResult = null;
+        if (options.isWeldVertices()) {
+            final long start = System.nanoTime();
+            weldResult = VertexWelder.weld(mesh, options.getWeldTolerance());
+            stlMesh = weldResult.getMesh();
+            metrics.endStage(LoadMetrics.Stage.WELD, start);
+        }
+
+        final Group group = createGroup(stlMesh, options, metrics);
+        if (weldResult != null) {
+            group.getProperties().put(WELD_RESULT_PROPERTY, weldResult.getStatistics());
+        }
+        return group;
+    }
+
+    /**
+     * Creates the content of a mesh without material, recording it in the {@link LoadMetrics.Stage#MESH_BUILD} stage.
+     * The mesh is first decimated if it has more faces than {@link ImportOptions#getMaxFaces()}.
+     * 
+     * @param mesh the decoded mesh
+     * @param options the options of the import
+     * @param metrics the metrics of the import
+     * @return the group holding the mesh views of the mesh, split in chunks if it is large
+     * @throws InterruptedIOException if the import is interrupted
+     */
+    static Group createGroup(final MeshData mesh, final ImportOptions options, final LoadMetrics metrics)
+            throws InterruptedIOException {
+
+        final long start = System.nanoTime();
+        final MeshData reducedMesh = options.getMaxFaces() > 0 ? MeshDecimator.decimateToFaces(mesh,
+                options.getMaxFaces()) : mesh;
+        final Group group = new Group();
+        for (MeshData chunk : MeshSplitter.split(reducedMesh, options.getMaxChunkFaces())) {
+            group.getChildren().add(createMeshView(chunk.toTriangleMesh()));
+        }
+        metrics.endStage(LoadMetrics.Stage.MESH_BUILD, start);
+        return group;
+    }
+
+    /**
+     * Counts the geometry of loaded content in its metrics.
+     * 
+     * @param node the loaded content
+     * @param metrics the metrics of the import
+     */
+    private static void addGeometry(final Node node, final LoadMetrics metrics) {
+
+        if (node instanceof MeshView && ((MeshView) node).getMesh() instanceof TriangleMesh) {
+            final TriangleMesh mesh = LevelOfDetail.getFullMesh((MeshView) node);
+            metrics.addGeometry(mesh.getPoints().size() / 3, mesh.getFaces().size() / 6);
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                addGeometry(child, metrics);
+            }
+        }
+    }
+
+    /**
+     * Creates the shape of a mesh which has no material of its own, e.g. an STL mesh.
+     * 
+     * @param mesh the mesh
+     * @return the mesh view displaying the mesh
+     */
+    private static MeshView createMeshView(final TriangleMesh mesh) {
+
+        final MeshView meshView = new MeshView();
+        meshView.setMaterial(new PhongMaterial(Color.GRAY));
+        meshView.setMesh(mesh);
+        return meshView;
+    }
+
+    /**
+     * Converts bounds computed from points.
+     * 
+     * @param bounds the minimum x, y, z then maximum x, y, z coordinates
+     * @return the bounds
+     */
+    private static Bounds toBounds(final float[] bounds) {
+        return new BoundingBox(bounds[0], bounds[1], bounds[2], bounds[3] - bounds[0], bounds[4] - bounds[1],
+                bounds[5] - bounds[2]);
+    }
+
+    /**
+     * Cancellation point of long imports, which stop when their thread is interrupted.
+     * 
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    static void checkInterrupted() throws InterruptedIOException {
+
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Import interrupted");
+        }
+    }
+
+    /**
+     * Gets the local file of a url.
+     * 
+     * @param fileUrl the url of the file
+     * @return the file, or {@code null} if the url does not point to a local file
+     * @throws IOException if the url is malformed
+     */
+    private static File toFile(final String fileUrl) throws IOException {
+
+        final URL url = new URL(fileUrl);
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid file url [" + fileUrl + "]", e);
+        }
+    }
+
+    /**
+     * Checks that a file read by a memory-mapped importer is a local file.
+     * 
+     * @param fileUrl the url of the file
+     * @param file the local file of the url, or {@code null} if it is not a local file
+     * @return the local file
+     * @throws IOException if the url does not point to a local file
+     */
+    private static File requireLocalFile(final String fileUrl, final File file) throws IOException {
+
+        if (file == null) {
+            throw new IOException("Only local files can be read in this format [" + fileUrl + "]");
+        }
+        return file;
+    }
+
+    /**
+     * Built-in importer of 3DS files, read by {@link TdsImporter} or by the InteractiveMesh importer, see
+     * {@link ImportOptions#isNative3dsImporter()}. Streams are always read by {@link TdsImporter}.
+     */
+    public static final class TdsFormat implements StreamFormatImporter {
+
+        @Override
+        public String[] getExtensions() {
+            return new String[] { "3ds" };
+        }
 
-        switch (extension) {
-        case "3ds":
+        @Override
+        public String getDescription() {
+            return "3D Studio";
+        }
+
+        @Override
+        public Group load(final String fileUrl, final File file, final ImportOptions options,
+                final LoadMetrics metrics) throws IOException {
+
+            final long start = System.nanoTime();
+            if (options.isNative3dsImporter() && file != null) {
+                try (TdsImporter.Index index = TdsImporter.open(file)) {
+                    return createContent(index, options, metrics, start);
+                }
+            }
             ModelImporter tdsImporter = new TdsModelImporter();
             tdsImporter.read(fileUrl);
             final Node[] tdsMesh = (Node[]) tdsImporter.getImport();
             tdsImporter.close();
+            metrics.endStage(LoadMetrics.Stage.DECODE, start);
             return new Group(tdsMesh);
-        case "stl":
-            StlMeshImporter stlImporter = new StlMeshImporter();
-            stlImporter.read(fileUrl);
-            // STL includes only geometry data
-            TriangleMesh cylinderHeadMesh = stlImporter.getImport();
-
-            stlImporter.close();
-
-            // Create Shape3D
-            MeshView cylinderHeadMeshView = new MeshView();
-            cylinderHeadMeshView.setMaterial(new PhongMaterial(Color.GRAY));
-            cylinderHeadMeshView.setMesh(cylinderHeadMesh);
-
-            stlImporter.close();
-            return new Group(cylinderHeadMeshView);
-        default:
-            throw new IOException("Unsupported 3D file format [" + extension + "]");
+        }
+
+        @Override
+        public Group load(final InputStream input, final String name, final long size, final File file,
+                final ImportOptions options, final LoadMetrics metrics) throws IOException {
+
+            final long start = System.nanoTime();
+            try (TdsImporter.Index index = TdsImporter.open(input, name, size, file)) {
+                return createContent(index, options, metrics, start);
+            }
+        }
+
+        private static Group createContent(final TdsImporter.Index index, final ImportOptions options,
+                final LoadMetrics metrics, final long start) throws IOException {
+
+            List<TdsImporter.Part> parts = index.decodeObjects(options.getParallelism());
+            final long buildStart = metrics.endStage(LoadMetrics.Stage.DECODE, start);
+            if (options.getMaxFaces() > 0) {
+                parts = TdsImporter.decimate(parts, options.getMaxFaces());
+            }
+            final Group tdsContent = TdsImporter.createContent(TdsImporter.split(parts, options.getMaxChunkFaces()));
+            metrics.endStage(LoadMetrics.Stage.MESH_BUILD, buildStart);
+            return tdsContent;
+        }
+    }
+
+    /**
+     * Built-in importer of STL files, read by {@link StlImporter} or by the InteractiveMesh importer, see
+     * {@link ImportOptions#isNativeStlImporter()}. Progressive imports of local STL files do not go through this
+     * importer but are read batch by batch. Streams are always read by {@link StlImporter}.
+     */
+    public static final class StlFormat implements StreamFormatImporter {
+
+        @Override
+        public String[] getExtensions() {
+            return new String[] { "stl" };
+        }
+
+        @Override
+        public String getDescription() {
+            return "Stereolithography";
+        }
+
+        @Override
+        public Group load(final String fileUrl, final File file, final ImportOptions options,
+                final LoadMetrics metrics) throws IOException {
+
+            final long start = System.nanoTime();
+            final MeshData stlMesh;
+            if (options.isNativeStlImporter() && file != null) {
+                stlMesh = StlImporter.read(file, options.getParallelism());
+            } else {
+                StlMeshImporter stlImporter = new StlMeshImporter();
+                stlImporter.read(fileUrl);
+                // STL includes only geometry data
+                TriangleMesh cylinderHeadMesh = stlImporter.getImport();
+
+                stlImporter.close();
+
+                if (!options.isWeldVertices()) {
+                    metrics.endStage(LoadMetrics.Stage.DECODE, start);
+                    return new Group(createMeshView(cylinderHeadMesh));
+                }
+                stlMesh = MeshData.fromTriangleMesh(cylinderHeadMesh);
+            }
+            metrics.endStage(LoadMetrics.Stage.DECODE, start);
+            return createStlGroup(stlMesh, options, metrics);
+        }
+
+        @Override
+        public Group load(final InputStream input, final String name, final long size, final File file,
+                final ImportOptions options, final LoadMetrics metrics) throws IOException {
+
+            final long start = System.nanoTime();
+            final MeshData stlMesh = StlImporter.read(input, size);
+            metrics.endStage(LoadMetrics.Stage.DECODE, start);
+            return createStlGroup(stlMesh, options, metrics);
+        }
+    }
+
+    /**
+     * Built-in importer of Wavefront OBJ files, read by {@link ObjImporter}.
+     */
+    public static final class ObjFormat implements StreamFormatImporter {
+
+        @Override
+        public String[] getExtensions() {
+            return new String[] { "obj" };
+        }
+
+        @Override
+        public String getDescription() {
+            return "Wavefront OBJ";
+        }
+
+        @Override
+        public Group load(final String fileUrl, final File file, final ImportOptions options,
+                final LoadMetrics metrics) throws IOException {
+
+            final long start = System.nanoTime();
+            final MeshData mesh = ObjImporter.read(requireLocalFile(fileUrl, file), options.getParallelism());
+            metrics.endStage(LoadMetrics.Stage.DECODE, start);
+            return createGroup(mesh, options, metrics);
+        }
+
+        @Override
+        public Group load(final InputStream input, final String name, final long size, final File file,
+                final ImportOptions options, final LoadMetrics metrics) throws IOException {
+
+            final long start = System.nanoTime();
+            final MeshData mesh = ObjImporter.read(input, name, options.getParallelism());
+            metrics.endStage(LoadMetrics.Stage.DECODE, start);
+            return createGroup(mesh, options, metrics);
+        }
+    }
+
+    /**
+     * Built-in importer of binary and ASCII PLY files, read by {@link PlyImporter}.
+     */
+    public static final class PlyFormat implements StreamFormatImporter {
+
+        @Override
+        public String[] getExtensions() {
+            return new String[] { "ply" };
+        }
+
+        @Override
+        public String getDescription() {
+            return "Polygon File Format";
+        }
+
+        @Override
+        public Group load(final String fileUrl, final File file, final ImportOptions options,
+                final LoadMetrics metrics) throws IOException {
+
+            final long start = System.nanoTime();
+            final MeshData mesh = PlyImporter.read(requireLocalFile(fileUrl, file), options.getParallelism());
+            metrics.endStage(LoadMetrics.Stage.DECODE, start);
+            return createGroup(mesh, options, metrics);
+        }
+
+        @Override
+        public Group load(final InputStream input, final String name, final long size, final File file,
+                final ImportOptions options, final LoadMetrics metrics) throws IOException {
+
+            final long start = System.nanoTime();
+            final MeshData mesh = PlyImporter.read(input, name);
+            metrics.endStage(LoadMetrics.Stage.DECODE, start);
+            return createGroup(mesh, options, metrics);
         }
     }
 }
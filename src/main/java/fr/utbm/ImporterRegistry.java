@@ -0,0 +1,176 @@
+package fr.utbm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the {@link FormatImporter} implementations found on the class path, mapping each file extension to the
+ * importer reading it.
+ *
+ * <p>
+ * The built-in importers of the 3DS, STL, OBJ and PLY formats are registered like any other, so plugins adding a format
+ * only need to be put on the class path. When several importers claim the same extension, the first one found wins,
+ * in class path order. Importers failing to load are reported on the standard error stream and skipped.
+ * </p>
+ */
+public final class ImporterRegistry {
+
+    private static final ImporterRegistry DEFAULT = new ImporterRegistry(ServiceLoader.load(FormatImporter.class,
+            ImporterRegistry.class.getClassLoader()));
+
+    private final List<FormatImporter> importers;
+    private final Map<String, FormatImporter> importersByExtension;
+
+    /**
+     * Creates a registry of the given importers.
+     *
+     * @param importers the importers, the first ones taking precedence for a shared extension
+     */
+    public ImporterRegistry(final Iterable<FormatImporter> importers) {
+
+        final List<FormatImporter> registered = new ArrayList<>();
+        final Map<String, FormatImporter> byExtension = new HashMap<>();
+        final Iterator<FormatImporter> iterator = importers.iterator();
+        while (true) {
+            final FormatImporter importer;
+            try {
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                importer = iterator.next();
+            } catch (ServiceConfigurationError e) {
+                System.err.println("Cannot load importer: " + e.getMessage());
+                continue;
+            }
+            boolean added = false;
+            for (String extension : importer.getExtensions()) {
+                final String key = extension.toLowerCase(Locale.ROOT);
+                if (!byExtension.containsKey(key)) {
+                    byExtension.put(key, importer);
+                    added = true;
+                }
+            }
+            if (added) {
+                registered.add(importer);
+            }
+        }
+        this.importers = Collections.unmodifiableList(registered);
+        importersByExtension = byExtension;
+    }
+
+    /**
+     * Gets the registry of the importers found on the class path, loaded once.
+     *
+     * @return the default registry
+     */
+    public static ImporterRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the importers of the registry.
+     *
+     * @return the importers reading at least one extension, in class path order
+     */
+    public List<FormatImporter> getImporters() {
+        return importers;
+    }
+
+    /**
+     * Gets the importer of an extension.
+     *
+     * @param extension the extension of the file, without the dot
+     * @return the importer of the extension, or {@code null} if the format is not supported
+     */
+    public FormatImporter getImporter(final String extension) {
+        return importersByExtension.get(extension.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the importer of a file name.
+     *
+     * @param fileName the name or url of the file
+     * @return the importer of the extension of the file, or {@code null} if the format is not supported
+     */
+    public FormatImporter getImporterForName(final String fileName) {
+
+        final int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? getImporter(fileName.substring(dot + 1)) : null;
+    }
+
+    /**
+     * Whether a file can be imported.
+     *
+     * <p>
+     * Compressed files are supported if the format of the model they hold can be read from a stream, see
+     * {@link CompressedInput}. Archives are always reported as supported, as their content is only known once read.
+     * </p>
+     *
+     * @param fileName the name of the file
+     * @return {@code true} if an importer reads the extension of the file
+     */
+    public boolean isSupported(final String fileName) {
+
+        if (CompressedInput.isArchive(fileName)) {
+            return true;
+        }
+        final String uncompressedName = CompressedInput.getUncompressedName(fileName);
+        if (uncompressedName != null) {
+            return getImporterForName(uncompressedName) instanceof StreamFormatImporter;
+        }
+        return getImporterForName(fileName) != null;
+    }
+
+    /**
+     * Gets the extension filters of an importer.
+     *
+     * @param importer the importer
+     * @return the filters of the form {@code *.extension}
+     */
+    public static String[] getExtensionFilters(final FormatImporter importer) {
+
+        final String[] extensions = importer.getExtensions();
+        final String[] filters = new String[extensions.length];
+        for (int i = 0; i < extensions.length; i++) {
+            filters[i] = "*." + extensions[i].toLowerCase(Locale.ROOT);
+        }
+        return filters;
+    }
+
+    /**
+     * Gets the extension filters of all the supported formats, compressed files included.
+     *
+     * @return the filters of the form {@code *.extension}, then {@code *.extension.codec} and {@code *.archive}
+     */
+    public String[] getExtensionFilters() {
+
+        final List<String> filters = new ArrayList<>();
+        for (FormatImporter importer : importers) {
+            for (String filter : getExtensionFilters(importer)) {
+                if (!filters.contains(filter)) {
+                    filters.add(filter);
+                }
+            }
+        }
+        for (FormatImporter importer : importers) {
+            if (importer instanceof StreamFormatImporter) {
+                for (String filter : getExtensionFilters(importer)) {
+                    for (String codec : CompressedInput.getExtensions(false)) {
+                        filters.add(filter + "." + codec);
+                    }
+                }
+            }
+        }
+        for (String archive : CompressedInput.getExtensions(true)) {
+            filters.add("*." + archive);
+        }
+        return filters.toArray(new String[filters.size()]);
+    }
+}
@@ -0,0 +1,326 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+
+import java.io.InterruptedIOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Chain of decimated versions of the mesh of a {@link MeshView}, from full detail to the coarsest level.
+ *
+ * <p>
+ * Each level has about a quarter of the faces of the previous one, so keeping the number of faces per pixel constant
+ * means going one level down each time the size of the mesh on screen is halved. The chain is generated off the
+ * JavaFX application thread by the import and stored in the properties of the mesh view; {@link ViewerModel} selects
+ * the level from the camera distance.
+ * </p>
+ *
+ * <p>
+ * The decimated levels are kept as {@link CompactMesh}es, whose quantization error is far below their decimation
+ * error, and converted to {@link TriangleMesh}es the first time they are displayed, so levels never viewed cost about
+ * half their memory.
+ * </p>
+ */
+public final class LevelOfDetail {
+
+    /**
+     * Key of the level of detail chain in the properties of a mesh view.
+     */
+    public static final String PROPERTY = "fr.utbm.levelOfDetail";
+
+    /**
+     * Meshes with fewer faces are displayed at full detail only.
+     */
+    static final int MIN_FACES = 20000;
+
+    private static final int MAX_LEVELS = 6;
+    private static final int MIN_LEVEL_FACES = 500;
+    private static final int MIN_RESOLUTION = 4;
+
+    // screen height in pixels above which the full detail mesh is displayed
+    private static final double FULL_DETAIL_SCREEN_SIZE = 1200;
+
+    private final TriangleMesh[] meshes;
+    private final CompactMesh[] compactMeshes;
+    private final double centerX;
+    private final double centerY;
+    private final double centerZ;
+    private final double radius;
+    private int level;
+
+    private LevelOfDetail(final LevelOfDetail shared) {
+
+        meshes = shared.meshes;
+        compactMeshes = shared.compactMeshes;
+        centerX = shared.centerX;
+        centerY = shared.centerY;
+        centerZ = shared.centerZ;
+        radius = shared.radius;
+    }
+
+    private LevelOfDetail(final TriangleMesh fullMesh, final CompactMesh[] compactMeshes, final float[] bounds) {
+
+        meshes = new TriangleMesh[compactMeshes.length];
+        meshes[0] = fullMesh;
+        this.compactMeshes = compactMeshes;
+        centerX = (bounds[0] + bounds[3]) / 2.0;
+        centerY = (bounds[1] + bounds[4]) / 2.0;
+        centerZ = (bounds[2] + bounds[5]) / 2.0;
+        final double dx = bounds[3] - bounds[0];
+        final double dy = bounds[4] - bounds[1];
+        final double dz = bounds[5] - bounds[2];
+        radius = Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+    }
+
+    /**
+     * Creates the level of detail chain of a mesh.
+     *
+     * @param mesh the full detail mesh data
+     * @param fullMesh the triangle mesh holding the full detail data
+     * @return the chain, or {@code null} if the mesh is too small to need one
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    public static LevelOfDetail create(final MeshData mesh, final TriangleMesh fullMesh)
+            throws InterruptedIOException {
+
+        final int faceCount = mesh.getFaceCount();
+        if (faceCount < MIN_FACES) {
+            return null;
+        }
+
+        final CompactMesh[] levels = new CompactMesh[MAX_LEVELS];
+        int levelCount = 1;
+        MeshData previous = mesh;
+        double targetFaces = faceCount;
+        while (levelCount < MAX_LEVELS) {
+            Importer3D.checkInterrupted();
+            targetFaces /= 4;
+            final int resolution = (int) Math.max(MIN_RESOLUTION,
+                    Math.sqrt(targetFaces / MeshDecimator.FACES_PER_SQUARED_RESOLUTION));
+            final MeshData decimated = MeshDecimator.decimate(previous, resolution);
+            if (decimated.getFaceCount() >= previous.getFaceCount() || decimated.getFaceCount() == 0) {
+                break;
+            }
+            levels[levelCount++] = CompactMesh.fromMeshData(decimated);
+            previous = decimated;
+            if (decimated.getFaceCount() < MIN_LEVEL_FACES || resolution == MIN_RESOLUTION) {
+                break;
+            }
+        }
+        if (levelCount == 1) {
+            return null;
+        }
+
+        final CompactMesh[] compactMeshes = new CompactMesh[levelCount];
+        System.arraycopy(levels, 0, compactMeshes, 0, levelCount);
+        return new LevelOfDetail(fullMesh, compactMeshes, mesh.computeBounds());
+    }
+
+    /**
+     * Generates the level of detail chains of the large meshes of loaded content which have none yet.
+     *
+     * <p>
+     * Mesh views sharing a mesh, see {@link MeshInstancer}, share its chain, each displaying its own level.
+     * </p>
+     *
+     * @param node the loaded content, not yet displayed
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    public static void generate(final Node node) throws InterruptedIOException {
+        generate(node, new IdentityHashMap<TriangleMesh, LevelOfDetail>());
+    }
+
+    private static void generate(final Node node, final Map<TriangleMesh, LevelOfDetail> generated)
+            throws InterruptedIOException {
+
+        if (node instanceof MeshView) {
+            final MeshView meshView = (MeshView) node;
+            if (meshView.getMesh() instanceof TriangleMesh && get(meshView) == null) {
+                final TriangleMesh mesh = (TriangleMesh) meshView.getMesh();
+                if (generated.containsKey(mesh)) {
+                    final LevelOfDetail shared = generated.get(mesh);
+                    attach(meshView, shared != null ? new LevelOfDetail(shared) : null);
+                } else if (mesh.getFaces().size() / 6 >= MIN_FACES) {
+                    final LevelOfDetail levelOfDetail = create(MeshData.fromTriangleMesh(mesh), mesh);
+                    generated.put(mesh, levelOfDetail);
+                    attach(meshView, levelOfDetail);
+                }
+            }
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                generate(child, generated);
+            }
+        }
+    }
+
+    /**
+     * Attaches a level of detail chain to a mesh view.
+     *
+     * @param meshView the mesh view displaying the full detail mesh
+     * @param levelOfDetail the chain, or {@code null} to do nothing
+     */
+    public static void attach(final MeshView meshView, final LevelOfDetail levelOfDetail) {
+
+        if (levelOfDetail != null) {
+            meshView.getProperties().put(PROPERTY, levelOfDetail);
+        }
+    }
+
+    /**
+     * Gets the level of detail chain of a mesh view.
+     *
+     * @param meshView the mesh view
+     * @return the chain, or {@code null} if the mesh view has none
+     */
+    public static LevelOfDetail get(final MeshView meshView) {
+
+        final Object levelOfDetail = meshView.getProperties().get(PROPERTY);
+        return levelOfDetail instanceof LevelOfDetail ? (LevelOfDetail) levelOfDetail : null;
+    }
+
+    /**
+     * Gets the full detail mesh of a mesh view, whatever level it currently displays.
+     *
+     * @param meshView a mesh view displaying a {@link TriangleMesh}
+     * @return the full detail mesh
+     */
+    public static TriangleMesh getFullMesh(final MeshView meshView) {
+
+        final LevelOfDetail levelOfDetail = get(meshView);
+        return levelOfDetail != null ? levelOfDetail.meshes[0] : (TriangleMesh) meshView.getMesh();
+    }
+
+    /**
+     * Gets the number of levels, including full detail.
+     *
+     * @return the number of levels
+     */
+    public int getLevelCount() {
+        return meshes.length;
+    }
+
+    /**
+     * Gets the mesh of a level, converting it from its compact form the first time.
+     *
+     * @param level the level, 0 being full detail
+     * @return the mesh of the level
+     */
+    public TriangleMesh getMesh(final int level) {
+
+        // the array is shared by the mesh views sharing the chain
+        synchronized (meshes) {
+            if (meshes[level] == null) {
+                meshes[level] = compactMeshes[level].toTriangleMesh();
+            }
+            return meshes[level];
+        }
+    }
+
+    /**
+     * Gets the compact form of a decimated level.
+     *
+     * @param level the level, from 1
+     * @return the compact mesh of the level
+     */
+    public CompactMesh getCompactMesh(final int level) {
+
+        synchronized (meshes) {
+            return compactMeshes[level];
+        }
+    }
+
+    /**
+     * Sets the smoothing groups of the faces of a decimated level, on the JavaFX application thread if the level may
+     * be displayed.
+     *
+     * @param level the level, from 1
+     * @param faceSmoothingGroups the smoothing group of each face of the level
+     */
+    void setFaceSmoothingGroups(final int level, final int[] faceSmoothingGroups) {
+
+        synchronized (meshes) {
+            compactMeshes[level] = compactMeshes[level].withFaceSmoothingGroups(faceSmoothingGroups);
+            if (meshes[level] != null) {
+                meshes[level].getFaceSmoothingGroups().setAll(faceSmoothingGroups);
+            }
+        }
+    }
+
+    /**
+     * Gets the level currently displayed.
+     *
+     * @return the displayed level, 0 being full detail
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the x coordinate of the center of the bounds of the mesh, in mesh coordinates.
+     *
+     * @return the x coordinate of the center
+     */
+    public double getCenterX() {
+        return centerX;
+    }
+
+    /**
+     * Gets the y coordinate of the center of the bounds of the mesh, in mesh coordinates.
+     *
+     * @return the y coordinate of the center
+     */
+    public double getCenterY() {
+        return centerY;
+    }
+
+    /**
+     * Gets the z coordinate of the center of the bounds of the mesh, in mesh coordinates.
+     *
+     * @return the z coordinate of the center
+     */
+    public double getCenterZ() {
+        return centerZ;
+    }
+
+    /**
+     * Gets the radius of the bounding sphere of the mesh.
+     *
+     * @return the radius of the mesh
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * Selects the level to display for the given size on screen.
+     *
+     * @param screenSize the size of the bounding sphere of the mesh on screen, in pixels
+     * @return the level to display
+     */
+    public int selectLevel(final double screenSize) {
+
+        if (screenSize >= FULL_DETAIL_SCREEN_SIZE || screenSize <= 0) {
+            return screenSize <= 0 ? meshes.length - 1 : 0;
+        }
+        final int selected = (int) Math.floor(Math.log(FULL_DETAIL_SCREEN_SIZE / screenSize) / Math.log(2));
+        return Math.min(selected, meshes.length - 1);
+    }
+
+    /**
+     * Displays a level of the chain.
+     *
+     * @param meshView the mesh view the chain is attached to
+     * @param newLevel the level to display
+     */
+    public void apply(final MeshView meshView, final int newLevel) {
+
+        if (newLevel != level) {
+            level = newLevel;
+            meshView.setMesh(getMesh(newLevel));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package fr.utbm;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timings and statistics of the load of one file.
+ *
+ * <p>
+ * The loading thread records the import stages, see {@link Importer3D#load(String, ImportOptions, ImportListener,
+ * LoadMetrics)}, and the JavaFX application thread records the attachment of the content to the scene and the first
+ * frame rendering it, so all methods are thread safe. Stages run several times by progressive loads accumulate their
+ * time. The heap use is sampled at the end of each stage, so the peak heap delta is a lower bound.
+ * </p>
+ */
+public final class LoadMetrics {
+
+    /**
+     * Stages of a load.
+     */
+    public enum Stage {
+
+        /** Lookup of the file in the {@link MeshCache}, and decoding of the cached content on hits. */
+        CACHE_READ,
+
+        /**
+         * Decompression of a compressed file, on the thread feeding the parser, see {@link PipelinedInputStream}; it
+         * overlaps the {@link #DECODE} stage.
+         */
+        DECOMPRESSION,
+
+        /** Reading and parsing of the file, including mesh building by external importers. */
+        DECODE,
+
+        /** Welding of the points of the decoded meshes. */
+        WELD,
+
+        /** Creation of the {@link javafx.scene.shape.TriangleMesh} and shapes of decoded meshes. */
+        MESH_BUILD,
+
+        /** Generation of the levels of detail of large meshes. */
+        LEVELS_OF_DETAIL,
+
+        /** Build of the {@link BoundingVolumeHierarchy} of the content. */
+        BOUNDING_VOLUMES,
+
+        /** Writing of the content to the {@link MeshCache}. */
+        CACHE_WRITE,
+
+        /** Attachment of the content to the scene, on the JavaFX application thread. */
+        ATTACH,
+
+        /** Computation of the smooth shading of flat meshes by {@link MeshSmoother}, once they are displayed. */
+        SMOOTHING
+    }
+
+    private final File file;
+    private final long startNanos = System.nanoTime();
+    private final long startHeap = usedHeap();
+    private final long[] stageNanos = new long[Stage.values().length];
+    private long bytes;
+    private long pointCount;
+    private long faceCount;
+    private long peakHeap = startHeap;
+    private long loadNanos = -1;
+    private long firstFrameNanos = -1;
+
+    /**
+     * Starts the metrics of a load.
+     *
+     * @param file the loaded file
+     */
+    public LoadMetrics(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the loaded file.
+     *
+     * @return the loaded file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Adds time spent in a stage, and samples the heap use.
+     *
+     * @param stage the stage
+     * @param nanos the time spent, in nanoseconds
+     */
+    public synchronized void addStageTime(final Stage stage, final long nanos) {
+
+        stageNanos[stage.ordinal()] += nanos;
+        peakHeap = Math.max(peakHeap, usedHeap());
+    }
+
+    /**
+     * Adds time spent in a stage since the given time, and samples the heap use.
+     *
+     * @param stage the stage
+     * @param stageStartNanos the {@link System#nanoTime()} at the start of the stage
+     * @return the current {@link System#nanoTime()}, start of the next stage
+     */
+    public long endStage(final Stage stage, final long stageStartNanos) {
+
+        final long now = System.nanoTime();
+        addStageTime(stage, now - stageStartNanos);
+        return now;
+    }
+
+    /**
+     * Gets the time spent in a stage.
+     *
+     * @param stage the stage
+     * @return the time spent in the stage, in nanoseconds
+     */
+    public synchronized long getStageNanos(final Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Sets the number of bytes read.
+     *
+     * @param bytes the number of bytes of the file
+     */
+    public synchronized void setBytes(final long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Gets the number of bytes read.
+     *
+     * @return the number of bytes of the file
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Adds loaded geometry.
+     *
+     * @param points the number of points loaded
+     * @param faces the number of faces loaded
+     */
+    public synchronized void addGeometry(final long points, final long faces) {
+
+        pointCount += points;
+        faceCount += faces;
+    }
+
+    /**
+     * Gets the number of points of the loaded content.
+     *
+     * @return the number of points
+     */
+    public synchronized long getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Gets the number of faces of the loaded content.
+     *
+     * @return the number of faces
+     */
+    public synchronized long getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * Gets the highest heap use sampled during the load, relative to the heap use at its start.
+     *
+     * @return the peak heap delta, in bytes
+     */
+    public synchronized long getPeakHeapDelta() {
+        return peakHeap - startHeap;
+    }
+
+    /**
+     * Records the end of the import, on the loading thread.
+     */
+    public synchronized void loadEnded() {
+
+        loadNanos = System.nanoTime() - startNanos;
+        peakHeap = Math.max(peakHeap, usedHeap());
+    }
+
+    /**
+     * Gets the time from the start of the load to the end of the import.
+     *
+     * @return the load time in nanoseconds, -1 if the import has not ended
+     */
+    public synchronized long getLoadNanos() {
+        return loadNanos;
+    }
+
+    /**
+     * Records the first frame rendering loaded content, once.
+     */
+    public synchronized void firstFrameRendered() {
+
+        if (firstFrameNanos < 0) {
+            firstFrameNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Gets the time from the start of the load to the first frame rendering loaded content.
+     *
+     * @return the time to the first frame in nanoseconds, -1 if no frame was rendered yet
+     */
+    public synchronized long getFirstFrameNanos() {
+        return firstFrameNanos;
+    }
+
+    /**
+     * Gets the time spent in each stage.
+     *
+     * @return the stage times in milliseconds by stage name, in stage order
+     */
+    public synchronized Map<String, Long> getStageMillis() {
+
+        final Map<String, Long> millis = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            millis.put(stage.name(), stageNanos[stage.ordinal()] / 1000000);
+        }
+        return millis;
+    }
+
+    /**
+     * Describes the metrics on several lines, for display.
+     *
+     * @return the description of the metrics
+     */
+    @Override
+    public synchronized String toString() {
+
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%s: %.1f MB, %d points, %d faces%n", file.getName(),
+                bytes / 1048576.0, pointCount, faceCount));
+        for (Stage stage : Stage.values()) {
+            if (stageNanos[stage.ordinal()] > 0) {
+                text.append(String.format(Locale.ROOT, "%s %.1f ms%n", stage.name().toLowerCase(Locale.ROOT),
+                        stageNanos[stage.ordinal()] / 1e6));
+            }
+        }
+        if (loadNanos >= 0) {
+            text.append(String.format(Locale.ROOT, "load %.1f ms%n", loadNanos / 1e6));
+        }
+        if (firstFrameNanos >= 0) {
+            text.append(String.format(Locale.ROOT, "first frame %.1f ms%n", firstFrameNanos / 1e6));
+        }
+        text.append(String.format(Locale.ROOT, "peak heap +%.1f MB", (peakHeap - startHeap) / 1048576.0));
+        return text.toString();
+    }
+
+    private static long usedHeap() {
+
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
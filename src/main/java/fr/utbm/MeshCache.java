@@ -0,0 +1,554 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Material;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.CullFace;
+import javafx.scene.shape.DrawMode;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+import javafx.scene.transform.Affine;
+import javafx.scene.transform.Transform;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-disk cache of decoded models, so re-opening a file skips parsing entirely.
+ *
+ * <p>
+ * Each entry stores the meshes, materials and transforms of the mesh views of a loaded group in a compact binary
+ * format, read back with memory-mapped I/O. Entries are keyed by the path, size and modification time of the source
+ * file, and the least recently used entries are deleted when the cache grows over its size cap.
+ * </p>
+ */
+public class MeshCache {
+
+    /**
+     * Version of the cache format, entries written with another version are ignored.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x4A334443;
+    private static final String ENTRY_SUFFIX = ".mcache";
+
+    private static final int NO_MATERIAL = 0;
+    private static final int PHONG_MATERIAL = 1;
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Creates a cache storing its entries in the given directory.
+     *
+     * @param directory the directory of the cache, created if needed
+     * @param maxSize the maximum total size of the entries in bytes
+     */
+    public MeshCache(final File directory, final long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the directory of the cache.
+     *
+     * @return the directory of the cache
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the maximum total size of the entries.
+     *
+     * @return the size cap of the cache in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the cached content of a file.
+     *
+     * @param file the source file
+     * @param variant a description of the import options the content depends on
+     * @return the content of the file, or {@code null} if it is not in the cache or the entry is stale or corrupt
+     */
+    public Group get(final File file, final String variant) {
+
+        final File entry = getEntryFile(file, variant);
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(entry.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            final Group content = read(buffer, file, variant);
+            if (content != null) {
+                entry.setLastModified(System.currentTimeMillis());
+            }
+            return content;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the content of a file in the cache, then evicts the least recently used entries over the size cap.
+     *
+     * <p>
+     * Content holding anything else than mesh views of triangle meshes with plain Phong materials, such as textures,
+     * cannot be cached and is ignored.
+     * </p>
+     *
+     * @param file the source file
+     * @param variant a description of the import options the content depends on
+     * @param content the loaded content of the file
+     * @return {@code true} if the content was stored
+     */
+    public boolean put(final File file, final String variant, final Group content) {
+        return put(file, variant, content.getChildren());
+    }
+
+    /**
+     * Stores the parts of the content of a file in the cache, see {@link #put(File, String, Group)}.
+     *
+     * @param file the source file
+     * @param variant a description of the import options the content depends on
+     * @param parts the top-level nodes of the content of the file
+     * @return {@code true} if the content was stored
+     */
+    public boolean put(final File file, final String variant, final List<? extends Node> parts) {
+
+        final List<MeshView> meshViews = new ArrayList<>();
+        final List<Transform> transforms = new ArrayList<>();
+        for (Node part : parts) {
+            if (!collectMeshViews(part, null, meshViews, transforms)) {
+                return false;
+            }
+        }
+        final Part[] cacheParts = new Part[meshViews.size()];
+        for (int i = 0; i < cacheParts.length; i++) {
+            cacheParts[i] = new Part(meshViews.get(i), transforms.get(i));
+        }
+        return put(file, variant, cacheParts);
+    }
+
+    /**
+     * Stores snapshots of the mesh views of the content of a file in the cache, e.g. for content handed to the
+     * scene graph while it was loaded, whose meshes may only be read on the JavaFX application thread.
+     *
+     * @param file the source file
+     * @param variant a description of the import options the content depends on
+     * @param parts the snapshots of the mesh views of the content of the file
+     * @return {@code true} if the content was stored
+     */
+    public boolean put(final File file, final String variant, final Part[] parts) {
+
+        for (Part part : parts) {
+            if (!part.cacheable) {
+                return false;
+            }
+        }
+
+        try {
+            Files.createDirectories(directory.toPath());
+            final File temp = File.createTempFile("entry", ".tmp", directory);
+            try {
+                if (!write(temp, file, variant, parts)) {
+                    return false;
+                }
+                Files.move(temp.toPath(), getEntryFile(file, variant).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+            evict();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its size cap.
+     */
+    public void evict() {
+        evict(directory, ENTRY_SUFFIX, maxSize);
+    }
+
+    /**
+     * Deletes the least recently modified files of a directory until they fit in a size cap. Caches touch their
+     * entries when reading them, so these are the least recently used entries.
+     *
+     * @param directory the directory of the cache
+     * @param suffix the suffix of the names of the entries, other files being left alone
+     * @param maxSize the maximum total size of the entries in bytes
+     */
+    static void evict(final File directory, final String suffix, final long maxSize) {
+
+        final File[] entries = directory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(final File entry) {
+                return entry.isFile() && entry.getName().endsWith(suffix);
+            }
+        });
+        if (entries == null) {
+            return;
+        }
+
+        final long[] lastModified = new long[entries.length];
+        long totalSize = 0;
+        for (int i = 0; i < entries.length; i++) {
+            totalSize += entries[i].length();
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        final Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            order[i] = i;
+            lastModified[i] = entries[i].lastModified();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+
+        for (int i = 0; i < order.length && totalSize > maxSize; i++) {
+            final File entry = entries[order[i]];
+            final long length = entry.length();
+            if (entry.delete()) {
+                totalSize -= length;
+            }
+        }
+    }
+
+    private File getEntryFile(final File file, final String variant) {
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(describe(file, variant).getBytes(StandardCharsets.UTF_8));
+            return new File(directory, toHex(digest.digest()) + ENTRY_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Formats a digest as the name of a cache entry.
+     *
+     * @param digest the bytes of the digest
+     * @return the lower case hexadecimal digits of the digest
+     */
+    static String toHex(final byte[] digest) {
+
+        final StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static String describe(final File file, final String variant) {
+        return file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified() + '|' + variant;
+    }
+
+    private static boolean collectMeshViews(final Node node, final Transform parentTransform,
+            final List<MeshView> meshViews, final List<Transform> transforms) {
+
+        final Transform transform = parentTransform == null ? node.getLocalToParentTransform()
+                : parentTransform.createConcatenation(node.getLocalToParentTransform());
+
+        if (node instanceof MeshView) {
+            final MeshView meshView = (MeshView) node;
+            if (!(meshView.getMesh() instanceof TriangleMesh) || !isCacheable(meshView.getMaterial())) {
+                return false;
+            }
+            meshViews.add(meshView);
+            transforms.add(transform);
+            return true;
+        }
+        if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                if (!collectMeshViews(child, transform, meshViews, transforms)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isCacheable(final Material material) {
+
+        if (material == null) {
+            return true;
+        }
+        if (!(material instanceof PhongMaterial)) {
+            return false;
+        }
+        final PhongMaterial phong = (PhongMaterial) material;
+        return phong.getDiffuseMap() == null && phong.getSpecularMap() == null && phong.getBumpMap() == null
+                && phong.getSelfIlluminationMap() == null;
+    }
+
+    private static boolean write(final File temp, final File file, final String variant, final Part[] parts)
+            throws IOException {
+
+        final byte[] description = describe(file, variant).getBytes(StandardCharsets.UTF_8);
+        final byte[][] idBytes = new byte[parts.length][];
+
+        long size = 4 + 4 + 4 + description.length + 4;
+        for (int i = 0; i < parts.length; i++) {
+            idBytes[i] = parts[i].id.getBytes(StandardCharsets.UTF_8);
+            size += 4 + idBytes[i].length + 12 * 8 + 4 + 4 + 4 + 8 * 4 + 8;
+            size += 4 * 4 + parts[i].getMeshSize();
+        }
+        if (size > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putInt(description.length);
+            buffer.put(description);
+            buffer.putInt(parts.length);
+
+            for (int i = 0; i < parts.length; i++) {
+                final Part part = parts[i];
+                final MeshData mesh = part.getMesh();
+
+                buffer.putInt(idBytes[i].length);
+                buffer.put(idBytes[i]);
+
+                final Transform t = part.transform;
+                for (double value : new double[] { t.getMxx(), t.getMxy(), t.getMxz(), t.getTx(), t.getMyx(),
+                        t.getMyy(), t.getMyz(), t.getTy(), t.getMzx(), t.getMzy(), t.getMzz(), t.getTz() }) {
+                    buffer.putDouble(value);
+                }
+                buffer.putInt(part.cullFace.ordinal());
+                buffer.putInt(part.drawMode.ordinal());
+
+                buffer.putInt(part.material ? PHONG_MATERIAL : NO_MATERIAL);
+                putColor(buffer, part.diffuseColor);
+                putColor(buffer, part.specularColor);
+                buffer.putDouble(part.specularPower);
+
+                final float[] points = mesh.getPoints();
+                buffer.putInt(points.length);
+                buffer.asFloatBuffer().put(points);
+                buffer.position(buffer.position() + points.length * 4);
+
+                final float[] texCoords = mesh.getTexCoords();
+                buffer.putInt(texCoords.length);
+                buffer.asFloatBuffer().put(texCoords);
+                buffer.position(buffer.position() + texCoords.length * 4);
+
+                putInts(buffer, mesh.getFaces());
+                putInts(buffer, mesh.getFaceSmoothingGroups() != null ? mesh.getFaceSmoothingGroups() : new int[0]);
+            }
+            buffer.force();
+        }
+        return true;
+    }
+
+    private static void putInts(final ByteBuffer buffer, final int[] values) {
+
+        buffer.putInt(values.length);
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 4);
+    }
+
+    private static void putColor(final ByteBuffer buffer, final Color color) {
+
+        // a negative alpha encodes a null color
+        buffer.putFloat(color != null ? (float) color.getRed() : 0);
+        buffer.putFloat(color != null ? (float) color.getGreen() : 0);
+        buffer.putFloat(color != null ? (float) color.getBlue() : 0);
+        buffer.putFloat(color != null ? (float) color.getOpacity() : -1);
+    }
+
+    private static Group read(final ByteBuffer buffer, final File file, final String variant) {
+
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        final byte[] description = new byte[buffer.getInt()];
+        buffer.get(description);
+        if (!describe(file, variant).equals(new String(description, StandardCharsets.UTF_8))) {
+            return null;
+        }
+
+        final int meshViewCount = buffer.getInt();
+        final MeshView[] meshViews = new MeshView[meshViewCount];
+        for (int i = 0; i < meshViewCount; i++) {
+            final byte[] id = new byte[buffer.getInt()];
+            buffer.get(id);
+
+            final double[] t = new double[12];
+            for (int j = 0; j < t.length; j++) {
+                t[j] = buffer.getDouble();
+            }
+            final CullFace cullFace = CullFace.values()[buffer.getInt()];
+            final DrawMode drawMode = DrawMode.values()[buffer.getInt()];
+
+            final int materialType = buffer.getInt();
+            final Color diffuseColor = getColor(buffer);
+            final Color specularColor = getColor(buffer);
+            final double specularPower = buffer.getDouble();
+
+            final TriangleMesh mesh = new TriangleMesh();
+            final float[] points = new float[buffer.getInt()];
+            buffer.asFloatBuffer().get(points);
+            buffer.position(buffer.position() + points.length * 4);
+            mesh.getPoints().setAll(points);
+
+            final float[] texCoords = new float[buffer.getInt()];
+            buffer.asFloatBuffer().get(texCoords);
+            buffer.position(buffer.position() + texCoords.length * 4);
+            mesh.getTexCoords().setAll(texCoords);
+
+            mesh.getFaces().setAll(getInts(buffer));
+            mesh.getFaceSmoothingGroups().setAll(getInts(buffer));
+
+            final MeshView meshView = new MeshView(mesh);
+            if (id.length > 0) {
+                meshView.setId(new String(id, StandardCharsets.UTF_8));
+            }
+            final Affine transform = new Affine(t[0], t[1], t[2], t[3], t[4], t[5], t[6], t[7], t[8], t[9], t[10],
+                    t[11]);
+            if (!transform.isIdentity()) {
+                meshView.getTransforms().add(transform);
+            }
+            meshView.setCullFace(cullFace);
+            meshView.setDrawMode(drawMode);
+            if (materialType == PHONG_MATERIAL) {
+                final PhongMaterial material = new PhongMaterial();
+                material.setDiffuseColor(diffuseColor);
+                material.setSpecularColor(specularColor);
+                material.setSpecularPower(specularPower);
+                meshView.setMaterial(material);
+            }
+            meshViews[i] = meshView;
+        }
+        return new Group(meshViews);
+    }
+
+    private static int[] getInts(final ByteBuffer buffer) {
+
+        final int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 4);
+        return values;
+    }
+
+    private static Color getColor(final ByteBuffer buffer) {
+
+        final float red = buffer.getFloat();
+        final float green = buffer.getFloat();
+        final float blue = buffer.getFloat();
+        final float opacity = buffer.getFloat();
+        return opacity < 0 ? null : new Color(red, green, blue, opacity);
+    }
+
+    /**
+     * Snapshot of a mesh view stored in the cache: its identifier, transform, culling, draw mode and plain Phong
+     * material, taken when the snapshot is created, and its full detail mesh.
+     */
+    public static final class Part {
+
+        private final String id;
+        private final Transform transform;
+        private final CullFace cullFace;
+        private final DrawMode drawMode;
+        private final boolean cacheable;
+        private final boolean material;
+        private final Color diffuseColor;
+        private final Color specularColor;
+        private final double specularPower;
+        private final MeshData mesh;
+        private final TriangleMesh triangleMesh;
+
+        /**
+         * Takes a snapshot of a mesh view, before it is handed to the scene graph.
+         *
+         * @param meshView the mesh view
+         * @param mesh the data of the full detail mesh of the mesh view, which must not be modified
+         * @param transform the transform of the mesh view relative to the content
+         */
+        public Part(final MeshView meshView, final MeshData mesh, final Transform transform) {
+            this(meshView, transform, mesh, null);
+        }
+
+        /**
+         * Refers to a mesh view whose mesh is read when the entry is written, by the thread owning the mesh view.
+         */
+        Part(final MeshView meshView, final Transform transform) {
+            this(meshView, transform, null, LevelOfDetail.getFullMesh(meshView));
+        }
+
+        private Part(final MeshView meshView, final Transform transform, final MeshData mesh,
+                final TriangleMesh triangleMesh) {
+
+            id = meshView.getId() != null ? meshView.getId() : "";
+            this.transform = transform;
+            cullFace = meshView.getCullFace();
+            drawMode = meshView.getDrawMode();
+            cacheable = isCacheable(meshView.getMaterial());
+            final PhongMaterial phong = cacheable ? (PhongMaterial) meshView.getMaterial() : null;
+            material = phong != null;
+            diffuseColor = phong != null ? phong.getDiffuseColor() : null;
+            specularColor = phong != null ? phong.getSpecularColor() : null;
+            specularPower = phong != null ? phong.getSpecularPower() : 0;
+            this.mesh = mesh;
+            this.triangleMesh = triangleMesh;
+        }
+
+        /**
+         * Gets the size of the arrays of the mesh in the cache.
+         */
+        private long getMeshSize() {
+
+            if (mesh != null) {
+                return mesh.getMemorySize();
+            }
+            return (triangleMesh.getPoints().size() + triangleMesh.getTexCoords().size()
+                    + triangleMesh.getFaces().size() + triangleMesh.getFaceSmoothingGroups().size()) * 4L;
+        }
+
+        /**
+         * Gets the mesh, copying the arrays of a referred mesh.
+         */
+        private MeshData getMesh() {
+            return mesh != null ? mesh : MeshData.fromTriangleMesh(triangleMesh);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package fr.utbm;
+
+import javafx.scene.shape.TriangleMesh;
+
+/**
+ * Primitive geometry buffers of a triangle mesh.
+ *
+ * <p>
+ * The arrays use the same layout as {@link TriangleMesh}: three floats per point, two floats per texture
+ * coordinate and six ints (point index, texture coordinate index) per face.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link TriangleMesh}, mesh data is not tied to the JavaFX application thread, so importers produce it and
+ * background jobs process it; it is converted to a {@link TriangleMesh} only when handed to the scene graph. The
+ * arrays are shared, not copied, and must not be modified once the data is shared between threads. See
+ * {@link CompactMesh} for a smaller form of meshes kept off the scene graph.
+ * </p>
+ */
+public final class MeshData {
+
+    private final float[] points;
+    private final float[] texCoords;
+    private final int[] faces;
+    private final int[] faceSmoothingGroups;
+
+    /**
+     * Creates mesh data from the given buffers. The arrays are used as is, not copied.
+     *
+     * @param points the point coordinates
+     * @param texCoords the texture coordinates
+     * @param faces the face indices
+     * @param faceSmoothingGroups the smoothing group of each face, or {@code null} for none
+     */
+    public MeshData(final float[] points, final float[] texCoords, final int[] faces,
+            final int[] faceSmoothingGroups) {
+
+        this.points = points;
+        this.texCoords = texCoords;
+        this.faces = faces;
+        this.faceSmoothingGroups = faceSmoothingGroups;
+    }
+
+    /**
+     * Creates mesh data holding a copy of the buffers of a {@link TriangleMesh}.
+     *
+     * @param mesh the triangle mesh
+     * @return the mesh data
+     */
+    public static MeshData fromTriangleMesh(final TriangleMesh mesh) {
+
+        final int[] smoothingGroups = mesh.getFaceSmoothingGroups().size() == 0 ? null
+                : mesh.getFaceSmoothingGroups().toArray(null);
+        return new MeshData(mesh.getPoints().toArray(null), mesh.getTexCoords().toArray(null),
+                mesh.getFaces().toArray(null), smoothingGroups);
+    }
+
+    /**
+     * Gets the point coordinates, three floats per point.
+     *
+     * @return the point coordinates
+     */
+    public float[] getPoints() {
+        return points;
+    }
+
+    /**
+     * Gets the texture coordinates, two floats per texture coordinate.
+     *
+     * @return the texture coordinates
+     */
+    public float[] getTexCoords() {
+        return texCoords;
+    }
+
+    /**
+     * Gets the face indices, six ints per face.
+     *
+     * @return the face indices
+     */
+    public int[] getFaces() {
+        return faces;
+    }
+
+    /**
+     * Gets the smoothing group of each face.
+     *
+     * @return the smoothing groups, or {@code null} if the mesh has none
+     */
+    public int[] getFaceSmoothingGroups() {
+        return faceSmoothingGroups;
+    }
+
+    /**
+     * Gets the number of points of the mesh.
+     *
+     * @return the number of points
+     */
+    public int getPointCount() {
+        return points.length / 3;
+    }
+
+    /**
+     * Gets the number of faces of the mesh.
+     *
+     * @return the number of faces
+     */
+    public int getFaceCount() {
+        return faces.length / 6;
+    }
+
+    /**
+     * Computes the bounds of the points, in parallel for large meshes.
+     *
+     * @return the minimum x, y, z then maximum x, y, z coordinates, all 0 if there are no points
+     */
+    public float[] computeBounds() {
+        return PointBounds.compute(points);
+    }
+
+    /**
+     * Estimates the memory used by the geometry of the mesh.
+     *
+     * @return the size of the arrays of the mesh, in bytes
+     */
+    public long getMemorySize() {
+        return (points.length + texCoords.length + faces.length
+                + (faceSmoothingGroups != null ? faceSmoothingGroups.length : 0)) * 4L;
+    }
+
+    /**
+     * Creates a {@link TriangleMesh} holding a copy of this data.
+     *
+     * @return a new triangle mesh
+     */
+    public TriangleMesh toTriangleMesh() {
+
+        final TriangleMesh mesh = new TriangleMesh();
+        mesh.getPoints().setAll(points);
+        mesh.getTexCoords().setAll(texCoords);
+        mesh.getFaces().setAll(faces);
+        if (faceSmoothingGroups != null) {
+            mesh.getFaceSmoothingGroups().setAll(faceSmoothingGroups);
+        }
+        return mesh;
+    }
+}
@@ -0,0 +1,318 @@
+package fr.utbm;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * Simplifies meshes by quadric-error vertex clustering.
+ *
+ * <p>
+ * The points of the mesh are grouped in the cells of a regular grid. Each cell accumulates the error quadrics of the
+ * planes of the faces touching it and is replaced by the single point minimizing that error, which keeps sharp
+ * features much better than averaging. Faces whose corners fall in fewer than three cells disappear. Unlike edge
+ * collapse, the cost is linear in the size of the mesh, so scans of millions of triangles are simplified in a fraction
+ * of their load time. Texture coordinate indices and smoothing groups of the remaining faces are kept.
+ * </p>
+ */
+public final class MeshDecimator {
+
+    /**
+     * Number of faces kept per squared grid resolution, about 8 on closed surfaces.
+     */
+    static final double FACES_PER_SQUARED_RESOLUTION = 8;
+
+    private static final int MIN_RESOLUTION = 2;
+    private static final int MAX_RESOLUTION_ATTEMPTS = 4;
+    private static final int QUADRIC_SIZE = 10;
+    private static final double SINGULAR_DETERMINANT = 1e-12;
+
+    private MeshDecimator() {
+    }
+
+    /**
+     * Simplifies a mesh down to a number of faces.
+     *
+     * <p>
+     * The grid resolution is first derived from the number of faces expected on a closed surface, then corrected from
+     * the number of faces actually kept, a few times at most, as open or thin meshes keep fewer faces per cell. The
+     * largest result within the target is returned; the last one may exceed it if none is within.
+     * </p>
+     *
+     * @param mesh the mesh to simplify, which is left unchanged
+     * @param maxFaces the number of faces to reach
+     * @return the simplified mesh, or the mesh itself if it has no more faces than the target
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    public static MeshData decimateToFaces(final MeshData mesh, final int maxFaces) throws InterruptedIOException {
+
+        if (mesh.getFaceCount() <= maxFaces) {
+            return mesh;
+        }
+        int resolution = (int) Math.max(MIN_RESOLUTION, Math.sqrt(maxFaces / FACES_PER_SQUARED_RESOLUTION));
+        MeshData best = null;
+        MeshData decimated = null;
+        for (int attempt = 0; attempt < MAX_RESOLUTION_ATTEMPTS; attempt++) {
+            Importer3D.checkInterrupted();
+            decimated = decimate(mesh, resolution);
+            final int faceCount = decimated.getFaceCount();
+            if (faceCount <= maxFaces && (best == null || faceCount > best.getFaceCount())) {
+                best = decimated;
+            }
+            if (faceCount > maxFaces * 0.9 && faceCount <= maxFaces || faceCount == 0) {
+                break;
+            }
+            // the face count grows with the square of the resolution, aim slightly under the target
+            final int next = (int) Math.max(MIN_RESOLUTION, resolution * Math.sqrt((double) maxFaces / faceCount)
+                    * 0.95);
+            if (next == resolution) {
+                break;
+            }
+            resolution = next;
+        }
+        return best != null ? best : decimated;
+    }
+
+    /**
+     * Simplifies a mesh.
+     *
+     * @param mesh the mesh to simplify, which is left unchanged
+     * @param resolution the number of grid cells along the largest dimension of the mesh
+     * @return the simplified mesh
+     */
+    public static MeshData decimate(final MeshData mesh, final int resolution) {
+
+        final float[] points = mesh.getPoints();
+        final int pointCount = mesh.getPointCount();
+        final int[] faces = mesh.getFaces();
+        final int faceCount = mesh.getFaceCount();
+
+        final float[] bounds = PointBounds.compute(points);
+        final double extent = Math.max(Math.max(bounds[3] - bounds[0], bounds[4] - bounds[1]), bounds[5] - bounds[2]);
+        final double cellSize = extent > 0 ? extent / resolution : 1;
+
+        // cluster of each point, clusters being numbered in order of first appearance
+        final ClusterTable table = new ClusterTable(Math.min(pointCount, 1 << 16));
+        final int[] pointClusters = new int[pointCount];
+        for (int i = 0, p = 0; i < pointCount; i++, p += 3) {
+            final long x = (long) ((points[p] - bounds[0]) / cellSize);
+            final long y = (long) ((points[p + 1] - bounds[1]) / cellSize);
+            final long z = (long) ((points[p + 2] - bounds[2]) / cellSize);
+            pointClusters[i] = table.add((x << 42) | (y << 21) | z);
+        }
+        final int clusterCount = table.size();
+
+        final double[] quadrics = new double[clusterCount * QUADRIC_SIZE];
+        final double[] sums = new double[clusterCount * 3];
+        final int[] counts = new int[clusterCount];
+        for (int i = 0, p = 0; i < pointCount; i++, p += 3) {
+            final int c = pointClusters[i];
+            sums[c * 3] += points[p];
+            sums[c * 3 + 1] += points[p + 1];
+            sums[c * 3 + 2] += points[p + 2];
+            counts[c]++;
+        }
+
+        for (int f = 0; f < faces.length; f += 6) {
+            addFaceQuadric(points, faces[f] * 3, faces[f + 2] * 3, faces[f + 4] * 3, quadrics,
+                    pointClusters[faces[f]], pointClusters[faces[f + 2]], pointClusters[faces[f + 4]]);
+        }
+
+        final float[] clusterPoints = new float[clusterCount * 3];
+        for (int c = 0; c < clusterCount; c++) {
+            placeClusterPoint(c, quadrics, sums, counts, cellSize, clusterPoints);
+        }
+
+        final int[] smoothingGroups = mesh.getFaceSmoothingGroups();
+        final boolean hasSmoothingGroups = smoothingGroups != null && smoothingGroups.length == faceCount;
+        final int[] newFaces = new int[faces.length];
+        final int[] newSmoothingGroups = hasSmoothingGroups ? new int[faceCount] : null;
+        int kept = 0;
+        for (int face = 0, f = 0; face < faceCount; face++, f += 6) {
+            final int c0 = pointClusters[faces[f]];
+            final int c1 = pointClusters[faces[f + 2]];
+            final int c2 = pointClusters[faces[f + 4]];
+            if (c0 == c1 || c1 == c2 || c2 == c0) {
+                continue;
+            }
+            final int k = kept * 6;
+            newFaces[k] = c0;
+            newFaces[k + 1] = faces[f + 1];
+            newFaces[k + 2] = c1;
+            newFaces[k + 3] = faces[f + 3];
+            newFaces[k + 4] = c2;
+            newFaces[k + 5] = faces[f + 5];
+            if (hasSmoothingGroups) {
+                newSmoothingGroups[kept] = smoothingGroups[face];
+            }
+            kept++;
+        }
+
+        return new MeshData(clusterPoints, mesh.getTexCoords(), Arrays.copyOf(newFaces, kept * 6),
+                hasSmoothingGroups ? Arrays.copyOf(newSmoothingGroups, kept) : null);
+    }
+
+    private static void addFaceQuadric(final float[] points, final int p0, final int p1, final int p2,
+            final double[] quadrics, final int c0, final int c1, final int c2) {
+
+        final double ux = points[p1] - points[p0];
+        final double uy = points[p1 + 1] - points[p0 + 1];
+        final double uz = points[p1 + 2] - points[p0 + 2];
+        final double vx = points[p2] - points[p0];
+        final double vy = points[p2 + 1] - points[p0 + 1];
+        final double vz = points[p2 + 2] - points[p0 + 2];
+
+        // the unnormalized normal has a length of twice the area, which weights the plane by the face area
+        final double nx = uy * vz - uz * vy;
+        final double ny = uz * vx - ux * vz;
+        final double nz = ux * vy - uy * vx;
+        final double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) {
+            return;
+        }
+        final double a = nx / length;
+        final double b = ny / length;
+        final double c = nz / length;
+        final double d = -(a * points[p0] + b * points[p0 + 1] + c * points[p0 + 2]);
+        final double weight = length / 2;
+
+        addQuadric(quadrics, c0, a, b, c, d, weight);
+        addQuadric(quadrics, c1, a, b, c, d, weight);
+        addQuadric(quadrics, c2, a, b, c, d, weight);
+    }
+
+    private static void addQuadric(final double[] quadrics, final int cluster, final double a, final double b,
+            final double c, final double d, final double weight) {
+
+        final int q = cluster * QUADRIC_SIZE;
+        quadrics[q] += weight * a * a;
+        quadrics[q + 1] += weight * a * b;
+        quadrics[q + 2] += weight * a * c;
+        quadrics[q + 3] += weight * a * d;
+        quadrics[q + 4] += weight * b * b;
+        quadrics[q + 5] += weight * b * c;
+        quadrics[q + 6] += weight * b * d;
+        quadrics[q + 7] += weight * c * c;
+        quadrics[q + 8] += weight * c * d;
+        quadrics[q + 9] += weight * d * d;
+    }
+
+    /**
+     * Places the point of a cluster at the minimum of its quadric, or at the mean of its points when the quadric is
+     * singular (flat or straight regions) or its minimum lies far outside the cell.
+     */
+    private static void placeClusterPoint(final int cluster, final double[] quadrics, final double[] sums,
+            final int[] counts, final double cellSize, final float[] clusterPoints) {
+
+        final double meanX = sums[cluster * 3] / counts[cluster];
+        final double meanY = sums[cluster * 3 + 1] / counts[cluster];
+        final double meanZ = sums[cluster * 3 + 2] / counts[cluster];
+
+        final int q = cluster * QUADRIC_SIZE;
+        final double a00 = quadrics[q];
+        final double a01 = quadrics[q + 1];
+        final double a02 = quadrics[q + 2];
+        final double a11 = quadrics[q + 4];
+        final double a12 = quadrics[q + 5];
+        final double a22 = quadrics[q + 7];
+        final double b0 = -quadrics[q + 3];
+        final double b1 = -quadrics[q + 6];
+        final double b2 = -quadrics[q + 8];
+
+        final double c00 = a11 * a22 - a12 * a12;
+        final double c01 = a02 * a12 - a01 * a22;
+        final double c02 = a01 * a12 - a02 * a11;
+        final double determinant = a00 * c00 + a01 * c01 + a02 * c02;
+        final double scale = a00 + a11 + a22;
+
+        double x = meanX;
+        double y = meanY;
+        double z = meanZ;
+        if (scale > 0 && Math.abs(determinant) > SINGULAR_DETERMINANT * scale * scale * scale) {
+            final double c11 = a00 * a22 - a02 * a02;
+            final double c12 = a01 * a02 - a00 * a12;
+            final double c22 = a00 * a11 - a01 * a01;
+            final double sx = (c00 * b0 + c01 * b1 + c02 * b2) / determinant;
+            final double sy = (c01 * b0 + c11 * b1 + c12 * b2) / determinant;
+            final double sz = (c02 * b0 + c12 * b1 + c22 * b2) / determinant;
+            if (Math.abs(sx - meanX) <= cellSize && Math.abs(sy - meanY) <= cellSize
+                    && Math.abs(sz - meanZ) <= cellSize) {
+                x = sx;
+                y = sy;
+                z = sz;
+            }
+        }
+
+        clusterPoints[cluster * 3] = (float) x;
+        clusterPoints[cluster * 3 + 1] = (float) y;
+        clusterPoints[cluster * 3 + 2] = (float) z;
+    }
+
+    /**
+     * Open-addressing map from packed cell coordinates to cluster indices.
+     */
+    private static final class ClusterTable {
+
+        private long[] keys;
+        private int[] values;
+        private int mask;
+        private int size;
+
+        ClusterTable(final int expectedClusters) {
+
+            final int capacity = Integer.highestOneBit(Math.max(expectedClusters, 8) * 2) << 1;
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(values, -1);
+            mask = capacity - 1;
+        }
+
+        int add(final long key) {
+
+            int slot = hash(key) & mask;
+            while (values[slot] >= 0) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = size;
+            if (++size * 2 > keys.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void rehash() {
+
+            final long[] oldKeys = keys;
+            final int[] oldValues = values;
+            keys = new long[oldKeys.length << 1];
+            values = new int[oldValues.length << 1];
+            Arrays.fill(values, -1);
+            mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] >= 0) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (values[slot] >= 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(long key) {
+
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int) key;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package fr.utbm;
+
+import javafx.collections.ObservableFloatArray;
+import javafx.collections.ObservableIntegerArray;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.paint.Material;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+import javafx.scene.transform.Translate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares identical meshes and materials between the shapes of loaded content.
+ *
+ * <p>
+ * Repeated parts of assemblies (bolts, seats, panels) are usually stored as separate copies of the same geometry at
+ * different positions. Meshes are compared by a hash of their geometry relative to their bounds, so copies differing
+ * only by a translation are found; each copy then displays the first mesh through an extra {@link Translate}, and its
+ * own mesh can be collected. Materials with the same colors, power and maps are shared the same way. Rotated copies
+ * are not detected.
+ * </p>
+ *
+ * <p>
+ * An instancer can be kept across imports, so the models of a scene share their geometry too. It is thread safe.
+ * </p>
+ */
+public final class MeshInstancer {
+
+    // relative precision of the comparison of point coordinates
+    private static final double RELATIVE_TOLERANCE = 1e-5;
+
+    private final Map<Long, List<SharedMesh>> meshes = new HashMap<>();
+    private final Map<List<Object>, PhongMaterial> materials = new HashMap<>();
+
+    /**
+     * Shares the meshes and materials of loaded content with those seen before.
+     *
+     * @param content the loaded content, not yet displayed
+     * @return the number of meshes and materials shared
+     */
+    public synchronized Result instance(final Node content) {
+
+        final Result result = new Result();
+        instance(content, result);
+        return result;
+    }
+
+    /**
+     * Forgets the meshes and materials seen so far, for instance when the scene is cleared.
+     */
+    public synchronized void clear() {
+
+        meshes.clear();
+        materials.clear();
+    }
+
+    private void instance(final Node node, final Result result) {
+
+        if (node instanceof MeshView) {
+            final MeshView meshView = (MeshView) node;
+            result.meshViews++;
+            if (meshView.getMesh() instanceof TriangleMesh && LevelOfDetail.get(meshView) == null) {
+                if (shareMesh(meshView)) {
+                    result.sharedMeshes++;
+                }
+            }
+            if (shareMaterial(meshView)) {
+                result.sharedMaterials++;
+            }
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                instance(child, result);
+            }
+        }
+    }
+
+    private boolean shareMesh(final MeshView meshView) {
+
+        final TriangleMesh mesh = (TriangleMesh) meshView.getMesh();
+        final ObservableFloatArray points = mesh.getPoints();
+        if (points.size() < 3) {
+            return false;
+        }
+        final float[] bounds = PointBounds.compute(points);
+        final double extent = Math.max(Math.max(bounds[3] - bounds[0], bounds[4] - bounds[1]),
+                bounds[5] - bounds[2]);
+        final double maxCoordinate = Math.max(Math.max(Math.abs(bounds[0]), Math.abs(bounds[3])),
+                Math.max(Math.max(Math.abs(bounds[1]), Math.abs(bounds[4])),
+                        Math.max(Math.abs(bounds[2]), Math.abs(bounds[5]))));
+        // coordinates far from the origin lose precision, so the tolerance is never below a few of their ulps
+        final double tolerance = Math.max(extent * RELATIVE_TOLERANCE, 4 * Math.ulp((float) maxCoordinate));
+
+        final long hash = hash(mesh, bounds, tolerance);
+        List<SharedMesh> candidates = meshes.get(hash);
+        if (candidates == null) {
+            candidates = new ArrayList<>(1);
+            meshes.put(hash, candidates);
+        }
+        for (SharedMesh candidate : candidates) {
+            if (candidate.mesh != mesh && candidate.matches(mesh, bounds, tolerance)) {
+                meshView.setMesh(candidate.mesh);
+                meshView.getTransforms().add(new Translate(bounds[0] - candidate.minX, bounds[1] - candidate.minY,
+                        bounds[2] - candidate.minZ));
+                return true;
+            }
+            if (candidate.mesh == mesh) {
+                return false;
+            }
+        }
+        candidates.add(new SharedMesh(mesh, bounds));
+        return false;
+    }
+
+    private boolean shareMaterial(final MeshView meshView) {
+
+        final Material material = meshView.getMaterial();
+        if (!(material instanceof PhongMaterial)) {
+            return false;
+        }
+        final PhongMaterial phong = (PhongMaterial) material;
+        // maps are compared by identity, as images do not implement equals
+        final List<Object> key = Arrays.<Object> asList(phong.getDiffuseColor(), phong.getSpecularColor(),
+                phong.getSpecularPower(), new Identity(phong.getDiffuseMap()), new Identity(phong.getSpecularMap()),
+                new Identity(phong.getBumpMap()), new Identity(phong.getSelfIlluminationMap()));
+        final PhongMaterial shared = materials.get(key);
+        if (shared == null) {
+            materials.put(key, phong);
+            return false;
+        }
+        if (shared == phong) {
+            return false;
+        }
+        meshView.setMaterial(shared);
+        return true;
+    }
+
+    /**
+     * Hashes the topology of a mesh and its points relative to its bounds, quantized by the tolerance.
+     */
+    private static long hash(final TriangleMesh mesh, final float[] bounds, final double tolerance) {
+
+        long hash = mesh.getPoints().size();
+        hash = hash * 31 + hash(mesh.getFaces());
+        hash = hash * 31 + hash(mesh.getFaceSmoothingGroups());
+        final ObservableFloatArray texCoords = mesh.getTexCoords();
+        for (int i = 0; i < texCoords.size(); i++) {
+            hash = hash * 31 + Float.floatToIntBits(texCoords.get(i));
+        }
+        final ObservableFloatArray points = mesh.getPoints();
+        final double cell = tolerance * 64;
+        for (int p = 0; p < points.size(); p++) {
+            hash = hash * 31 + Math.round((points.get(p) - bounds[p % 3]) / cell);
+        }
+        return hash;
+    }
+
+    private static long hash(final ObservableIntegerArray values) {
+
+        long hash = values.size();
+        for (int i = 0; i < values.size(); i++) {
+            hash = hash * 31 + values.get(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Counts of an instancing.
+     */
+    public static final class Result {
+
+        private int meshViews;
+        private int sharedMeshes;
+        private int sharedMaterials;
+
+        /**
+         * Gets the number of mesh views of the content.
+         *
+         * @return the number of mesh views
+         */
+        public int getMeshViews() {
+            return meshViews;
+        }
+
+        /**
+         * Gets the number of mesh views now displaying a mesh shared with another mesh view.
+         *
+         * @return the number of shared meshes
+         */
+        public int getSharedMeshes() {
+            return sharedMeshes;
+        }
+
+        /**
+         * Gets the number of mesh views now using a material shared with another mesh view.
+         *
+         * @return the number of shared materials
+         */
+        public int getSharedMaterials() {
+            return sharedMaterials;
+        }
+
+        @Override
+        public String toString() {
+            return "shared " + sharedMeshes + " of " + meshViews + " meshes";
+        }
+    }
+
+    /**
+     * Mesh displayed by several mesh views, with the minimum corner of its bounds.
+     */
+    private static final class SharedMesh {
+
+        private final TriangleMesh mesh;
+        private final float minX;
+        private final float minY;
+        private final float minZ;
+
+        SharedMesh(final TriangleMesh mesh, final float[] bounds) {
+            this.mesh = mesh;
+            minX = bounds[0];
+            minY = bounds[1];
+            minZ = bounds[2];
+        }
+
+        /**
+         * Checks whether another mesh is a translated copy of this mesh.
+         */
+        boolean matches(final TriangleMesh other, final float[] otherBounds, final double tolerance) {
+
+            if (!equal(mesh.getFaces(), other.getFaces())
+                    || !equal(mesh.getFaceSmoothingGroups(), other.getFaceSmoothingGroups())) {
+                return false;
+            }
+            final ObservableFloatArray texCoords = mesh.getTexCoords();
+            final ObservableFloatArray otherTexCoords = other.getTexCoords();
+            if (texCoords.size() != otherTexCoords.size()) {
+                return false;
+            }
+            for (int i = 0; i < texCoords.size(); i++) {
+                if (texCoords.get(i) != otherTexCoords.get(i)) {
+                    return false;
+                }
+            }
+            final ObservableFloatArray points = mesh.getPoints();
+            final ObservableFloatArray otherPoints = other.getPoints();
+            if (points.size() != otherPoints.size()) {
+                return false;
+            }
+            final double[] min = { minX, minY, minZ };
+            for (int p = 0; p < points.size(); p++) {
+                final double relative = points.get(p) - min[p % 3];
+                final double otherRelative = otherPoints.get(p) - otherBounds[p % 3];
+                if (Math.abs(relative - otherRelative) > tolerance) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean equal(final ObservableIntegerArray values, final ObservableIntegerArray others) {
+
+            if (values.size() != others.size()) {
+                return false;
+            }
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) != others.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Wrapper comparing objects by identity.
+     */
+    private static final class Identity {
+
+        private final Object object;
+
+        Identity(final Object object) {
+            this.object = object;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Identity && ((Identity) other).object == object;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(object);
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package fr.utbm;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableIntegerArray;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Computes smooth shading for flat meshes, such as STL meshes, in the background once they are displayed.
+ *
+ * <p>
+ * Faces are grouped in smooth patches, neighbouring faces being in the same patch when the angle between them is
+ * under the crease angle. Each patch then gets one of the 32 smoothing group bits of {@link TriangleMesh}, patches
+ * sharing a point getting different bits, so JavaFX interpolates the normals within each patch and keeps the creases
+ * between patches sharp. Patches left without a free bit stay flat. The face normals and the merging of the patches
+ * are computed in parallel over chunks of faces.
+ * </p>
+ *
+ * <p>
+ * Meshes are displayed flat while their smoothing groups are computed, then switched to smooth shading on the JavaFX
+ * application thread, along with their levels of detail. The meshes of content discarded by its {@link Owner}, such
+ * as a cancelled or replaced load, are left flat, and their queued smoothing is skipped. Since JavaFX computes the
+ * normals of each mesh on its own, the shading of meshes split into chunks, see {@link MeshSplitter}, is not
+ * interpolated across chunk boundaries.
+ * </p>
+ */
+public final class MeshSmoother {
+
+    // faces per task of the parallel stages, smaller meshes are processed by the calling thread
+    private static final int FACES_PER_TASK = 1 << 15;
+
+    private static final int SMOOTHING_GROUPS = 32;
+
+    // meshes are smoothed one at a time, each using the common fork-join pool
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "mesh-smoother");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private MeshSmoother() {
+    }
+
+    /**
+     * Computes the smooth shading of the flat meshes of loaded content in the background. Meshes are flat if all
+     * their faces are in smoothing group 0; meshes shared by several mesh views are smoothed once.
+     *
+     * @param content the loaded content, not yet attached to a scene
+     * @param creaseAngle the largest angle in degrees between faces shaded smoothly, 0 to do nothing
+     * @param metrics the metrics receiving the smoothing time, or {@code null}
+     * @param owner the owner of the content, which tells whether it is still displayed
+     */
+    public static void smoothLater(final Node content, final double creaseAngle, final LoadMetrics metrics,
+            final Owner owner) {
+
+        if (creaseAngle <= 0) {
+            return;
+        }
+        for (final MeshView meshView : collectFlatMeshViews(content)) {
+            final TriangleMesh fullMesh = LevelOfDetail.getFullMesh(meshView);
+            final LevelOfDetail levelOfDetail = LevelOfDetail.get(meshView);
+            EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!owner.isDiscarded()) {
+                        smooth(fullMesh, levelOfDetail, creaseAngle, metrics, owner);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Computes the smooth shading of the flat meshes of loaded content on the calling thread, e.g. a background
+     * thread which should not queue its meshes behind the displayed ones, see {@link #smoothLater}.
+     *
+     * @param content the loaded content, not yet attached to a scene
+     * @param creaseAngle the largest angle in degrees between faces shaded smoothly, 0 to do nothing
+     * @param metrics the metrics receiving the smoothing time, or {@code null}
+     */
+    public static void smooth(final Node content, final double creaseAngle, final LoadMetrics metrics) {
+
+        if (creaseAngle <= 0) {
+            return;
+        }
+        for (MeshView meshView : collectFlatMeshViews(content)) {
+            smooth(LevelOfDetail.getFullMesh(meshView), LevelOfDetail.get(meshView), creaseAngle, metrics, null);
+        }
+    }
+
+    /**
+     * Computes the smoothing groups of the faces of a mesh.
+     *
+     * @param mesh the mesh, whose points should be welded
+     * @param creaseAngle the largest angle in degrees between neighbouring faces of a smooth patch
+     * @return the smoothing group of each face, a single bit or 0 for flat faces
+     */
+    public static int[] computeSmoothingGroups(final MeshData mesh, final double creaseAngle) {
+
+        final int faceCount = mesh.getFaceCount();
+        final float[] normals = new float[faceCount * 3];
+        run(new NormalTask(mesh, normals, 0, faceCount));
+
+        final PointFaces pointFaces = new PointFaces(mesh);
+        final AtomicIntegerArray parents = new AtomicIntegerArray(faceCount);
+        for (int face = 0; face < faceCount; face++) {
+            parents.set(face, face);
+        }
+        run(new MergeTask(mesh, pointFaces, normals, (float) Math.cos(Math.toRadians(creaseAngle)), parents, 0,
+                faceCount));
+
+        // patches numbered in the order of their first face
+        final int[] patches = new int[faceCount];
+        int patchCount = 0;
+        for (int face = 0; face < faceCount; face++) {
+            final int root = find(parents, face);
+            patches[face] = root == face ? patchCount++ : patches[root];
+        }
+        final int[] patchGroups = colorPatches(mesh, pointFaces, patches, patchCount);
+
+        final int[] smoothingGroups = new int[faceCount];
+        for (int face = 0; face < faceCount; face++) {
+            smoothingGroups[face] = patchGroups[patches[face]];
+        }
+        return smoothingGroups;
+    }
+
+    private static void smooth(final TriangleMesh fullMesh, final LevelOfDetail levelOfDetail,
+            final double creaseAngle, final LoadMetrics metrics, final Owner owner) {
+
+        final long start = System.nanoTime();
+        final int[] fullGroups = computeSmoothingGroups(MeshData.fromTriangleMesh(fullMesh), creaseAngle);
+        final int levelCount = levelOfDetail != null ? levelOfDetail.getLevelCount() : 1;
+        final int[][] levelGroups = new int[levelCount][];
+        for (int level = 1; level < levelCount; level++) {
+            levelGroups[level] = computeSmoothingGroups(levelOfDetail.getCompactMesh(level).toMeshData(),
+                    creaseAngle);
+        }
+        if (metrics != null) {
+            metrics.addStageTime(LoadMetrics.Stage.SMOOTHING, System.nanoTime() - start);
+        }
+
+        Platform.runLater(new Runnable() {
+
+            @Override
+            public void run() {
+
+                if (owner != null && owner.isDiscarded()) {
+                    return;
+                }
+                fullMesh.getFaceSmoothingGroups().setAll(fullGroups);
+                for (int level = 1; level < levelCount; level++) {
+                    levelOfDetail.setFaceSmoothingGroups(level, levelGroups[level]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Owner of content smoothed in the background, such as the load which displays it.
+     */
+    public interface Owner {
+
+        /**
+         * Whether the content is no longer displayed, e.g. its load was cancelled or another model replaced it. Called
+         * from the smoothing thread and from the JavaFX application thread.
+         *
+         * @return {@code true} if the smoothing of the content is of no use
+         */
+        boolean isDiscarded();
+    }
+
+    private static Set<MeshView> collectFlatMeshViews(final Node content) {
+
+        final Set<MeshView> meshViews = Collections.newSetFromMap(new IdentityHashMap<MeshView, Boolean>());
+        collectFlatMeshViews(content, meshViews, Collections.newSetFromMap(
+                new IdentityHashMap<TriangleMesh, Boolean>()));
+        return meshViews;
+    }
+
+    private static void collectFlatMeshViews(final Node node, final Set<MeshView> meshViews,
+            final Set<TriangleMesh> meshes) {
+
+        if (node instanceof MeshView && ((MeshView) node).getMesh() instanceof TriangleMesh) {
+            final TriangleMesh mesh = LevelOfDetail.getFullMesh((MeshView) node);
+            if (meshes.add(mesh) && isFlat(mesh)) {
+                meshViews.add((MeshView) node);
+            }
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                collectFlatMeshViews(child, meshViews, meshes);
+            }
+        }
+    }
+
+    private static boolean isFlat(final TriangleMesh mesh) {
+
+        final ObservableIntegerArray smoothingGroups = mesh.getFaceSmoothingGroups();
+        if (smoothingGroups.size() == 0 || smoothingGroups.size() != mesh.getFaces().size() / 6) {
+            return false;
+        }
+        for (int face = 0; face < smoothingGroups.size(); face++) {
+            if (smoothingGroups.get(face) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void run(final ForkJoinTask<?> task) {
+
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            ParallelDecoding.getPool().invoke(task);
+        }
+    }
+
+    /**
+     * Finds the root of the patch of a face, halving the path to it.
+     */
+    private static int find(final AtomicIntegerArray parents, final int face) {
+
+        int current = face;
+        while (true) {
+            final int parent = parents.get(current);
+            if (parent == current) {
+                return current;
+            }
+            final int grandParent = parents.get(parent);
+            if (grandParent != parent) {
+                parents.compareAndSet(current, parent, grandParent);
+            }
+            current = parent;
+        }
+    }
+
+    /**
+     * Merges the patches of two faces. The root with the largest index is linked to the other, only if it is still a
+     * root, so concurrent merges never lose a link.
+     */
+    private static void union(final AtomicIntegerArray parents, final int face, final int otherFace) {
+
+        while (true) {
+            final int root = find(parents, face);
+            final int otherRoot = find(parents, otherFace);
+            if (root == otherRoot) {
+                return;
+            }
+            final int child = Math.max(root, otherRoot);
+            if (parents.compareAndSet(child, child, Math.min(root, otherRoot))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Assigns a smoothing group bit to each patch, greedily in patch order, so patches sharing a point get different
+     * bits.
+     */
+    private static int[] colorPatches(final MeshData mesh, final PointFaces pointFaces, final int[] patches,
+            final int patchCount) {
+
+        // pairs of distinct patches sharing a point, keyed on the largest then smallest patch; the rare points shared
+        // by more than 16 patches, such as the apex of a cone, only separate the first ones
+        long[] pairs = new long[16];
+        int pairCount = 0;
+        final int[] pointPatches = new int[16];
+        for (int point = 0; point < mesh.getPointCount(); point++) {
+            int distinct = 0;
+            for (int i = pointFaces.starts[point]; i < pointFaces.starts[point + 1] && distinct < 16; i++) {
+                final int patch = patches[pointFaces.faces[i]];
+                boolean found = false;
+                for (int j = 0; j < distinct && !found; j++) {
+                    found = pointPatches[j] == patch;
+                }
+                if (!found) {
+                    pointPatches[distinct++] = patch;
+                }
+            }
+            for (int i = 0; i < distinct; i++) {
+                for (int j = i + 1; j < distinct; j++) {
+                    if (pairCount == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                    }
+                    final int a = Math.min(pointPatches[i], pointPatches[j]);
+                    final int b = Math.max(pointPatches[i], pointPatches[j]);
+                    pairs[pairCount++] = (long) b << 32 | a;
+                }
+            }
+        }
+        // sorted by largest patch, so each patch finds the already colored patches it touches in one run
+        Arrays.sort(pairs, 0, pairCount);
+
+        final int[] groups = new int[patchCount];
+        for (int patch = 0, i = 0; patch < patchCount; patch++) {
+            int used = 0;
+            for (; i < pairCount && (int) (pairs[i] >>> 32) == patch; i++) {
+                used |= groups[(int) pairs[i]];
+            }
+            final int free = Integer.numberOfTrailingZeros(~used);
+            groups[patch] = free < SMOOTHING_GROUPS ? 1 << free : 0;
+        }
+        return groups;
+    }
+
+    /**
+     * Faces around each point of a mesh, in compressed rows.
+     */
+    private static final class PointFaces {
+
+        private final int[] starts;
+        private final int[] faces;
+
+        PointFaces(final MeshData mesh) {
+
+            final int[] meshFaces = mesh.getFaces();
+            final int faceCount = mesh.getFaceCount();
+            starts = new int[mesh.getPointCount() + 1];
+            for (int face = 0; face < faceCount; face++) {
+                for (int vertex = 0; vertex < 3; vertex++) {
+                    starts[meshFaces[face * 6 + vertex * 2] + 1]++;
+                }
+            }
+            for (int point = 0; point < mesh.getPointCount(); point++) {
+                starts[point + 1] += starts[point];
+            }
+            final int[] next = Arrays.copyOf(starts, starts.length - 1);
+            faces = new int[faceCount * 3];
+            for (int face = 0; face < faceCount; face++) {
+                for (int vertex = 0; vertex < 3; vertex++) {
+                    faces[next[meshFaces[face * 6 + vertex * 2]]++] = face;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computation of the unit normals of a range of faces, 0 for degenerate faces.
+     */
+    private static final class NormalTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MeshData mesh;
+        private final float[] normals;
+        private final int from;
+        private final int to;
+
+        NormalTask(final MeshData mesh, final float[] normals, final int from, final int to) {
+
+            this.mesh = mesh;
+            this.normals = normals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from > FACES_PER_TASK) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new NormalTask(mesh, normals, from, middle), new NormalTask(mesh, normals, middle, to));
+                return;
+            }
+            final float[] points = mesh.getPoints();
+            final int[] faces = mesh.getFaces();
+            for (int face = from; face < to; face++) {
+                final int p0 = faces[face * 6] * 3;
+                final int p1 = faces[face * 6 + 2] * 3;
+                final int p2 = faces[face * 6 + 4] * 3;
+                final float ux = points[p1] - points[p0];
+                final float uy = points[p1 + 1] - points[p0 + 1];
+                final float uz = points[p1 + 2] - points[p0 + 2];
+                final float vx = points[p2] - points[p0];
+                final float vy = points[p2 + 1] - points[p0 + 1];
+                final float vz = points[p2 + 2] - points[p0 + 2];
+                final float nx = uy * vz - uz * vy;
+                final float ny = uz * vx - ux * vz;
+                final float nz = ux * vy - uy * vx;
+                final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (length > 0) {
+                    normals[face * 3] = nx / length;
+                    normals[face * 3 + 1] = ny / length;
+                    normals[face * 3 + 2] = nz / length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merging of the patches of a range of faces with their neighbours across edges under the crease angle.
+     */
+    private static final class MergeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MeshData mesh;
+        private final PointFaces pointFaces;
+        private final float[] normals;
+        private final float minCosine;
+        private final AtomicIntegerArray parents;
+        private final int from;
+        private final int to;
+
+        MergeTask(final MeshData mesh, final PointFaces pointFaces, final float[] normals, final float minCosine,
+                final AtomicIntegerArray parents, final int from, final int to) {
+
+            this.mesh = mesh;
+            this.pointFaces = pointFaces;
+            this.normals = normals;
+            this.minCosine = minCosine;
+            this.parents = parents;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from > FACES_PER_TASK) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new MergeTask(mesh, pointFaces, normals, minCosine, parents, from, middle),
+                        new MergeTask(mesh, pointFaces, normals, minCosine, parents, middle, to));
+                return;
+            }
+            final int[] faces = mesh.getFaces();
+            for (int face = from; face < to; face++) {
+                for (int vertex = 0; vertex < 3; vertex++) {
+                    final int a = faces[face * 6 + vertex * 2];
+                    final int b = faces[face * 6 + (vertex + 1) % 3 * 2];
+                    // each edge is handled by the face of smallest index, the other faces around its first point
+                    for (int i = pointFaces.starts[a]; i < pointFaces.starts[a + 1]; i++) {
+                        final int other = pointFaces.faces[i];
+                        if (other > face && hasPoint(faces, other, b) && isSmooth(face, other)) {
+                            union(parents, face, other);
+                        }
+                    }
+                }
+            }
+        }
+
+        private static boolean hasPoint(final int[] faces, final int face, final int point) {
+            return faces[face * 6] == point || faces[face * 6 + 2] == point || faces[face * 6 + 4] == point;
+        }
+
+        private boolean isSmooth(final int face, final int other) {
+
+            return normals[face * 3] * normals[other * 3] + normals[face * 3 + 1] * normals[other * 3 + 1]
+                    + normals[face * 3 + 2] * normals[other * 3 + 2] >= minCosine;
+        }
+    }
+}
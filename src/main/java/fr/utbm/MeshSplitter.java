@@ -0,0 +1,182 @@
+package fr.utbm;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits large meshes into chunks of bounded size along the cells of an octree.
+ *
+ * <p>
+ * Each face goes to the cell holding its centroid, cells being divided in eight until they hold at most the maximum
+ * number of faces. Chunks are spatially compact, so they can be culled and switched between levels of detail on their
+ * own, and each is uploaded to the graphics card as a separate buffer. Points on the boundary of cells are duplicated
+ * in the chunks sharing them with the same coordinates, so the chunks join without cracks. Texture coordinates and
+ * smoothing groups are kept.
+ * </p>
+ */
+public final class MeshSplitter {
+
+    // cells are not divided further than this, which only happens when many faces share a centroid
+    private static final int MAX_DEPTH = 16;
+
+    private MeshSplitter() {
+    }
+
+    /**
+     * Splits a mesh into chunks.
+     *
+     * @param mesh the mesh to split, which is left unchanged
+     * @param maxFaces the maximum number of faces of a chunk, 0 to keep the mesh whole
+     * @return the chunks in octree order, or a list holding the mesh itself if it is small enough
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    public static List<MeshData> split(final MeshData mesh, final int maxFaces) throws InterruptedIOException {
+
+        final int faceCount = mesh.getFaceCount();
+        if (maxFaces <= 0 || faceCount <= maxFaces) {
+            return Collections.singletonList(mesh);
+        }
+
+        final float[] bounds = PointBounds.compute(mesh.getPoints());
+        final float size = Math.max(Math.max(bounds[3] - bounds[0], bounds[4] - bounds[1]), bounds[5] - bounds[2]);
+        final int[] order = new int[faceCount];
+        for (int i = 0; i < faceCount; i++) {
+            order[i] = i;
+        }
+        final Splitter splitter = new Splitter(mesh, order, maxFaces);
+        splitter.split(0, faceCount, bounds[0], bounds[1], bounds[2], size, 0);
+        return splitter.chunks;
+    }
+
+    /**
+     * Octree division of the faces of a mesh, held in a face order partitioned in place.
+     */
+    private static final class Splitter {
+
+        private final MeshData mesh;
+        private final int[] order;
+        private final int[] scratch;
+        private final int maxFaces;
+        private final int[] pointMap;
+        private final int[] texCoordMap;
+        private final List<MeshData> chunks = new ArrayList<>();
+
+        Splitter(final MeshData mesh, final int[] order, final int maxFaces) {
+
+            this.mesh = mesh;
+            this.order = order;
+            this.maxFaces = maxFaces;
+            scratch = new int[order.length];
+            pointMap = new int[mesh.getPointCount()];
+            texCoordMap = new int[mesh.getTexCoords().length / 2];
+            Arrays.fill(pointMap, -1);
+            Arrays.fill(texCoordMap, -1);
+        }
+
+        void split(final int from, final int to, final float minX, final float minY, final float minZ,
+                final float size, final int depth) throws InterruptedIOException {
+
+            if (to - from <= maxFaces || depth == MAX_DEPTH) {
+                Importer3D.checkInterrupted();
+                chunks.add(createChunk(from, to));
+                return;
+            }
+
+            // counting sort of the faces by octant of their centroid
+            final float half = size / 2;
+            final int[] counts = new int[8];
+            final float[] points = mesh.getPoints();
+            final int[] faces = mesh.getFaces();
+            for (int i = from; i < to; i++) {
+                final int octant = octant(points, faces, order[i], minX + half, minY + half, minZ + half);
+                counts[octant]++;
+                scratch[i] = octant;
+            }
+            final int[] starts = new int[8];
+            starts[0] = from;
+            for (int octant = 1; octant < 8; octant++) {
+                starts[octant] = starts[octant - 1] + counts[octant - 1];
+            }
+            final int[] next = starts.clone();
+            final int[] sorted = new int[to - from];
+            for (int i = from; i < to; i++) {
+                sorted[next[scratch[i]]++ - from] = order[i];
+            }
+            System.arraycopy(sorted, 0, order, from, sorted.length);
+
+            for (int octant = 0; octant < 8; octant++) {
+                if (counts[octant] > 0) {
+                    split(starts[octant], starts[octant] + counts[octant], (octant & 1) != 0 ? minX + half : minX,
+                            (octant & 2) != 0 ? minY + half : minY, (octant & 4) != 0 ? minZ + half : minZ, half,
+                            depth + 1);
+                }
+            }
+        }
+
+        private static int octant(final float[] points, final int[] faces, final int face, final float centerX,
+                final float centerY, final float centerZ) {
+
+            final int p0 = faces[face * 6] * 3;
+            final int p1 = faces[face * 6 + 2] * 3;
+            final int p2 = faces[face * 6 + 4] * 3;
+            final float x = points[p0] + points[p1] + points[p2];
+            final float y = points[p0 + 1] + points[p1 + 1] + points[p2 + 1];
+            final float z = points[p0 + 2] + points[p1 + 2] + points[p2 + 2];
+            return (x >= centerX * 3 ? 1 : 0) | (y >= centerY * 3 ? 2 : 0) | (z >= centerZ * 3 ? 4 : 0);
+        }
+
+        /**
+         * Creates the chunk of a range of the face order, with its own compacted points and texture coordinates.
+         */
+        private MeshData createChunk(final int from, final int to) {
+
+            final float[] points = mesh.getPoints();
+            final float[] texCoords = mesh.getTexCoords();
+            final int[] faces = mesh.getFaces();
+            final int[] smoothingGroups = mesh.getFaceSmoothingGroups();
+
+            final int faceCount = to - from;
+            final int[] chunkFaces = new int[faceCount * 6];
+            final int[] chunkSmoothingGroups = smoothingGroups != null ? new int[faceCount] : null;
+            final int[] usedPoints = new int[Math.min(faceCount * 3, pointMap.length)];
+            final int[] usedTexCoords = new int[Math.min(faceCount * 3, texCoordMap.length)];
+            int pointCount = 0;
+            int texCoordCount = 0;
+            for (int i = 0; i < faceCount; i++) {
+                final int face = order[from + i];
+                for (int vertex = 0; vertex < 3; vertex++) {
+                    final int point = faces[face * 6 + vertex * 2];
+                    if (pointMap[point] < 0) {
+                        pointMap[point] = pointCount;
+                        usedPoints[pointCount++] = point;
+                    }
+                    final int texCoord = faces[face * 6 + vertex * 2 + 1];
+                    if (texCoordMap[texCoord] < 0) {
+                        texCoordMap[texCoord] = texCoordCount;
+                        usedTexCoords[texCoordCount++] = texCoord;
+                    }
+                    chunkFaces[i * 6 + vertex * 2] = pointMap[point];
+                    chunkFaces[i * 6 + vertex * 2 + 1] = texCoordMap[texCoord];
+                }
+                if (chunkSmoothingGroups != null) {
+                    chunkSmoothingGroups[i] = smoothingGroups[face];
+                }
+            }
+
+            final float[] chunkPoints = new float[pointCount * 3];
+            for (int i = 0; i < pointCount; i++) {
+                System.arraycopy(points, usedPoints[i] * 3, chunkPoints, i * 3, 3);
+                pointMap[usedPoints[i]] = -1;
+            }
+            final float[] chunkTexCoords = new float[texCoordCount * 2];
+            for (int i = 0; i < texCoordCount; i++) {
+                System.arraycopy(texCoords, usedTexCoords[i] * 2, chunkTexCoords, i * 2, 2);
+                texCoordMap[usedTexCoords[i]] = -1;
+            }
+            return new MeshData(chunkPoints, chunkTexCoords, chunkFaces, chunkSmoothingGroups);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Checks the geometry of meshes for the defects breaking rendering and processing of assets: points with NaN or
+ * infinite coordinates, degenerate faces, duplicate faces and non-manifold edges.
+ *
+ * <p>
+ * Faces are compared through their point indices, so a mesh should be welded first: the faces of a triangle soup
+ * share no point, and none of them is reported as duplicate or non-manifold. Like {@link VertexWelder}, the
+ * validation uses primitive arrays only, so meshes of millions of triangles can be checked.
+ * </p>
+ */
+public final class MeshValidator {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private MeshValidator() {
+    }
+
+    /**
+     * Validates the meshes of loaded content. Meshes shared by several mesh views are validated once.
+     *
+     * <p>
+     * Each mesh is validated on its own, so the edges shared by chunks of a split mesh are not seen as non-manifold.
+     * </p>
+     *
+     * @param content the loaded content, not attached to a scene
+     * @return the combined result of the full detail meshes of the content
+     */
+    public static Result validate(final Node content) {
+
+        final Set<TriangleMesh> meshes = Collections.newSetFromMap(new IdentityHashMap<TriangleMesh, Boolean>());
+        collectMeshes(content, meshes);
+        Result result = new Result(0, 0, 0, 0, 0);
+        for (TriangleMesh mesh : meshes) {
+            result = result.combine(validate(MeshData.fromTriangleMesh(mesh)));
+        }
+        return result;
+    }
+
+    /**
+     * Validates a mesh.
+     *
+     * @param mesh the mesh to validate, which is left unchanged
+     * @return the defects found in the mesh
+     */
+    public static Result validate(final MeshData mesh) {
+
+        final float[] points = mesh.getPoints();
+        int nonFinitePoints = 0;
+        for (int p = 0; p < points.length; p += 3) {
+            if (!isFinite(points[p]) || !isFinite(points[p + 1]) || !isFinite(points[p + 2])) {
+                nonFinitePoints++;
+            }
+        }
+
+        final int[] faces = mesh.getFaces();
+        final int faceCount = mesh.getFaceCount();
+        final FaceTable faceTable = new FaceTable(faceCount);
+        final long[] edges = new long[faceCount * 3];
+        int edgeCount = 0;
+        int degenerateFaces = 0;
+        int duplicateFaces = 0;
+        for (int face = 0; face < faceCount; face++) {
+            final int p0 = faces[face * 6];
+            final int p1 = faces[face * 6 + 2];
+            final int p2 = faces[face * 6 + 4];
+            if (isDegenerate(points, p0, p1, p2)) {
+                degenerateFaces++;
+                continue;
+            }
+            if (!faceTable.add(faces, face)) {
+                duplicateFaces++;
+                continue;
+            }
+            edges[edgeCount++] = edgeKey(p0, p1);
+            edges[edgeCount++] = edgeKey(p1, p2);
+            edges[edgeCount++] = edgeKey(p2, p0);
+        }
+
+        // an edge is manifold if it borders one or two faces, i.e. its key appears at most twice once sorted
+        Arrays.sort(edges, 0, edgeCount);
+        int nonManifoldEdges = 0;
+        for (int i = 0; i < edgeCount;) {
+            int end = i + 1;
+            while (end < edgeCount && edges[end] == edges[i]) {
+                end++;
+            }
+            if (end - i > 2) {
+                nonManifoldEdges++;
+            }
+            i = end;
+        }
+        return new Result(faceCount, nonFinitePoints, degenerateFaces, duplicateFaces, nonManifoldEdges);
+    }
+
+    private static void collectMeshes(final Node node, final Set<TriangleMesh> meshes) {
+
+        if (node instanceof MeshView && ((MeshView) node).getMesh() instanceof TriangleMesh) {
+            meshes.add(LevelOfDetail.getFullMesh((MeshView) node));
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                collectMeshes(child, meshes);
+            }
+        }
+    }
+
+    private static boolean isFinite(final float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+
+    /**
+     * Whether a face has a repeated point or three collinear points, so it covers no area.
+     */
+    private static boolean isDegenerate(final float[] points, final int p0, final int p1, final int p2) {
+
+        if (p0 == p1 || p1 == p2 || p2 == p0) {
+            return true;
+        }
+        final float ux = points[p1 * 3] - points[p0 * 3];
+        final float uy = points[p1 * 3 + 1] - points[p0 * 3 + 1];
+        final float uz = points[p1 * 3 + 2] - points[p0 * 3 + 2];
+        final float vx = points[p2 * 3] - points[p0 * 3];
+        final float vy = points[p2 * 3 + 1] - points[p0 * 3 + 1];
+        final float vz = points[p2 * 3 + 2] - points[p0 * 3 + 2];
+        return uy * vz - uz * vy == 0 && uz * vx - ux * vz == 0 && ux * vy - uy * vx == 0;
+    }
+
+    private static long edgeKey(final int a, final int b) {
+        return a < b ? (long) a << 32 | b : (long) b << 32 | a;
+    }
+
+    private static int mix(long hash) {
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+
+    /**
+     * The defects found in meshes.
+     */
+    public static final class Result {
+
+        private final long faceCount;
+        private final long nonFinitePointCount;
+        private final long degenerateFaceCount;
+        private final long duplicateFaceCount;
+        private final long nonManifoldEdgeCount;
+
+        Result(final long faceCount, final long nonFinitePointCount, final long degenerateFaceCount,
+                final long duplicateFaceCount, final long nonManifoldEdgeCount) {
+
+            this.faceCount = faceCount;
+            this.nonFinitePointCount = nonFinitePointCount;
+            this.degenerateFaceCount = degenerateFaceCount;
+            this.duplicateFaceCount = duplicateFaceCount;
+            this.nonManifoldEdgeCount = nonManifoldEdgeCount;
+        }
+
+        /**
+         * Combines the defects of two meshes, typically two meshes of the same model.
+         *
+         * @param other the result of the other mesh
+         * @return the combined result
+         */
+        public Result combine(final Result other) {
+            return new Result(faceCount + other.faceCount, nonFinitePointCount + other.nonFinitePointCount,
+                    degenerateFaceCount + other.degenerateFaceCount, duplicateFaceCount + other.duplicateFaceCount,
+                    nonManifoldEdgeCount + other.nonManifoldEdgeCount);
+        }
+
+        /**
+         * Gets the number of validated faces.
+         *
+         * @return the number of faces
+         */
+        public long getFaceCount() {
+            return faceCount;
+        }
+
+        /**
+         * Gets the number of points with a NaN or infinite coordinate.
+         *
+         * @return the number of non-finite points
+         */
+        public long getNonFinitePointCount() {
+            return nonFinitePointCount;
+        }
+
+        /**
+         * Gets the number of faces with a repeated point or collinear points.
+         *
+         * @return the number of degenerate faces
+         */
+        public long getDegenerateFaceCount() {
+            return degenerateFaceCount;
+        }
+
+        /**
+         * Gets the number of faces using the same points as a previous face, whatever their order.
+         *
+         * @return the number of duplicate faces
+         */
+        public long getDuplicateFaceCount() {
+            return duplicateFaceCount;
+        }
+
+        /**
+         * Gets the number of edges shared by more than two faces.
+         *
+         * @return the number of non-manifold edges
+         */
+        public long getNonManifoldEdgeCount() {
+            return nonManifoldEdgeCount;
+        }
+
+        /**
+         * Whether no defect was found.
+         *
+         * @return {@code true} if the meshes have no defect
+         */
+        public boolean isValid() {
+            return nonFinitePointCount == 0 && degenerateFaceCount == 0 && duplicateFaceCount == 0
+                    && nonManifoldEdgeCount == 0;
+        }
+
+        @Override
+        public String toString() {
+
+            if (isValid()) {
+                return "valid";
+            }
+            final StringBuilder builder = new StringBuilder();
+            append(builder, nonFinitePointCount, "non-finite points");
+            append(builder, degenerateFaceCount, "degenerate faces");
+            append(builder, duplicateFaceCount, "duplicate faces");
+            append(builder, nonManifoldEdgeCount, "non-manifold edges");
+            return builder.toString();
+        }
+
+        private static void append(final StringBuilder builder, final long count, final String defect) {
+
+            if (count > 0) {
+                builder.append(builder.length() > 0 ? ", " : "").append(count).append(' ').append(defect);
+            }
+        }
+    }
+
+    /**
+     * Open-addressing hash set of faces, keyed on their three point indices whatever their order, storing the index
+     * of each face in an int array.
+     */
+    private static final class FaceTable {
+
+        private final int[] slots;
+        private final int mask;
+
+        FaceTable(final int expectedFaces) {
+
+            // at most half full, so probe sequences stay short
+            final int capacity = Integer.highestOneBit(Math.max(expectedFaces, MIN_CAPACITY)) << 2;
+            slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            mask = capacity - 1;
+        }
+
+        /**
+         * Adds a face to the table if no face with the same points is present.
+         *
+         * @return {@code true} if the face was added, {@code false} if it is a duplicate
+         */
+        boolean add(final int[] faces, final int face) {
+
+            final int a = faces[face * 6];
+            final int b = faces[face * 6 + 2];
+            final int c = faces[face * 6 + 4];
+            // sum, product and xor of the indices do not depend on their order
+            int slot = mix(((long) (a + b + c) << 32) ^ ((long) a * b * c) ^ (a ^ b ^ c)) & mask;
+            while (slots[slot] >= 0) {
+                if (samePoints(faces, slots[slot], a, b, c)) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = face;
+            return true;
+        }
+
+        private static boolean samePoints(final int[] faces, final int face, final int a, final int b,
+                final int c) {
+
+            final int p0 = faces[face * 6];
+            final int p1 = faces[face * 6 + 2];
+            final int p2 = faces[face * 6 + 4];
+            // degenerate faces are not added, so faces with three distinct points match if each point is found
+            return (a == p0 || a == p1 || a == p2) && (b == p0 || b == p1 || b == p2)
+                    && (c == p0 || c == p1 || c == p2);
+        }
+    }
+}
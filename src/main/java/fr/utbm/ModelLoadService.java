@@ -0,0 +1,208 @@
+package fr.utbm;
+
+import javafx.application.Platform;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+import javafx.scene.Group;
+import javafx.scene.Node;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service loading 3D files in the background with {@link Importer3D}.
+ *
+ * <p>
+ * Restarting the service cancels the load in progress, whose thread is interrupted so the importer stops at its next
+ * cancellation point. Loads run on a small pool of daemon threads, which bounds the number of parses running at once
+ * even if an importer does not stop promptly. With progressive loading, the parts of the file are added to the
+ * {@link ViewerModel} as they are decoded, and the parts of a cancelled load are dropped. Flat meshes get their smooth
+ * shading from {@link MeshSmoother} in the background once handed over, unless their load is cancelled, fails or is
+ * replaced by the next one outside multi-model mode. Each load records its {@link LoadMetrics},
+ * including the time spent attaching parts to the scene.
+ * </p>
+ */
+public class ModelLoadService extends Service<Group> {
+
+    private static final int MAX_CONCURRENT_LOADS = 2;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(MAX_CONCURRENT_LOADS,
+            new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "model-loader-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final ObjectProperty<File> file = new SimpleObjectProperty<>(this, "file");
+    private final ReadOnlyObjectWrapper<LoadMetrics> metrics = new ReadOnlyObjectWrapper<>(this, "metrics");
+    private final ViewerModel model;
+    private final ImportOptions options;
+    private LoadTask task;
+
+    /**
+     * Creates a load service.
+     *
+     * @param model the model receiving the parts of progressive loads
+     * @param options the options of the imports
+     */
+    public ModelLoadService(final ViewerModel model, final ImportOptions options) {
+
+        this.model = model;
+        this.options = options;
+        setExecutor(EXECUTOR);
+    }
+
+    /**
+     * Property for the file to load.
+     *
+     * @return the file property
+     */
+    public ObjectProperty<File> fileProperty() {
+        return file;
+    }
+
+    /**
+     * Gets the file to load.
+     *
+     * @return the file to load
+     */
+    public File getFile() {
+        return file.get();
+    }
+
+    /**
+     * Sets the file to load on the next start of the service.
+     *
+     * @param file the file to load
+     */
+    public void setFile(final File file) {
+        this.file.set(file);
+    }
+
+    /**
+     * Gets the options of the imports.
+     *
+     * @return the import options
+     */
+    public ImportOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Property for the metrics of the last started load.
+     *
+     * @return the metrics property
+     */
+    public ReadOnlyObjectProperty<LoadMetrics> metricsProperty() {
+        return metrics.getReadOnlyProperty();
+    }
+
+    /**
+     * Gets the metrics of the last started load.
+     *
+     * @return the metrics of the load, or {@code null} if no load was started
+     */
+    public LoadMetrics getMetrics() {
+        return metrics.get();
+    }
+
+    @Override
+    protected Task<Group> createTask() {
+
+        discardTask();
+        final LoadMetrics taskMetrics = new LoadMetrics(getFile());
+        metrics.set(taskMetrics);
+        task = new LoadTask(getFile(), options.isProgressive(), taskMetrics);
+        return task;
+    }
+
+    @Override
+    public boolean cancel() {
+
+        discardTask();
+        return super.cancel();
+    }
+
+    /**
+     * Marks the content of the last load as discarded, which the next model replaces unless models are displayed side
+     * by side.
+     */
+    private void discardTask() {
+
+        if (task != null && !model.isMultiModel()) {
+            task.discarded = true;
+        }
+    }
+
+    /**
+     * Task loading one file, which also listens to the import to publish its progress and parts.
+     */
+    private final class LoadTask extends Task<Group> implements ImportListener, MeshSmoother.Owner {
+
+        private final File taskFile;
+        private final boolean progressive;
+        private final LoadMetrics taskMetrics;
+        private volatile boolean discarded;
+
+        LoadTask(final File taskFile, final boolean progressive, final LoadMetrics taskMetrics) {
+            this.taskFile = taskFile;
+            this.progressive = progressive;
+            this.taskMetrics = taskMetrics;
+        }
+
+        @Override
+        protected Group call() throws Exception {
+
+            updateProgress(-1, 1);
+            final Group content = Importer3D.load(taskFile.toURI().toURL().toString(), options,
+                    progressive ? this : null, taskMetrics);
+            MeshSmoother.smoothLater(content, options.getCreaseAngle(), taskMetrics, this);
+            return content;
+        }
+
+        @Override
+        protected void failed() {
+            discarded = true;
+        }
+
+        @Override
+        public boolean isDiscarded() {
+            return discarded || isCancelled();
+        }
+
+        @Override
+        public void progress(final long bytesRead, final long totalBytes) {
+            updateProgress(bytesRead, totalBytes);
+        }
+
+        @Override
+        public void partLoaded(final Node part) {
+
+            MeshSmoother.smoothLater(part, options.getCreaseAngle(), taskMetrics, this);
+            Platform.runLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        final long start = System.nanoTime();
+                        model.addContentPart(part);
+                        taskMetrics.endStage(LoadMetrics.Stage.ATTACH, start);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads in advance the files next to the displayed one in its directory, so stepping through a folder of models swaps
+ * in content already decoded instead of importing each file when asked.
+ *
+ * <p>
+ * The neighbours of a file are the supported files of its directory sorted by name, the next ones being loaded before
+ * the previous ones. They are imported with the options of the viewer on low priority daemon threads, whose parallel
+ * work also runs at low priority, see {@link ParallelDecoding}, and kept in a least recently used cache bounded by the
+ * size of their meshes. Prefetched content is accounted by the {@link GeometryMemoryManager} of the options, so it
+ * counts against the memory budget of the next loads; files which would only fit reduced are left to the regular
+ * load. A prefetched file is only handed over if it did not change since it was read.
+ * </p>
+ */
+public class ModelPrefetcher {
+
+    /**
+     * System property enabling the prefetch of the neighbours of the displayed file, {@code false} by default.
+     */
+    public static final String PREFETCH_PROPERTY = "fr.utbm.prefetch";
+
+    /**
+     * System property giving the number of files prefetched on each side of the displayed file.
+     */
+    public static final String DISTANCE_PROPERTY = "fr.utbm.prefetch.distance";
+
+    /**
+     * System property giving the size cap of the prefetched meshes in megabytes.
+     */
+    public static final String MAX_SIZE_PROPERTY = "fr.utbm.prefetch.maxSize";
+
+    private static final int DEFAULT_DISTANCE = 1;
+    private static final long DEFAULT_MAX_SIZE = 512;
+    private static final int PREFETCH_THREADS = 2;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PREFETCH_THREADS,
+            new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "model-prefetcher-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    private final ImportOptions options;
+    private final int distance;
+    private final long maxSize;
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<File, Future<?>> running = new HashMap<>();
+    private long size;
+
+    /**
+     * Creates a prefetcher configured by the system properties.
+     *
+     * @param options the options of the viewer, whose memory manager accounts the prefetched content
+     */
+    public ModelPrefetcher(final ImportOptions options) {
+        this(options, Integer.getInteger(DISTANCE_PROPERTY, DEFAULT_DISTANCE),
+                Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE) * 1024 * 1024);
+    }
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param options the options of the viewer, whose memory manager accounts the prefetched content
+     * @param distance the number of files prefetched on each side of the displayed file
+     * @param maxSize the maximum size of the prefetched meshes in bytes
+     */
+    public ModelPrefetcher(final ImportOptions options, final int distance, final long maxSize) {
+
+        // prefetched content is handed over whole, and shares nothing with the displayed models
+        this.options = new ImportOptions(options);
+        this.options.setProgressive(false);
+        this.options.setInstancer(null);
+        this.distance = distance;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Whether prefetching is enabled by the {@link #PREFETCH_PROPERTY} system property.
+     *
+     * @return {@code true} if the neighbours of the displayed file are to be prefetched
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(PREFETCH_PROPERTY, "false"));
+    }
+
+    /**
+     * Gets the neighbour of a file in its directory.
+     *
+     * @param file the file
+     * @param offset the position of the neighbour relative to the file, negative for the previous files
+     * @return the neighbour, or {@code null} if there is no supported file at that position
+     */
+    public static File getNeighbour(final File file, final int offset) {
+
+        final List<File> files = listModels(file.getAbsoluteFile().getParentFile());
+        final int index = files.indexOf(file.getAbsoluteFile());
+        return index >= 0 && index + offset >= 0 && index + offset < files.size() ? files.get(index + offset) : null;
+    }
+
+    /**
+     * Prefetches the neighbours of a file, in the background. The prefetches of other files still running are
+     * cancelled.
+     *
+     * @param file the displayed file
+     */
+    public synchronized void prefetchNeighbours(final File file) {
+
+        final List<File> files = listModels(file.getAbsoluteFile().getParentFile());
+        final int index = files.indexOf(file.getAbsoluteFile());
+        final List<File> neighbours = new ArrayList<>();
+        for (int offset = 1; offset <= distance && index >= 0; offset++) {
+            if (index + offset < files.size()) {
+                neighbours.add(files.get(index + offset));
+            }
+            if (index - offset >= 0) {
+                neighbours.add(files.get(index - offset));
+            }
+        }
+
+        for (Iterator<Map.Entry<File, Future<?>>> i = running.entrySet().iterator(); i.hasNext();) {
+            final Map.Entry<File, Future<?>> prefetch = i.next();
+            if (!neighbours.contains(prefetch.getKey())) {
+                prefetch.getValue().cancel(true);
+                i.remove();
+            }
+        }
+        for (final File neighbour : neighbours) {
+            final Entry entry = entries.get(neighbour);
+            if (entry != null && entry.isUpToDate() || running.containsKey(neighbour)) {
+                continue;
+            }
+            final Prefetch prefetch = new Prefetch(neighbour);
+            running.put(neighbour, prefetch.future);
+            EXECUTOR.execute(prefetch.future);
+        }
+    }
+
+    /**
+     * Takes the prefetched content of a file out of the cache.
+     *
+     * @param file the file to display
+     * @return the content of the file, no longer accounted by the memory manager, or {@code null} if it is not
+     *         prefetched or changed since
+     */
+    public synchronized Group take(final File file) {
+
+        final Entry entry = entries.remove(file.getAbsoluteFile());
+        if (entry == null) {
+            return null;
+        }
+        size -= entry.bytes;
+        if (!entry.isUpToDate()) {
+            release(entry);
+            return null;
+        }
+        if (options.getMemoryManager() != null) {
+            options.getMemoryManager().unregister(entry.content);
+        }
+        return entry.content;
+    }
+
+    /**
+     * Cancels the running prefetches and releases the prefetched content, e.g. to leave the whole memory budget to
+     * the load of a file which was not prefetched.
+     */
+    public synchronized void clear() {
+
+        for (Future<?> prefetch : running.values()) {
+            prefetch.cancel(true);
+        }
+        running.clear();
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Gets the size of the prefetched meshes.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private void prefetch(final File file, final Future<?> future) {
+
+        try {
+            final GeometryMemoryManager memoryManager = options.getMemoryManager();
+            if (memoryManager != null && memoryManager.plan(file, options).isReduced()) {
+                return;
+            }
+            final long length = file.length();
+            final long lastModified = file.lastModified();
+            final LoadMetrics metrics = new LoadMetrics(file);
+            final Group content = Importer3D.load(file.toURI().toURL().toString(), options, null, metrics);
+            // smoothed here, the smoothing thread being left to the displayed model
+            MeshSmoother.smooth(content, options.getCreaseAngle(), metrics);
+            put(file, future, new Entry(content, GeometryMemoryManager.sizeOf(content), length, lastModified, file));
+        } catch (IOException | RuntimeException e) {
+            // cancelled, or left to the regular load which reports the error
+        } finally {
+            // the file may be prefetched again by a later task
+            synchronized (this) {
+                running.remove(file, future);
+            }
+        }
+    }
+
+    private synchronized void put(final File file, final Future<?> future, final Entry entry) {
+
+        // a prefetch cancelled or submitted again once done is dropped
+        if (running.get(file) != future || entry.bytes > maxSize) {
+            release(entry);
+            return;
+        }
+        if (options.getMemoryManager() != null) {
+            options.getMemoryManager().register(entry.content);
+        }
+        final Entry previous = entries.put(file, entry);
+        if (previous != null) {
+            size -= previous.bytes;
+            release(previous);
+        }
+        size += entry.bytes;
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext() && size > maxSize;) {
+            final Entry eldest = i.next();
+            i.remove();
+            size -= eldest.bytes;
+            release(eldest);
+        }
+    }
+
+    private void release(final Entry entry) {
+
+        if (options.getMemoryManager() != null) {
+            options.getMemoryManager().release(entry.content);
+        }
+    }
+
+    /**
+     * Lists the supported files of a directory sorted by name.
+     */
+    private static List<File> listModels(final File directory) {
+
+        final ImporterRegistry registry = ImporterRegistry.getDefault();
+        final File[] files = directory != null ? directory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && registry.isSupported(file.getName());
+            }
+        }) : null;
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(final File a, final File b) {
+                return String.CASE_INSENSITIVE_ORDER.compare(a.getName(), b.getName());
+            }
+        });
+        final List<File> models = new ArrayList<>(files.length);
+        for (File file : files) {
+            models.add(file.getAbsoluteFile());
+        }
+        return models;
+    }
+
+    /**
+     * Prefetch of a file, run by its future so the prefetch knows which task of the file it is.
+     */
+    private final class Prefetch implements Runnable {
+
+        private final File file;
+        private final FutureTask<Void> future = new FutureTask<>(this, null);
+
+        Prefetch(final File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            prefetch(file, future);
+        }
+    }
+
+    /**
+     * Prefetched content of a file, with the size and modification time of the file when it was read.
+     */
+    private static final class Entry {
+
+        private final Group content;
+        private final long bytes;
+        private final long length;
+        private final long lastModified;
+        private final File file;
+
+        Entry(final Group content, final long bytes, final long length, final long lastModified, final File file) {
+
+            this.content = content;
+            this.bytes = bytes;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.file = file;
+        }
+
+        boolean isUpToDate() {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package fr.utbm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Native reader for Wavefront OBJ files.
+ *
+ * <p>
+ * The file is cut in chunks ending on line boundaries, which are memory-mapped and parsed in parallel in two passes.
+ * The first pass counts the points, texture coordinates and triangles of each chunk, so the second pass writes each
+ * chunk straight to its own slice of buffers sized exactly, resolving the relative indices of its faces from the
+ * counts of the previous chunks.
+ * </p>
+ *
+ * <p>
+ * Only the geometry is read: points, texture coordinates and faces, polygons being split in triangle fans. Normals,
+ * groups, materials and smoothing groups are ignored, the shading being computed by {@link MeshSmoother}, and lines
+ * continued with a backslash are not supported.
+ * </p>
+ */
+public final class ObjImporter {
+
+    private static final long CHUNK_SIZE = 1L << 23;
+    private static final int LINE_SEARCH_WINDOW = 1 << 16;
+    private static final int INTERRUPT_CHECK_MASK = (1 << 16) - 1;
+    private static final int MAX_TOKEN_LENGTH = 64;
+    private static final long MAX_POINTS = Integer.MAX_VALUE / 3;
+    private static final long MAX_TEX_COORDS = Integer.MAX_VALUE / 2 - 1;
+    private static final long MAX_TRIANGLES = Integer.MAX_VALUE / 6;
+
+    private ObjImporter() {
+    }
+
+    /**
+     * Reads an OBJ file.
+     *
+     * @param file the OBJ file to read
+     * @param parallelism the number of threads parsing the file, 1 to parse it on the calling thread, or 0 to use the
+     *            common fork-join pool
+     * @return the decoded mesh, whose texture coordinates end with a (0, 0) coordinate used by the faces having none
+     * @throws IOException if the file cannot be read or is malformed, or if the thread is interrupted
+     */
+    public static MeshData read(final File file, final int parallelism) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final Chunk[] chunks = split(channel);
+            parse(chunks, null, parallelism);
+            return fill(chunks, parallelism, file.getName());
+        }
+    }
+
+    /**
+     * Reads an OBJ file from a stream, e.g. while it is decompressed.
+     *
+     * <p>
+     * The stream is cut in chunks of whole lines kept in memory. Each chunk is counted as soon as it is read, while
+     * the stream goes on being decompressed on its own thread, then the chunks are parsed in parallel into the mesh
+     * buffers like the chunks of a file.
+     * </p>
+     *
+     * @param input the content of the OBJ file
+     * @param name the name of the file, for error messages
+     * @param parallelism the number of threads parsing the chunks, see {@link #read(File, int)}
+     * @return the decoded mesh
+     * @throws IOException if the stream cannot be read or is malformed, or if the thread is interrupted
+     */
+    public static MeshData read(final InputStream input, final String name, final int parallelism)
+            throws IOException {
+
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final List<Chunk> chunks = new ArrayList<>();
+        byte[] block = new byte[(int) CHUNK_SIZE];
+        int length = 0;
+        long start = 0;
+        boolean end = false;
+        while (!end) {
+            int count;
+            while (length < block.length && (count = input.read(block, length, block.length - length)) >= 0) {
+                length += count;
+            }
+            end = length < block.length;
+            int chunkEnd = length;
+            if (!end) {
+                while (chunkEnd > 0 && block[chunkEnd - 1] != '\n') {
+                    chunkEnd--;
+                }
+                if (chunkEnd == 0) {
+                    // a line longer than the block
+                    if (block.length > Integer.MAX_VALUE / 2) {
+                        throw new IOException("OBJ file has a line too long at offset " + start);
+                    }
+                    block = Arrays.copyOf(block, block.length * 2);
+                    continue;
+                }
+            }
+            if (chunkEnd > 0) {
+                final Chunk chunk = new Chunk(ByteBuffer.wrap(block, 0, chunkEnd), start);
+                chunk.parse(null, cancelled);
+                chunks.add(chunk);
+            }
+            if (!end) {
+                final byte[] next = new byte[Math.max((int) CHUNK_SIZE, length - chunkEnd)];
+                System.arraycopy(block, chunkEnd, next, 0, length - chunkEnd);
+                block = next;
+                length -= chunkEnd;
+                start += chunkEnd;
+            }
+        }
+        return fill(chunks.toArray(new Chunk[chunks.size()]), parallelism, name);
+    }
+
+    /**
+     * Sizes the mesh buffers from the counts of the chunks, then runs the parsing pass filling them.
+     *
+     * @param chunks the counted chunks of the file
+     * @param parallelism the number of threads parsing the chunks, see {@link #read(File, int)}
+     * @param name the name of the file, for error messages
+     * @return the decoded mesh
+     * @throws IOException if the file is too large or malformed, or if the thread is interrupted
+     */
+    private static MeshData fill(final Chunk[] chunks, final int parallelism, final String name)
+            throws IOException {
+
+        long pointCount = 0;
+        long texCoordCount = 0;
+        long triangleCount = 0;
+        for (Chunk chunk : chunks) {
+            chunk.pointBase = (int) pointCount;
+            chunk.texCoordBase = (int) texCoordCount;
+            chunk.triangleBase = (int) triangleCount;
+            pointCount += chunk.pointCount;
+            texCoordCount += chunk.texCoordCount;
+            triangleCount += chunk.triangleCount;
+            if (pointCount > MAX_POINTS || texCoordCount > MAX_TEX_COORDS || triangleCount > MAX_TRIANGLES) {
+                throw new IOException("OBJ file is too large [" + name + "]");
+            }
+        }
+
+        final Buffers buffers = new Buffers((int) pointCount, (int) texCoordCount, (int) triangleCount);
+        parse(chunks, buffers, parallelism);
+        return new MeshData(buffers.points, buffers.texCoords, buffers.faces, null);
+    }
+
+    /**
+     * Cuts a file in chunks of about {@link #CHUNK_SIZE} bytes, each ending after a line feed or at the end of the
+     * file.
+     *
+     * @param channel the channel of the file
+     * @return the chunks of the file
+     * @throws IOException if the file cannot be read or has a line too long to be mapped
+     */
+    private static Chunk[] split(final FileChannel channel) throws IOException {
+
+        final long size = channel.size();
+        final List<Chunk> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            final long end = size - start <= CHUNK_SIZE ? size : nextLine(channel, start + CHUNK_SIZE, size);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("OBJ file has a line too long at offset " + start);
+            }
+            chunks.add(new Chunk(channel.map(MapMode.READ_ONLY, start, end - start), start));
+            start = end;
+        }
+        return chunks.toArray(new Chunk[chunks.size()]);
+    }
+
+    private static long nextLine(final FileChannel channel, final long position, final long size)
+            throws IOException {
+
+        long windowStart = position;
+        while (windowStart < size) {
+            final MappedByteBuffer window = channel.map(MapMode.READ_ONLY, windowStart,
+                    Math.min(LINE_SEARCH_WINDOW, size - windowStart));
+            for (int i = 0; i < window.limit(); i++) {
+                if (window.get(i) == '\n') {
+                    return windowStart + i + 1;
+                }
+            }
+            windowStart += window.limit();
+        }
+        return size;
+    }
+
+    /**
+     * Runs a pass over all the chunks.
+     *
+     * @param chunks the chunks of the file
+     * @param buffers the buffers filled by the pass, or {@code null} for the counting pass
+     * @param parallelism the number of threads parsing the chunks, see {@link #read(File, int)}
+     * @throws IOException if a chunk is malformed or the pass is interrupted
+     */
+    private static void parse(final Chunk[] chunks, final Buffers buffers, final int parallelism)
+            throws IOException {
+
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        if (parallelism == 1 || chunks.length <= 1) {
+            for (Chunk chunk : chunks) {
+                chunk.parse(buffers, cancelled);
+            }
+        } else {
+            ParallelDecoding.run(new ParseTask(chunks, 0, chunks.length, buffers, cancelled), parallelism,
+                    cancelled);
+        }
+    }
+
+    private static boolean isBlank(final int c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * The buffers of the decoded mesh, sized by the counting pass.
+     */
+    private static final class Buffers {
+
+        private final float[] points;
+        private final float[] texCoords;
+        private final int[] faces;
+        private final int pointCount;
+        private final int texCoordCount;
+
+        Buffers(final int pointCount, final int texCoordCount, final int triangleCount) {
+
+            this.pointCount = pointCount;
+            this.texCoordCount = texCoordCount;
+            points = new float[pointCount * 3];
+            // the last coordinate, left to (0, 0), is used by faces without texture coordinates
+            texCoords = new float[(texCoordCount + 1) * 2];
+            faces = new int[triangleCount * 6];
+        }
+    }
+
+    /**
+     * A range of lines of the file, parsed by a single thread.
+     */
+    private static final class Chunk {
+
+        private final ByteBuffer buffer;
+        private final long start;
+        private final byte[] token = new byte[MAX_TOKEN_LENGTH];
+        private int position;
+        private int[] polygonPoints = new int[8];
+        private int[] polygonTexCoords = new int[8];
+
+        private int pointCount;
+        private int texCoordCount;
+        private int triangleCount;
+        private int pointBase;
+        private int texCoordBase;
+        private int triangleBase;
+
+        /**
+         * @param buffer the lines of the chunk, from index 0 to the limit of the buffer
+         * @param start the offset of the chunk in the file
+         */
+        Chunk(final ByteBuffer buffer, final long start) {
+            this.buffer = buffer;
+            this.start = start;
+        }
+
+        /**
+         * Parses the lines of the chunk.
+         *
+         * @param buffers the buffers receiving the geometry of the chunk, or {@code null} to only count it
+         * @param cancelled the flag cancelling the parsing, which also stops when the current thread is interrupted
+         * @throws IOException if the chunk is malformed or the parsing is cancelled
+         */
+        void parse(final Buffers buffers, final AtomicBoolean cancelled) throws IOException {
+
+            final int limit = buffer.limit();
+            position = 0;
+            int points = 0;
+            int texCoords = 0;
+            int triangles = 0;
+            for (int line = 0; position < limit; line++) {
+                if ((line & INTERRUPT_CHECK_MASK) == 0) {
+                    if (cancelled.get()) {
+                        throw new InterruptedIOException("Import cancelled");
+                    }
+                    Importer3D.checkInterrupted();
+                }
+                skipBlanks(limit);
+                final int c = peek(position, limit);
+                final int next = peek(position + 1, limit);
+                if (c == 'v' && isBlank(next)) {
+                    position++;
+                    if (buffers != null) {
+                        final int p = (pointBase + points) * 3;
+                        buffers.points[p] = nextFloat(limit);
+                        buffers.points[p + 1] = nextFloat(limit);
+                        buffers.points[p + 2] = nextFloat(limit);
+                    }
+                    points++;
+                } else if (c == 'v' && next == 't' && isBlank(peek(position + 2, limit))) {
+                    position += 2;
+                    if (buffers != null) {
+                        final int t = (texCoordBase + texCoords) * 2;
+                        buffers.texCoords[t] = nextFloat(limit);
+                        // OBJ texture coordinates start at the bottom of the image, JavaFX ones at the top
+                        final int length = nextToken(limit);
+                        buffers.texCoords[t + 1] = 1 - (length < 0 ? 0 : StlImporter.parseFloat(token, length));
+                    }
+                    texCoords++;
+                } else if (c == 'f' && isBlank(next)) {
+                    position++;
+                    triangles += buffers == null ? countTriangles(limit)
+                            : fillFace(buffers, pointBase + points, texCoordBase + texCoords,
+                                    triangleBase + triangles, limit);
+                }
+                skipLine(limit);
+            }
+            if (buffers == null) {
+                pointCount = points;
+                texCoordCount = texCoords;
+                triangleCount = triangles;
+            }
+        }
+
+        private int countTriangles(final int limit) {
+
+            int vertices = 0;
+            while (nextToken(limit) >= 0) {
+                vertices++;
+            }
+            return Math.max(vertices - 2, 0);
+        }
+
+        /**
+         * Parses a face and writes its triangle fan.
+         *
+         * @return the number of triangles written
+         */
+        private int fillFace(final Buffers buffers, final int pointsBefore, final int texCoordsBefore,
+                final int triangle, final int limit) throws IOException {
+
+            int vertices = 0;
+            int length;
+            while ((length = nextToken(limit)) >= 0) {
+                if (vertices == polygonPoints.length) {
+                    polygonPoints = Arrays.copyOf(polygonPoints, vertices * 2);
+                    polygonTexCoords = Arrays.copyOf(polygonTexCoords, vertices * 2);
+                }
+                // a vertex is written v, v/vt, v/vt/vn or v//vn
+                int i = 0;
+                while (i < length && token[i] != '/') {
+                    i++;
+                }
+                polygonPoints[vertices] = resolve(0, i, pointsBefore, buffers.pointCount);
+                int texCoord = buffers.texCoordCount;
+                if (i + 1 < length && token[i + 1] != '/') {
+                    int texCoordEnd = i + 1;
+                    while (texCoordEnd < length && token[texCoordEnd] != '/') {
+                        texCoordEnd++;
+                    }
+                    texCoord = resolve(i + 1, texCoordEnd, texCoordsBefore, buffers.texCoordCount);
+                }
+                polygonTexCoords[vertices] = texCoord;
+                vertices++;
+            }
+
+            final int[] faces = buffers.faces;
+            for (int k = 1; k < vertices - 1; k++) {
+                final int f = (triangle + k - 1) * 6;
+                faces[f] = polygonPoints[0];
+                faces[f + 1] = polygonTexCoords[0];
+                faces[f + 2] = polygonPoints[k];
+                faces[f + 3] = polygonTexCoords[k];
+                faces[f + 4] = polygonPoints[k + 1];
+                faces[f + 5] = polygonTexCoords[k + 1];
+            }
+            return Math.max(vertices - 2, 0);
+        }
+
+        /**
+         * Resolves an index of a face, either absolute and starting at 1, or relative to the last element when it is
+         * negative.
+         *
+         * @param from the first character of the index in the token
+         * @param to the character after the index in the token
+         * @param before the number of elements of the file before the face
+         * @param count the number of elements of the file
+         * @return the index starting at 0
+         * @throws IOException if the index is malformed or out of range
+         */
+        private int resolve(final int from, final int to, final int before, final int count) throws IOException {
+
+            int i = from;
+            final boolean negative = i < to && token[i] == '-';
+            if (negative || i < to && token[i] == '+') {
+                i++;
+            }
+            long value = 0;
+            for (; i < to && token[i] >= '0' && token[i] <= '9'; i++) {
+                value = Math.min(value * 10 + token[i] - '0', Integer.MAX_VALUE);
+            }
+            if (i != to || i == from || value == 0) {
+                throw new IOException("Invalid index in OBJ file face ["
+                        + new String(token, from, to - from, "US-ASCII") + "]");
+            }
+            final long index = negative ? before - value : value - 1;
+            if (index < 0 || index >= count) {
+                throw new IOException("Index out of range in OBJ file face [" + (negative ? -value : value) + "]");
+            }
+            return (int) index;
+        }
+
+        private float nextFloat(final int limit) throws IOException {
+
+            final int length = nextToken(limit);
+            if (length < 0) {
+                throw new IOException("Missing coordinate in OBJ file at offset " + (start + position));
+            }
+            return StlImporter.parseFloat(token, length);
+        }
+
+        /**
+         * Reads the next token of the current line, a comment ending the line.
+         *
+         * @return the length of the token, longer tokens being truncated, or -1 at the end of the line
+         */
+        private int nextToken(final int limit) {
+
+            while (position < limit && isBlank(buffer.get(position))) {
+                position++;
+            }
+            int length = 0;
+            int c;
+            while (position < limit && (c = buffer.get(position)) > ' ' && c != '#') {
+                if (length < token.length) {
+                    token[length++] = (byte) c;
+                }
+                position++;
+            }
+            return length > 0 ? length : -1;
+        }
+
+        private void skipBlanks(final int limit) {
+
+            int c;
+            while (position < limit && ((c = buffer.get(position)) == '\r' || isBlank(c))) {
+                position++;
+            }
+        }
+
+        private void skipLine(final int limit) {
+
+            while (position < limit && buffer.get(position) != '\n') {
+                position++;
+            }
+            position++;
+        }
+
+        private int peek(final int index, final int limit) {
+            return index < limit ? buffer.get(index) : -1;
+        }
+    }
+
+    /**
+     * Fork-join task splitting a range of chunks in halves until a single chunk is left to parse.
+     */
+    private static final class ParseTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Chunk[] chunks;
+        private final int from;
+        private final int to;
+        private final transient Buffers buffers;
+        private final AtomicBoolean cancelled;
+
+        ParseTask(final Chunk[] chunks, final int from, final int to, final Buffers buffers,
+                final AtomicBoolean cancelled) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.buffers = buffers;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from == 1) {
+                try {
+                    chunks[from].parse(buffers, cancelled);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new ParseTask(chunks, from, middle, buffers, cancelled),
+                    new ParseTask(chunks, middle, to, buffers, cancelled));
+        }
+    }
+}
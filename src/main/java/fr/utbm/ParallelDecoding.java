@@ -0,0 +1,101 @@
+package fr.utbm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the decoding tasks of the native importers on a fork-join pool.
+ *
+ * <p>
+ * Imports running on threads below the normal priority, such as prefetches and thumbnails, run their parallel work on
+ * workers of the same low priority rather than in the common pool, where it would queue ahead of the work of the
+ * displayed model.
+ * </p>
+ */
+final class ParallelDecoding {
+
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory LOW_PRIORITY_FACTORY =
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+                @Override
+                public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+
+                    final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                            .newThread(pool);
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            };
+
+    private static final ForkJoinPool BACKGROUND_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            LOW_PRIORITY_FACTORY, null, false);
+
+    private ParallelDecoding() {
+    }
+
+    /**
+     * Gets the pool running the parallel work of the current thread: its own pool for a fork-join worker, a pool of
+     * low priority workers for a thread below the normal priority, the common pool otherwise.
+     *
+     * @return the pool of the current thread
+     */
+    static ForkJoinPool getPool() {
+
+        if (ForkJoinTask.inForkJoinPool()) {
+            return ForkJoinTask.getPool();
+        }
+        return isBackground() ? BACKGROUND_POOL : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Runs a decoding task and waits for its completion.
+     *
+     * <p>
+     * Joining a fork-join task ignores interrupts, so the caller waits on a future instead and sets the cancellation
+     * flag polled by the task when it is interrupted. I/O errors of the task are wrapped in
+     * {@link UncheckedIOException} and rethrown as is.
+     * </p>
+     *
+     * @param task the task to run
+     * @param parallelism the number of threads running the task, or 0 to use the pool of the current thread, see
+     *            {@link #getPool()}
+     * @param cancelled the cancellation flag of the task
+     * @throws IOException if the task fails or the current thread is interrupted
+     */
+    static void run(final ForkJoinTask<?> task, final int parallelism, final AtomicBoolean cancelled)
+            throws IOException {
+
+        final ForkJoinPool pool = parallelism == 0 ? getPool() : isBackground()
+                ? new ForkJoinPool(parallelism, LOW_PRIORITY_FACTORY, null, false) : new ForkJoinPool(parallelism);
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            if (parallelism != 0) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static boolean isBackground() {
+        return Thread.currentThread().getPriority() < Thread.NORM_PRIORITY;
+    }
+}
@@ -0,0 +1,196 @@
+package fr.utbm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input stream reading its source on a thread of its own, so the decompression of a compressed file overlaps the
+ * parsing of the data already decompressed.
+ *
+ * <p>
+ * The source is read in blocks handed over through a bounded queue: the reading thread waits when the parser falls
+ * behind, so at most {@link #BLOCK_COUNT} blocks are held whatever the size of the file, and the blocks are recycled
+ * once read. Errors of the source are rethrown by the reads of the stream, after the blocks read before the error.
+ * </p>
+ */
+final class PipelinedInputStream extends InputStream {
+
+    /**
+     * Size of the blocks read from the source.
+     */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Number of blocks of the pipeline.
+     */
+    static final int BLOCK_COUNT = 8;
+
+    private static final Block END = new Block(0);
+
+    private final BlockingQueue<Block> filledBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+    private final BlockingQueue<Block> freeBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+    private final Thread reader;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    private Block block;
+    private int position;
+    private boolean ended;
+
+    /**
+     * Starts reading a source.
+     *
+     * @param source the source, closed once fully read or when this stream is closed
+     * @param name the name of the source, naming the reading thread
+     * @param metrics the metrics receiving the time spent reading the source in the
+     *            {@link LoadMetrics.Stage#DECOMPRESSION} stage, or {@code null}
+     */
+    PipelinedInputStream(final InputStream source, final String name, final LoadMetrics metrics) {
+
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            freeBlocks.add(new Block(BLOCK_SIZE));
+        }
+        reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                readSource(source, metrics);
+            }
+        }, "decompression-" + name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        if (!nextBlock()) {
+            return -1;
+        }
+        return block.data[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        final int count = Math.min(length, block.length - position);
+        System.arraycopy(block.data, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return block != null ? block.length - position : 0;
+    }
+
+    @Override
+    public void close() {
+
+        closed = true;
+        reader.interrupt();
+        // unblock the reading thread if it waits for a free block
+        filledBlocks.clear();
+        freeBlocks.offer(END);
+    }
+
+    /**
+     * Makes sure the current block has bytes left to read, waiting for the next one if needed.
+     *
+     * @return {@code false} at the end of the source
+     * @throws IOException if the source failed or the current thread is interrupted
+     */
+    private boolean nextBlock() throws IOException {
+
+        if (block != null && position < block.length) {
+            return true;
+        }
+        if (ended) {
+            return false;
+        }
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (block != null) {
+            freeBlocks.offer(block);
+            block = null;
+        }
+        final Block next;
+        try {
+            next = filledBlocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        }
+        if (next == END) {
+            ended = true;
+            if (failure != null) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+            return false;
+        }
+        block = next;
+        position = 0;
+        return true;
+    }
+
+    /**
+     * Loop of the reading thread, filling free blocks until the end of the source.
+     */
+    private void readSource(final InputStream source, final LoadMetrics metrics) {
+
+        try (InputStream input = source) {
+            while (!closed) {
+                final Block free = freeBlocks.take();
+                if (closed) {
+                    return;
+                }
+                final long start = System.nanoTime();
+                final byte[] data = free.data;
+                int length = 0;
+                int count = 0;
+                while (length < data.length && (count = input.read(data, length, data.length - length)) >= 0) {
+                    length += count;
+                }
+                if (metrics != null) {
+                    metrics.endStage(LoadMetrics.Stage.DECOMPRESSION, start);
+                }
+                free.length = length;
+                if (length > 0) {
+                    filledBlocks.put(free);
+                }
+                if (count < 0) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed by the parser
+            return;
+        } catch (IOException e) {
+            failure = e;
+        }
+        filledBlocks.offer(END);
+    }
+
+    /**
+     * A block of bytes read from the source.
+     */
+    private static final class Block {
+
+        private final byte[] data;
+        private int length;
+
+        Block(final int size) {
+            data = new byte[size];
+        }
+    }
+}
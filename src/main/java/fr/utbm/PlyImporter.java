@@ -0,0 +1,1031 @@
+package fr.utbm;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Native reader for binary and ASCII PLY files.
+ *
+ * <p>
+ * Binary files are memory-mapped: the fixed-size records of the vertices are split in ranges decoded in parallel
+ * straight into the point buffer, like {@link StlImporter} does. Faces are decoded in parallel too when they are all
+ * triangles with a fixed record size, which is checked while decoding them; files with other polygons have their faces
+ * decoded sequentially and split in triangle fans. ASCII files and streams are always read sequentially.
+ * </p>
+ *
+ * <p>
+ * Only the {@code x}, {@code y} and {@code z} coordinates and the texture coordinates ({@code u}/{@code v},
+ * {@code s}/{@code t} or {@code texture_u}/{@code texture_v}) of the vertices and the {@code vertex_indices} of the
+ * faces are read; the other properties and elements are skipped.
+ * </p>
+ */
+public final class PlyImporter {
+
+    private static final int MAX_HEADER_SIZE = 1 << 20;
+    private static final int PARALLEL_CHUNK_RECORDS = 1 << 16;
+    private static final int MAX_WINDOW_SIZE = 1 << 28;
+    private static final int STREAM_WINDOW_SIZE = 1 << 16;
+    private static final int INTERRUPT_CHECK_MASK = (1 << 16) - 1;
+    private static final int MAX_TOKEN_LENGTH = 64;
+    private static final long MAX_POINTS = Integer.MAX_VALUE / 3;
+    private static final long MAX_TRIANGLES = Integer.MAX_VALUE / 6;
+
+    private static final String VERTEX = "vertex";
+    private static final String FACE = "face";
+    private static final String[][] TEX_COORD_NAMES = { { "u", "v" }, { "s", "t" }, { "texture_u", "texture_v" } };
+
+    private PlyImporter() {
+    }
+
+    /**
+     * Reads a PLY file.
+     *
+     * @param file the PLY file to read
+     * @param parallelism the number of threads decoding a binary file, 1 to decode it on the calling thread, or 0 to
+     *            use the common fork-join pool
+     * @return the decoded mesh, with a texture coordinate per point if the vertices have some
+     * @throws IOException if the file cannot be read or is malformed, or if the thread is interrupted
+     */
+    public static MeshData read(final File file, final int parallelism) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            // the stream is not closed, it would close the channel before the data is mapped
+            final Header header = readHeader(new BufferedInputStream(Channels.newInputStream(channel)));
+            final Geometry geometry = createGeometry(header, file.toString());
+            if (header.order == null) {
+                readAscii(new StlImporter.ByteReader(channel, header.dataOffset, size), header, geometry);
+            } else {
+                readBinary(channel, new BinaryReader(channel, header.dataOffset, size, header.order), size, header,
+                        geometry, parallelism);
+            }
+            return geometry.toMeshData();
+        }
+    }
+
+    /**
+     * Reads a PLY file from a stream, such as the output of a decompression. The stream is read once, sequentially, so
+     * the records of binary files are decoded on the calling thread.
+     *
+     * @param input the stream to read, positioned at the start of the file
+     * @param name the name of the file, for the error messages
+     * @return the decoded mesh, with a texture coordinate per point if the vertices have some
+     * @throws IOException if the stream cannot be read or is malformed, or if the thread is interrupted
+     */
+    public static MeshData read(final InputStream input, final String name) throws IOException {
+
+        final Header header = readHeader(input);
+        final Geometry geometry = createGeometry(header, name);
+        if (header.order == null) {
+            readAscii(new StlImporter.ByteReader(input, -1), header, geometry);
+        } else {
+            readBinary(null, new BinaryReader(input, header.order), Long.MAX_VALUE, header, geometry, 1);
+        }
+        return geometry.toMeshData();
+    }
+
+    /**
+     * Reads the vertex and face counts declared by the header of a PLY file, without reading its data.
+     *
+     * @param file the PLY file
+     * @return the number of vertices then the number of faces, 0 for a missing element
+     * @throws IOException if the file cannot be read or its header is malformed
+     */
+    static long[] readElementCounts(final File file) throws IOException {
+
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            final Header header = readHeader(input);
+            final Element vertices = header.getElement(VERTEX);
+            final Element faces = header.getElement(FACE);
+            return new long[] { vertices != null ? vertices.count : 0, faces != null ? faces.count : 0 };
+        }
+    }
+
+    /**
+     * Checks the vertices and faces declared by a header and creates the buffers receiving them.
+     */
+    private static Geometry createGeometry(final Header header, final String name) throws IOException {
+
+        final Element vertices = header.getElement(VERTEX);
+        if (vertices == null || vertices.indexOf("x") < 0 || vertices.indexOf("y") < 0 || vertices.indexOf("z") < 0) {
+            throw new IOException("PLY file has no vertex coordinates [" + name + "]");
+        }
+        if (vertices.count > MAX_POINTS) {
+            throw new IOException("PLY file has too many vertices [" + vertices.count + "]");
+        }
+        final Element faces = header.getElement(FACE);
+        final int facePropertyIndex = faces != null ? faces.indexOf("vertex_indices", "vertex_index") : -1;
+        if (faces != null && (facePropertyIndex < 0 || faces.properties.get(facePropertyIndex).countType == null)) {
+            throw new IOException("PLY file has faces without vertex indices [" + name + "]");
+        }
+        return new Geometry(vertices);
+    }
+
+    /**
+     * Reads the header of a file, up to its {@code end_header} line, leaving the stream at the start of the data.
+     *
+     * @param input the stream of the file, positioned at its start
+     * @return the header of the file
+     * @throws IOException if the file is not a PLY file or its header is malformed
+     */
+    private static Header readHeader(final InputStream input) throws IOException {
+
+        final List<Element> elements = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        ByteOrder order = null;
+        boolean hasFormat = false;
+        long offset = 0;
+        int lineNumber = 0;
+        while (true) {
+            text.setLength(0);
+            int c;
+            while ((c = input.read()) >= 0 && c != '\n') {
+                if (++offset >= MAX_HEADER_SIZE) {
+                    throw new IOException("PLY header has no end_header line in its first " + MAX_HEADER_SIZE
+                            + " bytes");
+                }
+                text.append((char) c);
+            }
+            if (c < 0) {
+                throw new EOFException("PLY header has no end_header line");
+            }
+            offset++;
+            final String line = text.toString().trim();
+            final String[] words = line.split("\\s+");
+
+            if (lineNumber++ == 0) {
+                if (!"ply".equals(line)) {
+                    throw new IOException("Not a PLY file, missing ply magic number");
+                }
+            } else if ("format".equals(words[0]) && words.length >= 2) {
+                hasFormat = true;
+                if ("binary_little_endian".equals(words[1])) {
+                    order = ByteOrder.LITTLE_ENDIAN;
+                } else if ("binary_big_endian".equals(words[1])) {
+                    order = ByteOrder.BIG_ENDIAN;
+                } else if (!"ascii".equals(words[1])) {
+                    throw new IOException("Unsupported PLY format [" + words[1] + "]");
+                }
+            } else if ("element".equals(words[0]) && words.length == 3) {
+                try {
+                    elements.add(new Element(words[1], Long.parseLong(words[2])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid PLY element count [" + line + "]", e);
+                }
+            } else if ("property".equals(words[0]) && words.length >= 3 && !elements.isEmpty()) {
+                final Element element = elements.get(elements.size() - 1);
+                if ("list".equals(words[1]) && words.length == 5) {
+                    element.properties.add(new Property(words[4], Type.forName(words[3]), Type.forName(words[2])));
+                } else if (words.length == 3) {
+                    element.properties.add(new Property(words[2], Type.forName(words[1]), null));
+                } else {
+                    throw new IOException("Invalid PLY property [" + line + "]");
+                }
+            } else if ("end_header".equals(words[0])) {
+                if (!hasFormat) {
+                    throw new IOException("PLY file has no format");
+                }
+                return new Header(order, offset, elements);
+            }
+        }
+    }
+
+    /**
+     * Decodes the data of a binary file.
+     *
+     * @param channel the channel of the file, or {@code null} to decode the records sequentially from the reader
+     * @param reader the reader, positioned at the start of the data
+     * @param size the size of the file, {@link Long#MAX_VALUE} for a stream
+     */
+    private static void readBinary(final FileChannel channel, final BinaryReader reader, final long size,
+            final Header header, final Geometry geometry, final int parallelism) throws IOException {
+
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        boolean verticesRead = false;
+        boolean facesRead = false;
+        for (Element element : header.elements) {
+            if (element.name.equals(VERTEX)) {
+                final int stride = element.getRecordSize();
+                if (stride < 0) {
+                    throw new IOException("PLY vertices with list properties are not supported");
+                }
+                if (channel == null) {
+                    for (int vertex = 0; vertex < element.count; vertex++) {
+                        if ((vertex & INTERRUPT_CHECK_MASK) == 0) {
+                            Importer3D.checkInterrupted();
+                        }
+                        final int offset = reader.advance(stride);
+                        geometry.decodeVertex(reader.window, offset, vertex);
+                    }
+                } else {
+                    final long offset = reader.position();
+                    checkSize(offset + element.count * stride, size);
+                    final VertexTask task = new VertexTask(channel, header.order, offset, stride, geometry, 0,
+                            (int) element.count, cancelled);
+                    if (parallelism == 1 || element.count <= PARALLEL_CHUNK_RECORDS) {
+                        task.decode();
+                    } else {
+                        ParallelDecoding.run(task, parallelism, cancelled);
+                    }
+                    reader.skip(element.count * stride);
+                }
+                verticesRead = true;
+            } else if (element.name.equals(FACE)) {
+                if (channel == null || !readTriangles(channel, size, header.order, reader, element, geometry,
+                        parallelism)) {
+                    readFaces(reader, element, geometry);
+                }
+                facesRead = true;
+            } else {
+                skip(reader, element);
+            }
+            if (verticesRead && facesRead) {
+                // the other elements are not used
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decodes in parallel faces which are all triangles with a fixed record size, then moves the reader past them.
+     *
+     * @return {@code false} if the faces are not all triangles, in which case they are left to the sequential decoding
+     */
+    private static boolean readTriangles(final FileChannel channel, final long size, final ByteOrder order,
+            final BinaryReader reader, final Element element, final Geometry geometry, final int parallelism)
+            throws IOException {
+
+        final long offset = reader.position();
+        final int indices = element.indexOf("vertex_indices", "vertex_index");
+        final Property list = element.properties.get(indices);
+        int listOffset = 0;
+        int stride = 0;
+        for (int i = 0; i < element.properties.size(); i++) {
+            final Property property = element.properties.get(i);
+            if (i == indices) {
+                listOffset = stride;
+                stride += list.countType.size + 3 * list.type.size;
+            } else if (property.countType != null) {
+                return false;
+            } else {
+                stride += property.type.size;
+            }
+        }
+        if (element.count > MAX_TRIANGLES || offset + element.count * stride > size) {
+            return false;
+        }
+
+        geometry.faces = new int[(int) element.count * 6];
+        geometry.faceCount = (int) element.count;
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final AtomicBoolean notTriangles = new AtomicBoolean();
+        final TriangleTask task = new TriangleTask(channel, order, offset, stride, listOffset, list, geometry, 0,
+                (int) element.count, cancelled, notTriangles);
+        if (parallelism == 1 || element.count <= PARALLEL_CHUNK_RECORDS) {
+            task.decode();
+        } else {
+            ParallelDecoding.run(task, parallelism, cancelled);
+        }
+        if (notTriangles.get()) {
+            geometry.faces = null;
+            geometry.faceCount = 0;
+            return false;
+        }
+        reader.skip(element.count * stride);
+        return true;
+    }
+
+    /**
+     * Decodes faces sequentially, splitting polygons in triangle fans.
+     */
+    private static void readFaces(final BinaryReader reader, final Element element, final Geometry geometry)
+            throws IOException {
+
+        final int indices = element.indexOf("vertex_indices", "vertex_index");
+        int[] faces = new int[(int) Math.min(element.count, MAX_TRIANGLES) * 6];
+        int triangles = 0;
+        for (long face = 0; face < element.count; face++) {
+            if ((face & INTERRUPT_CHECK_MASK) == 0) {
+                Importer3D.checkInterrupted();
+            }
+            for (int i = 0; i < element.properties.size(); i++) {
+                final Property property = element.properties.get(i);
+                if (i != indices) {
+                    skip(reader, property);
+                    continue;
+                }
+                final long count = reader.readInteger(property.countType);
+                if (count < 0 || count > Integer.MAX_VALUE) {
+                    throw new IOException("Invalid PLY face size [" + count + "]");
+                }
+                final int first = geometry.checkIndex(count > 0 ? reader.readInteger(property.type) : 0);
+                int previous = count > 1 ? geometry.checkIndex(reader.readInteger(property.type)) : 0;
+                for (long k = 2; k < count; k++) {
+                    final int current = geometry.checkIndex(reader.readInteger(property.type));
+                    if (triangles * 6L + 6 > faces.length) {
+                        final long capacity = Math.min(faces.length + (faces.length >> 1) + 6L, MAX_TRIANGLES * 6);
+                        if (capacity < triangles * 6L + 6) {
+                            throw new IOException("PLY file has too many triangles");
+                        }
+                        faces = Arrays.copyOf(faces, (int) capacity);
+                    }
+                    geometry.setTriangle(faces, triangles++, first, previous, current);
+                    previous = current;
+                }
+            }
+        }
+        geometry.faces = faces;
+        geometry.faceCount = triangles;
+    }
+
+    private static void skip(final BinaryReader reader, final Element element) throws IOException {
+
+        final int recordSize = element.getRecordSize();
+        if (recordSize >= 0) {
+            reader.skip(element.count * recordSize);
+            return;
+        }
+        for (long record = 0; record < element.count; record++) {
+            for (Property property : element.properties) {
+                skip(reader, property);
+            }
+        }
+    }
+
+    private static void skip(final BinaryReader reader, final Property property) throws IOException {
+
+        if (property.countType == null) {
+            reader.skip(property.type.size);
+        } else {
+            reader.skip(reader.readInteger(property.countType) * property.type.size);
+        }
+    }
+
+    private static void readAscii(final StlImporter.ByteReader reader, final Header header,
+            final Geometry geometry) throws IOException {
+
+        final byte[] token = new byte[MAX_TOKEN_LENGTH];
+        boolean verticesRead = false;
+        boolean facesRead = false;
+        for (Element element : header.elements) {
+            final boolean isVertex = element.name.equals(VERTEX);
+            final boolean isFace = element.name.equals(FACE);
+            final int indices = isFace ? element.indexOf("vertex_indices", "vertex_index") : -1;
+            int[] faces = isFace ? new int[(int) Math.min(element.count, MAX_TRIANGLES) * 6] : null;
+            int triangles = 0;
+            for (long record = 0; record < element.count; record++) {
+                if ((record & INTERRUPT_CHECK_MASK) == 0) {
+                    Importer3D.checkInterrupted();
+                }
+                for (int i = 0; i < element.properties.size(); i++) {
+                    final Property property = element.properties.get(i);
+                    if (property.countType == null) {
+                        final int length = nextToken(reader, token);
+                        if (isVertex) {
+                            geometry.setVertexProperty((int) record, i, StlImporter.parseFloat(token, length));
+                        }
+                        continue;
+                    }
+                    final long count = parseInteger(token, nextToken(reader, token));
+                    if (i != indices) {
+                        for (long k = 0; k < count; k++) {
+                            nextToken(reader, token);
+                        }
+                        continue;
+                    }
+                    final int first = geometry.checkIndex(count > 0 ? parseInteger(token, nextToken(reader, token))
+                            : 0);
+                    int previous = count > 1 ? geometry.checkIndex(parseInteger(token, nextToken(reader, token))) : 0;
+                    for (long k = 2; k < count; k++) {
+                        final int current = geometry.checkIndex(parseInteger(token, nextToken(reader, token)));
+                        if (triangles * 6L + 6 > faces.length) {
+                            final long capacity = Math.min(faces.length + (faces.length >> 1) + 6L,
+                                    MAX_TRIANGLES * 6);
+                            if (capacity < triangles * 6L + 6) {
+                                throw new IOException("PLY file has too many triangles");
+                            }
+                            faces = Arrays.copyOf(faces, (int) capacity);
+                        }
+                        geometry.setTriangle(faces, triangles++, first, previous, current);
+                        previous = current;
+                    }
+                }
+            }
+            if (isFace) {
+                geometry.faces = faces;
+                geometry.faceCount = triangles;
+                facesRead = true;
+            }
+            verticesRead |= isVertex;
+            if (verticesRead && facesRead) {
+                // the other elements are not used
+                return;
+            }
+        }
+    }
+
+    private static int nextToken(final StlImporter.ByteReader reader, final byte[] token) throws IOException {
+
+        final int length = reader.nextToken(token);
+        if (length < 0) {
+            throw new EOFException("Unexpected end of ASCII PLY file");
+        }
+        return length;
+    }
+
+    private static long parseInteger(final byte[] token, final int length) throws IOException {
+
+        int i = 0;
+        final boolean negative = length > 0 && token[0] == '-';
+        if (negative || length > 0 && token[0] == '+') {
+            i++;
+        }
+        long value = 0;
+        for (; i < length && token[i] >= '0' && token[i] <= '9'; i++) {
+            value = Math.min(value * 10 + token[i] - '0', 1L << 40);
+        }
+        if (i != length || length == 0) {
+            throw new IOException("Invalid integer in ASCII PLY file ["
+                    + new String(token, 0, length, StandardCharsets.US_ASCII) + "]");
+        }
+        return negative ? -value : value;
+    }
+
+    private static void checkSize(final long end, final long size) throws IOException {
+
+        if (end > size) {
+            throw new EOFException("Truncated PLY file, expected " + end + " bytes but found " + size);
+        }
+    }
+
+    /**
+     * Type of a PLY property.
+     */
+    private enum Type {
+
+        INT8(1), UINT8(1), INT16(2), UINT16(2), INT32(4), UINT32(4), FLOAT32(4), FLOAT64(8);
+
+        private final int size;
+
+        Type(final int size) {
+            this.size = size;
+        }
+
+        static Type forName(final String name) throws IOException {
+
+            switch (name) {
+            case "char":
+            case "int8":
+                return INT8;
+            case "uchar":
+            case "uint8":
+                return UINT8;
+            case "short":
+            case "int16":
+                return INT16;
+            case "ushort":
+            case "uint16":
+                return UINT16;
+            case "int":
+            case "int32":
+                return INT32;
+            case "uint":
+            case "uint32":
+                return UINT32;
+            case "float":
+            case "float32":
+                return FLOAT32;
+            case "double":
+            case "float64":
+                return FLOAT64;
+            default:
+                throw new IOException("Unknown PLY property type [" + name + "]");
+            }
+        }
+
+        double read(final ByteBuffer buffer, final int offset) {
+
+            switch (this) {
+            case FLOAT32:
+                return buffer.getFloat(offset);
+            case FLOAT64:
+                return buffer.getDouble(offset);
+            default:
+                return readInteger(buffer, offset);
+            }
+        }
+
+        long readInteger(final ByteBuffer buffer, final int offset) {
+
+            switch (this) {
+            case INT8:
+                return buffer.get(offset);
+            case UINT8:
+                return buffer.get(offset) & 0xFF;
+            case INT16:
+                return buffer.getShort(offset);
+            case UINT16:
+                return buffer.getShort(offset) & 0xFFFF;
+            case INT32:
+                return buffer.getInt(offset);
+            case UINT32:
+                return buffer.getInt(offset) & 0xFFFFFFFFL;
+            case FLOAT32:
+                return (long) buffer.getFloat(offset);
+            default:
+                return (long) buffer.getDouble(offset);
+            }
+        }
+    }
+
+    /**
+     * A property of an element, either a scalar or a list of scalars preceded by their count.
+     */
+    private static final class Property {
+
+        private final String name;
+        private final Type type;
+        private final Type countType;
+
+        Property(final String name, final Type type, final Type countType) {
+            this.name = name;
+            this.type = type;
+            this.countType = countType;
+        }
+    }
+
+    /**
+     * An element declared in the header, with its record count and properties.
+     */
+    private static final class Element {
+
+        private final String name;
+        private final long count;
+        private final List<Property> properties = new ArrayList<>();
+
+        Element(final String name, final long count) throws IOException {
+
+            if (count < 0) {
+                throw new IOException("Invalid PLY element count [" + count + "]");
+            }
+            this.name = name;
+            this.count = count;
+        }
+
+        int indexOf(final String... names) {
+
+            for (int i = 0; i < properties.size(); i++) {
+                for (String propertyName : names) {
+                    if (properties.get(i).name.equals(propertyName)) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Gets the size of a binary record of the element.
+         *
+         * @return the size in bytes, or -1 if the element has list properties
+         */
+        int getRecordSize() {
+
+            int size = 0;
+            for (Property property : properties) {
+                if (property.countType != null) {
+                    return -1;
+                }
+                size += property.type.size;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * The header of a file.
+     */
+    private static final class Header {
+
+        private final ByteOrder order;
+        private final long dataOffset;
+        private final List<Element> elements;
+
+        /**
+         * @param order the byte order of a binary file, or {@code null} for an ASCII file
+         */
+        Header(final ByteOrder order, final long dataOffset, final List<Element> elements) {
+            this.order = order;
+            this.dataOffset = dataOffset;
+            this.elements = elements;
+        }
+
+        Element getElement(final String name) {
+
+            for (Element element : elements) {
+                if (element.name.equals(name)) {
+                    return element;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The buffers of the decoded mesh, with the position of the read vertex properties.
+     */
+    private static final class Geometry {
+
+        private final int vertexCount;
+        private final float[] points;
+        private final float[] texCoords;
+        private final Type[] types;
+        private final int[] offsets;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final int u;
+        private final int v;
+        private int[] faces;
+        private int faceCount;
+
+        Geometry(final Element vertices) {
+
+            vertexCount = (int) vertices.count;
+            points = new float[vertexCount * 3];
+            types = new Type[vertices.properties.size()];
+            offsets = new int[types.length];
+            for (int i = 0, offset = 0; i < types.length; i++) {
+                types[i] = vertices.properties.get(i).type;
+                offsets[i] = offset;
+                offset += types[i].size;
+            }
+            x = vertices.indexOf("x");
+            y = vertices.indexOf("y");
+            z = vertices.indexOf("z");
+            int uIndex = -1;
+            int vIndex = -1;
+            for (String[] names : TEX_COORD_NAMES) {
+                if (uIndex < 0 || vIndex < 0) {
+                    uIndex = vertices.indexOf(names[0]);
+                    vIndex = vertices.indexOf(names[1]);
+                }
+            }
+            u = vIndex >= 0 ? uIndex : -1;
+            v = uIndex >= 0 ? vIndex : -1;
+            texCoords = u >= 0 ? new float[vertexCount * 2] : new float[] { 0, 0 };
+        }
+
+        void setVertexProperty(final int vertex, final int property, final double value) {
+
+            if (property == x) {
+                points[vertex * 3] = (float) value;
+            } else if (property == y) {
+                points[vertex * 3 + 1] = (float) value;
+            } else if (property == z) {
+                points[vertex * 3 + 2] = (float) value;
+            } else if (property == u) {
+                texCoords[vertex * 2] = (float) value;
+            } else if (property == v) {
+                // PLY texture coordinates start at the bottom of the image, JavaFX ones at the top
+                texCoords[vertex * 2 + 1] = (float) (1 - value);
+            }
+        }
+
+        /**
+         * Decodes a binary vertex record, whose properties are all scalars.
+         *
+         * @param buffer the buffer holding the record
+         * @param offset the offset of the record in the buffer
+         * @param vertex the index of the vertex
+         */
+        void decodeVertex(final ByteBuffer buffer, final int offset, final int vertex) {
+
+            final int p = vertex * 3;
+            points[p] = (float) types[x].read(buffer, offset + offsets[x]);
+            points[p + 1] = (float) types[y].read(buffer, offset + offsets[y]);
+            points[p + 2] = (float) types[z].read(buffer, offset + offsets[z]);
+            if (u >= 0) {
+                texCoords[vertex * 2] = (float) types[u].read(buffer, offset + offsets[u]);
+                texCoords[vertex * 2 + 1] = (float) (1 - types[v].read(buffer, offset + offsets[v]));
+            }
+        }
+
+        int checkIndex(final long index) throws IOException {
+
+            if (index < 0 || index >= vertexCount) {
+                throw new IOException("Vertex index out of range in PLY file face [" + index + "]");
+            }
+            return (int) index;
+        }
+
+        void setTriangle(final int[] buffer, final int triangle, final int p0, final int p1, final int p2) {
+
+            final int f = triangle * 6;
+            final boolean hasTexCoords = u >= 0;
+            buffer[f] = p0;
+            buffer[f + 1] = hasTexCoords ? p0 : 0;
+            buffer[f + 2] = p1;
+            buffer[f + 3] = hasTexCoords ? p1 : 0;
+            buffer[f + 4] = p2;
+            buffer[f + 5] = hasTexCoords ? p2 : 0;
+        }
+
+        MeshData toMeshData() {
+
+            final int[] meshFaces = faces == null ? new int[0]
+                    : faces.length == faceCount * 6 ? faces : Arrays.copyOf(faces, faceCount * 6);
+            return new MeshData(points, texCoords, meshFaces, null);
+        }
+    }
+
+    /**
+     * Sequential reader of binary values, mapping the file window by window so files larger than 2 GB can be read, or
+     * reading a stream through a heap window.
+     */
+    private static final class BinaryReader {
+
+        private final FileChannel channel;
+        private final InputStream input;
+        private final long size;
+        private final ByteOrder order;
+        private long windowStart;
+        private ByteBuffer window;
+
+        BinaryReader(final FileChannel channel, final long position, final long size, final ByteOrder order) {
+            this.channel = channel;
+            this.size = size;
+            this.order = order;
+            input = null;
+            windowStart = position;
+        }
+
+        BinaryReader(final InputStream input, final ByteOrder order) {
+            this.input = input;
+            this.order = order;
+            size = Long.MAX_VALUE;
+            channel = null;
+        }
+
+        long position() {
+            return windowStart + (window != null ? window.position() : 0);
+        }
+
+        long readInteger(final Type type) throws IOException {
+
+            final int offset = advance(type.size);
+            return type.readInteger(window, offset);
+        }
+
+        void skip(final long bytes) throws IOException {
+
+            if (bytes < 0) {
+                throw new IOException("Invalid PLY list size [" + bytes + "]");
+            }
+            if (window != null && window.remaining() >= bytes) {
+                window.position(window.position() + (int) bytes);
+                return;
+            }
+            if (input != null) {
+                for (long left = bytes; left > 0; left -= STREAM_WINDOW_SIZE) {
+                    advance((int) Math.min(left, STREAM_WINDOW_SIZE));
+                }
+                return;
+            }
+            final long target = position() + bytes;
+            checkSize(target, size);
+            windowStart = target;
+            window = null;
+        }
+
+        /**
+         * Moves past the next bytes, mapping or reading a new window if they are not all in the current one.
+         *
+         * @return the offset of the bytes in the window
+         */
+        private int advance(final int bytes) throws IOException {
+
+            if (window == null || window.remaining() < bytes) {
+                if (input != null) {
+                    fill(bytes);
+                } else {
+                    final long position = position();
+                    checkSize(position + bytes, size);
+                    windowStart = position;
+                    window = channel.map(MapMode.READ_ONLY, position, Math.min(MAX_WINDOW_SIZE, size - position));
+                    window.order(order);
+                }
+            }
+            final int offset = window.position();
+            window.position(offset + bytes);
+            return offset;
+        }
+
+        /**
+         * Reads the stream until the window holds at least the given number of bytes, keeping the unread ones.
+         */
+        private void fill(final int bytes) throws IOException {
+
+            final ByteBuffer previous = window;
+            if (previous == null || previous.capacity() < bytes) {
+                window = ByteBuffer.allocate(Math.max(STREAM_WINDOW_SIZE, bytes)).order(order);
+                if (previous != null) {
+                    windowStart += previous.position();
+                    window.put(previous);
+                }
+            } else {
+                windowStart += window.position();
+                window.compact();
+            }
+            while (window.position() < bytes) {
+                final int count = input.read(window.array(), window.position(), window.remaining());
+                if (count < 0) {
+                    throw new EOFException("Truncated PLY file, expected " + (windowStart + bytes) + " bytes but found "
+                            + (windowStart + window.position()));
+                }
+                window.position(window.position() + count);
+            }
+            window.flip();
+        }
+    }
+
+    /**
+     * Fork-join task splitting a range of binary vertex records in halves until they are small enough to be decoded.
+     */
+    private static final class VertexTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final transient ByteOrder order;
+        private final long offset;
+        private final int stride;
+        private final transient Geometry geometry;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean cancelled;
+
+        VertexTask(final FileChannel channel, final ByteOrder order, final long offset, final int stride,
+                final Geometry geometry, final int from, final int to, final AtomicBoolean cancelled) {
+            this.channel = channel;
+            this.order = order;
+            this.offset = offset;
+            this.stride = stride;
+            this.geometry = geometry;
+            this.from = from;
+            this.to = to;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from <= PARALLEL_CHUNK_RECORDS) {
+                try {
+                    decode();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new VertexTask(channel, order, offset, stride, geometry, from, middle, cancelled),
+                    new VertexTask(channel, order, offset, stride, geometry, middle, to, cancelled));
+        }
+
+        /**
+         * Decodes the records of the task, mapping at most {@link #MAX_WINDOW_SIZE} bytes at a time.
+         */
+        void decode() throws IOException {
+
+            final int windowRecords = Math.max(MAX_WINDOW_SIZE / Math.max(stride, 1), 1);
+            int vertex = from;
+            while (vertex < to) {
+                final int records = Math.min(to - vertex, windowRecords);
+                final MappedByteBuffer window = channel.map(MapMode.READ_ONLY, offset + (long) vertex * stride,
+                        (long) records * stride);
+                window.order(order);
+                for (int record = 0; record < records; record++, vertex++) {
+                    if ((record & INTERRUPT_CHECK_MASK) == 0) {
+                        if (cancelled.get()) {
+                            throw new InterruptedIOException("Import cancelled");
+                        }
+                        Importer3D.checkInterrupted();
+                    }
+                    geometry.decodeVertex(window, record * stride, vertex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fork-join task splitting a range of binary face records in halves until they are small enough to be decoded,
+     * each face being expected to be a triangle.
+     */
+    private static final class TriangleTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final transient ByteOrder order;
+        private final long offset;
+        private final int stride;
+        private final int listOffset;
+        private final transient Property list;
+        private final transient Geometry geometry;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean cancelled;
+        private final AtomicBoolean notTriangles;
+
+        TriangleTask(final FileChannel channel, final ByteOrder order, final long offset, final int stride,
+                final int listOffset, final Property list, final Geometry geometry, final int from, final int to,
+                final AtomicBoolean cancelled, final AtomicBoolean notTriangles) {
+            this.channel = channel;
+            this.order = order;
+            this.offset = offset;
+            this.stride = stride;
+            this.listOffset = listOffset;
+            this.list = list;
+            this.geometry = geometry;
+            this.from = from;
+            this.to = to;
+            this.cancelled = cancelled;
+            this.notTriangles = notTriangles;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from <= PARALLEL_CHUNK_RECORDS) {
+                try {
+                    decode();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new TriangleTask(channel, order, offset, stride, listOffset, list, geometry, from, middle,
+                    cancelled, notTriangles), new TriangleTask(channel, order, offset, stride, listOffset, list,
+                            geometry, middle, to, cancelled, notTriangles));
+        }
+
+        /**
+         * Decodes the records of the task, mapping at most {@link #MAX_WINDOW_SIZE} bytes at a time. Stops as soon as
+         * a face which is not a triangle is found, setting the {@code notTriangles} flag.
+         */
+        void decode() throws IOException {
+
+            final int windowRecords = Math.max(MAX_WINDOW_SIZE / stride, 1);
+            final int indexSize = list.type.size;
+            int face = from;
+            while (face < to) {
+                final int records = Math.min(to - face, windowRecords);
+                final MappedByteBuffer window = channel.map(MapMode.READ_ONLY, offset + (long) face * stride,
+                        (long) records * stride);
+                window.order(order);
+                for (int record = 0; record < records; record++, face++) {
+                    if ((record & INTERRUPT_CHECK_MASK) == 0) {
+                        if (cancelled.get()) {
+                            throw new InterruptedIOException("Import cancelled");
+                        }
+                        Importer3D.checkInterrupted();
+                        if (notTriangles.get()) {
+                            return;
+                        }
+                    }
+                    final int count = record * stride + listOffset;
+                    if (list.countType.readInteger(window, count) != 3) {
+                        notTriangles.set(true);
+                        return;
+                    }
+                    final int first = count + list.countType.size;
+                    geometry.setTriangle(geometry.faces, face,
+                            geometry.checkIndex(list.type.readInteger(window, first)),
+                            geometry.checkIndex(list.type.readInteger(window, first + indexSize)),
+                            geometry.checkIndex(list.type.readInteger(window, first + 2 * indexSize)));
+                }
+            }
+        }
+    }
+}
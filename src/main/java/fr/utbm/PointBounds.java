@@ -0,0 +1,114 @@
+package fr.utbm;
+
+import javafx.collections.ObservableFloatArray;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the axis-aligned bounds of point arrays, with a parallel min/max reduction over large arrays.
+ *
+ * <p>
+ * Bounds are computed by the import off the JavaFX application thread, so displaying a model never goes through all
+ * its points on that thread.
+ * </p>
+ */
+final class PointBounds {
+
+    // points per task of the reduction, smaller arrays are reduced by the calling thread
+    private static final int POINTS_PER_TASK = 1 << 16;
+
+    private PointBounds() {
+    }
+
+    /**
+     * Computes the bounds of points.
+     *
+     * @param points the point coordinates, three floats per point
+     * @return the minimum x, y, z then the maximum x, y, z, all 0 if there are no points
+     */
+    static float[] compute(final float[] points) {
+        return reduce(new ReductionTask(points, null, 0, points.length / 3));
+    }
+
+    /**
+     * Computes the bounds of the points of a mesh.
+     *
+     * @param points the point coordinates, three floats per point
+     * @return the minimum x, y, z then the maximum x, y, z, all 0 if there are no points
+     */
+    static float[] compute(final ObservableFloatArray points) {
+        return reduce(new ReductionTask(null, points, 0, points.size() / 3));
+    }
+
+    private static float[] reduce(final ReductionTask task) {
+
+        final float[] bounds;
+        if (task.to - task.from <= POINTS_PER_TASK) {
+            bounds = task.compute();
+        } else if (ForkJoinTask.inForkJoinPool()) {
+            bounds = task.invoke();
+        } else {
+            bounds = ParallelDecoding.getPool().invoke(task);
+        }
+        return bounds[0] > bounds[3] ? new float[6] : bounds;
+    }
+
+    /**
+     * Reduction of the bounds of a range of points, split in halves down to {@link #POINTS_PER_TASK} points.
+     */
+    private static final class ReductionTask extends RecursiveTask<float[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float[] points;
+        private final ObservableFloatArray observablePoints;
+        private final int from;
+        private final int to;
+
+        ReductionTask(final float[] points, final ObservableFloatArray observablePoints, final int from,
+                final int to) {
+
+            this.points = points;
+            this.observablePoints = observablePoints;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected float[] compute() {
+
+            if (to - from > POINTS_PER_TASK) {
+                final int middle = (from + to) >>> 1;
+                final ReductionTask second = new ReductionTask(points, observablePoints, middle, to);
+                second.fork();
+                final float[] bounds = new ReductionTask(points, observablePoints, from, middle).compute();
+                final float[] secondBounds = second.join();
+                for (int axis = 0; axis < 3; axis++) {
+                    bounds[axis] = Math.min(bounds[axis], secondBounds[axis]);
+                    bounds[axis + 3] = Math.max(bounds[axis + 3], secondBounds[axis + 3]);
+                }
+                return bounds;
+            }
+
+            final float[] values = points != null ? points
+                    : observablePoints.toArray(from * 3, new float[(to - from) * 3], (to - from) * 3);
+            final int start = points != null ? from * 3 : 0;
+            final int end = start + (to - from) * 3;
+            final float[] bounds = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                    Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+            for (int p = start; p < end; p += 3) {
+                for (int axis = 0; axis < 3; axis++) {
+                    final float value = values[p + axis];
+                    if (value < bounds[axis]) {
+                        bounds[axis] = value;
+                    }
+                    if (value > bounds[axis + 3]) {
+                        bounds[axis + 3] = value;
+                    }
+                }
+            }
+            return bounds;
+        }
+    }
+}
@@ -0,0 +1,765 @@
+package fr.utbm;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Native reader for binary and ASCII STL files.
+ *
+ * <p>
+ * The file is memory-mapped and decoded straight into primitive buffers, without any intermediate object per
+ * triangle. Binary buffers are sized exactly from the triangle count of the header.
+ * </p>
+ */
+public final class StlImporter {
+
+    private static final int HEADER_SIZE = 80;
+    private static final int BINARY_DATA_OFFSET = HEADER_SIZE + 4;
+    private static final int RECORD_SIZE = 50;
+    private static final int MAX_TRIANGLES = Integer.MAX_VALUE / 9;
+
+    private static final int MAX_WINDOW_RECORDS = 1 << 24;
+    private static final int PARALLEL_CHUNK_RECORDS = 1 << 16;
+    private static final int INTERRUPT_CHECK_MASK = (1 << 16) - 1;
+    private static final long ASCII_WINDOW_SIZE = 1L << 28;
+    static final int ASCII_BYTES_PER_TRIANGLE = 200;
+    private static final int MAX_TOKEN_LENGTH = 64;
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    private static final int STREAM_BLOCK_RECORDS = 1 << 14;
+
+    private static final byte[] SOLID = { 's', 'o', 'l', 'i', 'd' };
+    private static final byte[] VERTEX = { 'v', 'e', 'r', 't', 'e', 'x' };
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private StlImporter() {
+    }
+
+    /**
+     * Reads an STL file, detecting whether it is binary or ASCII.
+     *
+     * @param file the STL file to read
+     * @return the decoded triangle soup, three points per face
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static MeshData read(final File file) throws IOException {
+        return read(file, 1);
+    }
+
+    /**
+     * Reads an STL file, detecting whether it is binary or ASCII.
+     *
+     * <p>
+     * The fixed-size records of a binary file are split in chunks decoded in parallel on a fork-join pool, each chunk
+     * writing its own slice of the point and face buffers. ASCII files are always read sequentially.
+     * </p>
+     *
+     * @param file the STL file to read
+     * @param parallelism the number of threads decoding a binary file, 1 to decode it on the calling thread, or 0 to
+     *            use the common fork-join pool
+     * @return the decoded triangle soup, three points per face
+     * @throws IOException if the file cannot be read or is malformed, or if the thread is interrupted
+     */
+    public static MeshData read(final File file, final int parallelism) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long triangleCount = readBinaryTriangleCount(channel, size);
+            if (triangleCount >= 0) {
+                return readBinary(channel, 0, checkTriangleCount(triangleCount), parallelism);
+            }
+            final MeshData mesh = readAscii(new ByteReader(channel, size), Integer.MAX_VALUE);
+            return mesh != null ? mesh : new MeshData(new float[0], new float[] { 0, 0 }, new int[0], null);
+        }
+    }
+
+    /**
+     * Reads an STL file from a stream, e.g. while it is decompressed.
+     *
+     * <p>
+     * Without the size of the file, a file starting with the ASCII {@code solid} keyword is only read as an ASCII file
+     * if its first 84 bytes are all text, as the triangle count of a binary header seldom is.
+     * </p>
+     *
+     * @param input the content of the STL file
+     * @param size the size of the file, or -1 if it is unknown
+     * @return the decoded triangle soup, three points per face
+     * @throws IOException if the stream cannot be read or is malformed, or if the thread is interrupted
+     */
+    public static MeshData read(final InputStream input, final long size) throws IOException {
+
+        final byte[] header = new byte[BINARY_DATA_OFFSET];
+        final int headerLength = readFully(input, header, header.length);
+        final ByteBuffer headerBuffer = ByteBuffer.wrap(header, 0, headerLength).order(ByteOrder.LITTLE_ENDIAN);
+        final long triangleCount = headerLength == BINARY_DATA_OFFSET ? headerBuffer.getInt(HEADER_SIZE) & 0xFFFFFFFFL
+                : -1;
+
+        final boolean binary;
+        if (triangleCount >= 0 && BINARY_DATA_OFFSET + triangleCount * RECORD_SIZE == size) {
+            binary = true;
+        } else if (startsWithSolid(headerBuffer) && (size >= 0 || isText(header, headerLength))) {
+            binary = false;
+        } else if (triangleCount < 0) {
+            throw new EOFException("Truncated binary STL file, header of " + headerLength + " bytes");
+        } else {
+            binary = true;
+        }
+        if (binary) {
+            return readBinary(input, checkTriangleCount(triangleCount));
+        }
+
+        final InputStream text = new SequenceInputStream(new ByteArrayInputStream(header, 0, headerLength), input);
+        final MeshData mesh = readAscii(new ByteReader(text, size), Integer.MAX_VALUE);
+        return mesh != null ? mesh : new MeshData(new float[0], new float[] { 0, 0 }, new int[0], null);
+    }
+
+    /**
+     * Opens an STL file to read it batch by batch.
+     *
+     * @param file the STL file to read
+     * @return the reader of the file, to be closed by the caller
+     * @throws IOException if the file cannot be opened or is malformed
+     */
+    public static Reader open(final File file) throws IOException {
+
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new Reader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the triangle count of a binary STL file.
+     *
+     * <p>
+     * A file is considered binary when its size matches the triangle count of its header, or when it does not
+     * start with the ASCII {@code solid} keyword.
+     * </p>
+     *
+     * @param channel the channel of the file
+     * @param size the size of the file
+     * @return the triangle count, or -1 if the file is an ASCII file
+     * @throws IOException if the file cannot be read or is truncated
+     */
+    static long readBinaryTriangleCount(final FileChannel channel, final long size) throws IOException {
+
+        final MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(size, BINARY_DATA_OFFSET));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        long triangleCount = -1;
+        if (size >= BINARY_DATA_OFFSET) {
+            triangleCount = header.getInt(HEADER_SIZE) & 0xFFFFFFFFL;
+            if (BINARY_DATA_OFFSET + triangleCount * RECORD_SIZE == size) {
+                return triangleCount;
+            }
+        }
+
+        if (startsWithSolid(header)) {
+            return -1;
+        }
+        if (triangleCount < 0 || BINARY_DATA_OFFSET + triangleCount * RECORD_SIZE > size) {
+            throw new IOException("Truncated binary STL file, expected " + triangleCount + " triangles in " + size
+                    + " bytes");
+        }
+        return triangleCount;
+    }
+
+    /**
+     * Creates the faces of a triangle soup, where face {@code i} uses points {@code 3i}, {@code 3i+1} and
+     * {@code 3i+2} and the single texture coordinate 0.
+     *
+     * @param triangleCount the number of triangles
+     * @return the face indices
+     */
+    static int[] createSoupFaces(final int triangleCount) {
+
+        final int[] faces = new int[triangleCount * 6];
+        fillSoupFaces(faces, 0, triangleCount);
+        return faces;
+    }
+
+    /**
+     * Fills a range of soup faces, see {@link #createSoupFaces(int)}.
+     *
+     * @param faces the face indices to fill
+     * @param from the first triangle to fill
+     * @param to the triangle after the last one to fill
+     */
+    static void fillSoupFaces(final int[] faces, final int from, final int to) {
+
+        for (int i = from, f = from * 6; i < to; i++, f += 6) {
+            final int p = i * 3;
+            faces[f] = p;
+            faces[f + 2] = p + 1;
+            faces[f + 4] = p + 2;
+        }
+    }
+
+    /**
+     * Checks that a triangle soup of the given size fits in Java arrays.
+     *
+     * @param triangleCount the number of triangles
+     * @return the number of triangles as an int
+     * @throws IOException if the mesh is too large
+     */
+    static int checkTriangleCount(final long triangleCount) throws IOException {
+
+        if (triangleCount > MAX_TRIANGLES) {
+            throw new IOException("STL file has too many triangles [" + triangleCount + "]");
+        }
+        return (int) triangleCount;
+    }
+
+    private static boolean startsWithSolid(final ByteBuffer header) {
+
+        int i = 0;
+        while (i < header.limit() && Character.isWhitespace(header.get(i))) {
+            i++;
+        }
+        if (header.limit() - i < SOLID.length) {
+            return false;
+        }
+        for (int j = 0; j < SOLID.length; j++) {
+            if (Character.toLowerCase(header.get(i + j)) != SOLID[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MeshData readBinary(final FileChannel channel, final int from, final int to,
+            final int parallelism) throws IOException {
+
+        final int triangleCount = to - from;
+        final float[] points = new float[triangleCount * 9];
+        final int[] faces = new int[triangleCount * 6];
+
+        if (parallelism == 1 || triangleCount <= PARALLEL_CHUNK_RECORDS) {
+            decodeRecords(channel, points, faces, from, from, to, new AtomicBoolean());
+        } else {
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            ParallelDecoding.run(new DecodeTask(channel, points, faces, from, from, to, cancelled), parallelism,
+                    cancelled);
+        }
+
+        return new MeshData(points, new float[] { 0, 0 }, faces, null);
+    }
+
+    /**
+     * Decodes the binary records of a stream, block by block.
+     *
+     * @param input the stream, positioned after the header
+     * @param triangleCount the number of records
+     * @return the decoded triangle soup
+     * @throws IOException if the stream cannot be read or is truncated, or if the thread is interrupted
+     */
+    private static MeshData readBinary(final InputStream input, final int triangleCount) throws IOException {
+
+        final float[] points = new float[triangleCount * 9];
+        final byte[] block = new byte[STREAM_BLOCK_RECORDS * RECORD_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+        int p = 0;
+        for (int triangle = 0; triangle < triangleCount;) {
+            final int records = Math.min(triangleCount - triangle, STREAM_BLOCK_RECORDS);
+            if (readFully(input, block, records * RECORD_SIZE) < records * RECORD_SIZE) {
+                throw new EOFException("Truncated binary STL file, expected " + triangleCount + " triangles");
+            }
+            Importer3D.checkInterrupted();
+            // skip the 12-byte facet normal and the 2-byte attribute count of each record
+            for (int record = 0, offset = 12; record < records; record++, offset += RECORD_SIZE) {
+                for (int i = 0; i < 36; i += 4) {
+                    points[p++] = buffer.getFloat(offset + i);
+                }
+            }
+            triangle += records;
+        }
+        return new MeshData(points, new float[] { 0, 0 }, createSoupFaces(triangleCount), null);
+    }
+
+    /**
+     * Reads bytes from a stream until the given length or the end of the stream.
+     *
+     * @param input the stream
+     * @param buffer the buffer receiving the bytes
+     * @param length the number of bytes to read
+     * @return the number of bytes read, less than the length at the end of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    static int readFully(final InputStream input, final byte[] buffer, final int length) throws IOException {
+
+        int read = 0;
+        int count;
+        while (read < length && (count = input.read(buffer, read, length - read)) >= 0) {
+            read += count;
+        }
+        return read;
+    }
+
+    private static boolean isText(final byte[] bytes, final int length) {
+
+        for (int i = 0; i < length; i++) {
+            final int c = bytes[i];
+            if ((c < ' ' || c > '~') && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a range of binary records, mapping at most {@link #MAX_WINDOW_RECORDS} records at a time.
+     *
+     * @param channel the channel of the file
+     * @param points the point buffer of the decoded records
+     * @param faces the face buffer of the decoded records
+     * @param base the record stored at the start of the buffers
+     * @param from the first record to decode
+     * @param to the record after the last one to decode
+     * @param cancelled the flag cancelling the decoding, which also stops when the current thread is interrupted
+     * @throws IOException if the file cannot be read or the decoding is cancelled
+     */
+    private static void decodeRecords(final FileChannel channel, final float[] points, final int[] faces,
+            final int base, final int from, final int to, final AtomicBoolean cancelled) throws IOException {
+
+        int triangle = from;
+        while (triangle < to) {
+            final int windowRecords = Math.min(to - triangle, MAX_WINDOW_RECORDS);
+            final MappedByteBuffer window = channel.map(MapMode.READ_ONLY,
+                    BINARY_DATA_OFFSET + (long) triangle * RECORD_SIZE, (long) windowRecords * RECORD_SIZE);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+
+            // skip the 12-byte facet normal and the 2-byte attribute count of each record
+            int p = (triangle - base) * 9;
+            for (int record = 0, offset = 12; record < windowRecords; record++, offset += RECORD_SIZE) {
+                if ((record & INTERRUPT_CHECK_MASK) == 0) {
+                    if (cancelled.get()) {
+                        throw new InterruptedIOException("Import cancelled");
+                    }
+                    Importer3D.checkInterrupted();
+                }
+                for (int i = 0; i < 36; i += 4) {
+                    points[p++] = window.getFloat(offset + i);
+                }
+            }
+            fillSoupFaces(faces, triangle - base, triangle - base + windowRecords);
+            triangle += windowRecords;
+        }
+    }
+
+    /**
+     * Reads the facets of an ASCII file.
+     *
+     * @param reader the reader of the file
+     * @param maxTriangles the maximum number of triangles to read
+     * @return the decoded triangles, or {@code null} if the end of the file was reached before any triangle
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    private static MeshData readAscii(final ByteReader reader, final int maxTriangles) throws IOException {
+
+        final byte[] token = new byte[MAX_TOKEN_LENGTH];
+
+        final long estimate = Math.min(reader.remaining() / ASCII_BYTES_PER_TRIANGLE + 16,
+                Math.min(maxTriangles, MAX_TRIANGLES));
+        float[] points = new float[(int) estimate * 9];
+        int pointCoordinates = 0;
+        final long maxCoordinates = Math.min((long) maxTriangles, MAX_TRIANGLES) * 9;
+
+        int length;
+        while (pointCoordinates < maxCoordinates && (length = reader.nextToken(token)) >= 0) {
+            if (!equalsIgnoreCase(token, length, VERTEX)) {
+                continue;
+            }
+            if ((pointCoordinates & INTERRUPT_CHECK_MASK) == 0) {
+                Importer3D.checkInterrupted();
+            }
+            if (pointCoordinates + 3 > points.length) {
+                final long capacity = Math.min((long) points.length + (points.length >> 1) + 9,
+                        (long) MAX_TRIANGLES * 9);
+                if (capacity < pointCoordinates + 3) {
+                    throw new IOException("STL file has too many triangles");
+                }
+                points = Arrays.copyOf(points, (int) capacity);
+            }
+            for (int i = 0; i < 3; i++) {
+                final int numberLength = reader.nextToken(token);
+                if (numberLength < 0) {
+                    throw new IOException("Unexpected end of ASCII STL file in vertex coordinates");
+                }
+                points[pointCoordinates++] = parseFloat(token, numberLength);
+            }
+        }
+
+        if (pointCoordinates % 9 != 0) {
+            throw new IOException("ASCII STL file has an incomplete facet");
+        }
+        if (pointCoordinates == 0) {
+            return null;
+        }
+        final int triangleCount = pointCoordinates / 9;
+        if (points.length != pointCoordinates) {
+            points = Arrays.copyOf(points, pointCoordinates);
+        }
+        return new MeshData(points, new float[] { 0, 0 }, createSoupFaces(triangleCount), null);
+    }
+
+    private static boolean equalsIgnoreCase(final byte[] token, final int length, final byte[] keyword) {
+
+        if (length != keyword.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if ((token[i] | 0x20) != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a decimal floating point number without creating a {@link String}.
+     *
+     * <p>
+     * Uncommon notations (NaN, infinity, hexadecimal) fall back to {@link Float#parseFloat(String)}.
+     * </p>
+     *
+     * @param token the characters of the number
+     * @param length the number of characters
+     * @return the parsed number
+     * @throws IOException if the token is not a number
+     */
+    static float parseFloat(final byte[] token, final int length) throws IOException {
+
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (token[i] == '-' || token[i] == '+')) {
+            negative = token[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean seenDigit = false;
+        boolean seenDot = false;
+        for (; i < length; i++) {
+            final byte c = token[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (seenDot) {
+                        exponent--;
+                    }
+                } else if (!seenDot) {
+                    exponent++;
+                }
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                break;
+            }
+        }
+
+        if (i < length && (token[i] == 'e' || token[i] == 'E') && seenDigit) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (token[i] == '-' || token[i] == '+')) {
+                negativeExponent = token[i] == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            final int exponentStart = i;
+            for (; i < length && token[i] >= '0' && token[i] <= '9'; i++) {
+                explicitExponent = Math.min(explicitExponent * 10 + (token[i] - '0'), 1000);
+            }
+            if (i == exponentStart) {
+                return parseFloatSlow(token, length);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (i != length || !seenDigit) {
+            return parseFloatSlow(token, length);
+        }
+
+        // powers of ten up to 1e22 are exact doubles, larger exponents are applied in several steps
+        double value = mantissa;
+        final int maxPower = POWERS_OF_TEN.length - 1;
+        for (; exponent < -maxPower && value != 0; exponent += maxPower) {
+            value /= POWERS_OF_TEN[maxPower];
+        }
+        for (; exponent > maxPower && value != 0 && !Double.isInfinite(value); exponent -= maxPower) {
+            value *= POWERS_OF_TEN[maxPower];
+        }
+        if (exponent < 0 && exponent >= -maxPower) {
+            value /= POWERS_OF_TEN[-exponent];
+        } else if (exponent > 0 && exponent <= maxPower) {
+            value *= POWERS_OF_TEN[exponent];
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private static float parseFloatSlow(final byte[] token, final int length) throws IOException {
+
+        final String text = new String(token, 0, length, "US-ASCII");
+        try {
+            return Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number [" + text + "]", e);
+        }
+    }
+
+    /**
+     * Fork-join task splitting a range of binary records in halves until they are small enough to be decoded.
+     */
+    private static final class DecodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final float[] points;
+        private final int[] faces;
+        private final int base;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean cancelled;
+
+        DecodeTask(final FileChannel channel, final float[] points, final int[] faces, final int base,
+                final int from, final int to, final AtomicBoolean cancelled) {
+            this.channel = channel;
+            this.points = points;
+            this.faces = faces;
+            this.base = base;
+            this.from = from;
+            this.to = to;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from <= PARALLEL_CHUNK_RECORDS) {
+                try {
+                    decodeRecords(channel, points, faces, base, from, to, cancelled);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new DecodeTask(channel, points, faces, base, from, middle, cancelled),
+                    new DecodeTask(channel, points, faces, base, middle, to, cancelled));
+        }
+    }
+
+    /**
+     * Reader of an STL file decoding it batch by batch, so parts of a large file can be displayed before the whole
+     * file is read.
+     */
+    public static final class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final long size;
+        private final int binaryTriangleCount;
+        private final ByteReader asciiReader;
+        private int binaryTrianglesRead;
+
+        Reader(final FileChannel channel) throws IOException {
+
+            this.channel = channel;
+            size = channel.size();
+            final long triangleCount = readBinaryTriangleCount(channel, size);
+            if (triangleCount >= 0) {
+                binaryTriangleCount = checkTriangleCount(triangleCount);
+                asciiReader = null;
+            } else {
+                binaryTriangleCount = -1;
+                asciiReader = new ByteReader(channel, size);
+            }
+        }
+
+        /**
+         * Reads the next triangles of the file.
+         *
+         * @param maxTriangles the maximum number of triangles of the batch
+         * @param parallelism the number of threads decoding a binary batch, see {@link StlImporter#read(File, int)}
+         * @return the decoded triangle soup, or {@code null} at the end of the file
+         * @throws IOException if the file cannot be read or is malformed
+         */
+        public MeshData readBatch(final int maxTriangles, final int parallelism) throws IOException {
+
+            if (asciiReader != null) {
+                return readAscii(asciiReader, maxTriangles);
+            }
+            if (binaryTrianglesRead == binaryTriangleCount) {
+                return null;
+            }
+            final int from = binaryTrianglesRead;
+            final int to = from + Math.min(binaryTriangleCount - from, maxTriangles);
+            final MeshData batch = readBinary(channel, from, to, parallelism);
+            binaryTrianglesRead = to;
+            return batch;
+        }
+
+        /**
+         * Gets the number of bytes of the file read so far.
+         *
+         * @return the number of bytes read
+         */
+        public long getBytesRead() {
+
+            if (asciiReader != null) {
+                return size - asciiReader.remaining();
+            }
+            return BINARY_DATA_OFFSET + (long) binaryTrianglesRead * RECORD_SIZE;
+        }
+
+        /**
+         * Gets the size of the file.
+         *
+         * @return the size of the file in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Sequential byte reader over a file mapped window by window, so files larger than 2 GB can be read, or over a
+     * stream read block by block.
+     */
+    static final class ByteReader {
+
+        private final FileChannel channel;
+        private final InputStream input;
+        private final long size;
+        private long windowEnd;
+        private ByteBuffer window;
+
+        ByteReader(final FileChannel channel, final long size) {
+            this(channel, 0, size);
+        }
+
+        /**
+         * Creates a reader starting at the given position of the file.
+         *
+         * @param channel the channel of the file
+         * @param position the position of the first byte to read
+         * @param size the size of the file
+         */
+        ByteReader(final FileChannel channel, final long position, final long size) {
+            this.channel = channel;
+            this.size = size;
+            input = null;
+            windowEnd = position;
+        }
+
+        /**
+         * Creates a reader of a stream.
+         *
+         * @param input the stream to read
+         * @param size the number of bytes of the stream, or -1 if it is unknown
+         */
+        ByteReader(final InputStream input, final long size) {
+            this.input = input;
+            this.size = size;
+            channel = null;
+        }
+
+        /**
+         * Reads the next whitespace-separated token.
+         *
+         * @param token the buffer receiving the token, longer tokens are truncated
+         * @return the length of the token, or -1 at the end of the file
+         * @throws IOException if the file cannot be read
+         */
+        int nextToken(final byte[] token) throws IOException {
+
+            int c = read();
+            while (c >= 0 && c <= ' ') {
+                c = read();
+            }
+            if (c < 0) {
+                return -1;
+            }
+            int length = 0;
+            while (c > ' ') {
+                if (length < token.length) {
+                    token[length++] = (byte) c;
+                }
+                c = read();
+            }
+            return length;
+        }
+
+        /**
+         * Gets the number of bytes left to read.
+         *
+         * @return the number of bytes after the current position, 0 if the size of a stream is unknown
+         */
+        long remaining() {
+            return Math.max(size - windowEnd + (window != null ? window.remaining() : 0), 0);
+        }
+
+        private int read() throws IOException {
+
+            if (window == null || !window.hasRemaining()) {
+                if (input != null) {
+                    if (window == null) {
+                        window = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+                    }
+                    final int count = input.read(window.array());
+                    if (count < 0) {
+                        window.limit(0);
+                        return -1;
+                    }
+                    window.clear();
+                    window.limit(count);
+                    windowEnd += count;
+                } else {
+                    if (windowEnd >= size) {
+                        return -1;
+                    }
+                    final long windowSize = Math.min(ASCII_WINDOW_SIZE, size - windowEnd);
+                    window = channel.map(MapMode.READ_ONLY, windowEnd, windowSize);
+                    windowEnd += windowSize;
+                }
+            }
+            return window.get() & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Importer of a format which can also be read from a stream, so files of the format can be imported from compressed
+ * files and archives without being written to disk first, see {@link CompressedInput}.
+ */
+public interface StreamFormatImporter extends FormatImporter {
+
+    /**
+     * Loads a 3D file from a stream.
+     *
+     * <p>
+     * The stream is fed by another thread, so importers parsing it as it comes overlap the decompression of the file.
+     * The same metrics stages as {@link #load(String, File, ImportOptions, LoadMetrics)} are recorded.
+     * </p>
+     *
+     * @param input the content of the file, closed by the caller
+     * @param name the name of the file in its compressed file, e.g. for error messages
+     * @param size the size of the content in bytes, or -1 if it is unknown
+     * @param file the local compressed file, whose directory holds the resources referenced by the file, or
+     *            {@code null} if it is not a local file
+     * @param options the options of the import
+     * @param metrics the metrics of the import
+     * @return the group holding the shapes of the file
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    Group load(InputStream input, String name, long size, File file, ImportOptions options, LoadMetrics metrics)
+            throws IOException;
+}
@@ -0,0 +1,845 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.MeshView;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Native reader for the geometry and materials of 3DS files.
+ *
+ * <p>
+ * The file is memory-mapped and its chunk tree scanned once into an {@link Index} of the offsets of the object
+ * meshes, descending only into the editor chunks: keyframer, viewport and other chunks are skipped by their length
+ * without being read. Object meshes are then decoded on demand, one by one or all of them in parallel. Faces are split
+ * by material, as a {@link MeshView} has a single material.
+ * </p>
+ */
+public final class TdsImporter {
+
+    private static final int CHUNK_HEADER_SIZE = 6;
+
+    private static final int MAIN_CHUNK = 0x4D4D;
+    private static final int EDITOR_CHUNK = 0x3D3D;
+    private static final int OBJECT_CHUNK = 0x4000;
+    private static final int TRIANGLE_MESH_CHUNK = 0x4100;
+    private static final int POINTS_CHUNK = 0x4110;
+    private static final int FACES_CHUNK = 0x4120;
+    private static final int FACE_MATERIAL_CHUNK = 0x4130;
+    private static final int TEXTURE_COORDINATES_CHUNK = 0x4140;
+    private static final int SMOOTHING_GROUPS_CHUNK = 0x4150;
+    private static final int MATERIAL_CHUNK = 0xAFFF;
+    private static final int MATERIAL_NAME_CHUNK = 0xA000;
+    private static final int DIFFUSE_CHUNK = 0xA020;
+    private static final int SPECULAR_CHUNK = 0xA030;
+    private static final int SHININESS_CHUNK = 0xA040;
+    private static final int TRANSPARENCY_CHUNK = 0xA050;
+    private static final int TEXTURE_MAP_CHUNK = 0xA200;
+    private static final int MAP_FILE_NAME_CHUNK = 0xA300;
+    private static final int FLOAT_COLOR_CHUNK = 0x0010;
+    private static final int BYTE_COLOR_CHUNK = 0x0011;
+    private static final int BYTE_LINEAR_COLOR_CHUNK = 0x0012;
+    private static final int FLOAT_LINEAR_COLOR_CHUNK = 0x0013;
+    private static final int SHORT_PERCENTAGE_CHUNK = 0x0030;
+    private static final int FLOAT_PERCENTAGE_CHUNK = 0x0031;
+
+    private static final int STREAM_BUFFER_SIZE = 1 << 20;
+    private static final int NO_MATERIAL = -1;
+    private static final double MAX_SPECULAR_POWER = 128;
+
+    private TdsImporter() {
+    }
+
+    /**
+     * Reads the geometry and materials of a 3DS file.
+     *
+     * @param file the 3DS file to read
+     * @param parallelism the number of threads decoding the objects, 1 to decode them on the calling thread, or 0 to
+     *            use the common fork-join pool
+     * @return the group holding a mesh view per object and material
+     * @throws IOException if the file cannot be read or is malformed, or if the thread is interrupted
+     */
+    public static Group read(final File file, final int parallelism) throws IOException {
+
+        try (Index index = open(file)) {
+            return createContent(index.decodeObjects(parallelism));
+        }
+    }
+
+    /**
+     * Opens a 3DS file and indexes its chunks.
+     *
+     * @param file the 3DS file to read
+     * @return the index of the file, to be closed by the caller
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static Index open(final File file) throws IOException {
+
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("3DS file too large [" + file + "]");
+            }
+            return new Index(file.toString(), file, channel,
+                    channel.map(MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a 3DS file from a stream, such as the output of a decompression, and indexes its chunks. As the chunks are
+     * not read in order, the whole file is first read in memory.
+     *
+     * @param input the stream to read, positioned at the start of the file
+     * @param name the name of the file, for the error messages
+     * @param size the size of the file, used to size the buffer, or -1 if it is unknown
+     * @param file the file whose directory holds the textures, or {@code null} to ignore the textures
+     * @return the index of the file, to be closed by the caller
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    public static Index open(final InputStream input, final String name, final long size, final File file)
+            throws IOException {
+
+        byte[] data = new byte[(int) Math.min(Math.max(size, STREAM_BUFFER_SIZE), Integer.MAX_VALUE - 8)];
+        int length = 0;
+        int count;
+        while ((count = input.read(data, length, data.length - length)) >= 0) {
+            length += count;
+            if (length == data.length) {
+                if (length == Integer.MAX_VALUE - 8) {
+                    throw new IOException("3DS file too large [" + name + "]");
+                }
+                data = Arrays.copyOf(data, (int) Math.min(length * 2L, Integer.MAX_VALUE - 8));
+            }
+        }
+        return new Index(name, file, null, ByteBuffer.wrap(data, 0, length).slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Creates the shapes of decoded parts, sharing the materials of the parts having the same material.
+     *
+     * @param parts the decoded parts
+     * @return the group holding a mesh view per part, identified by the name of its object
+     */
+    public static Group createContent(final List<Part> parts) {
+
+        final Map<MaterialEntry, PhongMaterial> materials = new HashMap<>();
+        final PhongMaterial defaultMaterial = new PhongMaterial(Color.GRAY);
+        final List<Node> meshViews = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            PhongMaterial material = defaultMaterial;
+            if (part.material != null) {
+                material = materials.get(part.material);
+                if (material == null) {
+                    material = part.material.createMaterial();
+                    materials.put(part.material, material);
+                }
+            }
+            final MeshView meshView = new MeshView(part.mesh.toTriangleMesh());
+            meshView.setId(part.objectName);
+            meshView.setMaterial(material);
+            meshViews.add(meshView);
+        }
+        return new Group(meshViews);
+    }
+
+    /**
+     * Decimates parts down to a total number of faces, each part keeping its share of the faces.
+     *
+     * @param parts the decoded parts
+     * @param maxFaces the total number of faces to reach
+     * @return the decimated parts, without the parts whose faces all disappeared
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    public static List<Part> decimate(final List<Part> parts, final int maxFaces) throws InterruptedIOException {
+
+        long faceCount = 0;
+        for (Part part : parts) {
+            faceCount += part.mesh.getFaceCount();
+        }
+        if (faceCount <= maxFaces) {
+            return parts;
+        }
+        final double ratio = (double) maxFaces / faceCount;
+        final List<Part> decimatedParts = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            final MeshData mesh = MeshDecimator.decimateToFaces(part.mesh,
+                    (int) Math.max(part.mesh.getFaceCount() * ratio, 1));
+            if (mesh.getFaceCount() > 0) {
+                decimatedParts.add(new Part(part.objectName, part.material, mesh));
+            }
+        }
+        return decimatedParts;
+    }
+
+    /**
+     * Splits the large parts of an object in chunks, see {@link MeshSplitter}.
+     *
+     * @param parts the decoded parts
+     * @param maxFaces the maximum number of faces of a part, 0 to keep parts whole
+     * @return the parts, large parts being replaced by their chunks with the same object name and material
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    public static List<Part> split(final List<Part> parts, final int maxFaces) throws InterruptedIOException {
+
+        final List<Part> splitParts = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            final List<MeshData> chunks = MeshSplitter.split(part.mesh, maxFaces);
+            if (chunks.size() == 1) {
+                splitParts.add(part);
+                continue;
+            }
+            for (MeshData chunk : chunks) {
+                splitParts.add(new Part(part.objectName, part.material, chunk));
+            }
+        }
+        return splitParts;
+    }
+
+    /**
+     * Part of an object mesh having a single material.
+     */
+    public static final class Part {
+
+        private final String objectName;
+        private final MaterialEntry material;
+        private final MeshData mesh;
+
+        Part(final String objectName, final MaterialEntry material, final MeshData mesh) {
+            this.objectName = objectName;
+            this.material = material;
+            this.mesh = mesh;
+        }
+
+        /**
+         * Gets the name of the object of the part.
+         *
+         * @return the object name
+         */
+        public String getObjectName() {
+            return objectName;
+        }
+
+        /**
+         * Gets the name of the material of the part.
+         *
+         * @return the material name, or {@code null} for faces without material
+         */
+        public String getMaterialName() {
+            return material != null ? material.name : null;
+        }
+
+        /**
+         * Gets the geometry of the part.
+         *
+         * @return the mesh of the part
+         */
+        public MeshData getMesh() {
+            return mesh;
+        }
+    }
+
+    /**
+     * Index of the objects and materials of a memory-mapped 3DS file, or of a 3DS file read in memory.
+     *
+     * <p>
+     * Objects are decoded from the mapping on demand. Decoding is thread safe, each decoding reading the mapping
+     * through its own view.
+     * </p>
+     */
+    public static final class Index implements Closeable {
+
+        private final File file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final List<String> objectNames = new ArrayList<>();
+        private final List<long[]> meshChunks = new ArrayList<>();
+        private final Map<String, MaterialEntry> materials = new HashMap<>();
+
+        /**
+         * Indexes the chunks of a file.
+         *
+         * @param name the name of the file, for the error messages
+         * @param file the file whose directory holds the textures, or {@code null} to ignore the textures
+         * @param channel the channel of the mapped file, closed with the index, or {@code null}
+         * @param buffer the content of the file, in little endian order
+         */
+        Index(final String name, final File file, final FileChannel channel, final ByteBuffer buffer)
+                throws IOException {
+
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            final int size = buffer.limit();
+            if (size < CHUNK_HEADER_SIZE || chunkId(buffer, 0) != MAIN_CHUNK) {
+                throw new IOException("Not a 3DS file [" + name + "]");
+            }
+            // some exporters write a wrong main chunk length, so the whole file is scanned
+            scan(CHUNK_HEADER_SIZE, size);
+        }
+
+        private void scan(final int from, final int to) throws IOException {
+
+            int offset = from;
+            while (offset + CHUNK_HEADER_SIZE <= to) {
+                final int end = chunkEnd(buffer, offset, to);
+                switch (chunkId(buffer, offset)) {
+                case EDITOR_CHUNK:
+                    scan(offset + CHUNK_HEADER_SIZE, end);
+                    break;
+                case OBJECT_CHUNK:
+                    final int nameEnd = stringEnd(buffer, offset + CHUNK_HEADER_SIZE, end);
+                    final String name = readString(buffer, offset + CHUNK_HEADER_SIZE, nameEnd);
+                    for (int child = nameEnd + 1; child + CHUNK_HEADER_SIZE <= end;) {
+                        final int childEnd = chunkEnd(buffer, child, end);
+                        if (chunkId(buffer, child) == TRIANGLE_MESH_CHUNK) {
+                            objectNames.add(name);
+                            meshChunks.add(new long[] { child + CHUNK_HEADER_SIZE, childEnd });
+                        }
+                        child = childEnd;
+                    }
+                    break;
+                case MATERIAL_CHUNK:
+                    final MaterialEntry material = readMaterial(offset + CHUNK_HEADER_SIZE, end);
+                    if (material.name != null) {
+                        materials.put(material.name, material);
+                    }
+                    break;
+                default:
+                    // keyframer, viewport settings, lights and cameras
+                    break;
+                }
+                offset = end;
+            }
+        }
+
+        private MaterialEntry readMaterial(final int from, final int to) throws IOException {
+
+            final MaterialEntry material = new MaterialEntry();
+            for (int offset = from; offset + CHUNK_HEADER_SIZE <= to;) {
+                final int end = chunkEnd(buffer, offset, to);
+                final int data = offset + CHUNK_HEADER_SIZE;
+                switch (chunkId(buffer, offset)) {
+                case MATERIAL_NAME_CHUNK:
+                    material.name = readString(buffer, data, stringEnd(buffer, data, end));
+                    break;
+                case DIFFUSE_CHUNK:
+                    material.diffuse = readColor(data, end);
+                    break;
+                case SPECULAR_CHUNK:
+                    material.specular = readColor(data, end);
+                    break;
+                case SHININESS_CHUNK:
+                    material.shininess = readPercentage(data, end, material.shininess);
+                    break;
+                case TRANSPARENCY_CHUNK:
+                    material.transparency = readPercentage(data, end, material.transparency);
+                    break;
+                case TEXTURE_MAP_CHUNK:
+                    for (int child = data; child + CHUNK_HEADER_SIZE <= end;) {
+                        final int childEnd = chunkEnd(buffer, child, end);
+                        if (chunkId(buffer, child) == MAP_FILE_NAME_CHUNK) {
+                            final int name = child + CHUNK_HEADER_SIZE;
+                            material.textureFile = resolveTexture(readString(buffer, name,
+                                    stringEnd(buffer, name, childEnd)));
+                        }
+                        child = childEnd;
+                    }
+                    break;
+                default:
+                    break;
+                }
+                offset = end;
+            }
+            return material;
+        }
+
+        private Color readColor(final int from, final int to) throws IOException {
+
+            Color linear = null;
+            for (int offset = from; offset + CHUNK_HEADER_SIZE <= to;) {
+                final int end = chunkEnd(buffer, offset, to);
+                final int data = offset + CHUNK_HEADER_SIZE;
+                switch (chunkId(buffer, offset)) {
+                case BYTE_COLOR_CHUNK:
+                    return Color.rgb(buffer.get(data) & 0xFF, buffer.get(data + 1) & 0xFF, buffer.get(data + 2) & 0xFF);
+                case FLOAT_COLOR_CHUNK:
+                    return floatColor(data);
+                case BYTE_LINEAR_COLOR_CHUNK:
+                    linear = Color.rgb(buffer.get(data) & 0xFF, buffer.get(data + 1) & 0xFF,
+                            buffer.get(data + 2) & 0xFF);
+                    break;
+                case FLOAT_LINEAR_COLOR_CHUNK:
+                    linear = floatColor(data);
+                    break;
+                default:
+                    break;
+                }
+                offset = end;
+            }
+            return linear;
+        }
+
+        private Color floatColor(final int data) {
+
+            return Color.color(clamp(buffer.getFloat(data)), clamp(buffer.getFloat(data + 4)),
+                    clamp(buffer.getFloat(data + 8)));
+        }
+
+        private double readPercentage(final int from, final int to, final double defaultValue) throws IOException {
+
+            for (int offset = from; offset + CHUNK_HEADER_SIZE <= to;) {
+                final int end = chunkEnd(buffer, offset, to);
+                final int data = offset + CHUNK_HEADER_SIZE;
+                switch (chunkId(buffer, offset)) {
+                case SHORT_PERCENTAGE_CHUNK:
+                    return clamp(buffer.getShort(data) / 100.0);
+                case FLOAT_PERCENTAGE_CHUNK:
+                    return clamp(buffer.getFloat(data) / 100.0);
+                default:
+                    break;
+                }
+                offset = end;
+            }
+            return defaultValue;
+        }
+
+        /**
+         * Finds a texture next to the 3DS file, whose name may have another case than the file on disk.
+         */
+        private File resolveTexture(final String name) {
+
+            if (file == null) {
+                return null;
+            }
+            final File directory = file.getAbsoluteFile().getParentFile();
+            for (String candidate : new String[] { name, name.toLowerCase(), name.toUpperCase() }) {
+                final File texture = new File(directory, candidate);
+                if (texture.isFile()) {
+                    return texture;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Gets the number of object meshes of the file.
+         *
+         * @return the number of object meshes
+         */
+        public int getObjectCount() {
+            return objectNames.size();
+        }
+
+        /**
+         * Gets the name of an object mesh.
+         *
+         * @param object the index of the object mesh
+         * @return the name of the object
+         */
+        public String getObjectName(final int object) {
+            return objectNames.get(object);
+        }
+
+        /**
+         * Counts the points and faces of the object meshes from the headers of their chunks, without decoding them.
+         *
+         * @return the number of points then the number of faces of the file
+         * @throws IOException if a mesh chunk is malformed
+         */
+        public long[] countGeometry() throws IOException {
+
+            long points = 0;
+            long faces = 0;
+            for (long[] chunk : meshChunks) {
+                final int to = (int) chunk[1];
+                for (int offset = (int) chunk[0]; offset + CHUNK_HEADER_SIZE <= to;) {
+                    final int end = chunkEnd(buffer, offset, to);
+                    final int id = chunkId(buffer, offset);
+                    if ((id == POINTS_CHUNK || id == FACES_CHUNK) && offset + CHUNK_HEADER_SIZE + 2 <= end) {
+                        final int count = buffer.getShort(offset + CHUNK_HEADER_SIZE) & 0xFFFF;
+                        if (id == POINTS_CHUNK) {
+                            points += count;
+                        } else {
+                            faces += count;
+                        }
+                    }
+                    offset = end;
+                }
+            }
+            return new long[] { points, faces };
+        }
+
+        /**
+         * Decodes an object mesh.
+         *
+         * @param object the index of the object mesh
+         * @return the parts of the object, one per material
+         * @throws IOException if the object is malformed
+         */
+        public List<Part> decodeObject(final int object) throws IOException {
+
+            final long[] chunk = meshChunks.get(object);
+            return decodeMesh(buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN), objectNames.get(object),
+                    (int) chunk[0], (int) chunk[1]);
+        }
+
+        /**
+         * Decodes all object meshes.
+         *
+         * @param parallelism the number of threads decoding the objects, 1 to decode them on the calling thread, or
+         *            0 to use the common fork-join pool
+         * @return the parts of the objects, in file order
+         * @throws IOException if an object is malformed, or if the thread is interrupted
+         */
+        public List<Part> decodeObjects(final int parallelism) throws IOException {
+
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            final List<Part>[] objectParts = new List[getObjectCount()];
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            if (parallelism == 1 || objectParts.length <= 1) {
+                for (int object = 0; object < objectParts.length; object++) {
+                    Importer3D.checkInterrupted();
+                    objectParts[object] = decodeObject(object);
+                }
+            } else {
+                ParallelDecoding.run(new DecodeTask(this, objectParts, 0, objectParts.length, cancelled),
+                        parallelism, cancelled);
+            }
+
+            final List<Part> parts = new ArrayList<>();
+            for (List<Part> partsOfObject : objectParts) {
+                parts.addAll(partsOfObject);
+            }
+            return parts;
+        }
+
+        private List<Part> decodeMesh(final ByteBuffer view, final String objectName, final int from,
+                final int to) throws IOException {
+
+            float[] points = new float[0];
+            float[] uvs = null;
+            int[] corners = new int[0];
+            int[] faceMaterials = null;
+            int[] smoothingGroups = null;
+            final List<MaterialEntry> faceMaterialList = new ArrayList<>();
+
+            for (int offset = from; offset + CHUNK_HEADER_SIZE <= to;) {
+                final int end = chunkEnd(view, offset, to);
+                final int data = offset + CHUNK_HEADER_SIZE;
+                switch (chunkId(view, offset)) {
+                case POINTS_CHUNK:
+                    points = readFloats(view, data, end, 3);
+                    break;
+                case TEXTURE_COORDINATES_CHUNK:
+                    uvs = readFloats(view, data, end, 2);
+                    break;
+                case FACES_CHUNK:
+                    final int faceCount = view.getShort(data) & 0xFFFF;
+                    final int facesEnd = data + 2 + faceCount * 8;
+                    if (facesEnd > end) {
+                        throw new IOException("Truncated 3DS faces in object [" + objectName + "]");
+                    }
+                    corners = new int[faceCount * 3];
+                    for (int face = 0, f = data + 2; face < faceCount; face++, f += 8) {
+                        corners[face * 3] = view.getShort(f) & 0xFFFF;
+                        corners[face * 3 + 1] = view.getShort(f + 2) & 0xFFFF;
+                        corners[face * 3 + 2] = view.getShort(f + 4) & 0xFFFF;
+                    }
+                    for (int child = facesEnd; child + CHUNK_HEADER_SIZE <= end;) {
+                        final int childEnd = chunkEnd(view, child, end);
+                        final int childData = child + CHUNK_HEADER_SIZE;
+                        if (chunkId(view, child) == FACE_MATERIAL_CHUNK) {
+                            if (faceMaterials == null) {
+                                faceMaterials = new int[faceCount];
+                                Arrays.fill(faceMaterials, NO_MATERIAL);
+                            }
+                            final int nameEnd = stringEnd(view, childData, childEnd);
+                            final MaterialEntry material = materials.get(readString(view, childData, nameEnd));
+                            final int group = faceMaterialList.size();
+                            faceMaterialList.add(material);
+                            final int count = view.getShort(nameEnd + 1) & 0xFFFF;
+                            for (int i = 0, g = nameEnd + 3; i < count && g + 2 <= childEnd; i++, g += 2) {
+                                final int face = view.getShort(g) & 0xFFFF;
+                                if (face < faceCount) {
+                                    faceMaterials[face] = group;
+                                }
+                            }
+                        } else if (chunkId(view, child) == SMOOTHING_GROUPS_CHUNK
+                                && childData + faceCount * 4L <= childEnd) {
+                            smoothingGroups = new int[faceCount];
+                            view.position(childData);
+                            view.asIntBuffer().get(smoothingGroups);
+                        }
+                        child = childEnd;
+                    }
+                    break;
+                default:
+                    break;
+                }
+                offset = end;
+            }
+
+            final int pointCount = points.length / 3;
+            for (int corner : corners) {
+                if (corner >= pointCount) {
+                    throw new IOException("Invalid 3DS point index in object [" + objectName + "]");
+                }
+            }
+            if (uvs != null && uvs.length / 2 != pointCount) {
+                uvs = null;
+            }
+            return split(objectName, points, uvs, corners, faceMaterials, faceMaterialList, smoothingGroups);
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Splits the faces of an object mesh by material, each part keeping only the points its faces use.
+     */
+    private static List<Part> split(final String objectName, final float[] points, final float[] uvs,
+            final int[] corners, final int[] faceMaterials, final List<MaterialEntry> materials,
+            final int[] smoothingGroups) {
+
+        final int faceCount = corners.length / 3;
+        if (faceCount == 0) {
+            return Collections.emptyList();
+        }
+        final float[] texCoords = uvs != null ? flipV(uvs) : new float[] { 0, 0 };
+        if (faceMaterials == null || materials.size() == 0) {
+            return Collections.singletonList(new Part(objectName, null,
+                    new MeshData(points, texCoords, toFaces(corners, uvs != null), smoothingGroups)));
+        }
+
+        final List<Part> parts = new ArrayList<>();
+        final int[] pointMap = new int[points.length / 3];
+        for (int group = NO_MATERIAL; group < materials.size(); group++) {
+            int groupFaces = 0;
+            for (int face = 0; face < faceCount; face++) {
+                if (faceMaterials[face] == group) {
+                    groupFaces++;
+                }
+            }
+            if (groupFaces == 0) {
+                continue;
+            }
+
+            Arrays.fill(pointMap, -1);
+            final int[] groupCorners = new int[groupFaces * 3];
+            final int[] groupSmoothingGroups = smoothingGroups != null ? new int[groupFaces] : null;
+            int pointCount = 0;
+            for (int face = 0, g = 0; face < faceCount; face++) {
+                if (faceMaterials[face] != group) {
+                    continue;
+                }
+                if (groupSmoothingGroups != null) {
+                    groupSmoothingGroups[g / 3] = smoothingGroups[face];
+                }
+                for (int i = face * 3; i < face * 3 + 3; i++) {
+                    if (pointMap[corners[i]] < 0) {
+                        pointMap[corners[i]] = pointCount++;
+                    }
+                    groupCorners[g++] = pointMap[corners[i]];
+                }
+            }
+
+            final float[] groupPoints = new float[pointCount * 3];
+            final float[] groupTexCoords = uvs != null ? new float[pointCount * 2] : texCoords;
+            for (int point = 0; point < pointMap.length; point++) {
+                final int mapped = pointMap[point];
+                if (mapped >= 0) {
+                    System.arraycopy(points, point * 3, groupPoints, mapped * 3, 3);
+                    if (uvs != null) {
+                        System.arraycopy(texCoords, point * 2, groupTexCoords, mapped * 2, 2);
+                    }
+                }
+            }
+            final MaterialEntry material = group == NO_MATERIAL ? null : materials.get(group);
+            parts.add(new Part(objectName, material, new MeshData(groupPoints, groupTexCoords,
+                    toFaces(groupCorners, uvs != null), groupSmoothingGroups)));
+        }
+        return parts;
+    }
+
+    /**
+     * Converts point indices to JavaFX faces, whose texture coordinate indices are the point indices when the mesh
+     * has a texture coordinate per point, 0 otherwise.
+     */
+    private static int[] toFaces(final int[] corners, final boolean hasTexCoords) {
+
+        final int[] faces = new int[corners.length * 2];
+        for (int i = 0; i < corners.length; i++) {
+            faces[i * 2] = corners[i];
+            faces[i * 2 + 1] = hasTexCoords ? corners[i] : 0;
+        }
+        return faces;
+    }
+
+    /**
+     * Converts 3DS texture coordinates, whose v axis points up, to JavaFX ones.
+     */
+    private static float[] flipV(final float[] uvs) {
+
+        final float[] texCoords = new float[uvs.length];
+        for (int i = 0; i < uvs.length; i += 2) {
+            texCoords[i] = uvs[i];
+            texCoords[i + 1] = 1 - uvs[i + 1];
+        }
+        return texCoords;
+    }
+
+    private static float[] readFloats(final ByteBuffer view, final int data, final int end, final int perItem)
+            throws IOException {
+
+        final int count = view.getShort(data) & 0xFFFF;
+        if (data + 2 + count * perItem * 4L > end) {
+            throw new IOException("Truncated 3DS chunk at [" + data + "]");
+        }
+        final float[] values = new float[count * perItem];
+        view.position(data + 2);
+        view.asFloatBuffer().get(values);
+        return values;
+    }
+
+    private static int chunkId(final ByteBuffer buffer, final int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    /**
+     * Gets the end of a chunk, checking it lies within its parent.
+     */
+    private static int chunkEnd(final ByteBuffer buffer, final int offset, final int parentEnd) throws IOException {
+
+        final long length = buffer.getInt(offset + 2) & 0xFFFFFFFFL;
+        if (length < CHUNK_HEADER_SIZE || offset + length > parentEnd) {
+            throw new IOException("Malformed 3DS chunk at [" + offset + "]");
+        }
+        return (int) (offset + length);
+    }
+
+    private static int stringEnd(final ByteBuffer buffer, final int from, final int to) throws IOException {
+
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == 0) {
+                return i;
+            }
+        }
+        throw new IOException("Unterminated 3DS string at [" + from + "]");
+    }
+
+    private static String readString(final ByteBuffer buffer, final int from, final int to) {
+
+        final byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static double clamp(final double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    /**
+     * Material definition of a 3DS file.
+     */
+    private static final class MaterialEntry {
+
+        private String name;
+        private Color diffuse;
+        private Color specular;
+        private double shininess;
+        private double transparency;
+        private File textureFile;
+
+        PhongMaterial createMaterial() {
+
+            final Color color = diffuse != null ? diffuse : Color.GRAY;
+            final PhongMaterial material = new PhongMaterial(Color.color(color.getRed(), color.getGreen(),
+                    color.getBlue(), 1 - transparency));
+            if (specular != null) {
+                material.setSpecularColor(specular);
+                material.setSpecularPower(Math.max(1, shininess * MAX_SPECULAR_POWER));
+            }
+            if (textureFile != null) {
+                material.setDiffuseMap(new Image(textureFile.toURI().toString(), true));
+            }
+            return material;
+        }
+    }
+
+    /**
+     * Task decoding a range of objects, split down to single objects.
+     */
+    private static final class DecodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Index index;
+        private final List<Part>[] objectParts;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean cancelled;
+
+        DecodeTask(final Index index, final List<Part>[] objectParts, final int from, final int to,
+                final AtomicBoolean cancelled) {
+            this.index = index;
+            this.objectParts = objectParts;
+            this.from = from;
+            this.to = to;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from == 1) {
+                try {
+                    if (cancelled.get()) {
+                        throw new InterruptedIOException("Import cancelled");
+                    }
+                    objectParts[from] = index.decodeObject(from);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new DecodeTask(index, objectParts, from, middle, cancelled),
+                    new DecodeTask(index, objectParts, middle, to, cancelled));
+        }
+    }
+}
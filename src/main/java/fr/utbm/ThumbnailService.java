@@ -0,0 +1,604 @@
+package fr.utbm;
+
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Material;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Rotate;
+import javafx.scene.transform.Transform;
+import javafx.scene.transform.Translate;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders small previews of 3D files without display, and keeps them as PNG files in an on-disk cache, so folders of
+ * models can be browsed without opening each model.
+ *
+ * <p>
+ * Thumbnails are rendered by a bounded pool of worker threads, each importing a file through {@link Importer3D}
+ * without levels of detail nor model cache, then drawing its meshes in software with a depth buffer. The model is
+ * framed as when opened in the viewer, see {@link ViewerModel#adjustForSize()}, and lit from the camera; textures are
+ * not drawn, each part is shown in its diffuse color. The JavaFX toolkit is never started, as its software pipeline
+ * does not render 3D shapes: the service also runs on headless machines without a GPU.
+ * </p>
+ *
+ * <p>
+ * Thumbnails are keyed by the SHA-1 digest of the content of their file, so copies and moved files share their
+ * thumbnail while edited files get a new one. The digests are recorded in an index of the cache directory along with
+ * the size and modification time of the files, so unchanged files are not read again, and the least recently used
+ * thumbnails are deleted when the cache grows over its size cap.
+ * </p>
+ */
+public final class ThumbnailService implements Closeable {
+
+    /**
+     * System property giving the width and height of the thumbnails in pixels.
+     */
+    public static final String SIZE_PROPERTY = "fr.utbm.thumbnail.size";
+
+    /**
+     * System property giving the number of thumbnails rendered at once, 4 at most by default.
+     */
+    public static final String THREADS_PROPERTY = "fr.utbm.thumbnail.threads";
+
+    /**
+     * System property giving the directory of the thumbnail cache.
+     */
+    public static final String DIRECTORY_PROPERTY = "fr.utbm.thumbnail.dir";
+
+    /**
+     * System property giving the size cap of the thumbnail cache in megabytes.
+     */
+    public static final String MAX_SIZE_PROPERTY = "fr.utbm.thumbnail.maxSize";
+
+    private static final String DEFAULT_DIRECTORY = System.getProperty("user.home") + File.separator
+            + ".javafx3dimporter" + File.separator + "thumbnails";
+    private static final long DEFAULT_MAX_SIZE = 256;
+    private static final int DEFAULT_SIZE = 128;
+    private static final int MAX_DEFAULT_THREADS = 4;
+
+    private static final String ENTRY_SUFFIX = ".png";
+    private static final String INDEX_FILE = "index.properties";
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    // pixels drawn per pixel of the thumbnail along each axis, averaged to smooth the edges
+    private static final int SUPERSAMPLING = 2;
+
+    // vertical field of view of the camera of the viewer, in degrees
+    private static final double FIELD_OF_VIEW = 30;
+
+    // part of the color of a face lit at a grazing angle, so the silhouette of dark faces stays visible
+    private static final double AMBIENT = 0.25;
+
+    // color of the mesh views without a Phong material, as displayed by JavaFX
+    private static final Color DEFAULT_COLOR = Color.LIGHTGRAY;
+
+    private final File directory;
+    private final long maxSize;
+    private final int size;
+    private final ImportOptions options;
+    private final ExecutorService executor;
+    private final ConcurrentMap<File, Future<File>> pending = new ConcurrentHashMap<>();
+    private final Map<String, String> index = new ConcurrentHashMap<>();
+    private volatile boolean indexChanged;
+
+    /**
+     * Creates a service configured by the system properties.
+     */
+    public ThumbnailService() {
+        this(new File(System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY)),
+                Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE) * 1024 * 1024,
+                Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE), Integer.getInteger(THREADS_PROPERTY,
+                        Math.min(Runtime.getRuntime().availableProcessors(), MAX_DEFAULT_THREADS)));
+    }
+
+    /**
+     * Creates a service.
+     *
+     * @param directory the directory of the thumbnail cache, created if needed
+     * @param maxSize the maximum total size of the thumbnails in bytes
+     * @param size the width and height of the thumbnails in pixels
+     * @param threads the number of thumbnails rendered at once
+     */
+    public ThumbnailService(final File directory, final long maxSize, final int size, final int threads) {
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.size = size;
+
+        // the workers share the memory budget, and large models are decimated rather than refused when possible
+        options = new ImportOptions();
+        options.setCache(null);
+        options.setProgressive(false);
+        options.setLevelsOfDetail(false);
+        options.setMemoryManager(new GeometryMemoryManager(new GeometryMemoryManager().getBudget()
+                / Math.max(threads, 1)));
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+
+                final Thread thread = new Thread(runnable, "thumbnail-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        readIndex();
+    }
+
+    /**
+     * Renders the thumbnails of the files given as arguments, and of the supported files found in the directories given
+     * as arguments, into the thumbnail cache.
+     *
+     * <p>
+     * A line per file reports the thumbnail or the error. The exit status is 0 if all the thumbnails were rendered, 1
+     * if some failed and 2 for a usage error.
+     * </p>
+     *
+     * @param args the files and directories whose thumbnails are rendered
+     */
+    public static void main(final String[] args) {
+
+        if (args.length == 0) {
+            System.err.println("Usage: java " + ThumbnailService.class.getName() + " <file or directory>...");
+            System.exit(2);
+        }
+        final List<File> files = new ArrayList<>();
+        try {
+            for (String arg : args) {
+                BatchImporter.collectFiles(new File(arg), files);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot list files: " + e.getMessage());
+            System.exit(2);
+        }
+
+        final long start = System.nanoTime();
+        int failures = 0;
+        try (ThumbnailService service = new ThumbnailService()) {
+            final List<Future<File>> thumbnails = new ArrayList<>();
+            for (File file : files) {
+                thumbnails.add(service.request(file));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    System.out.println("OK      " + files.get(i) + ": " + thumbnails.get(i).get());
+                } catch (ExecutionException e) {
+                    System.out.println("FAILED  " + files.get(i) + ": " + e.getCause());
+                    failures++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+        System.out.println(String.format(Locale.ROOT, "%d files, %d failed in %.1f s", files.size(), failures,
+                (System.nanoTime() - start) / 1e9));
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * Gets the directory of the thumbnail cache.
+     *
+     * @return the directory of the cache
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the width and height of the thumbnails.
+     *
+     * @return the size of the thumbnails in pixels
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the thumbnail of a file if it is in the cache, without reading the file. The thumbnails of files not seen
+     * before, or changed since, are only found by {@link #request(File)}.
+     *
+     * @param file the 3D file
+     * @return the PNG file of the thumbnail, or {@code null} if it is not in the cache
+     */
+    public File getCachedThumbnail(final File file) {
+
+        final String digest = getIndexedDigest(file);
+        if (digest == null) {
+            return null;
+        }
+        final File entry = getEntryFile(digest);
+        if (!entry.isFile()) {
+            return null;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Requests the thumbnail of a file, rendered by the workers unless it is in the cache.
+     *
+     * <p>
+     * Requests of a file already requested share the same future. Cancelling it with interruption stops the import
+     * and the rendering of the thumbnail, e.g. when the file is scrolled out of view, for every requester.
+     * </p>
+     *
+     * @param file the 3D file
+     * @return the future PNG file of the thumbnail, failing with an {@link IOException} if the file cannot be imported
+     */
+    public Future<File> request(final File file) {
+
+        final FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+
+            @Override
+            public File call() throws IOException {
+                return getThumbnail(file);
+            }
+        }) {
+
+            @Override
+            protected void done() {
+                pending.remove(file, this);
+            }
+        };
+        final Future<File> requested = pending.putIfAbsent(file, task);
+        if (requested != null) {
+            return requested;
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Gets the thumbnail of a file, rendering it on the calling thread unless it is in the cache.
+     *
+     * @param file the 3D file
+     * @return the PNG file of the thumbnail
+     * @throws IOException if the file cannot be read or imported, or the thumbnail cannot be written
+     */
+    public File getThumbnail(final File file) throws IOException {
+
+        final File entry = getEntryFile(digest(file));
+        if (entry.isFile()) {
+            entry.setLastModified(System.currentTimeMillis());
+            return entry;
+        }
+
+        final BufferedImage image = render(file);
+        Files.createDirectories(directory.toPath());
+        final File temp = File.createTempFile("thumbnail", ".tmp", directory);
+        try {
+            if (!ImageIO.write(image, "png", temp)) {
+                throw new IOException("No PNG writer");
+            }
+            Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        MeshCache.evict(directory, ENTRY_SUFFIX, maxSize);
+        return entry;
+    }
+
+    /**
+     * Stops the workers, cancelling the pending requests, and saves the index of the cache.
+     */
+    @Override
+    public void close() {
+
+        executor.shutdownNow();
+        writeIndex();
+    }
+
+    /**
+     * Renders a thumbnail.
+     *
+     * @param file the 3D file
+     * @return the thumbnail, transparent where no mesh is drawn
+     * @throws IOException if the file cannot be imported, or the rendering is interrupted
+     */
+    private BufferedImage render(final File file) throws IOException {
+
+        final Group content = Importer3D.load(file.toURI().toString(), options);
+        final Rasterizer rasterizer = new Rasterizer(size * SUPERSAMPLING);
+        final double scale = ViewerModel.frame(content);
+        if (scale > 0) {
+            final Transform camera = new Rotate(ViewerModel.CAMERA_ANGLE, Rotate.X_AXIS)
+                    .createConcatenation(new Rotate(ViewerModel.CAMERA_ANGLE, Rotate.Y_AXIS))
+                    .createConcatenation(new Translate(0, 0, -ViewerModel.CAMERA_DISTANCE * scale));
+            try {
+                draw(content, camera.createInverse(), scale, rasterizer);
+            } catch (NonInvertibleTransformException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return rasterizer.toImage(SUPERSAMPLING);
+    }
+
+    private static void draw(final Node node, final Transform parentTransform, final double scale,
+            final Rasterizer rasterizer) throws IOException {
+
+        final Transform transform = parentTransform.createConcatenation(node.getLocalToParentTransform());
+        if (node instanceof MeshView && ((MeshView) node).getMesh() instanceof TriangleMesh) {
+            Importer3D.checkInterrupted();
+            final MeshView meshView = (MeshView) node;
+            final Material material = meshView.getMaterial();
+            final Color color = material instanceof PhongMaterial ? ((PhongMaterial) material).getDiffuseColor()
+                    : DEFAULT_COLOR;
+            rasterizer.draw((TriangleMesh) meshView.getMesh(), transform, scale, color);
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                draw(child, transform, scale, rasterizer);
+            }
+        }
+    }
+
+    private File getEntryFile(final String digest) {
+        return new File(directory, digest + "-" + size + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Gets the digest of the content of a file, read from the index if the file did not change since it was digested.
+     */
+    private String digest(final File file) throws IOException {
+
+        final String indexed = getIndexedDigest(file);
+        if (indexed != null) {
+            return indexed;
+        }
+        final String stamp = getStamp(file);
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream input = new FileInputStream(file)) {
+            final byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) >= 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        final String hex = MeshCache.toHex(digest.digest());
+        index.put(file.getAbsolutePath(), stamp + hex);
+        indexChanged = true;
+        return hex;
+    }
+
+    private String getIndexedDigest(final File file) {
+
+        final String indexed = index.get(file.getAbsolutePath());
+        final String stamp = getStamp(file);
+        return indexed != null && indexed.startsWith(stamp) ? indexed.substring(stamp.length()) : null;
+    }
+
+    private static String getStamp(final File file) {
+        return file.length() + ":" + file.lastModified() + ":";
+    }
+
+    private void readIndex() {
+
+        final File file = new File(directory, INDEX_FILE);
+        if (!file.isFile()) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(file)) {
+            properties.load(input);
+        } catch (IOException e) {
+            // the digests are computed again
+            e.printStackTrace();
+            return;
+        }
+        for (String path : properties.stringPropertyNames()) {
+            index.put(path, properties.getProperty(path));
+        }
+    }
+
+    private synchronized void writeIndex() {
+
+        if (!indexChanged) {
+            return;
+        }
+        indexChanged = false;
+        final Properties properties = new Properties();
+        properties.putAll(index);
+        try {
+            Files.createDirectories(directory.toPath());
+            final File temp = File.createTempFile("index", ".tmp", directory);
+            try {
+                try (OutputStream output = new FileOutputStream(temp)) {
+                    properties.store(output, "Digests of the content of the 3D files: size:last modified:SHA-1");
+                }
+                Files.move(temp.toPath(), new File(directory, INDEX_FILE).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Draws flat shaded triangles with a depth buffer, as seen by the perspective camera of the viewer.
+     */
+    private static final class Rasterizer {
+
+        private final int size;
+        private final int[] colors;
+        // inverse of the depth of each pixel, 0 where nothing is drawn
+        private final float[] inverseDepths;
+        private final double focal;
+
+        Rasterizer(final int size) {
+
+            this.size = size;
+            colors = new int[size * size];
+            inverseDepths = new float[size * size];
+            focal = size / 2.0 / Math.tan(Math.toRadians(FIELD_OF_VIEW / 2));
+        }
+
+        /**
+         * Draws a mesh.
+         *
+         * @param mesh the mesh
+         * @param transform the transform from the coordinates of the mesh to the coordinates of the camera
+         * @param scale the scale of the content, the triangles closer to the camera being clipped
+         * @param color the color of the mesh
+         */
+        void draw(final TriangleMesh mesh, final Transform transform, final double scale, final Color color) {
+
+            final float[] points = mesh.getPoints().toArray(null);
+            final int pointCount = points.length / 3;
+            final float[] x = new float[pointCount];
+            final float[] y = new float[pointCount];
+            final float[] z = new float[pointCount];
+            final double mxx = transform.getMxx(), mxy = transform.getMxy(), mxz = transform.getMxz();
+            final double myx = transform.getMyx(), myy = transform.getMyy(), myz = transform.getMyz();
+            final double mzx = transform.getMzx(), mzy = transform.getMzy(), mzz = transform.getMzz();
+            final double tx = transform.getTx(), ty = transform.getTy(), tz = transform.getTz();
+            for (int i = 0; i < pointCount; i++) {
+                final double px = points[3 * i], py = points[3 * i + 1], pz = points[3 * i + 2];
+                x[i] = (float) (mxx * px + mxy * py + mxz * pz + tx);
+                y[i] = (float) (myx * px + myy * py + myz * pz + ty);
+                z[i] = (float) (mzx * px + mzy * py + mzz * pz + tz);
+            }
+
+            // as in the viewer, whose near clip is 1 for content scaled to 1
+            final float nearClip = (float) scale;
+            final int[] faces = mesh.getFaces().toArray(null);
+            final int vertexSize = mesh.getFaceElementSize() / 3;
+            for (int f = 0; f + 3 * vertexSize <= faces.length; f += 3 * vertexSize) {
+                final int a = faces[f], b = faces[f + vertexSize], c = faces[f + 2 * vertexSize];
+                if (z[a] < nearClip || z[b] < nearClip || z[c] < nearClip) {
+                    continue;
+                }
+
+                // lit by a light at the camera, whichever side of the face is seen
+                final double ux = x[b] - x[a], uy = y[b] - y[a], uz = z[b] - z[a];
+                final double vx = x[c] - x[a], vy = y[c] - y[a], vz = z[c] - z[a];
+                final double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+                final double cx = x[a] + x[b] + x[c], cy = y[a] + y[b] + y[c], cz = z[a] + z[b] + z[c];
+                final double lengths = Math.sqrt((nx * nx + ny * ny + nz * nz) * (cx * cx + cy * cy + cz * cz));
+                if (lengths == 0) {
+                    continue;
+                }
+                final double light = AMBIENT + (1 - AMBIENT) * Math.abs(nx * cx + ny * cy + nz * cz) / lengths;
+                final int argb = 0xFF000000 | (int) Math.round(color.getRed() * light * 255) << 16
+                        | (int) Math.round(color.getGreen() * light * 255) << 8
+                        | (int) Math.round(color.getBlue() * light * 255);
+                fill(project(x[a], z[a]), project(y[a], z[a]), 1 / z[a], project(x[b], z[b]), project(y[b], z[b]),
+                        1 / z[b], project(x[c], z[c]), project(y[c], z[c]), 1 / z[c], argb);
+            }
+        }
+
+        private float project(final float coordinate, final float depth) {
+            return (float) (size / 2.0 + focal * coordinate / depth);
+        }
+
+        private void fill(final float ax, final float ay, final float aw, final float bx, final float by,
+                final float bw, final float cx, final float cy, final float cw, final int argb) {
+
+            final float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+            if (area == 0) {
+                return;
+            }
+            final int minX = Math.max((int) Math.floor(Math.min(ax, Math.min(bx, cx))), 0);
+            final int maxX = Math.min((int) Math.ceil(Math.max(ax, Math.max(bx, cx))), size - 1);
+            final int minY = Math.max((int) Math.floor(Math.min(ay, Math.min(by, cy))), 0);
+            final int maxY = Math.min((int) Math.ceil(Math.max(ay, Math.max(by, cy))), size - 1);
+            for (int py = minY; py <= maxY; py++) {
+                final float sy = py + 0.5f;
+                for (int px = minX; px <= maxX; px++) {
+                    final float sx = px + 0.5f;
+                    // barycentric coordinates, positive inside the triangle whatever its winding
+                    final float wa = ((cx - bx) * (sy - by) - (cy - by) * (sx - bx)) / area;
+                    final float wb = ((ax - cx) * (sy - cy) - (ay - cy) * (sx - cx)) / area;
+                    final float wc = 1 - wa - wb;
+                    if (wa < 0 || wb < 0 || wc < 0) {
+                        continue;
+                    }
+                    // the inverse of the depth is linear on screen
+                    final float inverseDepth = wa * aw + wb * bw + wc * cw;
+                    final int pixel = py * size + px;
+                    if (inverseDepth > inverseDepths[pixel]) {
+                        inverseDepths[pixel] = inverseDepth;
+                        colors[pixel] = argb;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Averages the drawn pixels into an image.
+         *
+         * @param sampling the number of drawn pixels per pixel of the image along each axis
+         * @return the image, whose pixels are transparent where nothing was drawn
+         */
+        BufferedImage toImage(final int sampling) {
+
+            final int imageSize = size / sampling;
+            final BufferedImage image = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
+            final int samples = sampling * sampling;
+            for (int y = 0; y < imageSize; y++) {
+                for (int x = 0; x < imageSize; x++) {
+                    int drawn = 0, red = 0, green = 0, blue = 0;
+                    for (int sy = 0; sy < sampling; sy++) {
+                        for (int sx = 0; sx < sampling; sx++) {
+                            final int argb = colors[(y * sampling + sy) * size + x * sampling + sx];
+                            if (argb != 0) {
+                                drawn++;
+                                red += argb >> 16 & 0xFF;
+                                green += argb >> 8 & 0xFF;
+                                blue += argb & 0xFF;
+                            }
+                        }
+                    }
+                    if (drawn > 0) {
+                        image.setRGB(x, y, 255 * drawn / samples << 24 | red / drawn << 16 | green / drawn << 8
+                                | blue / drawn);
+                    }
+                }
+            }
+            return image;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package fr.utbm;
+
+import java.util.Arrays;
+
+/**
+ * Import stage merging coincident points of a mesh, typically the triangle soup of an STL file.
+ *
+ * <p>
+ * Points are looked up in a primitive open-addressing hash table keyed either on their exact coordinates or on
+ * their coordinates quantized to a grid of a given tolerance. No object is created per point, so meshes of tens of
+ * millions of triangles can be welded.
+ * </p>
+ */
+public final class VertexWelder {
+
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+    private static final int MIN_CAPACITY = 16;
+
+    private VertexWelder() {
+    }
+
+    /**
+     * Welds the points of a mesh.
+     *
+     * <p>
+     * The face array of the given mesh is rewritten in place, so the mesh must not be used afterwards. A mesh without
+     * smoothing groups gets smoothing group 0 on every face, so it keeps the flat shading it had before its points
+     * were shared. With a positive tolerance, faces collapsed by the welding are removed.
+     * </p>
+     *
+     * @param mesh the mesh to weld
+     * @param tolerance the size of the grid cells points are snapped to, or 0 to merge only identical points
+     * @return the welded mesh and its statistics
+     */
+    public static Result weld(final MeshData mesh, final float tolerance) {
+
+        final float[] points = mesh.getPoints();
+        final int pointCount = mesh.getPointCount();
+        final Table table = tolerance > 0 ? new QuantizedTable(pointCount, 1 / tolerance) : new ExactTable(pointCount);
+
+        final int[] remap = new int[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            remap[i] = table.add(points, i * 3);
+        }
+
+        final int[] faces = mesh.getFaces();
+        for (int f = 0; f < faces.length; f += 2) {
+            faces[f] = remap[faces[f]];
+        }
+
+        int[] smoothingGroups = mesh.getFaceSmoothingGroups();
+        if (smoothingGroups == null || smoothingGroups.length == 0) {
+            smoothingGroups = new int[mesh.getFaceCount()];
+        }
+
+        int faceCount = mesh.getFaceCount();
+        if (tolerance > 0) {
+            faceCount = removeCollapsedFaces(faces, smoothingGroups);
+        }
+
+        final MeshData welded = new MeshData(table.getPoints(), mesh.getTexCoords(),
+                faceCount == mesh.getFaceCount() ? faces : Arrays.copyOf(faces, faceCount * 6),
+                faceCount == smoothingGroups.length ? smoothingGroups : Arrays.copyOf(smoothingGroups, faceCount));
+        return new Result(welded, pointCount, mesh.getFaceCount());
+    }
+
+    private static int removeCollapsedFaces(final int[] faces, final int[] smoothingGroups) {
+
+        int kept = 0;
+        for (int face = 0, f = 0; f < faces.length; face++, f += 6) {
+            final int p0 = faces[f];
+            final int p1 = faces[f + 2];
+            final int p2 = faces[f + 4];
+            if (p0 == p1 || p1 == p2 || p2 == p0) {
+                continue;
+            }
+            if (kept != face) {
+                System.arraycopy(faces, f, faces, kept * 6, 6);
+                smoothingGroups[kept] = smoothingGroups[face];
+            }
+            kept++;
+        }
+        return kept;
+    }
+
+    private static int mix(long hash) {
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+
+    /**
+     * The result of welding a mesh.
+     */
+    public static final class Result {
+
+        private final MeshData mesh;
+        private final int pointCountBefore;
+        private final int pointCountAfter;
+        private final int faceCountBefore;
+        private final int faceCountAfter;
+
+        Result(final MeshData mesh, final int pointCountBefore, final int faceCountBefore) {
+            this(mesh, pointCountBefore, mesh.getPointCount(), faceCountBefore, mesh.getFaceCount());
+        }
+
+        private Result(final MeshData mesh, final int pointCountBefore, final int pointCountAfter,
+                final int faceCountBefore, final int faceCountAfter) {
+            this.mesh = mesh;
+            this.pointCountBefore = pointCountBefore;
+            this.pointCountAfter = pointCountAfter;
+            this.faceCountBefore = faceCountBefore;
+            this.faceCountAfter = faceCountAfter;
+        }
+
+        /**
+         * Gets the statistics of this result, without holding on to the welded mesh.
+         *
+         * @return the statistics of this result
+         */
+        public Result getStatistics() {
+            return new Result(null, pointCountBefore, pointCountAfter, faceCountBefore, faceCountAfter);
+        }
+
+        /**
+         * Combines the statistics of two welded meshes, typically two batches of the same file.
+         *
+         * @param other the result of the other mesh
+         * @return the combined statistics, without mesh
+         */
+        public Result combine(final Result other) {
+            return new Result(null, pointCountBefore + other.pointCountBefore, pointCountAfter + other.pointCountAfter,
+                    faceCountBefore + other.faceCountBefore, faceCountAfter + other.faceCountAfter);
+        }
+
+        /**
+         * Gets the welded mesh.
+         *
+         * @return the welded mesh, or {@code null} for combined statistics
+         */
+        public MeshData getMesh() {
+            return mesh;
+        }
+
+        /**
+         * Gets the number of points before welding.
+         *
+         * @return the number of points of the original mesh
+         */
+        public int getPointCountBefore() {
+            return pointCountBefore;
+        }
+
+        /**
+         * Gets the number of points after welding.
+         *
+         * @return the number of points of the welded mesh
+         */
+        public int getPointCountAfter() {
+            return pointCountAfter;
+        }
+
+        /**
+         * Gets the number of faces before welding.
+         *
+         * @return the number of faces of the original mesh
+         */
+        public int getFaceCountBefore() {
+            return faceCountBefore;
+        }
+
+        /**
+         * Gets the number of faces after welding, lower than before if faces collapsed.
+         *
+         * @return the number of faces of the welded mesh
+         */
+        public int getFaceCountAfter() {
+            return faceCountAfter;
+        }
+
+        @Override
+        public String toString() {
+            return "welded " + pointCountBefore + " points to " + pointCountAfter;
+        }
+    }
+
+    /**
+     * Open-addressing hash set of points, storing the index of each unique point in an int array. The coordinates of
+     * a unique point are those of its first occurrence.
+     */
+    private abstract static class Table {
+
+        private int[] slots;
+        private int mask;
+        private float[] uniquePoints;
+        private int size;
+
+        Table(final int expectedPoints) {
+
+            // a triangle soup typically shares each point between about six triangles
+            final int expectedUnique = Math.max(expectedPoints / 4, MIN_CAPACITY);
+            final float minCapacity = Math.min(expectedUnique / MAX_LOAD_FACTOR, 1 << 29);
+            final int capacity = Integer.highestOneBit((int) minCapacity) << 1;
+            slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            mask = capacity - 1;
+            uniquePoints = new float[expectedUnique * 3];
+        }
+
+        /**
+         * Adds a point to the table if no equal point is present.
+         *
+         * @param points the coordinates of the points
+         * @param offset the offset of the point coordinates
+         * @return the index of the unique point equal to the given one
+         */
+        final int add(final float[] points, final int offset) {
+
+            final float x = points[offset];
+            final float y = points[offset + 1];
+            final float z = points[offset + 2];
+
+            int slot = hash(x, y, z) & mask;
+            int index;
+            while ((index = slots[slot]) >= 0) {
+                final int u = index * 3;
+                if (matches(uniquePoints[u], uniquePoints[u + 1], uniquePoints[u + 2], x, y, z)) {
+                    return index;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            index = size++;
+            slots[slot] = index;
+            if (index * 3 + 3 > uniquePoints.length) {
+                uniquePoints = Arrays.copyOf(uniquePoints, uniquePoints.length + (uniquePoints.length >> 1) + 3);
+            }
+            uniquePoints[index * 3] = x;
+            uniquePoints[index * 3 + 1] = y;
+            uniquePoints[index * 3 + 2] = z;
+
+            if (size > slots.length * MAX_LOAD_FACTOR) {
+                rehash();
+            }
+            return index;
+        }
+
+        /**
+         * Gets the coordinates of the unique points, in order of first occurrence.
+         *
+         * @return the coordinates of the unique points
+         */
+        final float[] getPoints() {
+            return uniquePoints.length == size * 3 ? uniquePoints : Arrays.copyOf(uniquePoints, size * 3);
+        }
+
+        private void rehash() {
+
+            slots = new int[slots.length << 1];
+            Arrays.fill(slots, -1);
+            mask = slots.length - 1;
+            for (int index = 0; index < size; index++) {
+                final int u = index * 3;
+                int slot = hash(uniquePoints[u], uniquePoints[u + 1], uniquePoints[u + 2]) & mask;
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = index;
+            }
+        }
+
+        abstract int hash(float x, float y, float z);
+
+        abstract boolean matches(float ux, float uy, float uz, float x, float y, float z);
+    }
+
+    /**
+     * Table merging points with identical coordinates, 0 and -0 being considered equal.
+     */
+    private static final class ExactTable extends Table {
+
+        ExactTable(final int expectedPoints) {
+            super(expectedPoints);
+        }
+
+        @Override
+        int hash(final float x, final float y, final float z) {
+            return mix((bits(x) * 31L + bits(y)) * 31L + bits(z));
+        }
+
+        @Override
+        boolean matches(final float ux, final float uy, final float uz, final float x, final float y, final float z) {
+            return bits(ux) == bits(x) && bits(uy) == bits(y) && bits(uz) == bits(z);
+        }
+
+        private static int bits(final float value) {
+            return value == 0 ? 0 : Float.floatToIntBits(value);
+        }
+    }
+
+    /**
+     * Table merging points falling in the same cell of a grid.
+     */
+    private static final class QuantizedTable extends Table {
+
+        private final float scale;
+
+        QuantizedTable(final int expectedPoints, final float scale) {
+            super(expectedPoints);
+            this.scale = scale;
+        }
+
+        @Override
+        int hash(final float x, final float y, final float z) {
+            return mix((quantize(x) * 31L + quantize(y)) * 31L + quantize(z));
+        }
+
+        @Override
+        boolean matches(final float ux, final float uy, final float uz, final float x, final float y, final float z) {
+            return quantize(ux) == quantize(x) && quantize(uy) == quantize(y) && quantize(uz) == quantize(z);
+        }
+
+        private long quantize(final float value) {
+            return Math.round((double) value * scale);
+        }
+    }
+}
@@ -4,23 +4,38 @@ import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.beans.binding.DoubleBinding;
 import javafx.beans.property.DoubleProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.Group;
+import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.input.DragEvent;
 import javafx.scene.input.Dragboard;
+import javafx.scene.input.InputEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
 import javafx.stage.FileChooser;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller for Viewer.fxml.
@@ -30,6 +45,23 @@ import java.util.ResourceBundle;
  * </p>
  */
 public class ViewerController implements Initializable {
+
+    /**
+     * System property enabling rendering on demand, {@code true} by default: the frame rate meter, which makes JavaFX
+     * render continuously, stops once nothing changes on screen, so an idle viewer renders no frame.
+     */
+    public static final String RENDER_ON_DEMAND_PROPERTY = "fr.utbm.renderOnDemand";
+
+    /**
+     * System property giving the duration in milliseconds over which frames are logged as long, 50 by default.
+     */
+    public static final String LONG_FRAME_PROPERTY = "fr.utbm.profiler.longFrameMillis";
+
+    /**
+     * System property giving the file the histogram of the frame times is exported to when the viewer exits, in JSON
+     * if its name ends with {@code .json}, in CSV otherwise.
+     */
+    public static final String FRAME_PROFILE_PROPERTY = "fr.utbm.profiler.export";
     
     private static final String NEAR_CLIP_TOOLTIP_TEXT = "Camera near-clip value";
     private static final String FAR_CLIP_TOOLTIP_TEXT = "Camera far-clip value";
@@ -41,6 +73,28 @@ public class ViewerController implements Initializable {
     private static final double MAX_NEAR_CLIP = 10;
     private static final double MIN_FAR_CLIP = 100;
     private static final double MAX_FAR_CLIP = 1e7;
+
+    // pulses after the content is attached until a frame showing it has been rendered
+    private static final int FIRST_FRAME_PULSES = 2;
+
+    // number of frames the frame rate driving the interaction quality is measured over
+    private static final int RECENT_FRAMES = 10;
+
+    // time without change after which frames stop being rendered
+    private static final long IDLE_DELAY_NANOS = 1_000_000_000L;
+    private static final long CPU_SAMPLE_PERIOD_MILLIS = 2000;
+    private static final long OVERLAY_PERIOD_NANOS = 1_000_000_000L;
+
+    private static final ScheduledExecutorService CPU_SAMPLER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "cpu-sampler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     
     @FXML
     private Pane outerPane;
@@ -53,6 +107,8 @@ public class ViewerController implements Initializable {
     @FXML
     private ToggleButton rotateButton;
     @FXML
+    private ToggleButton multiModelButton;
+    @FXML
     private Label nearClipLabel;
     @FXML
     private Label farClipLabel;
@@ -66,40 +122,101 @@ public class ViewerController implements Initializable {
     private Label status;
     @FXML
     private Label fpsLabel;
+    @FXML
+    private Label frameTimesLabel;
+    @FXML
+    private Label cpuLabel;
+    @FXML
+    private Label loadMetricsLabel;
 
     private File loadedPath;
     private ViewerModel model;
+    private ModelLoadService loadService;
+    private final MeshInstancer instancer = new MeshInstancer();
+    private final GeometryMemoryManager memoryManager = new GeometryMemoryManager();
+    private ModelPrefetcher prefetcher;
+    private boolean prefetchPending;
+    private boolean showingPrefetched;
+    private final ViewerMetrics metrics = ViewerMetrics.register();
+    private LoadMetrics firstFrameMetrics;
+    private int firstFramePulses;
 
-    private final long[] frameTimes = new long[100];
-    private int frameTimeIndex = 0 ;
-    private boolean arrayFilled = false ;
+    private final FrameProfiler profiler = new FrameProfiler(Double.parseDouble(System.getProperty(
+            LONG_FRAME_PROPERTY, "50")));
+    private final long[] recentPulses = new long[RECENT_FRAMES];
+    private int recentPulseIndex;
+    private int recentPulseCount;
+    private long lastPulseNanos = -1;
+    private long lastOverlayNanos;
+    private int activities;
+    private LoadMetrics lastAttachMetrics;
+    private long lastAttachNanos;
+    private AnimationTimer frameRateMeter;
+    private final boolean renderOnDemand = Boolean.parseBoolean(System.getProperty(RENDER_ON_DEMAND_PROPERTY,
+            "true"));
+    private boolean frameRateMeterRunning;
+    private long lastChangeNanos;
 
     @Override
     public void initialize(final URL location, final ResourceBundle resources) {
 
-        // FPS counter
-        AnimationTimer frameRateMeter = new AnimationTimer() {
+        // FPS counter and frame profiler, which allocate nothing per frame but the overlay text once per second
+        frameRateMeter = new AnimationTimer() {
 
             @Override
-            public void handle(long now) {
-                long oldFrameTime = frameTimes[frameTimeIndex] ;
-                frameTimes[frameTimeIndex] = now ;
-                frameTimeIndex = (frameTimeIndex + 1) % frameTimes.length ;
-                if (frameTimeIndex == 0) {
-                    arrayFilled = true ;
+            public void handle(final long now) {
+
+                if (isIdle()) {
+                    stopFrameRateMeter();
+                    return;
+                }
+                if (lastPulseNanos >= 0) {
+                    profiler.recordFrame(now - lastPulseNanos, activities | currentActivities());
+                } else {
+                    lastOverlayNanos = now;
                 }
-                if (arrayFilled) {
-                    long elapsedNanos = now - oldFrameTime ;
-                    long elapsedNanosPerFrame = elapsedNanos / frameTimes.length ;
-                    double frameRate = 1_000_000_000.0 / elapsedNanosPerFrame ;
-                    fpsLabel.setText(String.format("%.3f", frameRate));
+                activities = 0;
+                lastPulseNanos = now;
+
+                final long oldPulse = recentPulses[recentPulseIndex];
+                recentPulses[recentPulseIndex] = now;
+                recentPulseIndex = (recentPulseIndex + 1) % RECENT_FRAMES;
+                if (recentPulseCount < RECENT_FRAMES) {
+                    recentPulseCount++;
+                } else {
+                    model.updateInteractionQuality(RECENT_FRAMES * 1_000_000_000.0 / (now - oldPulse));
+                }
+
+                if (firstFrameMetrics != null && ++firstFramePulses >= FIRST_FRAME_PULSES) {
+                    firstFrameMetrics.firstFrameRendered();
+                    firstFrameMetrics = null;
+                    updateLoadMetrics();
+                }
+                if (now - lastOverlayNanos >= OVERLAY_PERIOD_NANOS) {
+                    updateFrameOverlay(now);
                 }
             }
         };
-        frameRateMeter.start();
+        metrics.setFrameProfiler(profiler);
+        final String profileFile = System.getProperty(FRAME_PROFILE_PROPERTY);
+        if (profileFile != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        profiler.export(new File(profileFile));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, "frame-profile-export"));
+        }
 
         model = new ViewerModel();
         subSceneContainer.setSubScene(model.getSubScene());
+        initializeRenderOnDemand();
+        wake();
 
         subSceneContainer.prefWidthProperty().bind(outerPane.widthProperty());
         subSceneContainer.prefHeightProperty().bind(outerPane.heightProperty());
@@ -107,8 +224,41 @@ public class ViewerController implements Initializable {
         controlsOverlay.prefWidthProperty().bind(subSceneContainer.widthProperty().subtract(20));
         
         rotateButton.disableProperty().bind(model.contentProperty().isNull());
+        model.contentProperty().addListener(new ChangeListener<Node>() {
+
+            @Override
+            public void changed(final ObservableValue<? extends Node> ov, final Node oldContent,
+                    final Node newContent) {
+
+                activities |= FrameProfiler.ATTACH;
+                // prefetched content brings its own metrics, the load service ones are of another file
+                if (showingPrefetched) {
+                    return;
+                }
+                final LoadMetrics loadMetrics = loadService.getMetrics();
+                if (newContent != null && loadMetrics != null && loadMetrics.getFirstFrameNanos() < 0) {
+                    firstFrameMetrics = loadMetrics;
+                    firstFramePulses = 0;
+                }
+            }
+        });
+        model.selectionProperty().addListener(new ChangeListener<MeshView>() {
+
+            @Override
+            public void changed(final ObservableValue<? extends MeshView> ov, final MeshView oldSelection,
+                    final MeshView newSelection) {
+
+                if (newSelection != null) {
+                    final TriangleMesh mesh = LevelOfDetail.getFullMesh(newSelection);
+                    updateStatus("Selected " + (newSelection.getId() != null ? newSelection.getId() : "part") + ", "
+                            + mesh.getPoints().size() / 3 + " points, "
+                            + mesh.getFaces().size() / mesh.getFaceElementSize() + " faces");
+                }
+            }
+        });
         
         initializeClipSliders();
+        initializeLoadService();
         initializeProgressIndicator();
      
         addDragDropHandlers();
@@ -118,6 +268,155 @@ public class ViewerController implements Initializable {
 
     }
 
+    /**
+     * Restarts the frame rate meter on every change of the scene: input moving the camera, camera settings, size of
+     * the view, content and loads. Also starts the sampling of the CPU usage shown in the overlay.
+     */
+    private void initializeRenderOnDemand() {
+
+        final ChangeListener<Object> changeListener = new ChangeListener<Object>() {
+
+            @Override
+            public void changed(final ObservableValue<? extends Object> ov, final Object oldValue,
+                    final Object newValue) {
+                wake();
+            }
+        };
+        model.getSubScene().widthProperty().addListener(changeListener);
+        model.getSubScene().heightProperty().addListener(changeListener);
+        model.getCamera().nearClipProperty().addListener(changeListener);
+        model.getCamera().farClipProperty().addListener(changeListener);
+        model.contentProperty().addListener(changeListener);
+        final EventHandler<InputEvent> inputHandler = new EventHandler<InputEvent>() {
+
+            @Override
+            public void handle(final InputEvent event) {
+                wake();
+            }
+        };
+        model.getSubScene().addEventFilter(MouseEvent.MOUSE_PRESSED, inputHandler);
+        model.getSubScene().addEventFilter(MouseEvent.MOUSE_DRAGGED, inputHandler);
+        model.getSubScene().addEventFilter(ScrollEvent.ANY, inputHandler);
+
+        CPU_SAMPLER.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+
+                final double cpuUsage = metrics.sampleCpuUsage();
+                final String text = cpuUsage >= 0 ? String.format(Locale.ROOT, "%.0f %%", cpuUsage) : "n/a";
+                Platform.runLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        // an unchanged label does not trigger a frame, so whole percents keep an idle viewer idle
+                        if (!text.equals(cpuLabel.getText())) {
+                            cpuLabel.setText(text);
+                        }
+                    }
+                });
+            }
+        }, 0, CPU_SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a change of the scene, restarting the frame rate meter if it was stopped.
+     */
+    private void wake() {
+
+        lastChangeNanos = System.nanoTime();
+        if (!frameRateMeterRunning) {
+            // the idle time is not a frame
+            lastPulseNanos = -1;
+            recentPulseCount = 0;
+            profiler.getRecent().reset();
+            frameRateMeterRunning = true;
+            metrics.setIdle(false);
+            frameRateMeter.start();
+        }
+    }
+
+    /**
+     * Whether nothing changed on screen for a while, so frames no longer need to be rendered.
+     */
+    private boolean isIdle() {
+
+        return renderOnDemand && !model.isAnimating() && !loadService.isRunning() && firstFrameMetrics == null
+                && System.nanoTime() - lastChangeNanos > IDLE_DELAY_NANOS;
+    }
+
+    private void stopFrameRateMeter() {
+
+        frameRateMeter.stop();
+        frameRateMeterRunning = false;
+        metrics.setIdle(true);
+        fpsLabel.setText("idle");
+        if (prefetchPending) {
+            prefetchPending = false;
+            prefetcher.prefetchNeighbours(loadedPath);
+        }
+    }
+
+    /**
+     * Prefetches the neighbours of the displayed file once the viewer is idle, or at once if frames are always
+     * rendered, so the prefetch does not slow down the first frames of the displayed model.
+     */
+    private void schedulePrefetch() {
+
+        if (prefetcher == null || model.isMultiModel()) {
+            return;
+        }
+        if (renderOnDemand) {
+            prefetchPending = true;
+        } else {
+            prefetcher.prefetchNeighbours(loadedPath);
+        }
+    }
+
+    /**
+     * Gets what the viewer is doing at the current frame, for the frame profiler.
+     */
+    private int currentActivities() {
+
+        int current = 0;
+        if (loadService.isRunning()) {
+            current |= FrameProfiler.LOADING;
+        }
+        // parts of progressive loads are attached by the load service, which records the time spent
+        final LoadMetrics loadMetrics = loadService.getMetrics();
+        final long attachNanos = loadMetrics != null ? loadMetrics.getStageNanos(LoadMetrics.Stage.ATTACH) : 0;
+        if (loadMetrics == lastAttachMetrics && attachNanos != lastAttachNanos) {
+            current |= FrameProfiler.ATTACH;
+        }
+        lastAttachMetrics = loadMetrics;
+        lastAttachNanos = attachNanos;
+        if (model.isInteracting()) {
+            current |= FrameProfiler.INTERACTION;
+        }
+        if (model.isRotating()) {
+            current |= FrameProfiler.ROTATION;
+        }
+        return current;
+    }
+
+    /**
+     * Updates the FPS counter and the frame time percentiles from the frames recorded since the last update.
+     */
+    private void updateFrameOverlay(final long now) {
+
+        final FrameProfiler.Histogram recentFrames = profiler.getRecent();
+        if (recentFrames.getCount() > 0) {
+            fpsLabel.setText(String.format(Locale.ROOT, "%.1f",
+                    recentFrames.getCount() * 1e9 / (now - lastOverlayNanos)));
+            metrics.updateFrameTimes(recentFrames);
+            frameTimesLabel.setText(String.format(Locale.ROOT, "%.1f / %.1f / %.1f ms",
+                    metrics.getFrameTimeP50Millis(), metrics.getFrameTimeP95Millis(),
+                    metrics.getFrameTimeP99Millis()));
+        }
+        recentFrames.reset();
+        lastOverlayNanos = now;
+    }
+
     /**
      * Initializes the sliders that set the camera near and far clip values.
      */
@@ -141,12 +440,83 @@ public class ViewerController implements Initializable {
         farClipLabel.textProperty().bind(model.getCamera().farClipProperty().asString());
     }
     
+    /**
+     * Initializes the service loading files in the background.
+     */
+    private void initializeLoadService() {
+
+        // the models of a multi-model scene share their geometry
+        final ImportOptions options = new ImportOptions();
+        options.setInstancer(instancer);
+        // large files are reduced or refused before parsing rather than running out of memory
+        options.setMemoryManager(memoryManager);
+        model.setMemoryManager(memoryManager);
+        loadService = new ModelLoadService(model, options);
+        if (ModelPrefetcher.isEnabled()) {
+            prefetcher = new ModelPrefetcher(options);
+        }
+
+        loadService.runningProperty().addListener(new ChangeListener<Boolean>() {
+
+            @Override
+            public void changed(final ObservableValue<? extends Boolean> ov, final Boolean wasRunning,
+                    final Boolean running) {
+                wake();
+            }
+        });
+        nearClipSlider.disableProperty().bind(loadService.runningProperty());
+        farClipSlider.disableProperty().bind(loadService.runningProperty());
+
+        loadService.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+
+            @Override
+            public void handle(final WorkerStateEvent event) {
+
+                final Group content = loadService.getValue();
+                final LoadMetrics loadMetrics = loadService.getMetrics();
+                final long start = System.nanoTime();
+                if (!loadService.getOptions().isProgressive()) {
+                    model.addModel(content);
+                }
+                model.endModel(BoundingVolumeHierarchy.get(content));
+                loadMetrics.endStage(LoadMetrics.Stage.ATTACH, start);
+                metrics.loadCompleted(loadMetrics);
+                updateLoadMetrics();
+                updateStatus("Loaded file " + loadService.getFile() + describeImport(content));
+                schedulePrefetch();
+            }
+        });
+
+        loadService.setOnFailed(new EventHandler<WorkerStateEvent>() {
+
+            @Override
+            public void handle(final WorkerStateEvent event) {
+
+                final Throwable e = loadService.getException();
+                model.abortModel();
+                if (e instanceof GeometryMemoryManager.BudgetExceededException) {
+                    updateStatus(e.getMessage());
+                    return;
+                }
+                if (e instanceof OutOfMemoryError) {
+                    updateStatus("Not enough memory to load file " + loadService.getFile());
+                } else if (e instanceof UnsatisfiedLinkError) {
+                    updateStatus("Dependency jfbxlib could not be loaded");
+                } else {
+                    updateStatus("Failed to load file " + loadService.getFile());
+                }
+                e.printStackTrace();
+            }
+        });
+    }
+
     /**
      * Initializes the progress indicator.
      */
     private void initializeProgressIndicator() {
         
-        progressIndicator.setVisible(false);        
+        progressIndicator.visibleProperty().bind(loadService.runningProperty());
+        progressIndicator.progressProperty().bind(loadService.progressProperty());
         
         progressIndicator.layoutXProperty().bind(subSceneContainer.widthProperty().divide(2).subtract(15));
         progressIndicator.layoutYProperty().bind(subSceneContainer.heightProperty().divide(2).subtract(15));
@@ -157,11 +527,7 @@ public class ViewerController implements Initializable {
      */
     private void addDragDropHandlers() {
         
-        final String[] supportedFormatRegex = Importer3D.getSupportedFormatExtensionFilters();
-        
-        for (int i = 0; i < supportedFormatRegex.length; i++) {
-            supportedFormatRegex[i] = "." + supportedFormatRegex[i].replaceAll("\\.", "\\.");
-        }
+        final ImporterRegistry registry = ImporterRegistry.getDefault();
         
         model.getSubScene().setOnDragOver(new EventHandler<DragEvent>() {
             
@@ -170,12 +536,10 @@ public class ViewerController implements Initializable {
                 Dragboard db = event.getDragboard();
                 if (db.hasFiles()) {
                     boolean hasSupportedFile = false;
-                    fileLoop: for (File file : db.getFiles()) {
-                        for (String format : supportedFormatRegex) {
-                            if (file.getName().toLowerCase().matches(format)) {
-                                hasSupportedFile = true;
-                                break fileLoop;
-                            }
+                    for (File file : db.getFiles()) {
+                        if (registry.isSupported(file.getName())) {
+                            hasSupportedFile = true;
+                            break;
                         }
                     }
                     if (hasSupportedFile) {
@@ -194,12 +558,10 @@ public class ViewerController implements Initializable {
                 boolean success = false;
                 if (db.hasFiles()) {
                     File supportedFile = null;
-                    fileLoop: for (File file : db.getFiles()) {
-                        for (String format : supportedFormatRegex) {
-                            if (file.getName().toLowerCase().matches(format)) {
-                                supportedFile = file;
-                                break fileLoop;
-                            }
+                    for (File file : db.getFiles()) {
+                        if (registry.isSupported(file.getName())) {
+                            supportedFile = file;
+                            break;
                         }
                     }
                     if (supportedFile != null) {
@@ -236,8 +598,13 @@ public class ViewerController implements Initializable {
     private void open() {
         
         FileChooser chooser = new FileChooser();
+        final ImporterRegistry registry = ImporterRegistry.getDefault();
         chooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter(SUPPORTED_FILES, Importer3D.getSupportedFormatExtensionFilters()));
+                new FileChooser.ExtensionFilter(SUPPORTED_FILES, registry.getExtensionFilters()));
+        for (FormatImporter importer : registry.getImporters()) {
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(importer.getDescription(),
+                    ImporterRegistry.getExtensionFilters(importer)));
+        }
         if (loadedPath != null && loadedPath.exists()) {
             chooser.setInitialDirectory(loadedPath.getAbsoluteFile().getParentFile());
         }
@@ -250,9 +617,38 @@ public class ViewerController implements Initializable {
         }
     }
     
+    @FXML
+    private void openPrevious() {
+        openNeighbour(-1);
+    }
+
+    @FXML
+    private void openNext() {
+        openNeighbour(1);
+    }
+
+    /**
+     * Loads a file next to the last loaded file, in the order of the file names of its directory.
+     *
+     * @param offset the position of the file relative to the last loaded file, negative for the previous files
+     */
+    private void openNeighbour(final int offset) {
+
+        final File neighbour = loadedPath != null ? ModelPrefetcher.getNeighbour(loadedPath, offset) : null;
+        if (neighbour != null) {
+            load(neighbour);
+        }
+    }
+
     @FXML
     private void toggleRotation() {
         model.toggleRotation();
+        wake();
+    }
+
+    @FXML
+    private void toggleMultiModel() {
+        model.setMultiModel(multiModelButton.isSelected());
     }
     
     /**
@@ -260,7 +656,9 @@ public class ViewerController implements Initializable {
      * Attemps to load a file using {@link Importer3D}.
      * 
      * <p>
-     * The loading is done in a background thread so the viewer doesn't appear to hang.
+     * The loading is done by a background service so the viewer doesn't appear to hang. A load still in progress is
+     * cancelled, so the last requested file is the one displayed. In multi-model mode the file is displayed beside
+     * the models already loaded. A file prefetched by the {@link ModelPrefetcher} is displayed at once.
      * </p>
      * 
      * @param file the file to be loaded
@@ -268,66 +666,99 @@ public class ViewerController implements Initializable {
     private void load(final File file) {
         
         loadedPath = file;
+        prefetchPending = false;
 
         updateStatus("");
-        disableControls(true);
-        model.setContent(null);
-        progressIndicator.setVisible(true);
-        
-        new Thread(new Runnable() {
-            
-            @Override public void run() {
-                try {
-                    Group content = Importer3D.load(file.toURI().toURL().toString());
-                    handleLoadResult(content, "Loaded file " + loadedPath);
-                } catch (OutOfMemoryError e) {
-                    handleLoadResult(null, "Not enough memory to load file " + loadedPath);
-                    e.printStackTrace();
-                } catch (UnsatisfiedLinkError e) {
-                    handleLoadResult(null, "Dependency jfbxlib could not be loaded");
-                    e.printStackTrace();
-                } catch (Throwable e) {
-                    handleLoadResult(null, "Failed to load file " + loadedPath);
-                    e.printStackTrace();
-                }
-            }
-        }).start();
+        if (!model.isMultiModel()) {
+            instancer.clear();
+        }
+        final Group prefetched = prefetcher != null ? prefetcher.take(file) : null;
+        if (prefetched != null) {
+            showPrefetched(file, prefetched);
+            return;
+        }
+        if (prefetcher != null) {
+            // the neighbours of another file are of no use, and the load gets the whole memory budget
+            prefetcher.clear();
+        }
+        model.beginModel();
+
+        loadService.setFile(file);
+        loadService.restart();
     }
 
     /**
-     * Updates the status bar text with the given string.
+     * Displays the content of a prefetched file in place of the load service.
      * 
-     * @param text the text to appear in the status bar
+     * @param file the prefetched file
+     * @param content the content of the file
      */
-    private void updateStatus(final String text) {
-        status.setText(text);
+    private void showPrefetched(final File file, final Group content) {
+
+        loadService.cancel();
+        final LoadMetrics loadMetrics = (LoadMetrics) content.getProperties().get(Importer3D.METRICS_PROPERTY);
+        final long start = System.nanoTime();
+        showingPrefetched = true;
+        try {
+            model.beginModel();
+            model.addModel(content);
+            model.endModel(BoundingVolumeHierarchy.get(content));
+        } finally {
+            showingPrefetched = false;
+        }
+        loadMetrics.endStage(LoadMetrics.Stage.ATTACH, start);
+        firstFrameMetrics = loadMetrics;
+        firstFramePulses = 0;
+        metrics.loadCompleted(loadMetrics);
+        updateLoadMetrics();
+        updateStatus("Loaded file " + file + ", prefetched" + describeImport(content));
+        schedulePrefetch();
     }
-    
+
     /**
-     * Handles the result of the load action.
+     * Describes how loaded content was imported, for the status bar.
      * 
      * @param content the loaded content
-     * @param status the new status text
+     * @return the description of the import, empty if there is nothing to report
      */
-    private void handleLoadResult(final Group content, final String status) {
-        
-        Platform.runLater(new Runnable() {
+    private static String describeImport(final Group content) {
 
-            @Override
-            public void run() {
-                model.setContent(content);
-                updateStatus(status);
-                disableControls(false);
-                progressIndicator.setVisible(false);
-            }
-        });
+        if (content.getProperties().containsKey(Importer3D.CACHE_HIT_PROPERTY)) {
+            return " from cache";
+        }
+        final StringBuilder description = new StringBuilder();
+        final Object weldResult = content.getProperties().get(Importer3D.WELD_RESULT_PROPERTY);
+        if (weldResult != null) {
+            description.append(", ").append(weldResult);
+        }
+        final Object memoryPlan = content.getProperties().get(Importer3D.MEMORY_PLAN_PROPERTY);
+        if (memoryPlan != null) {
+            description.append(", ").append(memoryPlan);
+        }
+        final Object instancingResult = content.getProperties().get(Importer3D.INSTANCING_RESULT_PROPERTY);
+        if (instancingResult instanceof MeshInstancer.Result
+                && ((MeshInstancer.Result) instancingResult).getSharedMeshes() > 0) {
+            description.append(", ").append(instancingResult);
+        }
+        return description.toString();
     }
-    
-    private void disableControls(boolean disabled) {
-        
-        openButton.setDisable(disabled);
-        nearClipSlider.setDisable(disabled);
-        farClipSlider.setDisable(disabled);
+
+    /**
+     * Updates the overlay showing the metrics of the last load.
+     */
+    private void updateLoadMetrics() {
+
+        final LoadMetrics loadMetrics = metrics.getLastLoad();
+        loadMetricsLabel.setText(loadMetrics != null ? loadMetrics.toString() : "");
+    }
+
+    /**
+     * Updates the status bar text with the given string.
+     * 
+     * @param text the text to appear in the status bar
+     */
+    private void updateStatus(final String text) {
+        status.setText(text);
     }
     
     private class Power10DoubleBinding extends DoubleBinding {
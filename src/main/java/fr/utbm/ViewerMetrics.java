@@ -0,0 +1,229 @@
+package fr.utbm;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Metrics of the viewer: the {@link LoadMetrics} of the last load, percentiles of the frame times and the CPU usage of
+ * the process.
+ *
+ * <p>
+ * The metrics are published over JMX so they can be collected from running viewers, with JConsole, Mission Control
+ * or any JMX agent.
+ * </p>
+ */
+public final class ViewerMetrics implements ViewerMetricsMXBean {
+
+    /**
+     * Name of the MBean of the viewer metrics.
+     */
+    public static final String OBJECT_NAME = "fr.utbm:type=ViewerMetrics";
+
+    private volatile LoadMetrics lastLoad;
+    private volatile long loadCount;
+    private volatile double frameTimeP50;
+    private volatile double frameTimeP95;
+    private volatile double frameTimeP99;
+    private volatile FrameProfiler profiler;
+    private volatile boolean idle;
+    private volatile double cpuUsage = -1;
+    private long lastCpuNanos = -1;
+    private long lastSampleNanos;
+
+    /**
+     * Creates the viewer metrics and registers them in the platform MBean server, replacing metrics registered by a
+     * previous viewer.
+     *
+     * @return the registered metrics
+     */
+    public static ViewerMetrics register() {
+
+        final ViewerMetrics metrics = new ViewerMetrics();
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        return metrics;
+    }
+
+    /**
+     * Records the metrics of a completed load.
+     *
+     * @param metrics the metrics of the load
+     */
+    public void loadCompleted(final LoadMetrics metrics) {
+
+        lastLoad = metrics;
+        loadCount++;
+    }
+
+    /**
+     * Updates the frame time percentiles from the histogram of the recent frames.
+     *
+     * @param recentFrames the histogram of the recent frames
+     */
+    public void updateFrameTimes(final FrameProfiler.Histogram recentFrames) {
+
+        frameTimeP50 = recentFrames.getPercentileMillis(50);
+        frameTimeP95 = recentFrames.getPercentileMillis(95);
+        frameTimeP99 = recentFrames.getPercentileMillis(99);
+    }
+
+    /**
+     * Sets the profiler recording the frames of the viewer, exported by {@link #exportFrameProfile(String)}.
+     *
+     * @param profiler the frame profiler
+     */
+    public void setFrameProfiler(final FrameProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Records whether the viewer stopped rendering frames because nothing changes on screen.
+     *
+     * @param idle {@code true} if the viewer is idle
+     */
+    public void setIdle(final boolean idle) {
+        this.idle = idle;
+    }
+
+    /**
+     * Samples the CPU time used by the process since the previous sample, typically every few seconds.
+     *
+     * @return the CPU usage since the previous sample in percent of one core, -1 on the first sample or if the JVM
+     *         does not report the CPU time of the process
+     */
+    public synchronized double sampleCpuUsage() {
+
+        final OperatingSystemMXBean system = ManagementFactory.getOperatingSystemMXBean();
+        if (!(system instanceof com.sun.management.OperatingSystemMXBean)) {
+            return -1;
+        }
+        final long cpuNanos = ((com.sun.management.OperatingSystemMXBean) system).getProcessCpuTime();
+        final long now = System.nanoTime();
+        if (lastCpuNanos >= 0 && cpuNanos >= 0 && now > lastSampleNanos) {
+            cpuUsage = (cpuNanos - lastCpuNanos) * 100.0 / (now - lastSampleNanos);
+        }
+        lastCpuNanos = cpuNanos;
+        lastSampleNanos = now;
+        return cpuUsage;
+    }
+
+    /**
+     * Gets the metrics of the last completed load.
+     *
+     * @return the metrics of the last load, or {@code null} if no file was loaded
+     */
+    public LoadMetrics getLastLoad() {
+        return lastLoad;
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    @Override
+    public String getLastFile() {
+
+        final LoadMetrics metrics = lastLoad;
+        return metrics != null && metrics.getFile() != null ? metrics.getFile().getPath() : null;
+    }
+
+    @Override
+    public long getLastBytes() {
+
+        final LoadMetrics metrics = lastLoad;
+        return metrics != null ? metrics.getBytes() : 0;
+    }
+
+    @Override
+    public long getLastPointCount() {
+
+        final LoadMetrics metrics = lastLoad;
+        return metrics != null ? metrics.getPointCount() : 0;
+    }
+
+    @Override
+    public long getLastFaceCount() {
+
+        final LoadMetrics metrics = lastLoad;
+        return metrics != null ? metrics.getFaceCount() : 0;
+    }
+
+    @Override
+    public Map<String, Long> getLastStageMillis() {
+
+        final LoadMetrics metrics = lastLoad;
+        return metrics != null ? metrics.getStageMillis() : Collections.<String, Long> emptyMap();
+    }
+
+    @Override
+    public long getLastLoadMillis() {
+
+        final LoadMetrics metrics = lastLoad;
+        return metrics != null ? metrics.getLoadNanos() / 1000000 : -1;
+    }
+
+    @Override
+    public long getLastFirstFrameMillis() {
+
+        final LoadMetrics metrics = lastLoad;
+        return metrics != null && metrics.getFirstFrameNanos() >= 0 ? metrics.getFirstFrameNanos() / 1000000 : -1;
+    }
+
+    @Override
+    public long getLastPeakHeapDelta() {
+
+        final LoadMetrics metrics = lastLoad;
+        return metrics != null ? metrics.getPeakHeapDelta() : 0;
+    }
+
+    @Override
+    public double getFrameTimeP50Millis() {
+        return frameTimeP50;
+    }
+
+    @Override
+    public double getFrameTimeP95Millis() {
+        return frameTimeP95;
+    }
+
+    @Override
+    public double getFrameTimeP99Millis() {
+        return frameTimeP99;
+    }
+
+    @Override
+    public boolean isIdle() {
+        return idle;
+    }
+
+    @Override
+    public double getCpuUsagePercent() {
+        return cpuUsage;
+    }
+
+    @Override
+    public void exportFrameProfile(final String file) throws IOException {
+
+        final FrameProfiler frameProfiler = profiler;
+        if (frameProfiler == null) {
+            throw new IOException("No frame profiler");
+        }
+        frameProfiler.export(new File(file));
+    }
+}
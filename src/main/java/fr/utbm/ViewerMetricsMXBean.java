@@ -0,0 +1,116 @@
+package fr.utbm;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Management interface of the {@link ViewerMetrics}, registered as {@value ViewerMetrics#OBJECT_NAME}.
+ */
+public interface ViewerMetricsMXBean {
+
+    /**
+     * Gets the number of files loaded since the start of the viewer.
+     *
+     * @return the number of loads
+     */
+    long getLoadCount();
+
+    /**
+     * Gets the path of the last loaded file.
+     *
+     * @return the path of the file, or {@code null} if no file was loaded
+     */
+    String getLastFile();
+
+    /**
+     * Gets the size of the last loaded file.
+     *
+     * @return the size of the file in bytes
+     */
+    long getLastBytes();
+
+    /**
+     * Gets the number of points of the last loaded file.
+     *
+     * @return the number of points
+     */
+    long getLastPointCount();
+
+    /**
+     * Gets the number of faces of the last loaded file.
+     *
+     * @return the number of faces
+     */
+    long getLastFaceCount();
+
+    /**
+     * Gets the time spent in each stage of the last load.
+     *
+     * @return the stage times in milliseconds by stage name
+     */
+    Map<String, Long> getLastStageMillis();
+
+    /**
+     * Gets the duration of the import of the last loaded file.
+     *
+     * @return the import time in milliseconds
+     */
+    long getLastLoadMillis();
+
+    /**
+     * Gets the time from the start of the last load to the first frame rendering its content.
+     *
+     * @return the time to the first frame in milliseconds, -1 if unknown
+     */
+    long getLastFirstFrameMillis();
+
+    /**
+     * Gets the highest heap use sampled during the last load, relative to the heap use at its start.
+     *
+     * @return the peak heap delta in bytes
+     */
+    long getLastPeakHeapDelta();
+
+    /**
+     * Gets the median frame time over the last frames.
+     *
+     * @return the 50th percentile of the frame times in milliseconds
+     */
+    double getFrameTimeP50Millis();
+
+    /**
+     * Gets the 95th percentile of the frame times over the last frames.
+     *
+     * @return the 95th percentile of the frame times in milliseconds
+     */
+    double getFrameTimeP95Millis();
+
+    /**
+     * Gets the 99th percentile of the frame times over the last frames.
+     *
+     * @return the 99th percentile of the frame times in milliseconds
+     */
+    double getFrameTimeP99Millis();
+
+    /**
+     * Whether the viewer stopped rendering frames because nothing changes on screen.
+     *
+     * @return {@code true} if the viewer is idle
+     */
+    boolean isIdle();
+
+    /**
+     * Gets the CPU usage of the process over the last few seconds.
+     *
+     * @return the CPU usage in percent of one core, -1 if unknown
+     */
+    double getCpuUsagePercent();
+
+    /**
+     * Exports the histogram of all the frame times, see {@link FrameProfiler#export(java.io.File)}.
+     *
+     * @param file the path of the file to write, in JSON if it ends with {@code .json}, in CSV otherwise
+     * @throws IOException if the file cannot be written
+     */
+    void exportFrameProfile(String file) throws IOException;
+}
@@ -2,12 +2,18 @@ package fr.utbm;
 
 import javafx.animation.Animation;
 import javafx.animation.Interpolator;
+import javafx.animation.PauseTransition;
 import javafx.animation.RotateTransition;
+import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Point3D;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.PerspectiveCamera;
@@ -16,26 +22,86 @@ import javafx.scene.SubScene;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
 import javafx.scene.paint.Color;
+import javafx.scene.paint.Material;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.Box;
+import javafx.scene.shape.DrawMode;
+import javafx.scene.shape.MeshView;
 import javafx.scene.transform.Rotate;
 import javafx.scene.transform.Translate;
 import javafx.util.Duration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Stores the content of the 3D scene including meshes, lights, and cameras.
  */
 public class ViewerModel {
-    
+
+    /**
+     * System property giving the frame rate under which the display is degraded while the camera moves, 0 to never
+     * degrade it.
+     */
+    public static final String MIN_FRAME_RATE_PROPERTY = "fr.utbm.minFrameRate";
+
+    /**
+     * System property enabling the hiding of the shapes outside the view frustum, {@code true} by default.
+     */
+    public static final String FRUSTUM_CULLING_PROPERTY = "fr.utbm.frustumCulling";
+
+    private static final int FULL_QUALITY = 0;
+    private static final int COARSEST_LEVEL_QUALITY = 1;
+    private static final int BOUNDING_BOX_QUALITY = 2;
+
+    // frames rendered after a quality change before the frame rate is trusted again
+    private static final int SETTLE_FRAMES = 10;
+    // frames above the minimum frame rate by the recovery margin before the quality is raised again
+    private static final int RECOVERY_FRAMES = 60;
+    private static final double RECOVERY_MARGIN = 1.5;
+    private static final Duration INTERACTION_IDLE_DELAY = Duration.millis(250);
+
+    // space between the models of a multi-model scene, relative to the width of the model on their left
+    private static final double MODEL_GAP = 0.1;
+
+    // initial angle of the camera around the X and Y axes, in degrees
+    static final double CAMERA_ANGLE = -20;
+
+    // framed content is seen as if its largest dimension was FRAMED_SIZE, from CAMERA_DISTANCE
+    private static final double FRAMED_SIZE = 25;
+    static final double CAMERA_DISTANCE = 60;
+
     private final ObjectProperty<Node> contentProperty = new SimpleObjectProperty<>();
     private final Group root = new Group();
     private final SubScene subScene;
     private final PerspectiveCamera camera = new PerspectiveCamera(true);
-    private final Rotate cameraXRotate = new Rotate(-20, 0, 0, 0, Rotate.X_AXIS);
-    private final Rotate cameraYRotate = new Rotate(-20, 0, 0, 0, Rotate.Y_AXIS);
+    private final Rotate cameraXRotate = new Rotate(CAMERA_ANGLE, 0, 0, 0, Rotate.X_AXIS);
+    private final Rotate cameraYRotate = new Rotate(CAMERA_ANGLE, 0, 0, 0, Rotate.Y_AXIS);
     private final Translate cameraPosition = new Translate(0, 0, -20);
     private double dragStartX, dragStartY, dragStartRotateX, dragStartRotateY;
-    private RotateTransition rotateTransition;
+    private final RotateTransition rotateTransition = new RotateTransition();
     private boolean isRotating;
     private double scaleFactor = 1;
+    private double minFrameRate = Double.parseDouble(System.getProperty(MIN_FRAME_RATE_PROPERTY, "30"));
+    private final PauseTransition interactionIdle = new PauseTransition(INTERACTION_IDLE_DELAY);
+    private boolean interacting;
+    private int quality = FULL_QUALITY;
+    private int interactionQuality = FULL_QUALITY;
+    private int framesSinceQualityChange;
+    private int comfortableFrames;
+    private int recoveryFrames = RECOVERY_FRAMES;
+    private boolean recovered;
+    private Box boundingBoxProxy;
+    private boolean multiModel;
+    private Group models;
+    private Group currentModel;
+    private boolean frustumCulling = Boolean.parseBoolean(System.getProperty(FRUSTUM_CULLING_PROPERTY, "true"));
+    private boolean cullingScheduled;
+    private boolean levelsOfDetailScheduled;
+    private final ObjectProperty<MeshView> selectionProperty = new SimpleObjectProperty<>();
+    private final PhongMaterial selectionMaterial = new PhongMaterial(Color.ORANGE);
+    private Material selectedMaterial;
+    private GeometryMemoryManager memoryManager;
 
     /**
      * Creates a content model for the 3D scene.
@@ -52,21 +118,35 @@ public class ViewerModel {
         subScene.setCamera(camera);
         root.getChildren().add(camera);
 
+        // a single transition, only running while rotation is on, so a static scene gets no animation pulse
+        rotateTransition.setAxis(Rotate.Y_AXIS);
+        rotateTransition.setDelay(Duration.millis(4));
+        rotateTransition.setDuration(Duration.millis(5000));
+        rotateTransition.setCycleCount(Animation.INDEFINITE);
+        rotateTransition.setAutoReverse(false);
+        rotateTransition.setInterpolator(Interpolator.LINEAR);
+        rotateTransition.setByAngle(360);
+
         subScene.addEventHandler(MouseEvent.ANY, new EventHandler<MouseEvent>() {
             
             @Override
             public void handle(final MouseEvent event) {
                 
                 if (event.getEventType() == MouseEvent.MOUSE_PRESSED) {
+                    interact();
                     dragStartX = event.getSceneX();
                     dragStartY = event.getSceneY();
                     dragStartRotateX = cameraXRotate.getAngle();
                     dragStartRotateY = cameraYRotate.getAngle();
                 } else if (event.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+                    interact();
                     double xDelta = event.getSceneX() - dragStartX;
                     double yDelta = event.getSceneY() - dragStartY;
                     cameraXRotate.setAngle(dragStartRotateX - (yDelta * 0.7));
                     cameraYRotate.setAngle(dragStartRotateY + (xDelta * 0.7));
+                } else if (event.getEventType() == MouseEvent.MOUSE_CLICKED && event.isStillSincePress()) {
+                    final BoundingVolumeHierarchy.Hit hit = pick(event.getX(), event.getY());
+                    selectionProperty.set(hit != null ? hit.getMeshView() : null);
                 }
             }
         });
@@ -76,34 +156,102 @@ public class ViewerModel {
             @Override
             public void handle(final ScrollEvent event) {
                 
+                interact();
                 double z = cameraPosition.getZ() - (event.getDeltaY() * 0.1 * scaleFactor);
                 z = Math.min(z, 0);
                 cameraPosition.setZ(z);
             }
         });
         
+        interactionIdle.setOnFinished(new EventHandler<ActionEvent>() {
+
+            @Override
+            public void handle(final ActionEvent event) {
+                interacting = false;
+                setQuality(FULL_QUALITY);
+            }
+        });
+
+        // the distance of each mesh to the camera changes as the camera orbits or the content rotates
+        final ChangeListener<Object> viewListener = new ChangeListener<Object>() {
+
+            @Override
+            public void changed(final ObservableValue<? extends Object> ov, final Object oldValue,
+                    final Object newValue) {
+                scheduleLevelsOfDetail();
+            }
+        };
+        cameraXRotate.angleProperty().addListener(viewListener);
+        cameraYRotate.angleProperty().addListener(viewListener);
+        cameraPosition.zProperty().addListener(viewListener);
+        camera.fieldOfViewProperty().addListener(viewListener);
+        subScene.heightProperty().addListener(viewListener);
+
+        final ChangeListener<Object> cullingListener = new ChangeListener<Object>() {
+
+            @Override
+            public void changed(final ObservableValue<? extends Object> ov, final Object oldValue,
+                    final Object newValue) {
+                scheduleCulling();
+            }
+        };
+        cameraXRotate.angleProperty().addListener(cullingListener);
+        cameraYRotate.angleProperty().addListener(cullingListener);
+        cameraPosition.zProperty().addListener(cullingListener);
+        camera.nearClipProperty().addListener(cullingListener);
+        camera.farClipProperty().addListener(cullingListener);
+        camera.fieldOfViewProperty().addListener(cullingListener);
+        subScene.widthProperty().addListener(cullingListener);
+        subScene.heightProperty().addListener(cullingListener);
+
+        selectionProperty.addListener(new ChangeListener<MeshView>() {
+
+            @Override
+            public void changed(final ObservableValue<? extends MeshView> ov, final MeshView oldSelection,
+                    final MeshView newSelection) {
+
+                if (oldSelection != null) {
+                    oldSelection.setMaterial(selectedMaterial);
+                }
+                if (newSelection != null) {
+                    selectedMaterial = newSelection.getMaterial();
+                    newSelection.setMaterial(selectionMaterial);
+                }
+            }
+        });
+
         contentProperty.addListener(new ChangeListener<Node>() {
 
             @Override
             public void changed(final ObservableValue<? extends Node> ov, final Node oldContent, final Node newContent) {
                 
                 root.getChildren().remove(oldContent);
+                rotateTransition.stop();
+                rotateTransition.setNode(null);
+                selectionProperty.set(null);
+                if (oldContent != null) {
+                    oldContent.setVisible(true);
+                    oldContent.localToSceneTransformProperty().removeListener(cullingListener);
+                    oldContent.localToSceneTransformProperty().removeListener(viewListener);
+                    releaseLater(oldContent);
+                }
+                removeBoundingBoxProxy();
+                quality = FULL_QUALITY;
+                interactionQuality = FULL_QUALITY;
+                recoveryFrames = RECOVERY_FRAMES;
+                recovered = false;
                 
                 if (newContent!=null) {
+                    // shapes are picked through their bounding volume hierarchy, see pick
+                    newContent.setMouseTransparent(true);
+                    newContent.localToSceneTransformProperty().addListener(cullingListener);
+                    newContent.localToSceneTransformProperty().addListener(viewListener);
                     root.getChildren().add(newContent);
     
                     adjustForSize();             
+                    updateLevelsOfDetail();
                     
-                    rotateTransition = new RotateTransition();
-                    rotateTransition.setAxis(Rotate.Y_AXIS);
-                    rotateTransition.setDelay(Duration.millis(4));
-                    rotateTransition.setDuration(Duration.millis(5000));
-                    rotateTransition.setCycleCount(Animation.INDEFINITE);
-                    rotateTransition.setAutoReverse(false);
-                    rotateTransition.setInterpolator(Interpolator.LINEAR);
-                    rotateTransition.setByAngle(360);
                     rotateTransition.setNode(newContent);
-    
                     if (isRotating) {
                         rotateTransition.play();
                     }
@@ -139,6 +287,426 @@ public class ViewerModel {
         contentProperty.set(content);
     }
 
+    /**
+     * Gets the manager accounting the meshes of the content.
+     * 
+     * @return the memory manager, or {@code null} if the meshes are not accounted
+     */
+    public GeometryMemoryManager getMemoryManager() {
+        return memoryManager;
+    }
+
+    /**
+     * Sets the manager accounting the meshes of the models added to the scene, and releasing them once the models are
+     * discarded.
+     * 
+     * @param memoryManager the memory manager, or {@code null} to leave the meshes to the garbage collector
+     */
+    public void setMemoryManager(final GeometryMemoryManager memoryManager) {
+        this.memoryManager = memoryManager;
+    }
+
+    /**
+     * Whether loaded models are added beside the models already displayed instead of replacing them.
+     * 
+     * @return {@code true} in multi-model mode
+     */
+    public boolean isMultiModel() {
+        return multiModel;
+    }
+
+    /**
+     * Enables or disables the multi-model mode, which applies from the next model.
+     * 
+     * @param multiModel {@code true} to add loaded models beside the models already displayed
+     */
+    public void setMultiModel(final boolean multiModel) {
+        this.multiModel = multiModel;
+    }
+
+    /**
+     * Starts displaying a new model, given by {@link #addModel(Node)} or {@link #addContentPart(Node)} then
+     * completed by {@link #endModel()}.
+     * 
+     * <p>
+     * In multi-model mode the models already displayed are kept, and the new one is placed beside them. Otherwise the
+     * content of the scene is cleared.
+     * </p>
+     */
+    public void beginModel() {
+
+        // parts of a model whose load was cancelled
+        removeCurrentModel();
+        if (multiModel) {
+            currentModel = new Group();
+        } else {
+            // released at once, so the memory budget of the next load counts it free
+            final Node content = contentProperty.get();
+            setContent(null);
+            release(content);
+        }
+    }
+
+    /**
+     * Adds the whole content of the model being loaded.
+     * 
+     * @param model the content of the model
+     */
+    public void addModel(final Node model) {
+
+        if (memoryManager != null) {
+            memoryManager.register(model);
+        }
+        if (currentModel != null) {
+            currentModel.getChildren().add(model);
+            attachCurrentModel();
+        } else {
+            setContent(model);
+        }
+    }
+
+    /**
+     * Adds a part to the model being loaded, for content loaded progressively.
+     * 
+     * <p>
+     * The first part becomes the content of the scene, wrapped in a group, and the view is framed on it. Later parts
+     * are added to that group without framing again, see {@link #adjustForSize()}.
+     * </p>
+     * 
+     * @param part the part to add
+     */
+    public void addContentPart(final Node part) {
+
+        if (memoryManager != null) {
+            memoryManager.register(part);
+        }
+        if (currentModel != null) {
+            currentModel.getChildren().add(part);
+            attachCurrentModel();
+            updateLevelsOfDetail(part);
+            return;
+        }
+        final Node content = contentProperty.get();
+        if (content instanceof Group) {
+            ((Group) content).getChildren().add(part);
+            updateLevelsOfDetail(part);
+        } else {
+            setContent(new Group(part));
+        }
+    }
+
+    /**
+     * Completes the model being loaded, placing it beside the other models in multi-model mode and framing the
+     * scene.
+     * 
+     * @param partsHierarchy the bounding volume hierarchy of the parts given by {@link #addContentPart(Node)}, or
+     *            {@code null} to build it if the model has none
+     */
+    public void endModel(final BoundingVolumeHierarchy partsHierarchy) {
+
+        final Node model = currentModel != null ? currentModel : contentProperty.get();
+        if (model instanceof Group) {
+            final List<Node> owners = new ArrayList<>();
+            collectHierarchyOwners(model, owners);
+            if (owners.isEmpty()) {
+                if (partsHierarchy != null) {
+                    BoundingVolumeHierarchy.attach(model, partsHierarchy);
+                } else {
+                    BoundingVolumeHierarchy.build((Group) model);
+                }
+            }
+        }
+        if (currentModel != null) {
+            layoutModels();
+            currentModel = null;
+        }
+        adjustForSize();
+        updateLevelsOfDetail();
+        scheduleCulling();
+    }
+
+    /**
+     * Removes the model being loaded after its load failed.
+     */
+    public void abortModel() {
+
+        if (currentModel != null) {
+            removeCurrentModel();
+        } else {
+            setContent(null);
+        }
+    }
+
+    /**
+     * Displays the model being loaded beside the other models once it has content.
+     */
+    private void attachCurrentModel() {
+
+        if (currentModel.getParent() != null) {
+            return;
+        }
+        final Node content = contentProperty.get();
+        if (content != null && content == models) {
+            models.getChildren().add(currentModel);
+            layoutModels();
+            adjustForSize();
+            updateLevelsOfDetail();
+            return;
+        }
+        // the model displayed in single model mode becomes the first model of the scene
+        final Group newModels = new Group();
+        setContent(null);
+        if (content != null) {
+            newModels.getChildren().add(content);
+        }
+        newModels.getChildren().add(currentModel);
+        models = newModels;
+        layoutModels();
+        setContent(newModels);
+    }
+
+    private void removeCurrentModel() {
+
+        if (currentModel != null && models != null) {
+            models.getChildren().remove(currentModel);
+        }
+        release(currentModel);
+        currentModel = null;
+    }
+
+    /**
+     * Releases the meshes of content replaced in the scene once the change is complete, unless the content was moved
+     * elsewhere in the scene, like the single model becoming the first model of a multi-model scene.
+     * 
+     * @param oldContent the replaced content
+     */
+    private void releaseLater(final Node oldContent) {
+
+        if (memoryManager == null) {
+            return;
+        }
+        Platform.runLater(new Runnable() {
+
+            @Override
+            public void run() {
+                if (oldContent.getParent() == null && oldContent != contentProperty.get()) {
+                    release(oldContent);
+                }
+            }
+        });
+    }
+
+    private void release(final Node content) {
+
+        if (memoryManager != null && content != null) {
+            memoryManager.release(content);
+        }
+    }
+
+    /**
+     * Places the models of the scene side by side along the x axis, centered on the other axes.
+     */
+    private void layoutModels() {
+
+        if (models == null) {
+            return;
+        }
+        double x = 0;
+        for (Node model : models.getChildren()) {
+            final Bounds bounds = computeBounds(model);
+            if (bounds.isEmpty()) {
+                continue;
+            }
+            model.setTranslateX(x - bounds.getMinX());
+            model.setTranslateY(-(bounds.getMinY() + bounds.getMaxY()) / 2);
+            model.setTranslateZ(-(bounds.getMinZ() + bounds.getMaxZ()) / 2);
+            model.setRotate(0);
+            x += bounds.getWidth() * (1 + MODEL_GAP);
+        }
+    }
+
+    /**
+     * Whether the shapes outside the view frustum are hidden.
+     * 
+     * @return {@code true} if frustum culling is enabled
+     */
+    public boolean isFrustumCulling() {
+        return frustumCulling;
+    }
+
+    /**
+     * Enables or disables the hiding of the shapes outside the view frustum.
+     * 
+     * @param frustumCulling {@code true} to hide the shapes outside the view frustum
+     */
+    public void setFrustumCulling(final boolean frustumCulling) {
+
+        this.frustumCulling = frustumCulling;
+        final Node content = contentProperty.get();
+        if (!frustumCulling && content != null) {
+            final List<Node> owners = new ArrayList<>();
+            collectHierarchyOwners(content, owners);
+            for (Node owner : owners) {
+                BoundingVolumeHierarchy.get(owner).showAll();
+            }
+        }
+        scheduleCulling();
+    }
+
+    /**
+     * Updates the culling once, after all the changes of the camera of the current event.
+     */
+    private void scheduleCulling() {
+
+        if (cullingScheduled) {
+            return;
+        }
+        cullingScheduled = true;
+        Platform.runLater(new Runnable() {
+
+            @Override
+            public void run() {
+                cullingScheduled = false;
+                updateCulling();
+            }
+        });
+    }
+
+    /**
+     * Updates the levels of detail once, after all the changes of the camera and of the content of the current event.
+     */
+    private void scheduleLevelsOfDetail() {
+
+        if (levelsOfDetailScheduled) {
+            return;
+        }
+        levelsOfDetailScheduled = true;
+        Platform.runLater(new Runnable() {
+
+            @Override
+            public void run() {
+                levelsOfDetailScheduled = false;
+                updateLevelsOfDetail();
+            }
+        });
+    }
+
+    /**
+     * Hides the shapes of the content outside the view frustum, using the bounding volume hierarchies of its models.
+     * 
+     * @return the number of shapes displayed, -1 if culling is disabled
+     */
+    public int updateCulling() {
+
+        final Node content = contentProperty.get();
+        if (!frustumCulling || content == null) {
+            return -1;
+        }
+        final List<Node> owners = new ArrayList<>();
+        collectHierarchyOwners(content, owners);
+        final Point3D[] sceneCorners = computeFrustumCorners();
+        final Point3D[] corners = new Point3D[sceneCorners.length];
+        int visible = 0;
+        for (Node owner : owners) {
+            for (int i = 0; i < corners.length; i++) {
+                corners[i] = owner.sceneToLocal(sceneCorners[i]);
+            }
+            visible += BoundingVolumeHierarchy.get(owner).cull(corners);
+        }
+        return visible;
+    }
+
+    /**
+     * Finds the shape under a point of the sub-scene.
+     * 
+     * <p>
+     * The content is mouse transparent, so JavaFX does not test its shapes one by one on each mouse event; the ray
+     * under the point is tested against the bounding volume hierarchies of the models instead.
+     * </p>
+     * 
+     * @param x the x coordinate in the sub-scene
+     * @param y the y coordinate in the sub-scene
+     * @return the nearest shape hit, or {@code null} if there is none
+     */
+    public BoundingVolumeHierarchy.Hit pick(final double x, final double y) {
+
+        final Node content = contentProperty.get();
+        if (content == null || subScene.getWidth() <= 0 || subScene.getHeight() <= 0) {
+            return null;
+        }
+        final double[] tangents = computeFieldOfViewTangents();
+        final Point3D origin = camera.localToScene(0, 0, 0);
+        final Point3D through = camera.localToScene((2 * x / subScene.getWidth() - 1) * tangents[0],
+                (2 * y / subScene.getHeight() - 1) * tangents[1], 1);
+
+        final List<Node> owners = new ArrayList<>();
+        collectHierarchyOwners(content, owners);
+        BoundingVolumeHierarchy.Hit nearest = null;
+        for (Node owner : owners) {
+            final Point3D localOrigin = owner.sceneToLocal(origin);
+            final Point3D localDirection = owner.sceneToLocal(through).subtract(localOrigin);
+            final BoundingVolumeHierarchy.Hit hit = BoundingVolumeHierarchy.get(owner).pick(localOrigin,
+                    localDirection);
+            if (hit != null && (nearest == null || hit.getDistance() < nearest.getDistance())) {
+                nearest = hit;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Property for the shape selected by clicking it, displayed with a highlight material.
+     * 
+     * @return the selection property
+     */
+    public ObjectProperty<MeshView> selectionProperty() {
+        return selectionProperty;
+    }
+
+    /**
+     * Finds the nodes of the content having a bounding volume hierarchy, without looking inside them.
+     */
+    private static void collectHierarchyOwners(final Node node, final List<Node> owners) {
+
+        if (BoundingVolumeHierarchy.get(node) != null) {
+            owners.add(node);
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                collectHierarchyOwners(child, owners);
+            }
+        }
+    }
+
+    /**
+     * Computes the corners of the view frustum in scene coordinates, near plane corners first.
+     */
+    private Point3D[] computeFrustumCorners() {
+
+        final double[] tangents = computeFieldOfViewTangents();
+        final double[] distances = { camera.getNearClip(), camera.getFarClip() };
+        final double[][] signs = { { -1, -1 }, { 1, -1 }, { 1, 1 }, { -1, 1 } };
+        final Point3D[] corners = new Point3D[8];
+        for (int plane = 0; plane < 2; plane++) {
+            final double distance = distances[plane];
+            for (int corner = 0; corner < 4; corner++) {
+                corners[plane * 4 + corner] = camera.localToScene(signs[corner][0] * tangents[0] * distance,
+                        signs[corner][1] * tangents[1] * distance, distance);
+            }
+        }
+        return corners;
+    }
+
+    /**
+     * Computes the horizontal and vertical tangents of half the field of view of the camera.
+     */
+    private double[] computeFieldOfViewTangents() {
+
+        final double aspectRatio = subScene.getHeight() > 0 ? subScene.getWidth() / subScene.getHeight() : 1;
+        final double tangent = Math.tan(Math.toRadians(camera.getFieldOfView() / 2));
+        return camera.isVerticalFieldOfView() ? new double[] { tangent * aspectRatio, tangent }
+                : new double[] { tangent, tangent / aspectRatio };
+    }
+
     /**
      * Gets the sub-scene that the 3D model is displayed in.
      * 
@@ -148,6 +716,33 @@ public class ViewerModel {
         return subScene;
     }
 
+    /**
+     * Whether the scene is animated or moved by the user, so it changes from frame to frame.
+     * 
+     * @return {@code true} while the content rotates or the camera is moved
+     */
+    public boolean isAnimating() {
+        return isRotating || interacting;
+    }
+
+    /**
+     * Whether the content rotates.
+     * 
+     * @return {@code true} if rotation is on
+     */
+    public boolean isRotating() {
+        return isRotating;
+    }
+
+    /**
+     * Whether the user moves the camera, until no input is received for a short delay.
+     * 
+     * @return {@code true} while the camera is moved
+     */
+    public boolean isInteracting() {
+        return interacting;
+    }
+
     /**
      * Toggles rotation of the content on and off.
      */
@@ -157,7 +752,9 @@ public class ViewerModel {
             rotateTransition.pause();
             isRotating = false;
         } else {
-            rotateTransition.play();
+            if (rotateTransition.getNode() != null) {
+                rotateTransition.play();
+            }
             isRotating = true;
         }
     }
@@ -174,20 +771,252 @@ public class ViewerModel {
     /**
      * Sets initial translate values and camera settings based on the size of the model.
      */
-    private void adjustForSize() {
+    public void adjustForSize() {
         
         Node content = contentProperty.get();
+        if (content == null) {
+            return;
+        }
         
-        double width = content.getLayoutBounds().getWidth();
-        double height = content.getLayoutBounds().getHeight();
-        double depth = content.getLayoutBounds().getDepth();
+        final double scale = frame(content);
+        if (scale == 0) {
+            return;
+        }
+        scaleFactor = scale;
         
-        content.setTranslateX(-content.getLayoutBounds().getMinX() - width / 2);
-        content.setTranslateY(-content.getLayoutBounds().getMinY() - height / 2);
-        content.setTranslateZ(-content.getLayoutBounds().getMinZ() - depth / 2);
+        cameraPosition.setZ(-CAMERA_DISTANCE * scaleFactor);
+    }
+
+    /**
+     * Centers content on the origin, to be seen from {@link #CAMERA_DISTANCE} times the returned scale by a camera
+     * turned by {@link #CAMERA_ANGLE} around the X and Y axes, as in the viewer.
+     *
+     * @param content the content to frame, whose translation is changed
+     * @return the scale of the content, or 0 if it has no bounds
+     */
+    static double frame(final Node content) {
+
+        final Bounds bounds = computeBounds(content);
+        if (bounds.isEmpty()) {
+            return 0;
+        }
+        double width = bounds.getWidth();
+        double height = bounds.getHeight();
+        double depth = bounds.getDepth();
         
-        scaleFactor = Math.max(Math.max(width, height), depth)/25;
+        content.setTranslateX(-bounds.getMinX() - width / 2);
+        content.setTranslateY(-bounds.getMinY() - height / 2);
+        content.setTranslateZ(-bounds.getMinZ() - depth / 2);
         
-        cameraPosition.setZ(-60*scaleFactor);
+        return Math.max(Math.max(width, height), depth) / FRAMED_SIZE;
+    }
+
+    /**
+     * Computes the bounds of a node in its own coordinates.
+     * 
+     * <p>
+     * The bounds of models come from their bounding volume hierarchy, and the bounds of the parts of models being
+     * loaded from their properties, both computed by the import off the JavaFX application thread. The JavaFX bounds
+     * would go through all the points of the displayed meshes, and change with culling and levels of detail; they are
+     * only used for nodes the import did not describe.
+     * </p>
+     */
+    private static Bounds computeBounds(final Node node) {
+
+        final BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.get(node);
+        if (hierarchy != null) {
+            return hierarchy.getBounds();
+        }
+        if (!(node instanceof Group)) {
+            final Object bounds = node.hasProperties() ? node.getProperties().get(Importer3D.BOUNDS_PROPERTY) : null;
+            return bounds instanceof Bounds ? (Bounds) bounds : node.getLayoutBounds();
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double maxZ = Double.NEGATIVE_INFINITY;
+        for (Node child : ((Group) node).getChildren()) {
+            final Bounds childBounds = computeBounds(child);
+            if (childBounds.isEmpty()) {
+                continue;
+            }
+            final Bounds bounds = child.localToParent(childBounds);
+            minX = Math.min(minX, bounds.getMinX());
+            minY = Math.min(minY, bounds.getMinY());
+            minZ = Math.min(minZ, bounds.getMinZ());
+            maxX = Math.max(maxX, bounds.getMaxX());
+            maxY = Math.max(maxY, bounds.getMaxY());
+            maxZ = Math.max(maxZ, bounds.getMaxZ());
+        }
+        if (minX > maxX) {
+            return new BoundingBox(0, 0, 0, -1, -1, -1);
+        }
+        return new BoundingBox(minX, minY, minZ, maxX - minX, maxY - minY, maxZ - minZ);
+    }
+
+    /**
+     * Displays, for each mesh of the content having levels of detail, the level matching its size on screen.
+     * 
+     * <p>
+     * The size on screen is estimated from the bounding sphere of the mesh, the distance between its center and the
+     * camera, the vertical field of view and the height of the sub-scene.
+     * </p>
+     */
+    public void updateLevelsOfDetail() {
+
+        final Node content = contentProperty.get();
+        if (content != null) {
+            updateLevelsOfDetail(content);
+        }
+    }
+
+    private void updateLevelsOfDetail(final Node node) {
+
+        if (node instanceof MeshView) {
+            final MeshView meshView = (MeshView) node;
+            final LevelOfDetail levelOfDetail = LevelOfDetail.get(meshView);
+            if (levelOfDetail != null) {
+                final Point3D center = meshView.localToScene(levelOfDetail.getCenterX(), levelOfDetail.getCenterY(),
+                        levelOfDetail.getCenterZ());
+                final Point3D radiusEnd = meshView.localToScene(levelOfDetail.getCenterX() + levelOfDetail.getRadius(),
+                        levelOfDetail.getCenterY(), levelOfDetail.getCenterZ());
+                final double radius = center.distance(radiusEnd);
+                final double distance = center.distance(camera.localToScene(0, 0, 0));
+                final double screenSize = distance <= radius ? Double.POSITIVE_INFINITY
+                        : radius * subScene.getHeight()
+                                / (distance * Math.tan(Math.toRadians(camera.getFieldOfView() / 2)));
+                levelOfDetail.apply(meshView, quality >= COARSEST_LEVEL_QUALITY ? levelOfDetail.getLevelCount() - 1
+                        : levelOfDetail.selectLevel(screenSize));
+            }
+        } else if (node instanceof Group) {
+            for (Node child : ((Group) node).getChildren()) {
+                updateLevelsOfDetail(child);
+            }
+        }
+    }
+
+    /**
+     * Gets the frame rate under which the display is degraded while the camera moves.
+     * 
+     * @return the minimum frame rate, 0 if the display is never degraded
+     */
+    public double getMinFrameRate() {
+        return minFrameRate;
+    }
+
+    /**
+     * Sets the frame rate under which the display is degraded while the camera moves.
+     * 
+     * @param minFrameRate the minimum frame rate, 0 to never degrade the display
+     */
+    public void setMinFrameRate(final double minFrameRate) {
+        this.minFrameRate = minFrameRate;
+    }
+
+    /**
+     * Degrades the display while the camera moves if the frame rate falls under the minimum, called once per frame.
+     * 
+     * <p>
+     * Meshes first switch to their coarsest level of detail, then the whole content is replaced by its bounding box.
+     * Full quality is restored once the user stops moving the camera. The quality reached is kept for the next camera
+     * move of the same content, so it does not stutter again before degrading.
+     * </p>
+     * 
+     * <p>
+     * The quality is raised back one step after the frame rate stayed well above the minimum for a while, e.g. once
+     * the camera zoomed out of the dense part of a model. A raised quality degraded again waits twice as long before
+     * its next recovery, so the display does not keep switching between two qualities.
+     * </p>
+     * 
+     * @param frameRate the frame rate measured over the last frames
+     */
+    public void updateInteractionQuality(final double frameRate) {
+
+        if (!interacting || minFrameRate <= 0 || ++framesSinceQualityChange < SETTLE_FRAMES) {
+            return;
+        }
+        if (frameRate < minFrameRate) {
+            comfortableFrames = 0;
+            if (quality < BOUNDING_BOX_QUALITY) {
+                if (recovered) {
+                    recoveryFrames *= 2;
+                }
+                recovered = false;
+                setQuality(quality + 1);
+                interactionQuality = quality;
+            }
+        } else if (frameRate > minFrameRate * RECOVERY_MARGIN && quality > FULL_QUALITY) {
+            if (++comfortableFrames >= recoveryFrames) {
+                recovered = true;
+                setQuality(quality - 1);
+                interactionQuality = quality;
+            }
+        } else {
+            comfortableFrames = 0;
+        }
+    }
+
+    /**
+     * Records user input moving the camera, which lasts until no input is received for a short delay.
+     */
+    private void interact() {
+
+        if (!interacting) {
+            interacting = true;
+            setQuality(interactionQuality);
+        }
+        interactionIdle.playFromStart();
+    }
+
+    private void setQuality(final int newQuality) {
+
+        framesSinceQualityChange = 0;
+        comfortableFrames = 0;
+        if (newQuality == quality) {
+            return;
+        }
+        quality = newQuality;
+        final Node content = contentProperty.get();
+        if (content == null) {
+            return;
+        }
+        updateLevelsOfDetail();
+        if (quality >= BOUNDING_BOX_QUALITY) {
+            showBoundingBoxProxy(content);
+        } else {
+            removeBoundingBoxProxy();
+            content.setVisible(true);
+        }
+    }
+
+    /**
+     * Hides the content behind a wireframe box of its bounds, which follows its translation and rotation.
+     */
+    private void showBoundingBoxProxy(final Node content) {
+
+        final Bounds bounds = computeBounds(content);
+        boundingBoxProxy = new Box(bounds.getWidth(), bounds.getHeight(), bounds.getDepth());
+        boundingBoxProxy.setDrawMode(DrawMode.LINE);
+        boundingBoxProxy.setMaterial(new PhongMaterial(Color.GRAY));
+        final double centerX = (bounds.getMinX() + bounds.getMaxX()) / 2;
+        final double centerY = (bounds.getMinY() + bounds.getMaxY()) / 2;
+        final double centerZ = (bounds.getMinZ() + bounds.getMaxZ()) / 2;
+        boundingBoxProxy.translateXProperty().bind(content.translateXProperty().add(centerX));
+        boundingBoxProxy.translateYProperty().bind(content.translateYProperty().add(centerY));
+        boundingBoxProxy.translateZProperty().bind(content.translateZProperty().add(centerZ));
+        boundingBoxProxy.rotationAxisProperty().bind(content.rotationAxisProperty());
+        boundingBoxProxy.rotateProperty().bind(content.rotateProperty());
+        root.getChildren().add(boundingBoxProxy);
+        content.setVisible(false);
+    }
+
+    private void removeBoundingBoxProxy() {
+
+        if (boundingBoxProxy != null) {
+            root.getChildren().remove(boundingBoxProxy);
+            boundingBoxProxy = null;
+        }
     }
 }